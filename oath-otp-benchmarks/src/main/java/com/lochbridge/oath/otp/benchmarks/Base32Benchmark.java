@@ -0,0 +1,107 @@
+package com.lochbridge.oath.otp.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.BaseEncoding;
+import com.lochbridge.oath.otp.keyprovisioning.Base32;
+
+/**
+ * Compares the {@link Base32} codec with Guava's {@code BaseEncoding.base32()}
+ * on OTP secrets of typical sizes (10, 20 and 32 bytes, i.e. 16, 32 and 52
+ * characters), and on a 4 KiB bulk buffer.
+ * <p>
+ * Usage (from the project root):
+ * <pre>
+ * mvn -pl oath-otp-benchmarks -am package -DskipTests
+ * java -jar oath-otp-benchmarks/target/benchmarks.jar Base32Benchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Base32Benchmark {
+
+    private static final BaseEncoding GUAVA = BaseEncoding.base32();
+
+    @Param({ "10", "20", "32", "4096" })
+    public int length;
+
+    private byte[] bytes;
+    private String encoded;
+    private char[] encodedChars;
+    private byte[] encodedAscii;
+    private char[] charBuffer;
+    private byte[] byteBuffer;
+
+    @Setup
+    public void setUp() {
+        bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        encoded = GUAVA.encode(bytes);
+        encodedChars = encoded.toCharArray();
+        encodedAscii = encoded.getBytes(StandardCharsets.US_ASCII);
+        charBuffer = new char[encodedChars.length];
+        byteBuffer = new byte[length];
+    }
+
+    @Benchmark
+    public String encodeGuava() {
+        return GUAVA.encode(bytes);
+    }
+
+    @Benchmark
+    public String encodeString() {
+        return Base32.encode(bytes);
+    }
+
+    @Benchmark
+    public char[] encodeIntoArray() {
+        Base32.encode(bytes, 0, bytes.length, charBuffer, 0, true);
+        return charBuffer;
+    }
+
+    @Benchmark
+    public byte[] decodeGuava() {
+        return GUAVA.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] decodeString() {
+        return Base32.decode(encoded);
+    }
+
+    @Benchmark
+    public byte[] decodeLenientString() {
+        return Base32.decode(encoded, true);
+    }
+
+    @Benchmark
+    public byte[] decodeFromChars() {
+        Base32.decode(encodedChars, 0, encodedChars.length, byteBuffer, 0, false);
+        return byteBuffer;
+    }
+
+    @Benchmark
+    public byte[] decodeFromAscii() {
+        Base32.decode(encodedAscii, 0, encodedAscii.length, byteBuffer, 0, false);
+        return byteBuffer;
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.lochbridge.oath.otp.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.Enrollment;
+import com.lochbridge.oath.otp.keyprovisioning.EnrollmentPipeline;
+import com.lochbridge.oath.otp.keyprovisioning.EnrollmentPipelineBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.EnrollmentSink;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKeyGenerator;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRCodeWriter;
+
+/**
+ * Compares enrolling a batch of accounts (key, URI and QR code image each)
+ * serially, and with an {@link EnrollmentPipeline} rendering with
+ * {@code renderingThreads} threads. The gain is bounded by the number of
+ * available processors.
+ * <p>
+ * Usage (from the project root):
+ * <pre>
+ * mvn -pl oath-otp-benchmarks -am package -DskipTests
+ * java -jar oath-otp-benchmarks/target/benchmarks.jar EnrollmentPipelineBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EnrollmentPipelineBenchmark {
+
+    private static final int BATCH = 200;
+
+    @Param({ "1", "4" })
+    public int renderingThreads;
+
+    private final List<String> accounts = new ArrayList<String>(BATCH);
+    private OTPKeyGenerator generator;
+    private Blackhole blackhole;
+    private EnrollmentPipeline pipeline;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        for (int i = 0; i < BATCH; i++) {
+            accounts.add("user" + i + "@example.com");
+        }
+        this.generator = OTPKeyGenerator.newInstance();
+        this.blackhole = blackhole;
+        this.pipeline = EnrollmentPipelineBuilder.fromSink(new EnrollmentSink() {
+            @Override
+            public void write(Enrollment enrollment) {
+                EnrollmentPipelineBenchmark.this.blackhole.consume(enrollment.getImage());
+            }
+        }).issuer("Acme").keyGenerator(generator).renderingThreads(renderingThreads).build();
+    }
+
+    @Benchmark
+    public void serial(Blackhole blackhole) throws IOException {
+        List<OTPKey> keys = generator.generate(OTPType.TOTP, HmacShaAlgorithm.HMAC_SHA_1, BATCH);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        for (int i = 0; i < BATCH; i++) {
+            OTPAuthURI uri = OTPAuthURIBuilder.fromKey(keys.get(i)).label("Acme:" + accounts.get(i)).issuer("Acme").build();
+            out.reset();
+            QRCodeWriter.fromURI(uri).write(out);
+            blackhole.consume(out.toByteArray());
+        }
+    }
+
+    @Benchmark
+    public EnrollmentPipeline.Progress pipeline() throws IOException {
+        return pipeline.run(accounts);
+    }
+
+}
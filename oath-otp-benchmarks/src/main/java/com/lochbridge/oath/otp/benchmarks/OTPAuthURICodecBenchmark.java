@@ -0,0 +1,80 @@
+package com.lochbridge.oath.otp.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIReader;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIWriter;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * Compares loading a batch of provisioning records from their OTP Auth URI
+ * strings, and from the binary format of {@code OTPAuthURICodec} (read in place
+ * from a buffer, as from a memory-mapped file).
+ * <p>
+ * Usage (from the project root):
+ * <pre>
+ * mvn -pl oath-otp-benchmarks -am package -DskipTests
+ * java -jar oath-otp-benchmarks/target/benchmarks.jar OTPAuthURICodecBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OTPAuthURICodecBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private final String[] strings = new String[BATCH];
+    private ByteBuffer stream;
+
+    @Setup
+    public void setUp() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OTPAuthURIWriter writer = new OTPAuthURIWriter(out)) {
+            for (int i = 0; i < BATCH; i++) {
+                OTPAuthURI uri = OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", OTPType.TOTP))
+                        .label("Acme Corporation:user" + i + "@example.com").issuer("Acme Corporation").digits(6).timeStep(30000L).build();
+                strings[i] = uri.toUriString();
+                writer.write(uri);
+            }
+        }
+        stream = ByteBuffer.wrap(out.toByteArray());
+    }
+
+    @Benchmark
+    public void parseUriStrings(Blackhole blackhole) {
+        for (String s : strings) {
+            blackhole.consume(OTPAuthURI.parse(s));
+        }
+    }
+
+    @Benchmark
+    public void readBinaryStream(Blackhole blackhole) throws IOException {
+        OTPAuthURIReader reader = new OTPAuthURIReader(stream);
+        for (OTPAuthURI uri = reader.read(); uri != null; uri = reader.read()) {
+            blackhole.consume(uri);
+        }
+    }
+
+}
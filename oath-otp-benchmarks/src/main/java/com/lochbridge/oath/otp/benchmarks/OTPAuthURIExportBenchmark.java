@@ -0,0 +1,80 @@
+package com.lochbridge.oath.otp.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * Compares exporting a batch of OTP Auth URIs as strings encoded into a
+ * buffer, and written straight into the buffer with
+ * {@link OTPAuthURI#writeTo(ByteBuffer)}, into heap and direct buffers. Run with {@code -prof gc} to see
+ * the allocation rate of each.
+ * <p>
+ * Usage (from the project root):
+ * <pre>
+ * mvn -pl oath-otp-benchmarks -am package -DskipTests
+ * java -jar oath-otp-benchmarks/target/benchmarks.jar OTPAuthURIExportBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OTPAuthURIExportBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private final OTPAuthURI[] uris = new OTPAuthURI[BATCH];
+    private ByteBuffer buffer;
+
+    @Param({ "false", "true" })
+    public boolean direct;
+
+    @Setup
+    public void setUp() {
+        buffer = direct ? ByteBuffer.allocateDirect(256 * BATCH) : ByteBuffer.allocate(256 * BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            uris[i] = OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", OTPType.TOTP))
+                    .label("Acme Corporation:user" + i + "@example.com").issuer("Acme Corporation").digits(6).timeStep(30000L).build();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer toUriString() {
+        buffer.clear();
+        for (OTPAuthURI uri : uris) {
+            buffer.put(uri.toUriString().getBytes(StandardCharsets.UTF_8)).put((byte) '\n');
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer writeTo() {
+        buffer.clear();
+        for (OTPAuthURI uri : uris) {
+            uri.writeTo(buffer);
+            buffer.put((byte) '\n');
+        }
+        return buffer;
+    }
+
+}
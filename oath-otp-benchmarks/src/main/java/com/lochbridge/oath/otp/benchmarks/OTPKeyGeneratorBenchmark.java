@@ -0,0 +1,66 @@
+package com.lochbridge.oath.otp.benchmarks;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKeyGenerator;
+
+/**
+ * Compares generating batches of 20-byte OTP keys with a single shared
+ * {@link SecureRandom} (one call and one encoding per key, as enrollment used
+ * to) and with an {@link OTPKeyGenerator}. Run with several threads to see
+ * the contention on the shared instance, e.g. {@code -t 1} then {@code -t 4}.
+ * <p>
+ * Usage (from the project root):
+ * <pre>
+ * mvn -pl oath-otp-benchmarks -am package -DskipTests
+ * java -jar oath-otp-benchmarks/target/benchmarks.jar OTPKeyGeneratorBenchmark -t 4
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OTPKeyGeneratorBenchmark {
+
+    private final SecureRandom shared = new SecureRandom();
+    private final OTPKeyGenerator generator = OTPKeyGenerator.newInstance();
+
+    @Param({ "1", "100" })
+    public int batch;
+
+    @Benchmark
+    public List<OTPKey> sharedSecureRandom() {
+        List<OTPKey> keys = new ArrayList<OTPKey>(batch);
+        for (int i = 0; i < batch; i++) {
+            byte[] key = new byte[20];
+            shared.nextBytes(key);
+            keys.add(OTPKey.fromRawKey(key, OTPType.TOTP));
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public List<OTPKey> stripedGenerator() {
+        return generator.generate(OTPType.TOTP, HmacShaAlgorithm.HMAC_SHA_1, batch);
+    }
+
+}
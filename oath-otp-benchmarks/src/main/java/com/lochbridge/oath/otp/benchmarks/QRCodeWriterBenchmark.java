@@ -0,0 +1,107 @@
+package com.lochbridge.oath.otp.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRCodeCache;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRCodeWriter;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRRenderer;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRRendererBuilder;
+
+/**
+ * Compares rendering the QR code image of an {@link OTPAuthURI} as a PNG image
+ * with {@link QRCodeWriter}, and with ZXing's {@code MatrixToImageWriter} (a
+ * {@code BufferedImage} written by ImageIO), as well as an SVG document with
+ * {@link QRCodeWriter#writeSvg(Appendable)}, with a shared {@link QRRenderer},
+ * and serving it from a {@link QRCodeCache}.
+ * <p>
+ * Usage (from the project root):
+ * <pre>
+ * mvn -pl oath-otp-benchmarks -am package -DskipTests
+ * java -jar oath-otp-benchmarks/target/benchmarks.jar QRCodeWriterBenchmark -prof gc
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QRCodeWriterBenchmark {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+    private final StringBuilder svg = new StringBuilder(8192);
+    private final QRCodeCache cache = QRCodeCache.newInstance();
+    private final QRRenderer renderer = QRRendererBuilder.newBuilder().build();
+    private OTPAuthURI uri;
+
+    @Setup
+    public void setUp() {
+        uri = OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", OTPType.TOTP))
+                .label("Acme Corporation:alice@example.com").issuer("Acme Corporation").digits(6).timeStep(30000L).build();
+    }
+
+    @Benchmark
+    public int qrCodeWriter() throws IOException {
+        out.reset();
+        QRCodeWriter.fromURI(uri).write(out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int qrCodeWriterSvg() throws IOException {
+        svg.setLength(0);
+        QRCodeWriter.fromURI(uri).writeSvg(svg);
+        return svg.length();
+    }
+
+    @Benchmark
+    public int qrRenderer() throws IOException {
+        return renderer.render(uri).length;
+    }
+
+    @Benchmark
+    public int qrCodeCache() throws IOException {
+        out.reset();
+        cache.write(QRCodeWriter.fromURI(uri), out);
+        return out.size();
+    }
+
+    @Benchmark
+    public int matrixToImageWriter() throws IOException, WriterException {
+        out.reset();
+        Map<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
+        hints.put(EncodeHintType.CHARACTER_SET, StandardCharsets.UTF_8.name());
+        hints.put(EncodeHintType.MARGIN, Integer.valueOf(4));
+        hints.put(EncodeHintType.ERROR_CORRECTION, com.google.zxing.qrcode.decoder.ErrorCorrectionLevel.L);
+        BitMatrix matrix = new MultiFormatWriter().encode(uri.toUriString(), BarcodeFormat.QR_CODE, 250, 250, hints);
+        MatrixToImageWriter.writeToStream(matrix, "PNG", out);
+        return out.size();
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A pool of fixed-size direct {@link ByteBuffer}s. Direct buffers are costly to
+ * allocate and are only reclaimed by the garbage collector, so connections borrow
+ * their I/O buffers from this pool and return them when closed.
+ * <p>
+ * This class is not thread-safe: it is meant to be confined to a single I/O thread.
+ */
+final class DirectBufferPool {
+
+    private final int bufferSize;
+    private final int maximumPooled;
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+
+    /**
+     * Creates a new instance of {@code DirectBufferPool}.
+     *
+     * @param bufferSize
+     *            the capacity (in bytes) of the pooled buffers
+     * @param maximumPooled
+     *            the maximum number of idle buffers retained by the pool
+     *
+     * @throws IllegalArgumentException
+     *             if {@code bufferSize} is {@literal <} 1, or {@code maximumPooled} is {@literal <} 0.
+     */
+    DirectBufferPool(int bufferSize, int maximumPooled) {
+        Preconditions.checkArgument(bufferSize >= 1);
+        Preconditions.checkArgument(maximumPooled >= 0);
+        this.bufferSize = bufferSize;
+        this.maximumPooled = maximumPooled;
+    }
+
+    /**
+     * Returns a cleared buffer, either pooled or newly allocated.
+     *
+     * @return a cleared buffer.
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.pollFirst();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns the specified buffer (previously acquired from this pool) to the pool.
+     *
+     * @param buffer
+     *            the buffer
+     */
+    void release(ByteBuffer buffer) {
+        if (buffers.size() < maximumPooled) {
+            buffer.clear();
+            buffers.offerFirst(buffer);
+        }
+    }
+
+    /**
+     * Returns the number of idle buffers retained by the pool.
+     *
+     * @return the number of idle buffers retained by the pool.
+     */
+    int pooled() {
+        return buffers.size();
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The layout of the memory-mapped file shared by a {@link SharedMemoryValidationServer}
+ * and its {@link SharedMemoryValidationClient}. All fields are in native byte
+ * order, since both ends run on the same host.
+ * <p>
+ * The file starts with a 64-byte header (magic, version, and number of slots per
+ * ring, as int32s at offsets 0, 4 and 8), followed by the request ring, and then
+ * by the response ring. Each ring is a header of two cache lines (the producer and
+ * consumer positions), followed by its slots (see {@code SharedMemoryRing} for the
+ * sequencing protocol). A request slot is laid out as:
+ * </p>
+ *
+ * <pre>
+ * +0   sequence (int64)          +18  code length (uint8)
+ * +8   correlation ID (int64)    +24  code (US-ASCII, up to 16 bytes)
+ * +16  type (uint8)              +40  user ID (UTF-8, up to 88 bytes)
+ * +17  user ID length (uint8)
+ * </pre>
+ * <p>
+ * where {@code type} is one of the {@link ValidationProtocol} types. A response
+ * slot is laid out as:
+ * </p>
+ *
+ * <pre>
+ * +0   sequence (int64)          +24  drift (int32)
+ * +8   correlation ID (int64)    +28  status (uint8, a {@link ValidationReply.Status} wire code)
+ * +16  moving factor (int64)
+ * </pre>
+ * <p>
+ * The magic is written last (with release semantics) by the creator of the file,
+ * so a client observing it also observes initialized rings.
+ */
+public final class SharedMemoryLayout {
+
+    /** The magic number identifying a shared-memory validation file ("OTPR"). */
+    public static final int MAGIC = 0x4F545052;
+
+    /** The layout version. */
+    public static final int VERSION = 1;
+
+    /** The size (in bytes) of the file header. */
+    public static final int FILE_HEADER_SIZE = 64;
+
+    /** The size (in bytes) of a request slot. */
+    public static final int REQUEST_SLOT_SIZE = 128;
+
+    /** The size (in bytes) of a response slot. */
+    public static final int RESPONSE_SLOT_SIZE = 32;
+
+    /** The maximum number of slots per ring. */
+    public static final int MAX_SLOTS = 1 << 20;
+
+    /** The maximum length (in bytes) of the encoded user ID of a request. */
+    public static final int MAX_USER_ID_LENGTH = 88;
+
+    /** The maximum length (in bytes) of the encoded code of a request. */
+    public static final int MAX_CODE_LENGTH = 16;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int SLOTS_OFFSET = 8;
+
+    static final int REQUEST_CORRELATION_ID = 8;
+    static final int REQUEST_TYPE = 16;
+    static final int REQUEST_USER_ID_LENGTH = 17;
+    static final int REQUEST_CODE_LENGTH = 18;
+    static final int REQUEST_CODE = 24;
+    static final int REQUEST_USER_ID = 40;
+
+    static final int RESPONSE_CORRELATION_ID = 8;
+    static final int RESPONSE_MOVING_FACTOR = 16;
+    static final int RESPONSE_DRIFT = 24;
+    static final int RESPONSE_STATUS = 28;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer buffer;
+    private final int slots;
+    private final SharedMemoryRing requests;
+    private final SharedMemoryRing responses;
+
+    private SharedMemoryLayout(MappedByteBuffer buffer, int slots) {
+        this.buffer = buffer;
+        this.slots = slots;
+        int requestsOffset = FILE_HEADER_SIZE;
+        int responsesOffset = requestsOffset + SharedMemoryRing.size(slots, REQUEST_SLOT_SIZE);
+        this.requests = new SharedMemoryRing(buffer, requestsOffset, slots, REQUEST_SLOT_SIZE);
+        this.responses = new SharedMemoryRing(buffer, responsesOffset, slots, RESPONSE_SLOT_SIZE);
+    }
+
+    /**
+     * Returns the size (in bytes) of a file with the specified number of slots per ring.
+     *
+     * @param slots
+     *            the number of slots per ring
+     *
+     * @return the size (in bytes) of a file with the specified number of slots per ring.
+     */
+    public static int fileSize(int slots) {
+        return FILE_HEADER_SIZE + SharedMemoryRing.size(slots, REQUEST_SLOT_SIZE) + SharedMemoryRing.size(slots, RESPONSE_SLOT_SIZE);
+    }
+
+    /**
+     * Creates (or truncates) the file at the specified path, maps it, and
+     * initializes its (empty) rings.
+     */
+    static SharedMemoryLayout create(Path path, int slots) throws IOException {
+        Preconditions.checkArgument(slots >= 2 && slots <= MAX_SLOTS && Integer.bitCount(slots) == 1, "slots must be a power of 2 in [2, %s]", MAX_SLOTS);
+        int size = fileSize(slots);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        SharedMemoryLayout layout = new SharedMemoryLayout(buffer, slots);
+        buffer.putInt(VERSION_OFFSET, VERSION);
+        buffer.putInt(SLOTS_OFFSET, slots);
+        layout.requests.initialize();
+        layout.responses.initialize();
+        INT.setRelease(buffer, MAGIC_OFFSET, MAGIC);
+        return layout;
+    }
+
+    /**
+     * Maps the (already created) file at the specified path.
+     */
+    static SharedMemoryLayout attach(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < FILE_HEADER_SIZE) {
+                throw new IOException("Not a shared-memory validation file: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        if ((int) INT.getAcquire(buffer, MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("Not a shared-memory validation file: " + path);
+        }
+        if (buffer.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Unsupported shared-memory layout version: " + buffer.getInt(VERSION_OFFSET));
+        }
+        int slots = buffer.getInt(SLOTS_OFFSET);
+        if (slots < 2 || slots > MAX_SLOTS || Integer.bitCount(slots) != 1 || buffer.capacity() < fileSize(slots)) {
+            throw new IOException("Corrupt shared-memory validation file: " + path);
+        }
+        return new SharedMemoryLayout(buffer, slots);
+    }
+
+    MappedByteBuffer buffer() {
+        return buffer;
+    }
+
+    int slots() {
+        return slots;
+    }
+
+    SharedMemoryRing requests() {
+        return requests;
+    }
+
+    SharedMemoryRing responses() {
+        return responses;
+    }
+
+}
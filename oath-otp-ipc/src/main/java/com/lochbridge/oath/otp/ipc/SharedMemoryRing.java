@@ -0,0 +1,168 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A bounded, lock-free ring of fixed-size slots laid out in a (memory-mapped)
+ * {@link ByteBuffer}, which several threads (or processes mapping the same
+ * file) may produce to and consume from.
+ * <p>
+ * Each slot starts with a 64-bit sequence number, as in Dmitry Vyukov's
+ * bounded MPMC queue: a producer claims the slot of position {@code p} when
+ * its sequence equals {@code p}, and publishes it by setting the sequence to
+ * {@code p + 1}; a consumer claims it when its sequence equals {@code p + 1},
+ * and releases it by setting the sequence to {@code p + slots}. The producer
+ * and consumer positions live on distinct cache lines of the ring header. All
+ * shared fields are accessed with acquire/release (or CAS) semantics through a
+ * {@link VarHandle}, so the payload of a slot is visible to whoever claims it.
+ * <p>
+ * Layout (native byte order), starting at the ring offset:
+ * </p>
+ *
+ * <pre>
+ * +0    producer position (int64)
+ * +64   consumer position (int64)
+ * +128  slot 0: sequence (int64), payload
+ * ...
+ * </pre>
+ */
+final class SharedMemoryRing {
+
+    /** The size (in bytes) of the ring header. */
+    static final int HEADER_SIZE = 128;
+
+    private static final int PRODUCER_OFFSET = 0;
+    private static final int CONSUMER_OFFSET = 64;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int slots;
+    private final int slotSize;
+    private final int mask;
+
+    /**
+     * Creates a new instance of {@code SharedMemoryRing}.
+     *
+     * @param buffer
+     *            the (direct) buffer holding the ring
+     * @param offset
+     *            the offset of the ring within {@code buffer} (a multiple of 64)
+     * @param slots
+     *            the number of slots (a power of 2)
+     * @param slotSize
+     *            the size (in bytes) of a slot (a multiple of 8)
+     */
+    SharedMemoryRing(ByteBuffer buffer, int offset, int slots, int slotSize) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.slots = slots;
+        this.slotSize = slotSize;
+        this.mask = slots - 1;
+    }
+
+    /**
+     * Returns the size (in bytes) of a ring of the specified dimensions.
+     *
+     * @param slots
+     *            the number of slots
+     * @param slotSize
+     *            the size (in bytes) of a slot
+     *
+     * @return the size (in bytes) of a ring of the specified dimensions.
+     */
+    static int size(int slots, int slotSize) {
+        return HEADER_SIZE + slots * slotSize;
+    }
+
+    /**
+     * Resets the ring to its empty state. Must not race with any producer or consumer.
+     */
+    void initialize() {
+        LONG.setRelease(buffer, offset + PRODUCER_OFFSET, 0L);
+        LONG.setRelease(buffer, offset + CONSUMER_OFFSET, 0L);
+        for (int i = 0; i < slots; i++) {
+            LONG.setRelease(buffer, slotOffset(i), (long) i);
+        }
+    }
+
+    /**
+     * Claims the next slot to produce to.
+     *
+     * @return the position of the claimed slot, or -1 if the ring is full.
+     */
+    long tryClaim() {
+        while (true) {
+            long position = (long) LONG.getAcquire(buffer, offset + PRODUCER_OFFSET);
+            long sequence = (long) LONG.getAcquire(buffer, slotOffset(position));
+            long difference = sequence - position;
+            if (difference == 0) {
+                if (LONG.compareAndSet(buffer, offset + PRODUCER_OFFSET, position, position + 1)) {
+                    return position;
+                }
+            } else if (difference < 0) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Publishes the slot of the specified position (previously claimed with
+     * {@link #tryClaim()}) to consumers.
+     *
+     * @param position
+     *            the position of the slot
+     */
+    void publish(long position) {
+        LONG.setRelease(buffer, slotOffset(position), position + 1);
+    }
+
+    /**
+     * Claims the next slot to consume from.
+     *
+     * @return the position of the claimed slot, or -1 if the ring is empty.
+     */
+    long tryConsume() {
+        while (true) {
+            long position = (long) LONG.getAcquire(buffer, offset + CONSUMER_OFFSET);
+            long sequence = (long) LONG.getAcquire(buffer, slotOffset(position));
+            long difference = sequence - (position + 1);
+            if (difference == 0) {
+                if (LONG.compareAndSet(buffer, offset + CONSUMER_OFFSET, position, position + 1)) {
+                    return position;
+                }
+            } else if (difference < 0) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Releases the slot of the specified position (previously claimed with
+     * {@link #tryConsume()}) back to producers.
+     *
+     * @param position
+     *            the position of the slot
+     */
+    void release(long position) {
+        LONG.setRelease(buffer, slotOffset(position), position + slots);
+    }
+
+    /**
+     * Returns the offset (within the buffer) of the slot of the specified position.
+     * The payload of the slot starts 8 bytes further, after its sequence number.
+     *
+     * @param position
+     *            the position of the slot
+     *
+     * @return the offset (within the buffer) of the slot of the specified position.
+     */
+    int slotOffset(long position) {
+        return offset + HEADER_SIZE + (int) (position & mask) * slotSize;
+    }
+
+}
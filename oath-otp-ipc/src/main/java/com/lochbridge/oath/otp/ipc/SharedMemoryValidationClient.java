@@ -0,0 +1,206 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * A client submitting validation requests to a {@link SharedMemoryValidationServer}
+ * through its memory-mapped file.
+ * <p>
+ * The client is the single producer of the request ring, and the single consumer
+ * of the response ring: instances are not thread-safe. Requests may either be
+ * exchanged one at a time with {@link #validate(String, OTPType, String)}, or
+ * pipelined with {@link #submit(String, OTPType, String)} and {@link #poll()}, in
+ * which case replies may arrive in any order, and are matched to their requests
+ * by correlation ID.
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * SharedMemoryValidationClient client = SharedMemoryValidationClient.attach(Paths.get("/dev/shm/otp.ring"), WaitStrategy.BUSY_SPIN);
+ * ValidationReply reply = client.validate("alice", OTPType.TOTP, clientOTPValue);
+ * </pre>
+ *
+ * @see SharedMemoryLayout
+ */
+public final class SharedMemoryValidationClient {
+
+    private final ByteBuffer buffer;
+    private final SharedMemoryRing requests;
+    private final SharedMemoryRing responses;
+    private final WaitStrategy waitStrategy;
+    private long nextCorrelationId;
+
+    private SharedMemoryValidationClient(SharedMemoryLayout layout, WaitStrategy waitStrategy) {
+        this.buffer = layout.buffer();
+        this.requests = layout.requests();
+        this.responses = layout.responses();
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Returns a new {@link SharedMemoryValidationClient} attached to the file
+     * mapped by a {@link SharedMemoryValidationServer}.
+     *
+     * @param path
+     *            the path of the server's mapped file
+     * @param waitStrategy
+     *            the {@link WaitStrategy} used while the request ring is full, or
+     *            while waiting for a reply
+     *
+     * @return a new {@link SharedMemoryValidationClient} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code path} or {@code waitStrategy} is {@code null}.
+     * @throws IOException
+     *             if the file cannot be mapped, or is not a shared-memory validation file.
+     */
+    public static SharedMemoryValidationClient attach(Path path, WaitStrategy waitStrategy) throws IOException {
+        Preconditions.checkNotNull(path);
+        Preconditions.checkNotNull(waitStrategy);
+        return new SharedMemoryValidationClient(SharedMemoryLayout.attach(path), waitStrategy);
+    }
+
+    /**
+     * Submits a validation request, waiting while the request ring is full.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param type
+     *            the expected type of the user's credential, or {@code null} if any
+     * @param code
+     *            the OTP value to validate
+     *
+     * @return the correlation ID of the request.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} or {@code code} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the encoded {@code userId} or {@code code} is empty, or longer than
+     *             {@link SharedMemoryLayout#MAX_USER_ID_LENGTH} (respectively
+     *             {@link SharedMemoryLayout#MAX_CODE_LENGTH}) bytes.
+     */
+    public long submit(String userId, OTPType type, String code) {
+        byte[] encodedUserId = userId.getBytes(StandardCharsets.UTF_8);
+        byte[] encodedCode = code.getBytes(StandardCharsets.US_ASCII);
+        Preconditions.checkArgument(encodedUserId.length >= 1 && encodedUserId.length <= SharedMemoryLayout.MAX_USER_ID_LENGTH,
+                "userId must be 1 to %s bytes long", SharedMemoryLayout.MAX_USER_ID_LENGTH);
+        Preconditions.checkArgument(encodedCode.length >= 1 && encodedCode.length <= SharedMemoryLayout.MAX_CODE_LENGTH,
+                "code must be 1 to %s bytes long", SharedMemoryLayout.MAX_CODE_LENGTH);
+        long position;
+        int idle = 0;
+        while ((position = requests.tryClaim()) < 0) {
+            waitStrategy.idle(idle++);
+        }
+        long correlationId = nextCorrelationId++;
+        int slot = requests.slotOffset(position);
+        buffer.putLong(slot + SharedMemoryLayout.REQUEST_CORRELATION_ID, correlationId);
+        buffer.put(slot + SharedMemoryLayout.REQUEST_TYPE, ValidationProtocol.toTypeCode(type));
+        buffer.put(slot + SharedMemoryLayout.REQUEST_USER_ID_LENGTH, (byte) encodedUserId.length);
+        buffer.put(slot + SharedMemoryLayout.REQUEST_CODE_LENGTH, (byte) encodedCode.length);
+        buffer.put(slot + SharedMemoryLayout.REQUEST_USER_ID, encodedUserId);
+        buffer.put(slot + SharedMemoryLayout.REQUEST_CODE, encodedCode);
+        requests.publish(position);
+        return correlationId;
+    }
+
+    /**
+     * Returns the next available reply, or {@code null} if none is available.
+     *
+     * @return the next available reply, or {@code null} if none is available.
+     */
+    public ValidationReply poll() {
+        long position = responses.tryConsume();
+        if (position < 0) {
+            return null;
+        }
+        int slot = responses.slotOffset(position);
+        long correlationId = buffer.getLong(slot + SharedMemoryLayout.RESPONSE_CORRELATION_ID);
+        long movingFactor = buffer.getLong(slot + SharedMemoryLayout.RESPONSE_MOVING_FACTOR);
+        int drift = buffer.getInt(slot + SharedMemoryLayout.RESPONSE_DRIFT);
+        byte status = buffer.get(slot + SharedMemoryLayout.RESPONSE_STATUS);
+        responses.release(position);
+        return new ValidationReply(correlationId, ValidationReply.Status.fromCode(status), movingFactor, drift);
+    }
+
+    /**
+     * Validates the specified OTP value, waiting (indefinitely) for the reply.
+     * Replies to earlier requests (e.g. that timed out) are discarded.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param type
+     *            the expected type of the user's credential, or {@code null} if any
+     * @param code
+     *            the OTP value to validate
+     *
+     * @return the {@link ValidationReply}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} or {@code code} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the encoded {@code userId} or {@code code} is empty, or too long.
+     */
+    public ValidationReply validate(String userId, OTPType type, String code) {
+        long correlationId = submit(userId, type, code);
+        int idle = 0;
+        while (true) {
+            ValidationReply reply = poll();
+            if (reply == null) {
+                waitStrategy.idle(idle++);
+            } else if (reply.getCorrelationId() == correlationId) {
+                return reply;
+            }
+        }
+    }
+
+    /**
+     * Validates the specified OTP value, waiting at most {@code timeout} for the
+     * reply. Replies to earlier requests (e.g. that timed out) are discarded.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param type
+     *            the expected type of the user's credential, or {@code null} if any
+     * @param code
+     *            the OTP value to validate
+     * @param timeout
+     *            the maximum time to wait for the reply
+     * @param unit
+     *            the unit of {@code timeout}
+     *
+     * @return the {@link ValidationReply}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId}, {@code code} or {@code unit} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the encoded {@code userId} or {@code code} is empty, or too long.
+     * @throws TimeoutException
+     *             if no reply arrived in time.
+     */
+    public ValidationReply validate(String userId, OTPType type, String code, long timeout, TimeUnit unit) throws TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long correlationId = submit(userId, type, code);
+        int idle = 0;
+        while (true) {
+            ValidationReply reply = poll();
+            if (reply == null) {
+                if (System.nanoTime() - deadline >= 0) {
+                    throw new TimeoutException("No reply to request " + correlationId);
+                }
+                waitStrategy.idle(idle++);
+            } else if (reply.getCorrelationId() == correlationId) {
+                return reply;
+            }
+        }
+    }
+
+}
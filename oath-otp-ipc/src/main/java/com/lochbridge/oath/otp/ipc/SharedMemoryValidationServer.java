@@ -0,0 +1,207 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.service.ValidationResult;
+import com.lochbridge.oath.otp.service.ValidationService;
+
+/**
+ * A server answering validation requests submitted through a pair of rings in
+ * a memory-mapped file (see {@link SharedMemoryLayout}), for co-located
+ * processes on the lowest-latency path.
+ * <p>
+ * A fixed set of consumer threads polls the request ring, validates each request
+ * on the polling thread (see {@link ValidationService#validate(String, String, OTPType, String)}),
+ * and publishes the reply to the response ring. While requests keep coming, the
+ * ring exchange involves no system calls (nor locks); idle threads wait according
+ * to the configured {@link WaitStrategy}. When the response ring is full, consumers
+ * wait for the client to drain it, which in turn applies backpressure to the
+ * request ring.
+ * <p>
+ * Instances are created using the {@link SharedMemoryValidationServerBuilder}, for example:
+ * </p>
+ *
+ * <pre>
+ * SharedMemoryValidationServer server = SharedMemoryValidationServerBuilder.fromService(service)
+ *     .file(Paths.get("/dev/shm/otp.ring"))
+ *     .waitStrategy(WaitStrategy.BUSY_SPIN)
+ *     .build();
+ * server.start();
+ * ...
+ * server.close();
+ * </pre>
+ *
+ * @see SharedMemoryValidationClient
+ */
+public final class SharedMemoryValidationServer implements Closeable {
+
+    private final Path path;
+    private final SharedMemoryLayout layout;
+    private final ValidationService service;
+    private final WaitStrategy waitStrategy;
+    private final List<Thread> consumers = new ArrayList<Thread>();
+    private volatile boolean running;
+    private boolean started;
+
+    /**
+     * Creates a new instance of {@code SharedMemoryValidationServer}. Note that all
+     * parameters are assumed to be valid since the {@link SharedMemoryValidationServerBuilder}
+     * is responsible for validation, and creation of {@link SharedMemoryValidationServer}s.
+     *
+     * @param path
+     *            the path of the mapped file
+     * @param layout
+     *            the (initialized) layout of the mapped file
+     * @param service
+     *            the {@link ValidationService}
+     * @param consumers
+     *            the number of consumer threads
+     * @param waitStrategy
+     *            the {@link WaitStrategy} of idle consumer threads
+     */
+    SharedMemoryValidationServer(Path path, SharedMemoryLayout layout, ValidationService service, int consumers, WaitStrategy waitStrategy) {
+        this.path = path;
+        this.layout = layout;
+        this.service = service;
+        this.waitStrategy = waitStrategy;
+        for (int i = 0; i < consumers; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    consume();
+                }
+            }, "oath-shm-consumer-" + i);
+            thread.setDaemon(true);
+            this.consumers.add(thread);
+        }
+    }
+
+    /**
+     * Starts the consumer threads.
+     *
+     * @throws IllegalStateException
+     *             if this server has already been started.
+     */
+    public synchronized void start() {
+        if (started) {
+            throw new IllegalStateException("The server has already been started");
+        }
+        started = true;
+        running = true;
+        for (Thread thread : consumers) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Returns the path of the mapped file clients attach to.
+     *
+     * @return the path of the mapped file clients attach to.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Stops the consumer threads (letting them finish the request at hand), and
+     * deletes the mapped file. Requests left in the ring are not answered. The
+     * {@link ValidationService} is left open.
+     *
+     * @throws IOException
+     *             if the mapped file cannot be deleted.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        running = false;
+        if (started) {
+            for (Thread thread : consumers) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    private void consume() {
+        ByteBuffer buffer = layout.buffer();
+        SharedMemoryRing requests = layout.requests();
+        SharedMemoryRing responses = layout.responses();
+        byte[] scratch = new byte[SharedMemoryLayout.MAX_USER_ID_LENGTH];
+        int idle = 0;
+        while (running) {
+            long position = requests.tryConsume();
+            if (position < 0) {
+                waitStrategy.idle(idle++);
+                continue;
+            }
+            idle = 0;
+
+            // Copy the request out, and hand the slot back to the producer right away.
+            int slot = requests.slotOffset(position);
+            long correlationId = buffer.getLong(slot + SharedMemoryLayout.REQUEST_CORRELATION_ID);
+            byte typeCode = buffer.get(slot + SharedMemoryLayout.REQUEST_TYPE);
+            int userIdLength = buffer.get(slot + SharedMemoryLayout.REQUEST_USER_ID_LENGTH) & 0xFF;
+            int codeLength = buffer.get(slot + SharedMemoryLayout.REQUEST_CODE_LENGTH) & 0xFF;
+            String userId = null;
+            String code = null;
+            if (userIdLength >= 1 && userIdLength <= SharedMemoryLayout.MAX_USER_ID_LENGTH && codeLength >= 1
+                    && codeLength <= SharedMemoryLayout.MAX_CODE_LENGTH) {
+                buffer.get(slot + SharedMemoryLayout.REQUEST_USER_ID, scratch, 0, userIdLength);
+                userId = new String(scratch, 0, userIdLength, StandardCharsets.UTF_8);
+                buffer.get(slot + SharedMemoryLayout.REQUEST_CODE, scratch, 0, codeLength);
+                code = new String(scratch, 0, codeLength, StandardCharsets.US_ASCII);
+            }
+            requests.release(position);
+
+            ValidationReply.Status status = ValidationReply.Status.MALFORMED;
+            long movingFactor = 0;
+            int drift = 0;
+            if (userId != null && typeCode >= ValidationProtocol.TYPE_ANY && typeCode <= ValidationProtocol.TYPE_TOTP) {
+                OTPType type = typeCode == ValidationProtocol.TYPE_ANY ? null : typeCode == ValidationProtocol.TYPE_HOTP ? OTPType.HOTP : OTPType.TOTP;
+                try {
+                    ValidationResult result = service.validate(null, userId, type, code);
+                    status = ValidationReply.Status.of(result.getStatus());
+                    movingFactor = result.getMovingFactor();
+                    drift = result.getDrift();
+                } catch (IOException | RuntimeException e) {
+                    status = ValidationReply.Status.ERROR;
+                }
+            }
+            if (!reply(buffer, responses, correlationId, status, movingFactor, drift)) {
+                return;
+            }
+        }
+    }
+
+    private boolean reply(ByteBuffer buffer, SharedMemoryRing responses, long correlationId, ValidationReply.Status status, long movingFactor,
+            int drift) {
+        long position;
+        int idle = 0;
+        while ((position = responses.tryClaim()) < 0) {
+            if (!running) {
+                return false;
+            }
+            waitStrategy.idle(idle++);
+        }
+        int slot = responses.slotOffset(position);
+        buffer.putLong(slot + SharedMemoryLayout.RESPONSE_CORRELATION_ID, correlationId);
+        buffer.putLong(slot + SharedMemoryLayout.RESPONSE_MOVING_FACTOR, movingFactor);
+        buffer.putInt(slot + SharedMemoryLayout.RESPONSE_DRIFT, drift);
+        buffer.put(slot + SharedMemoryLayout.RESPONSE_STATUS, status.getCode());
+        responses.publish(position);
+        return true;
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.service.ValidationService;
+
+/**
+ * A class that creates {@link SharedMemoryValidationServer}s.
+ * <p>
+ * Example:
+ * <pre>
+ * SharedMemoryValidationServer server = SharedMemoryValidationServerBuilder.fromService(service)
+ *     .file(Paths.get("/dev/shm/otp.ring"))
+ *     .slots(4096)
+ *     .consumers(2)
+ *     .build();
+ * </pre>
+ */
+public final class SharedMemoryValidationServerBuilder {
+
+    /** The default number of slots per ring. */
+    public static final int DEFAULT_SLOTS = 1024;
+
+    /** The default number of consumer threads. */
+    public static final int DEFAULT_CONSUMERS = 1;
+
+    private final ValidationService service;
+    private Path file;
+    private int slots = DEFAULT_SLOTS;
+    private int consumers = DEFAULT_CONSUMERS;
+    private WaitStrategy waitStrategy = WaitStrategy.SPIN_THEN_PARK;
+
+    private SharedMemoryValidationServerBuilder(ValidationService service) {
+        this.service = service;
+    }
+
+    /**
+     * Returns a new {@link SharedMemoryValidationServerBuilder} instance
+     * initialized with the specified {@link ValidationService}.
+     *
+     * @param service
+     *            the {@link ValidationService}
+     *
+     * @return a new {@link SharedMemoryValidationServerBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code service} is {@code null}.
+     */
+    public static SharedMemoryValidationServerBuilder fromService(ValidationService service) {
+        Preconditions.checkNotNull(service);
+        return new SharedMemoryValidationServerBuilder(service);
+    }
+
+    /**
+     * Returns this {@code SharedMemoryValidationServerBuilder} instance initialized
+     * with the specified path of the file to map (preferably on a memory-backed file
+     * system, such as {@code /dev/shm}). The file is created, or truncated if it exists.
+     *
+     * @param file
+     *            the path of the file to map
+     *
+     * @return this {@code SharedMemoryValidationServerBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code file} is {@code null}.
+     */
+    public SharedMemoryValidationServerBuilder file(Path file) {
+        this.file = Preconditions.checkNotNull(file);
+        return this;
+    }
+
+    /**
+     * Returns this {@code SharedMemoryValidationServerBuilder} instance initialized
+     * with the specified number of slots per ring. The default is {@link #DEFAULT_SLOTS}.
+     *
+     * @param slots
+     *            the number of slots per ring
+     *
+     * @return this {@code SharedMemoryValidationServerBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code slots} is not a power of 2 in [2, {@link SharedMemoryLayout#MAX_SLOTS}].
+     */
+    public SharedMemoryValidationServerBuilder slots(int slots) {
+        Preconditions.checkArgument(slots >= 2 && slots <= SharedMemoryLayout.MAX_SLOTS && Integer.bitCount(slots) == 1);
+        this.slots = slots;
+        return this;
+    }
+
+    /**
+     * Returns this {@code SharedMemoryValidationServerBuilder} instance initialized
+     * with the specified number of consumer threads. The default is {@link #DEFAULT_CONSUMERS}.
+     *
+     * @param consumers
+     *            the number of consumer threads
+     *
+     * @return this {@code SharedMemoryValidationServerBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code consumers} is {@literal <} 1.
+     */
+    public SharedMemoryValidationServerBuilder consumers(int consumers) {
+        Preconditions.checkArgument(consumers >= 1);
+        this.consumers = consumers;
+        return this;
+    }
+
+    /**
+     * Returns this {@code SharedMemoryValidationServerBuilder} instance initialized
+     * with the specified {@link WaitStrategy} of idle consumer threads. The default
+     * is {@link WaitStrategy#SPIN_THEN_PARK}.
+     *
+     * @param waitStrategy
+     *            the {@link WaitStrategy}
+     *
+     * @return this {@code SharedMemoryValidationServerBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code waitStrategy} is {@code null}.
+     */
+    public SharedMemoryValidationServerBuilder waitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = Preconditions.checkNotNull(waitStrategy);
+        return this;
+    }
+
+    /**
+     * Creates (and maps) the file, and returns a {@link SharedMemoryValidationServer}
+     * using this builder's configured parameters. The server does not answer requests
+     * until it is started.
+     *
+     * @return a {@link SharedMemoryValidationServer} using this builder's configured parameters.
+     *
+     * @throws IllegalStateException
+     *             if no file has been configured.
+     * @throws IOException
+     *             if the file cannot be created or mapped.
+     */
+    public SharedMemoryValidationServer build() throws IOException {
+        Preconditions.checkState(file != null, "No file configured");
+        SharedMemoryLayout layout = SharedMemoryLayout.create(file, slots);
+        return new SharedMemoryValidationServer(file, layout, service, consumers, waitStrategy);
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * A blocking client of a {@link UnixSocketValidationServer}. Requests are sent
+ * one at a time over a single connection, so instances are thread-safe, but
+ * concurrent callers take turns; open one client per thread for concurrency.
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * try (UnixSocketValidationClient client = UnixSocketValidationClient.connect(Paths.get("/run/oath/otp.sock"))) {
+ *     ValidationReply reply = client.validate("alice", OTPType.TOTP, clientOTPValue);
+ *     ...
+ * }
+ * </pre>
+ *
+ * @see ValidationProtocol
+ */
+public final class UnixSocketValidationClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final ByteBuffer request = ByteBuffer.allocateDirect(ValidationProtocol.LENGTH_PREFIX + ValidationProtocol.MAX_REQUEST_LENGTH);
+    private final ByteBuffer response = ByteBuffer.allocateDirect(ValidationProtocol.LENGTH_PREFIX + ValidationProtocol.RESPONSE_LENGTH);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long nextCorrelationId;
+
+    private UnixSocketValidationClient(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Returns a new {@link UnixSocketValidationClient} connected to the server
+     * listening on the specified socket file.
+     *
+     * @param path
+     *            the path of the server's socket file
+     *
+     * @return a new, connected {@link UnixSocketValidationClient} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code path} is {@code null}.
+     * @throws IOException
+     *             if the connection cannot be established.
+     */
+    public static UnixSocketValidationClient connect(Path path) throws IOException {
+        Preconditions.checkNotNull(path);
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(path));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new UnixSocketValidationClient(channel);
+    }
+
+    /**
+     * Validates the specified OTP value against the user's credential, whatever
+     * its type.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param code
+     *            the OTP value to validate
+     *
+     * @return the {@link ValidationReply}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} or {@code code} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the encoded {@code userId} or {@code code} is empty, or longer than
+     *             {@link ValidationProtocol#MAX_FIELD_LENGTH} bytes.
+     * @throws IOException
+     *             if the exchange with the server fails.
+     */
+    public ValidationReply validate(String userId, String code) throws IOException {
+        return validate(userId, null, code);
+    }
+
+    /**
+     * Validates the specified OTP value against the user's credential, which
+     * must be of the specified type.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param type
+     *            the expected type of the user's credential, or {@code null} if any
+     * @param code
+     *            the OTP value to validate
+     *
+     * @return the {@link ValidationReply}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} or {@code code} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the encoded {@code userId} or {@code code} is empty, or longer than
+     *             {@link ValidationProtocol#MAX_FIELD_LENGTH} bytes.
+     * @throws IOException
+     *             if the exchange with the server fails.
+     */
+    public ValidationReply validate(String userId, OTPType type, String code) throws IOException {
+        byte[] encodedUserId = userId.getBytes(StandardCharsets.UTF_8);
+        byte[] encodedCode = code.getBytes(StandardCharsets.US_ASCII);
+        lock.lock();
+        try {
+            long correlationId = nextCorrelationId++;
+            request.clear();
+            ValidationProtocol.writeRequest(request, correlationId, ValidationProtocol.toTypeCode(type), encodedUserId, encodedCode);
+            request.flip();
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+            response.clear();
+            while (response.hasRemaining()) {
+                if (channel.read(response) < 0) {
+                    throw new EOFException("The server closed the connection");
+                }
+            }
+            response.flip();
+            ValidationReply reply;
+            try {
+                reply = ValidationProtocol.readResponse(response);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid response", e);
+            }
+            if (reply.getCorrelationId() != correlationId) {
+                throw new IOException("Unexpected correlation ID: " + reply.getCorrelationId());
+            }
+            return reply;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the connection to the server.
+     *
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,458 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.service.ValidationResult;
+import com.lochbridge.oath.otp.service.ValidationService;
+
+/**
+ * A server answering {@link ValidationProtocol} requests over a Unix domain
+ * socket, for co-located services (e.g. an authentication proxy) that do not
+ * need the framing overhead of HTTP.
+ * <p>
+ * A single selector thread accepts connections, decodes request frames from
+ * pooled direct buffers, and hands each request to a {@link ValidationService}.
+ * Validations complete on the service's threads, which queue the responses and
+ * wake the selector thread up to write them. Clients may therefore pipeline
+ * requests on a connection; once a connection has
+ * {@link #DEFAULT_MAXIMUM_PENDING_REQUESTS} requests pending, the server stops
+ * reading from it until some of them complete.
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * UnixSocketValidationServer server = UnixSocketValidationServer.bind(Paths.get("/run/oath/otp.sock"), service);
+ * server.start();
+ * ...
+ * server.close();
+ * </pre>
+ *
+ * @see UnixSocketValidationClient
+ */
+public final class UnixSocketValidationServer implements Closeable {
+
+    /** The default maximum number of pending requests per connection. */
+    public static final int DEFAULT_MAXIMUM_PENDING_REQUESTS = 1024;
+
+    /** The capacity (in bytes) of the pooled connection buffers. */
+    static final int BUFFER_SIZE = 16 * 1024;
+
+    /** The maximum number of idle buffers retained by the pool. */
+    static final int MAXIMUM_POOLED_BUFFERS = 256;
+
+    private static final int RESPONSE_FRAME_LENGTH = ValidationProtocol.LENGTH_PREFIX + ValidationProtocol.RESPONSE_LENGTH;
+
+    private final Path path;
+    private final ValidationService service;
+    private final int maximumPendingRequests;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final DirectBufferPool bufferPool = new DirectBufferPool(BUFFER_SIZE, MAXIMUM_POOLED_BUFFERS);
+    private final Queue<Connection> ready = new ConcurrentLinkedQueue<Connection>();
+    private final byte[] scratch = new byte[ValidationProtocol.MAX_FIELD_LENGTH];
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private Thread selectorThread;
+
+    private UnixSocketValidationServer(Path path, ValidationService service, int maximumPendingRequests) throws IOException {
+        this.path = path;
+        this.service = service;
+        this.maximumPendingRequests = maximumPendingRequests;
+        this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            serverChannel.bind(UnixDomainSocketAddress.of(path));
+            serverChannel.configureBlocking(false);
+            this.selector = Selector.open();
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a new {@link UnixSocketValidationServer} bound to the specified
+     * socket file, answering requests with the specified {@link ValidationService}.
+     * The server does not accept requests until it is started.
+     *
+     * @param path
+     *            the path of the socket file, which must not exist
+     * @param service
+     *            the {@link ValidationService}
+     *
+     * @return a new, bound {@link UnixSocketValidationServer} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code path} or {@code service} is {@code null}.
+     * @throws IOException
+     *             if the server cannot be bound to {@code path}.
+     */
+    public static UnixSocketValidationServer bind(Path path, ValidationService service) throws IOException {
+        return bind(path, service, DEFAULT_MAXIMUM_PENDING_REQUESTS);
+    }
+
+    /**
+     * Returns a new {@link UnixSocketValidationServer} bound to the specified
+     * socket file, answering requests with the specified {@link ValidationService},
+     * and allowing at most {@code maximumPendingRequests} pending requests per connection.
+     *
+     * @param path
+     *            the path of the socket file, which must not exist
+     * @param service
+     *            the {@link ValidationService}
+     * @param maximumPendingRequests
+     *            the maximum number of pending requests per connection
+     *
+     * @return a new, bound {@link UnixSocketValidationServer} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code path} or {@code service} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code maximumPendingRequests} is {@literal <} 1.
+     * @throws IOException
+     *             if the server cannot be bound to {@code path}.
+     */
+    public static UnixSocketValidationServer bind(Path path, ValidationService service, int maximumPendingRequests) throws IOException {
+        Preconditions.checkNotNull(path);
+        Preconditions.checkNotNull(service);
+        Preconditions.checkArgument(maximumPendingRequests >= 1);
+        return new UnixSocketValidationServer(path, service, maximumPendingRequests);
+    }
+
+    /**
+     * Starts accepting requests on a dedicated selector thread.
+     *
+     * @throws IllegalStateException
+     *             if this server has already been started, or has been closed.
+     */
+    public synchronized void start() {
+        Preconditions.checkState(selectorThread == null && !closed.get(), "The server has already been started or closed");
+        selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runSelector();
+            }
+        }, "oath-ipc-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    /**
+     * Returns the path of the socket file this server is bound to.
+     *
+     * @return the path of the socket file this server is bound to.
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Stops accepting requests, closes all connections (dropping the responses
+     * of pending requests), and deletes the socket file. The {@link ValidationService}
+     * is left open.
+     *
+     * @throws IOException
+     *             if the socket file cannot be deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread;
+        synchronized (this) {
+            thread = selectorThread;
+        }
+        if (thread != null) {
+            selector.wakeup();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+        serverChannel.close();
+        Files.deleteIfExists(path);
+    }
+
+    private void runSelector() {
+        try {
+            while (!closed.get()) {
+                selector.select();
+                Connection connection;
+                while ((connection = ready.poll()) != null) {
+                    connection.scheduled.set(false);
+                    flush(connection);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(connection);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // The server is unusable: stop serving, and let close() release the resources.
+            closed.set(true);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel, bufferPool.acquire(), bufferPool.acquire());
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private void read(Connection connection) {
+        ByteBuffer in = connection.in;
+        int read;
+        try {
+            read = connection.channel.read(in);
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        if (read < 0) {
+            // The client may half-close its side once done sending: answer pending requests first.
+            connection.inputShutdown = true;
+            updateInterest(connection);
+            closeIfDone(connection);
+            return;
+        }
+        in.flip();
+        while (in.remaining() >= ValidationProtocol.LENGTH_PREFIX) {
+            int length = in.getShort(in.position()) & 0xFFFF;
+            if (length < ValidationProtocol.MIN_REQUEST_LENGTH || length > ValidationProtocol.MAX_REQUEST_LENGTH) {
+                close(connection);
+                return;
+            }
+            if (in.remaining() < ValidationProtocol.LENGTH_PREFIX + length) {
+                break;
+            }
+            dispatch(connection, in, in.position() + ValidationProtocol.LENGTH_PREFIX, length);
+            in.position(in.position() + ValidationProtocol.LENGTH_PREFIX + length);
+        }
+        in.compact();
+        if (connection.outbound.peek() != null) {
+            flush(connection);
+        }
+        updateInterest(connection);
+    }
+
+    private void dispatch(final Connection connection, ByteBuffer in, int offset, int length) {
+        connection.pending.incrementAndGet();
+        int end = offset + length;
+        long correlationId = in.getLong(offset + 2);
+        OTPType type = null;
+        boolean wellFormed = in.get(offset) == ValidationProtocol.VERSION;
+        int userIdLength = in.get(offset + 10) & 0xFF;
+        int codeOffset = offset + 11 + userIdLength;
+        int codeLength = codeOffset < end ? in.get(codeOffset) & 0xFF : 0;
+        switch (in.get(offset + 1)) {
+        case ValidationProtocol.TYPE_ANY:
+            break;
+        case ValidationProtocol.TYPE_HOTP:
+            type = OTPType.HOTP;
+            break;
+        case ValidationProtocol.TYPE_TOTP:
+            type = OTPType.TOTP;
+            break;
+        default:
+            wellFormed = false;
+        }
+        if (!wellFormed || userIdLength == 0 || codeLength == 0 || codeOffset + 1 + codeLength != end) {
+            connection.outbound.add(new Response(correlationId, ValidationReply.Status.MALFORMED, 0, 0));
+            return;
+        }
+        in.get(offset + 11, scratch, 0, userIdLength);
+        String userId = new String(scratch, 0, userIdLength, StandardCharsets.UTF_8);
+        in.get(codeOffset + 1, scratch, 0, codeLength);
+        String code = new String(scratch, 0, codeLength, StandardCharsets.US_ASCII);
+        final long id = correlationId;
+        ListenableFuture<ValidationResult> future;
+        try {
+            future = service.submit(null, userId, type, code);
+        } catch (RejectedExecutionException e) {
+            connection.outbound.add(new Response(id, ValidationReply.Status.ERROR, 0, 0));
+            return;
+        }
+        Futures.addCallback(future, new FutureCallback<ValidationResult>() {
+            @Override
+            public void onSuccess(ValidationResult result) {
+                complete(connection, new Response(id, ValidationReply.Status.of(result.getStatus()), result.getMovingFactor(), result.getDrift()));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                complete(connection, new Response(id, ValidationReply.Status.ERROR, 0, 0));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /** Queues a response from a validation thread, and wakes the selector thread up to write it. */
+    private void complete(Connection connection, Response response) {
+        if (!connection.open) {
+            return;
+        }
+        connection.outbound.add(response);
+        if (connection.scheduled.compareAndSet(false, true)) {
+            ready.add(connection);
+            selector.wakeup();
+        }
+    }
+
+    private void flush(Connection connection) {
+        if (!connection.open) {
+            return;
+        }
+        // Invariant: the bytes between position and limit of the out buffer are yet to be written.
+        ByteBuffer out = connection.out;
+        try {
+            while (true) {
+                if (!out.hasRemaining()) {
+                    out.clear();
+                    Response response;
+                    while (out.remaining() >= RESPONSE_FRAME_LENGTH && (response = connection.outbound.poll()) != null) {
+                        ValidationProtocol.writeResponse(out, response.correlationId, response.status, response.movingFactor, response.drift);
+                        connection.pending.decrementAndGet();
+                    }
+                    out.flip();
+                    if (!out.hasRemaining()) {
+                        break;
+                    }
+                }
+                connection.channel.write(out);
+                if (out.hasRemaining()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            close(connection);
+            return;
+        }
+        updateInterest(connection);
+        closeIfDone(connection);
+    }
+
+    private void updateInterest(Connection connection) {
+        if (!connection.open) {
+            return;
+        }
+        int ops = 0;
+        if (!connection.inputShutdown && connection.pending.get() < maximumPendingRequests) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (connection.out.hasRemaining()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        connection.key.interestOps(ops);
+    }
+
+    private void closeIfDone(Connection connection) {
+        if (connection.open && connection.inputShutdown && connection.pending.get() == 0 && !connection.out.hasRemaining()) {
+            close(connection);
+        }
+    }
+
+    private void close(Connection connection) {
+        if (!connection.open) {
+            return;
+        }
+        connection.open = false;
+        connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // Nothing left to release.
+        }
+        bufferPool.release(connection.in);
+        bufferPool.release(connection.out);
+    }
+
+    /** The state of a client connection, confined to the selector thread unless noted otherwise. */
+    private static final class Connection {
+
+        final SocketChannel channel;
+        final ByteBuffer in;
+        final ByteBuffer out;
+        /** Responses queued by validation threads (or the selector thread), not yet encoded. */
+        final Queue<Response> outbound = new ConcurrentLinkedQueue<Response>();
+        /** The number of requests decoded, but whose response has not been encoded yet. */
+        final AtomicInteger pending = new AtomicInteger();
+        /** Whether the connection is queued in the server's ready queue. */
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile boolean open = true;
+        boolean inputShutdown;
+        SelectionKey key;
+
+        Connection(SocketChannel channel, ByteBuffer in, ByteBuffer out) {
+            this.channel = channel;
+            this.in = in;
+            this.out = out;
+            out.flip();
+        }
+
+    }
+
+    private static final class Response {
+
+        final long correlationId;
+        final ValidationReply.Status status;
+        final long movingFactor;
+        final int drift;
+
+        Response(long correlationId, ValidationReply.Status status, long movingFactor, int drift) {
+            this.correlationId = correlationId;
+            this.status = status;
+            this.movingFactor = movingFactor;
+            this.drift = drift;
+        }
+
+    }
+
+}
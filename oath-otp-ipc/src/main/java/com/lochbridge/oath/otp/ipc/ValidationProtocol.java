@@ -0,0 +1,165 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.nio.ByteBuffer;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * The compact binary protocol spoken by the {@link UnixSocketValidationServer}
+ * and the {@link UnixSocketValidationClient}.
+ * <p>
+ * Every message is a frame made of an unsigned 16-bit (big-endian) length,
+ * followed by that many bytes of payload. A request payload is laid out as:
+ * </p>
+ *
+ * <pre>
+ * +---------+------+----------------+----------+--------+----------+--------+
+ * | version | type | correlation ID | user len | userId | code len |  code  |
+ * |    1    |  1   |       8        |    1     |  n     |    1     |   m    |
+ * +---------+------+----------------+----------+--------+----------+--------+
+ * </pre>
+ * <p>
+ * where {@code type} is {@link #TYPE_ANY}, {@link #TYPE_HOTP} or {@link #TYPE_TOTP},
+ * {@code userId} is encoded in UTF-8, and {@code code} in US-ASCII (both 1 to
+ * {@link #MAX_FIELD_LENGTH} bytes long). A response payload is laid out as:
+ * </p>
+ *
+ * <pre>
+ * +---------+--------+----------------+---------------+-------+
+ * | version | status | correlation ID | moving factor | drift |
+ * |    1    |   1    |       8        |       8       |   4   |
+ * +---------+--------+----------------+---------------+-------+
+ * </pre>
+ * <p>
+ * where {@code status} is a {@link ValidationReply.Status} wire code. Clients may
+ * pipeline requests on a single connection; responses may be written in any order,
+ * and are matched to their requests by correlation ID. A request frame whose
+ * length is out of bounds cannot be skipped reliably, so the server closes the
+ * connection; any other undecodable request is answered with
+ * {@link ValidationReply.Status#MALFORMED}.
+ */
+public final class ValidationProtocol {
+
+    /** The protocol version. */
+    public static final byte VERSION = 1;
+
+    /** The request type matching a credential of any type. */
+    public static final byte TYPE_ANY = 0;
+
+    /** The request type matching HOTP credentials only. */
+    public static final byte TYPE_HOTP = 1;
+
+    /** The request type matching TOTP credentials only. */
+    public static final byte TYPE_TOTP = 2;
+
+    /** The maximum length (in bytes) of the encoded user ID and code fields. */
+    public static final int MAX_FIELD_LENGTH = 255;
+
+    /** The length (in bytes) of the frame length prefix. */
+    public static final int LENGTH_PREFIX = 2;
+
+    /** The minimum length (in bytes) of a request payload. */
+    public static final int MIN_REQUEST_LENGTH = 1 + 1 + 8 + 1 + 1 + 1 + 1;
+
+    /** The maximum length (in bytes) of a request payload. */
+    public static final int MAX_REQUEST_LENGTH = 1 + 1 + 8 + 1 + MAX_FIELD_LENGTH + 1 + MAX_FIELD_LENGTH;
+
+    /** The length (in bytes) of a response payload. */
+    public static final int RESPONSE_LENGTH = 1 + 1 + 8 + 8 + 4;
+
+    private ValidationProtocol() {
+    }
+
+    /**
+     * Returns the request type byte of the specified {@link OTPType}.
+     *
+     * @param type
+     *            the {@link OTPType}, or {@code null} for any type
+     *
+     * @return the request type byte of the specified {@link OTPType}.
+     */
+    public static byte toTypeCode(OTPType type) {
+        if (type == null) {
+            return TYPE_ANY;
+        }
+        return type == OTPType.HOTP ? TYPE_HOTP : TYPE_TOTP;
+    }
+
+    /**
+     * Writes a request frame to the specified buffer.
+     *
+     * @param dst
+     *            the buffer to write to
+     * @param correlationId
+     *            the correlation ID of the request
+     * @param typeCode
+     *            the request type byte
+     * @param userId
+     *            the UTF-8 encoded user ID
+     * @param code
+     *            the US-ASCII encoded OTP value
+     *
+     * @throws IllegalArgumentException
+     *             if {@code userId} or {@code code} is empty, or longer than {@link #MAX_FIELD_LENGTH}.
+     * @throws java.nio.BufferOverflowException
+     *             if {@code dst} has insufficient space remaining.
+     */
+    public static void writeRequest(ByteBuffer dst, long correlationId, byte typeCode, byte[] userId, byte[] code) {
+        Preconditions.checkArgument(userId.length >= 1 && userId.length <= MAX_FIELD_LENGTH, "userId must be 1 to %s bytes long", MAX_FIELD_LENGTH);
+        Preconditions.checkArgument(code.length >= 1 && code.length <= MAX_FIELD_LENGTH, "code must be 1 to %s bytes long", MAX_FIELD_LENGTH);
+        dst.putShort((short) (MIN_REQUEST_LENGTH - 2 + userId.length + code.length));
+        dst.put(VERSION).put(typeCode).putLong(correlationId);
+        dst.put((byte) userId.length).put(userId);
+        dst.put((byte) code.length).put(code);
+    }
+
+    /**
+     * Writes a response frame to the specified buffer.
+     *
+     * @param dst
+     *            the buffer to write to
+     * @param correlationId
+     *            the correlation ID of the request being answered
+     * @param status
+     *            the {@link ValidationReply.Status}
+     * @param movingFactor
+     *            the moving factor of an HOTP credential after the validation request
+     * @param drift
+     *            the drift (in time steps) of the client of a TOTP credential
+     *
+     * @throws java.nio.BufferOverflowException
+     *             if {@code dst} has insufficient space remaining.
+     */
+    public static void writeResponse(ByteBuffer dst, long correlationId, ValidationReply.Status status, long movingFactor, int drift) {
+        dst.putShort((short) RESPONSE_LENGTH);
+        dst.put(VERSION).put(status.getCode()).putLong(correlationId).putLong(movingFactor).putInt(drift);
+    }
+
+    /**
+     * Reads a response frame from the specified buffer, which must hold a
+     * complete frame.
+     *
+     * @param src
+     *            the buffer to read from
+     *
+     * @return the decoded {@link ValidationReply}.
+     *
+     * @throws IllegalArgumentException
+     *             if the frame is not a valid response frame.
+     * @throws java.nio.BufferUnderflowException
+     *             if {@code src} holds an incomplete frame.
+     */
+    public static ValidationReply readResponse(ByteBuffer src) {
+        int length = src.getShort() & 0xFFFF;
+        Preconditions.checkArgument(length == RESPONSE_LENGTH, "Unexpected response length: %s", length);
+        byte version = src.get();
+        Preconditions.checkArgument(version == VERSION, "Unsupported protocol version: %s", version);
+        ValidationReply.Status status = ValidationReply.Status.fromCode(src.get());
+        long correlationId = src.getLong();
+        long movingFactor = src.getLong();
+        int drift = src.getInt();
+        return new ValidationReply(correlationId, status, movingFactor, drift);
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.lochbridge.oath.otp.ipc;
+
+import com.lochbridge.oath.otp.service.ValidationResult;
+
+/**
+ * An immutable class representing the reply to a validation request sent over
+ * the {@link ValidationProtocol}.
+ */
+public final class ValidationReply {
+
+    /**
+     * The status of a validation request, along with its wire code.
+     */
+    public static enum Status {
+
+        /** The OTP value is valid. */
+        VALID(0),
+
+        /** The OTP value is invalid. */
+        INVALID(1),
+
+        /** The store holds no credential for the user. */
+        UNKNOWN_USER(2),
+
+        /** The validation failed on the server side (e.g. the credential store failed). */
+        ERROR(3),
+
+        /** The request frame could not be decoded. */
+        MALFORMED(4);
+
+        private final byte code;
+
+        private Status(int code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * Returns the wire code of this status.
+         *
+         * @return the wire code of this status.
+         */
+        public byte getCode() {
+            return code;
+        }
+
+        /**
+         * Returns the {@link Status} of the specified wire code.
+         *
+         * @param code
+         *            the wire code
+         *
+         * @return the {@link Status} of the specified wire code.
+         *
+         * @throws IllegalArgumentException
+         *             if {@code code} is not a known wire code.
+         */
+        public static Status fromCode(byte code) {
+            for (Status status : values()) {
+                if (status.code == code) {
+                    return status;
+                }
+            }
+            throw new IllegalArgumentException("Unknown status code: " + code);
+        }
+
+        static Status of(ValidationResult.Status status) {
+            switch (status) {
+            case VALID:
+                return VALID;
+            case INVALID:
+                return INVALID;
+            default:
+                return UNKNOWN_USER;
+            }
+        }
+
+    }
+
+    private final long correlationId;
+    private final Status status;
+    private final long movingFactor;
+    private final int drift;
+
+    ValidationReply(long correlationId, Status status, long movingFactor, int drift) {
+        this.correlationId = correlationId;
+        this.status = status;
+        this.movingFactor = movingFactor;
+        this.drift = drift;
+    }
+
+    /**
+     * Returns the correlation ID of the request this reply answers.
+     *
+     * @return the correlation ID of the request this reply answers.
+     */
+    public long getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * Returns the {@link Status} of the validation request.
+     *
+     * @return the {@link Status} of the validation request.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns {@code true} if the OTP value is valid, {@code false} otherwise.
+     *
+     * @return {@code true} if the OTP value is valid, {@code false} otherwise.
+     */
+    public boolean isValid() {
+        return status == Status.VALID;
+    }
+
+    /**
+     * Returns the moving factor of an HOTP credential after the validation
+     * request (0 for TOTP credentials). See
+     * {@link com.lochbridge.oath.otp.service.ValidationResult#getMovingFactor()}.
+     *
+     * @return the moving factor of an HOTP credential after the validation request.
+     */
+    public long getMovingFactor() {
+        return movingFactor;
+    }
+
+    /**
+     * Returns the drift (in time steps) of the client of a TOTP credential upon
+     * successful validation (0 otherwise). See
+     * {@link com.lochbridge.oath.otp.service.ValidationResult#getDrift()}.
+     *
+     * @return the drift (in time steps) of the client of a TOTP credential.
+     */
+    public int getDrift() {
+        return drift;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationReply [correlationId=" + correlationId + ", status=" + status + ", movingFactor=" + movingFactor + ", drift=" + drift + "]";
+    }
+
+}
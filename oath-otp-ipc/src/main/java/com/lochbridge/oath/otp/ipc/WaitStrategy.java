@@ -0,0 +1,64 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The ways a thread may wait for a shared-memory ring to become non-empty (or
+ * non-full). Neither strategy makes system calls while the ring has work to
+ * offer; they only differ in how an idle thread burns (or gives back) its CPU.
+ */
+public enum WaitStrategy {
+
+    /**
+     * Spins on the ring, hinting the processor that it is busy-waiting. Offers
+     * the lowest latency, at the cost of a fully used core per waiting thread.
+     */
+    BUSY_SPIN {
+        @Override
+        public void idle(int idleCount) {
+            Thread.onSpinWait();
+        }
+    },
+
+    /**
+     * Spins for a while (unless there is a single processor, which the peer
+     * thread needs to make progress), then yields, and eventually parks for
+     * {@link WaitStrategy#PARK_NANOS} nanoseconds at a time. Adds latency to
+     * the first request after an idle period, but does not burn idle cores.
+     */
+    SPIN_THEN_PARK {
+        @Override
+        public void idle(int idleCount) {
+            // A negative count (after an overflow) denotes a long idle period.
+            if (idleCount >= 0 && idleCount < SPINS && MULTIPROCESSOR) {
+                Thread.onSpinWait();
+            } else if (idleCount >= 0 && idleCount < SPINS + YIELDS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    };
+
+    /** The number of idle iterations spent spinning by {@link #SPIN_THEN_PARK}. */
+    public static final int SPINS = 1000;
+
+    /** The number of idle iterations spent yielding by {@link #SPIN_THEN_PARK}. */
+    public static final int YIELDS = 100;
+
+    /** The time (in nanoseconds) {@link #SPIN_THEN_PARK} parks for, once done spinning and yielding. */
+    public static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final boolean MULTIPROCESSOR = Runtime.getRuntime().availableProcessors() > 1;
+
+    /**
+     * Waits a little, after {@code idleCount} consecutive unsuccessful attempts
+     * to use a ring.
+     *
+     * @param idleCount
+     *            the number of consecutive unsuccessful attempts so far
+     */
+    public abstract void idle(int idleCount);
+
+}
@@ -0,0 +1,12 @@
+package com.lochbridge.oath.otp.ipc;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith(Suite.class)
+@SuiteClasses({ TestDirectBufferPool.class, TestSharedMemoryRing.class, TestSharedMemoryValidationServer.class,
+        TestUnixSocketValidationServer.class })
+public class AllUnitTestIpcSuite {
+
+}
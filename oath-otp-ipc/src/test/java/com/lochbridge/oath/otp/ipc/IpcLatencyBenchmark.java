@@ -0,0 +1,107 @@
+package com.lochbridge.oath.otp.ipc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.TOTP;
+import com.lochbridge.oath.otp.service.Credential;
+import com.lochbridge.oath.otp.service.InMemoryCredentialStore;
+import com.lochbridge.oath.otp.service.ValidationService;
+import com.lochbridge.oath.otp.service.ValidationServiceBuilder;
+
+/**
+ * A round-trip latency benchmark of the local transports: validates the same
+ * requests, one at a time, through a {@link SharedMemoryValidationServer} and a
+ * {@link UnixSocketValidationServer}, and prints the latency percentiles of each.
+ * Two workloads are measured: requests for an unknown user (transport overhead
+ * only), and valid TOTPs (transport plus HMAC computations).
+ * <p>
+ * Usage (from the {@code oath-otp-ipc} directory, after {@code mvn test-compile}):
+ * <pre>
+ * mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.lochbridge.oath.otp.ipc.IpcLatencyBenchmark -Dexec.args="[iterations] [BUSY_SPIN|SPIN_THEN_PARK]"
+ * </pre>
+ */
+public final class IpcLatencyBenchmark {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final long TIME_STEP = TimeUnit.SECONDS.toMillis(30);
+
+    private IpcLatencyBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        WaitStrategy waitStrategy = args.length > 1 ? WaitStrategy.valueOf(args[1]) : WaitStrategy.SPIN_THEN_PARK;
+
+        InMemoryCredentialStore store = new InMemoryCredentialStore().put(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP));
+        String code = TOTP.key(KEY).timeStep(TIME_STEP).build().value();
+        Path directory = Files.createTempDirectory("oath-ipc");
+        try (ValidationService service = ValidationServiceBuilder.fromStore(store).build()) {
+            try (SharedMemoryValidationServer server = SharedMemoryValidationServerBuilder.fromService(service)
+                    .file(directory.resolve("otp.ring")).waitStrategy(waitStrategy).build()) {
+                server.start();
+                final SharedMemoryValidationClient client = SharedMemoryValidationClient.attach(server.getPath(), waitStrategy);
+                run("shm " + waitStrategy + ", unknown user", iterations, new Exchange() {
+                    @Override
+                    public ValidationReply validate(String userId, String code) {
+                        return client.validate(userId, null, code);
+                    }
+                }, "carol", code);
+                run("shm " + waitStrategy + ", valid TOTP", iterations, new Exchange() {
+                    @Override
+                    public ValidationReply validate(String userId, String code) {
+                        return client.validate(userId, null, code);
+                    }
+                }, "bob", code);
+            }
+            try (UnixSocketValidationServer server = UnixSocketValidationServer.bind(directory.resolve("otp.sock"), service)) {
+                server.start();
+                try (final UnixSocketValidationClient client = UnixSocketValidationClient.connect(server.getPath())) {
+                    Exchange exchange = new Exchange() {
+                        @Override
+                        public ValidationReply validate(String userId, String code) throws IOException {
+                            return client.validate(userId, code);
+                        }
+                    };
+                    run("uds, unknown user", iterations, exchange, "carol", code);
+                    run("uds, valid TOTP", iterations, exchange, "bob", code);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private interface Exchange {
+        ValidationReply validate(String userId, String code) throws IOException;
+    }
+
+    private static void run(String name, int iterations, Exchange exchange, String userId, String code) throws IOException {
+        // Warm up, then measure.
+        for (int i = 0; i < iterations / 10; i++) {
+            exchange.validate(userId, code);
+        }
+        long[] latencies = new long[iterations];
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            exchange.validate(userId, code);
+            latencies[i] = System.nanoTime() - start;
+        }
+        long elapsed = System.nanoTime() - begin;
+        Arrays.sort(latencies);
+        System.out.println(String.format(Locale.ROOT, "%-32s %8.0f req/s  p50 %6.1f us  p99 %7.1f us  p99.9 %7.1f us", name,
+                iterations * 1e9 / elapsed, percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999)));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e3;
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.lochbridge.oath.otp.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestDirectBufferPool {
+
+    @Test
+    public void acquireShouldReuseReleasedBuffers() {
+        DirectBufferPool pool = new DirectBufferPool(64, 2);
+        ByteBuffer buffer = pool.acquire();
+        assertTrue(buffer.isDirect());
+        assertEquals(64, buffer.capacity());
+        buffer.put((byte) 1);
+        pool.release(buffer);
+        assertEquals(1, pool.pooled());
+        ByteBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(64, reused.limit());
+        assertNotSame(reused, pool.acquire());
+    }
+
+    @Test
+    public void releaseShouldDropBuffersBeyondTheMaximumPooled() {
+        DirectBufferPool pool = new DirectBufferPool(64, 1);
+        pool.release(pool.acquire());
+        pool.release(ByteBuffer.allocateDirect(64));
+        assertEquals(1, pool.pooled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldFailWhenBufferSizeIsLessThanOne() {
+        new DirectBufferPool(0, 1);
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.lochbridge.oath.otp.ipc;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class TestSharedMemoryRing {
+
+    private static SharedMemoryRing newRing(int slots) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedMemoryRing.size(slots, 16)).order(ByteOrder.nativeOrder());
+        SharedMemoryRing ring = new SharedMemoryRing(buffer, 0, slots, 16);
+        ring.initialize();
+        return ring;
+    }
+
+    @Test
+    public void tryClaimShouldFailWhenTheRingIsFull() {
+        SharedMemoryRing ring = newRing(4);
+        for (int i = 0; i < 4; i++) {
+            long position = ring.tryClaim();
+            assertEquals(i, position);
+            ring.publish(position);
+        }
+        assertEquals(-1, ring.tryClaim());
+        long position = ring.tryConsume();
+        assertEquals(0, position);
+        // The slot is not reusable until released.
+        assertEquals(-1, ring.tryClaim());
+        ring.release(position);
+        assertEquals(4, ring.tryClaim());
+    }
+
+    @Test
+    public void tryConsumeShouldFailWhenTheRingIsEmptyOrUnpublished() {
+        SharedMemoryRing ring = newRing(4);
+        assertEquals(-1, ring.tryConsume());
+        long position = ring.tryClaim();
+        assertEquals(-1, ring.tryConsume());
+        ring.publish(position);
+        assertEquals(position, ring.tryConsume());
+    }
+
+    @Test
+    public void ringShouldDeliverEveryElementOnceToConcurrentConsumers() throws InterruptedException {
+        final int slots = 64;
+        final long count = 200000;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(SharedMemoryRing.size(slots, 16)).order(ByteOrder.nativeOrder());
+        final ByteBuffer shared = buffer;
+        final SharedMemoryRing ring = new SharedMemoryRing(buffer, 0, slots, 16);
+        ring.initialize();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong consumed = new AtomicLong();
+        Thread[] consumers = new Thread[3];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (consumed.get() < count) {
+                        long position = ring.tryConsume();
+                        if (position < 0) {
+                            Thread.yield();
+                            continue;
+                        }
+                        sum.addAndGet(shared.getLong(ring.slotOffset(position) + 8));
+                        ring.release(position);
+                        consumed.incrementAndGet();
+                    }
+                }
+            });
+            consumers[i].start();
+        }
+        for (long value = 1; value <= count; value++) {
+            long position;
+            while ((position = ring.tryClaim()) < 0) {
+                Thread.yield();
+            }
+            shared.putLong(ring.slotOffset(position) + 8, value);
+            ring.publish(position);
+        }
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        assertEquals(count, consumed.get());
+        assertEquals(count * (count + 1) / 2, sum.get());
+    }
+
+}
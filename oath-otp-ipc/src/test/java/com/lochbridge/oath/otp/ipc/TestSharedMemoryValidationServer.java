@@ -0,0 +1,154 @@
+package com.lochbridge.oath.otp.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lochbridge.oath.otp.HOTP;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.TOTP;
+import com.lochbridge.oath.otp.ipc.ValidationReply.Status;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.service.Credential;
+import com.lochbridge.oath.otp.service.InMemoryCredentialStore;
+import com.lochbridge.oath.otp.service.ValidationService;
+import com.lochbridge.oath.otp.service.ValidationServiceBuilder;
+
+public class TestSharedMemoryValidationServer {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final long TIME_STEP = TimeUnit.SECONDS.toMillis(30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryCredentialStore store;
+    private ValidationService service;
+    private SharedMemoryValidationServer server;
+    private SharedMemoryValidationClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new InMemoryCredentialStore()
+            .put(Credential.hotp("alice", KEY, 6, 0))
+            .put(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP));
+        service = ValidationServiceBuilder.fromStore(store).build();
+        server = SharedMemoryValidationServerBuilder.fromService(service)
+            .file(folder.getRoot().toPath().resolve("otp.ring"))
+            .slots(8)
+            .consumers(2)
+            .build();
+        server.start();
+        client = SharedMemoryValidationClient.attach(server.getPath(), WaitStrategy.SPIN_THEN_PARK);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        service.close();
+    }
+
+    @Test
+    public void validateShouldAcceptAValidHOTPOnce() {
+        String code = HOTP.key(KEY).movingFactor(0).build().value();
+        ValidationReply reply = client.validate("alice", OTPType.HOTP, code);
+        assertEquals(Status.VALID, reply.getStatus());
+        assertEquals(1, reply.getMovingFactor());
+        reply = client.validate("alice", null, code);
+        assertEquals(Status.INVALID, reply.getStatus());
+        assertEquals(1, reply.getMovingFactor());
+    }
+
+    @Test
+    public void validateShouldReportTheDriftOfATOTPClient() {
+        long now = System.currentTimeMillis();
+        String code = TOTP.key(KEY).timeStep(TIME_STEP).build(now + TIME_STEP).value();
+        ValidationReply reply = client.validate("bob", OTPType.TOTP, code);
+        assertTrue(reply.isValid());
+        if (now / TIME_STEP == System.currentTimeMillis() / TIME_STEP) {
+            assertEquals(1, reply.getDrift());
+        }
+    }
+
+    @Test
+    public void validateShouldReportUnknownUsers() {
+        assertEquals(Status.UNKNOWN_USER, client.validate("carol", null, "123456").getStatus());
+    }
+
+    @Test
+    public void submitShouldPipelineMoreRequestsThanTheRingHoldsSlots() {
+        Set<Long> pending = new HashSet<Long>();
+        int received = 0;
+        for (int i = 0; i < 100; i++) {
+            pending.add(client.submit("carol", null, "123456"));
+            ValidationReply reply;
+            while ((reply = client.poll()) != null) {
+                assertTrue(pending.remove(reply.getCorrelationId()));
+                received++;
+            }
+        }
+        while (received < 100) {
+            ValidationReply reply = client.poll();
+            if (reply != null) {
+                assertEquals(Status.UNKNOWN_USER, reply.getStatus());
+                assertTrue(pending.remove(reply.getCorrelationId()));
+                received++;
+            }
+        }
+        assertTrue(pending.isEmpty());
+        assertNull(client.poll());
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void validateShouldTimeOutWhenTheServerIsStopped() throws IOException, TimeoutException {
+        SharedMemoryValidationServer stopped = SharedMemoryValidationServerBuilder.fromService(service)
+            .file(folder.getRoot().toPath().resolve("stopped.ring"))
+            .build();
+        try {
+            SharedMemoryValidationClient.attach(stopped.getPath(), WaitStrategy.BUSY_SPIN).validate("carol", null, "123456", 10, TimeUnit.MILLISECONDS);
+        } finally {
+            stopped.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void submitShouldFailWhenCodeIsTooLong() {
+        client.submit("alice", null, "12345678901234567");
+    }
+
+    @Test(expected = IOException.class)
+    public void attachShouldFailWhenTheFileIsNotASharedMemoryValidationFile() throws IOException {
+        Path file = folder.newFile("other").toPath();
+        Files.write(file, new byte[SharedMemoryLayout.FILE_HEADER_SIZE]);
+        SharedMemoryValidationClient.attach(file, WaitStrategy.BUSY_SPIN);
+    }
+
+    @Test
+    public void closeShouldDeleteTheFile() throws IOException {
+        assertTrue(Files.exists(server.getPath()));
+        server.close();
+        assertFalse(Files.exists(server.getPath()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void slotsShouldFailWhenArgumentIsNotAPowerOfTwo() {
+        SharedMemoryValidationServerBuilder.fromService(service).slots(100);
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.lochbridge.oath.otp.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lochbridge.oath.otp.HOTP;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.TOTP;
+import com.lochbridge.oath.otp.ipc.ValidationReply.Status;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.service.Credential;
+import com.lochbridge.oath.otp.service.InMemoryCredentialStore;
+import com.lochbridge.oath.otp.service.ValidationService;
+import com.lochbridge.oath.otp.service.ValidationServiceBuilder;
+
+public class TestUnixSocketValidationServer {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final long TIME_STEP = TimeUnit.SECONDS.toMillis(30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemoryCredentialStore store;
+    private ValidationService service;
+    private UnixSocketValidationServer server;
+    private UnixSocketValidationClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new InMemoryCredentialStore()
+            .put(Credential.hotp("alice", KEY, 6, 0))
+            .put(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP));
+        service = ValidationServiceBuilder.fromStore(store).build();
+        server = UnixSocketValidationServer.bind(folder.getRoot().toPath().resolve("otp.sock"), service);
+        server.start();
+        client = UnixSocketValidationClient.connect(server.getPath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+        service.close();
+    }
+
+    @Test
+    public void validateShouldAcceptAValidHOTPOnce() throws IOException {
+        String code = HOTP.key(KEY).movingFactor(0).build().value();
+        ValidationReply reply = client.validate("alice", OTPType.HOTP, code);
+        assertEquals(Status.VALID, reply.getStatus());
+        assertEquals(1, reply.getMovingFactor());
+        reply = client.validate("alice", code);
+        assertEquals(Status.INVALID, reply.getStatus());
+        assertEquals(1, reply.getMovingFactor());
+    }
+
+    @Test
+    public void validateShouldReportTheDriftOfATOTPClient() throws IOException {
+        long now = System.currentTimeMillis();
+        String code = TOTP.key(KEY).timeStep(TIME_STEP).build(now - TIME_STEP).value();
+        ValidationReply reply = client.validate("bob", OTPType.TOTP, code);
+        assertTrue(reply.isValid());
+        if (now / TIME_STEP == System.currentTimeMillis() / TIME_STEP) {
+            assertEquals(-1, reply.getDrift());
+        }
+    }
+
+    @Test
+    public void validateShouldRejectACredentialOfAnotherType() throws IOException {
+        String code = HOTP.key(KEY).movingFactor(0).build().value();
+        assertEquals(Status.INVALID, client.validate("alice", OTPType.TOTP, code).getStatus());
+        assertEquals(0, store.load("alice").getMovingFactor());
+    }
+
+    @Test
+    public void validateShouldReportUnknownUsers() throws IOException {
+        assertEquals(Status.UNKNOWN_USER, client.validate("carol", "123456").getStatus());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validateShouldFailWhenUserIdIsEmpty() throws IOException {
+        client.validate("", "123456");
+    }
+
+    @Test
+    public void serverShouldAnswerPipelinedRequests() throws IOException {
+        try (SocketChannel channel = connect()) {
+            ByteBuffer requests = ByteBuffer.allocate(64 * 100);
+            for (int i = 0; i < 100; i++) {
+                ValidationProtocol.writeRequest(requests, i, ValidationProtocol.TYPE_ANY, "carol".getBytes(StandardCharsets.UTF_8),
+                        "123456".getBytes(StandardCharsets.US_ASCII));
+            }
+            requests.flip();
+            write(channel, requests);
+            channel.shutdownOutput();
+            Set<Long> correlationIds = new HashSet<Long>();
+            for (int i = 0; i < 100; i++) {
+                ValidationReply reply = read(channel);
+                assertEquals(Status.UNKNOWN_USER, reply.getStatus());
+                correlationIds.add(reply.getCorrelationId());
+            }
+            assertEquals(100, correlationIds.size());
+            // The server closes the half-closed connection once all requests are answered.
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    public void serverShouldAnswerMalformedRequests() throws IOException {
+        try (SocketChannel channel = connect()) {
+            ByteBuffer request = ByteBuffer.allocate(64);
+            ValidationProtocol.writeRequest(request, 42, (byte) 9, "alice".getBytes(StandardCharsets.UTF_8), "123456".getBytes(StandardCharsets.US_ASCII));
+            request.flip();
+            write(channel, request);
+            ValidationReply reply = read(channel);
+            assertEquals(Status.MALFORMED, reply.getStatus());
+            assertEquals(42, reply.getCorrelationId());
+
+            // The connection remains usable.
+            request.clear();
+            ValidationProtocol.writeRequest(request, 43, ValidationProtocol.TYPE_ANY, "carol".getBytes(StandardCharsets.UTF_8),
+                    "123456".getBytes(StandardCharsets.US_ASCII));
+            request.flip();
+            write(channel, request);
+            assertEquals(Status.UNKNOWN_USER, read(channel).getStatus());
+        }
+    }
+
+    @Test
+    public void serverShouldCloseConnectionsSendingOversizedFrames() throws IOException {
+        try (SocketChannel channel = connect()) {
+            ByteBuffer frame = ByteBuffer.allocate(2);
+            frame.putShort((short) (ValidationProtocol.MAX_REQUEST_LENGTH + 1)).flip();
+            write(channel, frame);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    public void serverShouldServeConcurrentClients() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        int unknown = 0;
+                        try (UnixSocketValidationClient client = UnixSocketValidationClient.connect(server.getPath())) {
+                            for (int j = 0; j < 100; j++) {
+                                unknown += client.validate("carol", "123456").getStatus() == Status.UNKNOWN_USER ? 1 : 0;
+                            }
+                        }
+                        return unknown;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(100, future.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void closeShouldDeleteTheSocketFile() throws IOException {
+        assertTrue(Files.exists(server.getPath()));
+        server.close();
+        assertFalse(Files.exists(server.getPath()));
+    }
+
+    private SocketChannel connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.connect(UnixDomainSocketAddress.of(server.getPath()));
+        return channel;
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ValidationReply read(SocketChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ValidationProtocol.LENGTH_PREFIX + ValidationProtocol.RESPONSE_LENGTH);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+        }
+        buffer.flip();
+        return ValidationProtocol.readResponse(buffer);
+    }
+
+}
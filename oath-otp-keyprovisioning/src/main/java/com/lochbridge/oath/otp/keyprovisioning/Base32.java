@@ -0,0 +1,676 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A Base32 codec (RFC 4648, upper case alphabet), tuned for OTP secrets, which
+ * are mostly 16 to 32 characters long, and for bulk enrollment and import jobs.
+ * Unlike Guava's {@code BaseEncoding}, which works through generic,
+ * stream-oriented paths, this codec works on whole 40-bit groups held in a
+ * {@code long}: 5 bytes are encoded into 8 characters, and 8 characters decoded
+ * into 5 bytes, with table lookups and a single validity check per group.
+ * <p>
+ * Besides {@code String}s, the codec reads and writes {@code char[]}s, and
+ * ASCII-encoded {@code byte[]}s and {@link ByteBuffer}s (e.g. slices of a file
+ * being imported), without any intermediate string.
+ * <p>
+ * Decoding comes in two flavors:
+ * <ul>
+ * <li>strict, which accepts the same inputs as {@code BaseEncoding.base32()}:
+ * upper case characters, with or without trailing padding,</li>
+ * <li>lenient, which also accepts lower case characters, and ignores spaces,
+ * tabs, line breaks and hyphens (as in secrets displayed in groups of 4
+ * characters for manual entry).</li>
+ * </ul>
+ */
+public final class Base32 {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+    private static final byte[] ASCII_ALPHABET = new byte[32];
+    private static final char PADDING = '=';
+    private static final byte[] STRICT_VALUES = new byte[128];
+    private static final byte[] LENIENT_VALUES = new byte[128];
+    private static final int CHUNK = 320;
+
+    static {
+        Arrays.fill(STRICT_VALUES, (byte) -1);
+        Arrays.fill(LENIENT_VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            ASCII_ALPHABET[i] = (byte) ALPHABET[i];
+            STRICT_VALUES[ALPHABET[i]] = (byte) i;
+            LENIENT_VALUES[ALPHABET[i]] = (byte) i;
+            LENIENT_VALUES[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+        }
+    }
+
+    private Base32() {
+    }
+
+    /**
+     * Returns the number of characters encoding the specified number of bytes.
+     *
+     * @param length
+     *            the number of bytes
+     * @param padding
+     *            whether the encoding is padded to a multiple of 8 characters
+     *
+     * @return the number of characters encoding {@code length} bytes.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code length} is negative, or too large for the encoding to fit in an array.
+     */
+    public static int encodedLength(int length, boolean padding) {
+        Preconditions.checkArgument(length >= 0);
+        int groups = length / 5;
+        int remaining = length - groups * 5;
+        long encodedLength = groups * 8L + (remaining == 0 ? 0 : padding ? 8 : (remaining * 8 + 4) / 5);
+        Preconditions.checkArgument(encodedLength <= Integer.MAX_VALUE, "Too many bytes to encode: %s", length);
+        return (int) encodedLength;
+    }
+
+    /**
+     * Returns the maximum number of bytes encoded by the specified number of
+     * characters (the exact number if the characters hold neither padding, nor
+     * separators).
+     *
+     * @param length
+     *            the number of characters
+     *
+     * @return the maximum number of bytes encoded by {@code length} characters.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code length} is negative.
+     */
+    public static int maxDecodedLength(int length) {
+        Preconditions.checkArgument(length >= 0);
+        return (int) (length * 5L / 8);
+    }
+
+    /**
+     * Returns the padded Base32 encoding of the specified bytes.
+     *
+     * @param bytes
+     *            the bytes to encode
+     *
+     * @return the padded Base32 encoding of {@code bytes}.
+     *
+     * @throws NullPointerException
+     *             if {@code bytes} is {@code null}.
+     */
+    public static String encode(byte[] bytes) {
+        return encode(bytes, true);
+    }
+
+    /**
+     * Returns the Base32 encoding of the specified bytes.
+     *
+     * @param bytes
+     *            the bytes to encode
+     * @param padding
+     *            whether to pad the encoding to a multiple of 8 characters
+     *
+     * @return the Base32 encoding of {@code bytes}.
+     *
+     * @throws NullPointerException
+     *             if {@code bytes} is {@code null}.
+     */
+    public static String encode(byte[] bytes, boolean padding) {
+        char[] chars = new char[encodedLength(bytes.length, padding)];
+        encode(bytes, 0, bytes.length, chars, 0, padding);
+        return new String(chars);
+    }
+
+    /**
+     * Encodes {@code length} bytes of {@code src}, starting at {@code srcOffset},
+     * into {@code dst} starting at {@code dstOffset}.
+     *
+     * @param src
+     *            the bytes to encode
+     * @param srcOffset
+     *            the offset of the first byte to encode
+     * @param length
+     *            the number of bytes to encode
+     * @param dst
+     *            the array to write the characters to
+     * @param dstOffset
+     *            the offset of the first character to write
+     * @param padding
+     *            whether to pad the encoding to a multiple of 8 characters
+     *
+     * @return the number of characters written (see {@link #encodedLength(int, boolean)}).
+     *
+     * @throws NullPointerException
+     *             if {@code src} or {@code dst} is {@code null}.
+     * @throws IndexOutOfBoundsException
+     *             if the bytes to encode are out of the bounds of {@code src}, or the
+     *             encoding does not fit in {@code dst}.
+     */
+    public static int encode(byte[] src, int srcOffset, int length, char[] dst, int dstOffset, boolean padding) {
+        Preconditions.checkPositionIndexes(srcOffset, srcOffset + length, src.length);
+        int encodedLength = encodedLength(length, padding);
+        Preconditions.checkPositionIndexes(dstOffset, dstOffset + encodedLength, dst.length);
+        int in = srcOffset;
+        int out = dstOffset;
+        for (int last = srcOffset + length - 5; in <= last; in += 5, out += 8) {
+            long bits = group(src, in);
+            dst[out] = ALPHABET[(int) (bits >>> 35) & 31];
+            dst[out + 1] = ALPHABET[(int) (bits >>> 30) & 31];
+            dst[out + 2] = ALPHABET[(int) (bits >>> 25) & 31];
+            dst[out + 3] = ALPHABET[(int) (bits >>> 20) & 31];
+            dst[out + 4] = ALPHABET[(int) (bits >>> 15) & 31];
+            dst[out + 5] = ALPHABET[(int) (bits >>> 10) & 31];
+            dst[out + 6] = ALPHABET[(int) (bits >>> 5) & 31];
+            dst[out + 7] = ALPHABET[(int) bits & 31];
+        }
+        int remaining = srcOffset + length - in;
+        if (remaining > 0) {
+            long bits = tailGroup(src, in, remaining);
+            int tailChars = (remaining * 8 + 4) / 5;
+            for (int i = 0; i < tailChars; i++) {
+                dst[out++] = ALPHABET[(int) (bits >>> (35 - 5 * i)) & 31];
+            }
+            for (int end = dstOffset + encodedLength; out < end; out++) {
+                dst[out] = PADDING;
+            }
+        }
+        return encodedLength;
+    }
+
+    /**
+     * Encodes {@code length} bytes of {@code src}, starting at {@code srcOffset},
+     * into ASCII characters in {@code dst} starting at {@code dstOffset}.
+     *
+     * @param src
+     *            the bytes to encode
+     * @param srcOffset
+     *            the offset of the first byte to encode
+     * @param length
+     *            the number of bytes to encode
+     * @param dst
+     *            the array to write the ASCII characters to
+     * @param dstOffset
+     *            the offset of the first character to write
+     * @param padding
+     *            whether to pad the encoding to a multiple of 8 characters
+     *
+     * @return the number of characters written (see {@link #encodedLength(int, boolean)}).
+     *
+     * @throws NullPointerException
+     *             if {@code src} or {@code dst} is {@code null}.
+     * @throws IndexOutOfBoundsException
+     *             if the bytes to encode are out of the bounds of {@code src}, or the
+     *             encoding does not fit in {@code dst}.
+     */
+    public static int encode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, boolean padding) {
+        Preconditions.checkPositionIndexes(srcOffset, srcOffset + length, src.length);
+        int encodedLength = encodedLength(length, padding);
+        Preconditions.checkPositionIndexes(dstOffset, dstOffset + encodedLength, dst.length);
+        int in = srcOffset;
+        int out = dstOffset;
+        for (int last = srcOffset + length - 5; in <= last; in += 5, out += 8) {
+            long bits = group(src, in);
+            dst[out] = ASCII_ALPHABET[(int) (bits >>> 35) & 31];
+            dst[out + 1] = ASCII_ALPHABET[(int) (bits >>> 30) & 31];
+            dst[out + 2] = ASCII_ALPHABET[(int) (bits >>> 25) & 31];
+            dst[out + 3] = ASCII_ALPHABET[(int) (bits >>> 20) & 31];
+            dst[out + 4] = ASCII_ALPHABET[(int) (bits >>> 15) & 31];
+            dst[out + 5] = ASCII_ALPHABET[(int) (bits >>> 10) & 31];
+            dst[out + 6] = ASCII_ALPHABET[(int) (bits >>> 5) & 31];
+            dst[out + 7] = ASCII_ALPHABET[(int) bits & 31];
+        }
+        int remaining = srcOffset + length - in;
+        if (remaining > 0) {
+            long bits = tailGroup(src, in, remaining);
+            int tailChars = (remaining * 8 + 4) / 5;
+            for (int i = 0; i < tailChars; i++) {
+                dst[out++] = ASCII_ALPHABET[(int) (bits >>> (35 - 5 * i)) & 31];
+            }
+            for (int end = dstOffset + encodedLength; out < end; out++) {
+                dst[out] = (byte) PADDING;
+            }
+        }
+        return encodedLength;
+    }
+
+    /**
+     * Encodes the remaining bytes of {@code src} into ASCII characters in
+     * {@code dst}. The position of {@code src} is advanced to its limit, and the
+     * position of {@code dst} past the last character written.
+     *
+     * @param src
+     *            the bytes to encode
+     * @param dst
+     *            the buffer to write the ASCII characters to
+     * @param padding
+     *            whether to pad the encoding to a multiple of 8 characters
+     *
+     * @return the number of characters written (see {@link #encodedLength(int, boolean)}).
+     *
+     * @throws NullPointerException
+     *             if {@code src} or {@code dst} is {@code null}.
+     * @throws BufferOverflowException
+     *             if the encoding does not fit in the remaining space of {@code dst}.
+     * @throws java.nio.ReadOnlyBufferException
+     *             if {@code dst} is read-only.
+     */
+    public static int encode(ByteBuffer src, ByteBuffer dst, boolean padding) {
+        int length = src.remaining();
+        int encodedLength = encodedLength(length, padding);
+        if (dst.remaining() < encodedLength) {
+            throw new BufferOverflowException();
+        }
+        if (src.hasArray() && dst.hasArray()) {
+            encode(src.array(), src.arrayOffset() + src.position(), length, dst.array(), dst.arrayOffset() + dst.position(), padding);
+            src.position(src.limit());
+            dst.position(dst.position() + encodedLength);
+            return encodedLength;
+        }
+        // Direct (or read-only) buffers go through scratch arrays, a multiple of 5 bytes at a time.
+        byte[] in = new byte[Math.min(CHUNK, length)];
+        byte[] out = new byte[encodedLength(in.length, true)];
+        while (src.hasRemaining()) {
+            int n = Math.min(in.length, src.remaining());
+            src.get(in, 0, n);
+            dst.put(out, 0, encode(in, 0, n, out, 0, padding));
+        }
+        return encodedLength;
+    }
+
+    /**
+     * Returns the bytes encoded by the specified Base32 characters (decoded
+     * strictly).
+     *
+     * @param chars
+     *            the Base32 characters, with or without trailing padding
+     *
+     * @return the decoded bytes.
+     *
+     * @throws NullPointerException
+     *             if {@code chars} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code chars} contains a character outside of the Base32 alphabet, or
+     *             has an impossible length.
+     */
+    public static byte[] decode(CharSequence chars) {
+        return decode(chars, false);
+    }
+
+    /**
+     * Returns the bytes encoded by the specified Base32 characters.
+     *
+     * @param chars
+     *            the Base32 characters, with or without trailing padding
+     * @param lenient
+     *            whether to accept lower case characters, and ignore separators
+     *
+     * @return the decoded bytes.
+     *
+     * @throws NullPointerException
+     *             if {@code chars} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code chars} contains a character outside of the Base32 alphabet (and
+     *             the separators, if {@code lenient}), or has an impossible length.
+     */
+    public static byte[] decode(CharSequence chars, boolean lenient) {
+        Preconditions.checkNotNull(chars);
+        if (lenient) {
+            char[] significant = new char[chars.length()];
+            int length = 0;
+            for (int i = 0; i < significant.length; i++) {
+                char c = chars.charAt(i);
+                if (!isSeparator(c)) {
+                    significant[length++] = c;
+                }
+            }
+            length = trimPadding(significant, 0, length);
+            byte[] bytes = new byte[decodedLength(length)];
+            decodeChars(significant, 0, length, bytes, 0, LENIENT_VALUES);
+            return bytes;
+        }
+        int length = chars.length();
+        while (length > 0 && chars.charAt(length - 1) == PADDING) {
+            length--;
+        }
+        byte[] bytes = new byte[decodedLength(length)];
+        int in = 0;
+        int out = 0;
+        for (int groups = length >>> 3; groups > 0; groups--, out += 5) {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = bits << 5 | value(chars.charAt(in++), STRICT_VALUES);
+            }
+            writeGroup(bits, bytes, out);
+        }
+        int tailChars = length - in;
+        if (tailChars > 0) {
+            long bits = 0;
+            for (int i = 0; i < tailChars; i++) {
+                bits = bits << 5 | value(chars.charAt(in++), STRICT_VALUES);
+            }
+            writeTail(bits, tailChars, bytes, out, bytes.length - out);
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes {@code length} Base32 characters of {@code src}, starting at
+     * {@code srcOffset}, into {@code dst} starting at {@code dstOffset}.
+     *
+     * @param src
+     *            the Base32 characters, with or without trailing padding
+     * @param srcOffset
+     *            the offset of the first character to decode
+     * @param length
+     *            the number of characters to decode
+     * @param dst
+     *            the array to write the bytes to
+     * @param dstOffset
+     *            the offset of the first byte to write
+     * @param lenient
+     *            whether to accept lower case characters, and ignore separators
+     *
+     * @return the number of bytes written.
+     *
+     * @throws NullPointerException
+     *             if {@code src} or {@code dst} is {@code null}.
+     * @throws IndexOutOfBoundsException
+     *             if the characters to decode are out of the bounds of {@code src}, or the
+     *             decoded bytes do not fit in {@code dst}.
+     * @throws IllegalArgumentException
+     *             if the characters are not valid Base32.
+     */
+    public static int decode(char[] src, int srcOffset, int length, byte[] dst, int dstOffset, boolean lenient) {
+        Preconditions.checkPositionIndexes(srcOffset, srcOffset + length, src.length);
+        int end = srcOffset + length;
+        if (lenient && hasSeparator(src, srcOffset, end)) {
+            char[] significant = new char[length];
+            int n = 0;
+            for (int i = srcOffset; i < end; i++) {
+                if (!isSeparator(src[i])) {
+                    significant[n++] = src[i];
+                }
+            }
+            return decode(significant, 0, n, dst, dstOffset, true);
+        }
+        int significant = trimPadding(src, srcOffset, length);
+        int decodedLength = decodedLength(significant);
+        Preconditions.checkPositionIndexes(dstOffset, dstOffset + decodedLength, dst.length);
+        decodeChars(src, srcOffset, significant, dst, dstOffset, lenient ? LENIENT_VALUES : STRICT_VALUES);
+        return decodedLength;
+    }
+
+    /**
+     * Decodes {@code length} ASCII-encoded Base32 characters of {@code src},
+     * starting at {@code srcOffset}, into {@code dst} starting at {@code dstOffset}.
+     *
+     * @param src
+     *            the ASCII-encoded Base32 characters, with or without trailing padding
+     * @param srcOffset
+     *            the offset of the first character to decode
+     * @param length
+     *            the number of characters to decode
+     * @param dst
+     *            the array to write the bytes to
+     * @param dstOffset
+     *            the offset of the first byte to write
+     * @param lenient
+     *            whether to accept lower case characters, and ignore separators
+     *
+     * @return the number of bytes written.
+     *
+     * @throws NullPointerException
+     *             if {@code src} or {@code dst} is {@code null}.
+     * @throws IndexOutOfBoundsException
+     *             if the characters to decode are out of the bounds of {@code src}, or the
+     *             decoded bytes do not fit in {@code dst}.
+     * @throws IllegalArgumentException
+     *             if the characters are not valid Base32.
+     */
+    public static int decode(byte[] src, int srcOffset, int length, byte[] dst, int dstOffset, boolean lenient) {
+        Preconditions.checkPositionIndexes(srcOffset, srcOffset + length, src.length);
+        int end = srcOffset + length;
+        if (lenient && hasSeparator(src, srcOffset, end)) {
+            byte[] significant = new byte[length];
+            int n = 0;
+            for (int i = srcOffset; i < end; i++) {
+                if (!isSeparator((char) (src[i] & 0xFF))) {
+                    significant[n++] = src[i];
+                }
+            }
+            return decode(significant, 0, n, dst, dstOffset, true);
+        }
+        int significant = trimPadding(src, srcOffset, length);
+        int decodedLength = decodedLength(significant);
+        Preconditions.checkPositionIndexes(dstOffset, dstOffset + decodedLength, dst.length);
+        decodeAscii(src, srcOffset, significant, dst, dstOffset, lenient ? LENIENT_VALUES : STRICT_VALUES);
+        return decodedLength;
+    }
+
+    /**
+     * Decodes the remaining ASCII-encoded Base32 characters of {@code src} into
+     * {@code dst}. The position of {@code src} is advanced to its limit, and the
+     * position of {@code dst} past the last byte written.
+     *
+     * @param src
+     *            the ASCII-encoded Base32 characters, with or without trailing padding
+     * @param dst
+     *            the buffer to write the bytes to
+     * @param lenient
+     *            whether to accept lower case characters, and ignore separators
+     *
+     * @return the number of bytes written.
+     *
+     * @throws NullPointerException
+     *             if {@code src} or {@code dst} is {@code null}.
+     * @throws BufferOverflowException
+     *             if the decoded bytes do not fit in the remaining space of {@code dst}.
+     * @throws IllegalArgumentException
+     *             if the characters are not valid Base32, in which case the positions of
+     *             both buffers are left unchanged.
+     * @throws java.nio.ReadOnlyBufferException
+     *             if {@code dst} is read-only.
+     */
+    public static int decode(ByteBuffer src, ByteBuffer dst, boolean lenient) {
+        byte[] chars;
+        int offset;
+        int length = src.remaining();
+        if (src.hasArray()) {
+            chars = src.array();
+            offset = src.arrayOffset() + src.position();
+        } else {
+            chars = new byte[length];
+            src.duplicate().get(chars);
+            offset = 0;
+        }
+        if (dst.hasArray() && dst.remaining() >= maxDecodedLength(length)) {
+            int decodedLength = decode(chars, offset, length, dst.array(), dst.arrayOffset() + dst.position(), lenient);
+            src.position(src.limit());
+            dst.position(dst.position() + decodedLength);
+            return decodedLength;
+        }
+        byte[] bytes = new byte[maxDecodedLength(length)];
+        int decodedLength = decode(chars, offset, length, bytes, 0, lenient);
+        if (dst.remaining() < decodedLength) {
+            throw new BufferOverflowException();
+        }
+        dst.put(bytes, 0, decodedLength);
+        src.position(src.limit());
+        return decodedLength;
+    }
+
+    private static void decodeChars(char[] src, int in, int length, byte[] dst, int out, byte[] values) {
+        // Whole groups are checked once, so that the loop body has no data-dependent branches.
+        for (int last = in + length - 8; in <= last; in += 8, out += 5) {
+            int c0 = src[in];
+            int c1 = src[in + 1];
+            int c2 = src[in + 2];
+            int c3 = src[in + 3];
+            int c4 = src[in + 4];
+            int c5 = src[in + 5];
+            int c6 = src[in + 6];
+            int c7 = src[in + 7];
+            if ((c0 | c1 | c2 | c3 | c4 | c5 | c6 | c7) >= 128) {
+                throw invalidGroup(src, in, values);
+            }
+            int v0 = values[c0];
+            int v1 = values[c1];
+            int v2 = values[c2];
+            int v3 = values[c3];
+            int v4 = values[c4];
+            int v5 = values[c5];
+            int v6 = values[c6];
+            int v7 = values[c7];
+            if ((v0 | v1 | v2 | v3 | v4 | v5 | v6 | v7) < 0) {
+                throw invalidGroup(src, in, values);
+            }
+            writeGroup((long) v0 << 35 | (long) v1 << 30 | (long) v2 << 25 | (long) v3 << 20 | (long) v4 << 15 | (long) v5 << 10 | (long) v6 << 5 | v7,
+                    dst, out);
+        }
+        int tailChars = length & 7;
+        if (tailChars > 0) {
+            long bits = 0;
+            for (int i = 0; i < tailChars; i++) {
+                bits = bits << 5 | value(src[in + i], values);
+            }
+            writeTail(bits, tailChars, dst, out, tailChars * 5 / 8);
+        }
+    }
+
+    private static void decodeAscii(byte[] src, int in, int length, byte[] dst, int out, byte[] values) {
+        for (int last = in + length - 8; in <= last; in += 8, out += 5) {
+            int c0 = src[in] & 0xFF;
+            int c1 = src[in + 1] & 0xFF;
+            int c2 = src[in + 2] & 0xFF;
+            int c3 = src[in + 3] & 0xFF;
+            int c4 = src[in + 4] & 0xFF;
+            int c5 = src[in + 5] & 0xFF;
+            int c6 = src[in + 6] & 0xFF;
+            int c7 = src[in + 7] & 0xFF;
+            if ((c0 | c1 | c2 | c3 | c4 | c5 | c6 | c7) >= 128) {
+                throw invalidGroup(src, in, values);
+            }
+            int v0 = values[c0];
+            int v1 = values[c1];
+            int v2 = values[c2];
+            int v3 = values[c3];
+            int v4 = values[c4];
+            int v5 = values[c5];
+            int v6 = values[c6];
+            int v7 = values[c7];
+            if ((v0 | v1 | v2 | v3 | v4 | v5 | v6 | v7) < 0) {
+                throw invalidGroup(src, in, values);
+            }
+            writeGroup((long) v0 << 35 | (long) v1 << 30 | (long) v2 << 25 | (long) v3 << 20 | (long) v4 << 15 | (long) v5 << 10 | (long) v6 << 5 | v7,
+                    dst, out);
+        }
+        int tailChars = length & 7;
+        if (tailChars > 0) {
+            long bits = 0;
+            for (int i = 0; i < tailChars; i++) {
+                bits = bits << 5 | value((char) (src[in + i] & 0xFF), values);
+            }
+            writeTail(bits, tailChars, dst, out, tailChars * 5 / 8);
+        }
+    }
+
+    private static long group(byte[] src, int in) {
+        return (src[in] & 0xFFL) << 32 | (src[in + 1] & 0xFFL) << 24 | (src[in + 2] & 0xFFL) << 16 | (src[in + 3] & 0xFFL) << 8 | (src[in + 4] & 0xFFL);
+    }
+
+    private static long tailGroup(byte[] src, int in, int remaining) {
+        long bits = 0;
+        for (int i = 0; i < 5; i++) {
+            bits = bits << 8 | (i < remaining ? src[in + i] & 0xFFL : 0);
+        }
+        return bits;
+    }
+
+    private static void writeGroup(long bits, byte[] dst, int out) {
+        dst[out] = (byte) (bits >>> 32);
+        dst[out + 1] = (byte) (bits >>> 24);
+        dst[out + 2] = (byte) (bits >>> 16);
+        dst[out + 3] = (byte) (bits >>> 8);
+        dst[out + 4] = (byte) bits;
+    }
+
+    private static void writeTail(long bits, int tailChars, byte[] dst, int out, int tailBytes) {
+        // Drop the bits left over past the last whole byte.
+        bits >>>= tailChars * 5 - tailBytes * 8;
+        for (int i = tailBytes - 1; i >= 0; i--) {
+            dst[out + i] = (byte) bits;
+            bits >>>= 8;
+        }
+    }
+
+    private static int decodedLength(int significant) {
+        int tailChars = significant & 7;
+        // 1, 3 or 6 trailing characters cannot encode whole bytes.
+        if (tailChars == 1 || tailChars == 3 || tailChars == 6) {
+            throw new IllegalArgumentException("Invalid Base32 input length " + significant);
+        }
+        return maxDecodedLength(significant);
+    }
+
+    private static int trimPadding(char[] src, int offset, int length) {
+        while (length > 0 && src[offset + length - 1] == PADDING) {
+            length--;
+        }
+        return length;
+    }
+
+    private static int trimPadding(byte[] src, int offset, int length) {
+        while (length > 0 && src[offset + length - 1] == PADDING) {
+            length--;
+        }
+        return length;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '-' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    private static boolean hasSeparator(char[] src, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (isSeparator(src[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasSeparator(byte[] src, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (isSeparator((char) (src[i] & 0xFF))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int value(char c, byte[] values) {
+        int value = c < 128 ? values[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Unrecognized Base32 character: " + c);
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException invalidGroup(char[] src, int in, byte[] values) {
+        for (int i = in; i < in + 8; i++) {
+            value(src[i], values);
+        }
+        throw new AssertionError();
+    }
+
+    private static IllegalArgumentException invalidGroup(byte[] src, int in, byte[] values) {
+        for (int i = in; i < in + 8; i++) {
+            value((char) (src[i] & 0xFF), values);
+        }
+        throw new AssertionError();
+    }
+
+}
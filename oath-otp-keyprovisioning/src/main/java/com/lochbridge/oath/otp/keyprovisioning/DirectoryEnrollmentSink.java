@@ -0,0 +1,55 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import com.google.common.base.Preconditions;
+import com.google.common.escape.Escaper;
+import com.google.common.net.PercentEscaper;
+
+/**
+ * An {@link EnrollmentSink} writing the QR code image of each enrollment into
+ * a file of a directory, named after the account, e.g. {@code alice@example.com.png}
+ * (the characters of the account name other than letters, digits, {@code '-'},
+ * {@code '.'}, {@code '_'} and {@code '@'} are percent-encoded, so that distinct
+ * accounts map to distinct, portable file names).
+ * <p>
+ * Instances are thread-safe.
+ */
+public final class DirectoryEnrollmentSink implements EnrollmentSink {
+
+    private static final Escaper FILE_NAME_ESCAPER = new PercentEscaper("-._@", false);
+
+    private final Path directory;
+
+    /**
+     * Creates a new {@link DirectoryEnrollmentSink} writing into the specified
+     * directory (created if missing). Existing files are overwritten.
+     *
+     * @param directory
+     *            the directory to write into
+     *
+     * @throws NullPointerException
+     *             if {@code directory} is {@code null}.
+     * @throws IOException
+     *             if the directory cannot be created.
+     */
+    public DirectoryEnrollmentSink(Path directory) throws IOException {
+        this.directory = Files.createDirectories(Preconditions.checkNotNull(directory));
+    }
+
+    @Override
+    public void write(Enrollment enrollment) throws IOException {
+        Files.write(directory.resolve(fileName(enrollment)), enrollment.getImage());
+    }
+
+    /**
+     * Returns the name of the file holding the image of the specified enrollment.
+     */
+    static String fileName(Enrollment enrollment) {
+        return FILE_NAME_ESCAPER.escape(enrollment.getAccountName()) + "." + enrollment.getImageFormatName().toLowerCase(Locale.ROOT);
+    }
+
+}
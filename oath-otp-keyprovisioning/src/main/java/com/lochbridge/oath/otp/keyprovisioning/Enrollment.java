@@ -0,0 +1,100 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+/**
+ * The enrollment of an account by an {@link EnrollmentPipeline}: its generated
+ * {@link OTPKey}, the {@link OTPAuthURI} provisioning it, and the rendered QR
+ * code image of the URI.
+ * <p>
+ * The key, URI and image are set by the stages of the pipeline; an
+ * {@link EnrollmentSink} receives complete enrollments.
+ */
+public final class Enrollment {
+
+    private final long index;
+    private final String accountName;
+    private final String imageFormatName;
+    private OTPKey key;
+    private OTPAuthURI uri;
+    private byte[] image;
+
+    Enrollment(long index, String accountName, String imageFormatName) {
+        this.index = index;
+        this.accountName = accountName;
+        this.imageFormatName = imageFormatName;
+    }
+
+    /**
+     * Returns the position of the account in the accounts enrolled by the run of
+     * the pipeline (sinks may receive enrollments out of order).
+     *
+     * @return the position of the account, from 0.
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the account name, as labeled in the URI.
+     *
+     * @return the account name.
+     */
+    public String getAccountName() {
+        return accountName;
+    }
+
+    /**
+     * Returns the generated {@link OTPKey}.
+     *
+     * @return the generated {@link OTPKey}.
+     */
+    public OTPKey getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the {@link OTPAuthURI} provisioning the key.
+     *
+     * @return the {@link OTPAuthURI}.
+     */
+    public OTPAuthURI getUri() {
+        return uri;
+    }
+
+    /**
+     * Returns the QR code image of the URI, encoded in the format returned by
+     * {@link #getImageFormatName()}. The array is not copied.
+     *
+     * @return the encoded QR code image.
+     */
+    public byte[] getImage() {
+        return image;
+    }
+
+    /**
+     * Returns the informal name of the format of the image (e.g. {@code "PNG"}).
+     *
+     * @return the informal image format name.
+     */
+    public String getImageFormatName() {
+        return imageFormatName;
+    }
+
+    void setKey(OTPKey key) {
+        this.key = key;
+    }
+
+    void setUri(OTPAuthURI uri) {
+        this.uri = uri;
+    }
+
+    void setImage(byte[] image) {
+        this.image = image;
+    }
+
+    /** Return a string representation of this {@code Enrollment}. */
+    @Override
+    public String toString() {
+        return "Enrollment[index=" + index + ", accountName=" + accountName + "]";
+    }
+
+}
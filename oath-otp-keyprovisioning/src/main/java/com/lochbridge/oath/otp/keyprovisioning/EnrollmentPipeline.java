@@ -0,0 +1,423 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRRenderer;
+
+/**
+ * Enrolls accounts in bulk (e.g. the users of a new tenant): generates a key
+ * for each account, builds the {@link OTPAuthURI} provisioning it, renders the
+ * QR code image of the URI, and writes the resulting {@link Enrollment} to an
+ * {@link EnrollmentSink} (e.g. a {@link DirectoryEnrollmentSink} or a
+ * {@link ZipEnrollmentSink}).
+ * <p>
+ * Each of the four steps is a stage run by its own threads (see
+ * {@link EnrollmentPipelineBuilder#renderingThreads(int)}), so that
+ * the cheap stages do not wait for the expensive one (rendering). The accounts
+ * are handed from one stage to the next in batches, through queues of bounded
+ * capacity: a stage waits for the next one when its output queue is full,
+ * which bounds the memory used whatever the number of accounts.
+ * <p>
+ * The first failure of a stage (e.g. of the sink, or an account name that is
+ * not a valid label) aborts the run. The progress of a run can be followed
+ * from another thread with {@link #getProgress()}.
+ * <p>
+ * Example:
+ * <pre>
+ * EnrollmentPipeline pipeline = EnrollmentPipelineBuilder.fromSink(new DirectoryEnrollmentSink(Paths.get("qrcodes")))
+ *     .issuer("Acme Corporation").build();
+ * EnrollmentPipeline.Progress progress = pipeline.run(accountNames);
+ * System.out.println(progress); // e.g. "Progress[submitted=100000, ..., written=100000, throughput=2345.6/s]"
+ * </pre>
+ */
+public final class EnrollmentPipeline {
+
+    /** The end of the stream of batches (compared by identity). */
+    private static final List<Enrollment> END = new ArrayList<Enrollment>(0);
+
+    private final EnrollmentSink sink;
+    private final OTPKeyGenerator keyGenerator;
+    private final OTPType type;
+    private final HmacShaAlgorithm algorithm;
+    private final String issuer;
+    private final int digits;
+    private final long timeStep;
+    private final QRRenderer renderer;
+    private final int keyGenerationThreads;
+    private final int uriBuildingThreads;
+    private final int renderingThreads;
+    private final int sinkThreads;
+    private final int batchSize;
+    private final int queueCapacity;
+    private volatile Run current;
+
+    EnrollmentPipeline(EnrollmentSink sink, OTPKeyGenerator keyGenerator, OTPType type, HmacShaAlgorithm algorithm, String issuer, int digits,
+            long timeStep, QRRenderer renderer, int keyGenerationThreads,
+            int uriBuildingThreads, int renderingThreads, int sinkThreads, int batchSize, int queueCapacity) {
+        this.sink = sink;
+        this.keyGenerator = keyGenerator;
+        this.type = type;
+        this.algorithm = algorithm;
+        this.issuer = issuer;
+        this.digits = digits;
+        this.timeStep = timeStep;
+        this.renderer = renderer;
+        this.keyGenerationThreads = keyGenerationThreads;
+        this.uriBuildingThreads = uriBuildingThreads;
+        this.renderingThreads = renderingThreads;
+        this.sinkThreads = sinkThreads;
+        this.batchSize = batchSize;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Enrolls the specified accounts, and waits for all of them to be written to
+     * the sink. Runs of the same pipeline are serialized.
+     *
+     * @param accountNames
+     *            the names of the accounts to enroll, which label the URIs (prefixed
+     *            by the issuer, if any)
+     *
+     * @return the final progress of the run.
+     *
+     * @throws NullPointerException
+     *             if {@code accountNames} is {@code null}, or holds {@code null}.
+     * @throws IllegalArgumentException
+     *             if an account name is not a valid label (see {@link OTPAuthURIBuilder#label(String)}).
+     * @throws IOException
+     *             if a QR code cannot be rendered, the sink fails, or the calling
+     *             thread is interrupted ({@link InterruptedIOException}); the
+     *             enrollments written so far are not rolled back.
+     */
+    public synchronized Progress run(Iterable<String> accountNames) throws IOException {
+        Preconditions.checkNotNull(accountNames);
+        Run run = new Run();
+        current = run;
+        BlockingQueue<List<Enrollment>> keys = new ArrayBlockingQueue<List<Enrollment>>(queueCapacity);
+        BlockingQueue<List<Enrollment>> uris = new ArrayBlockingQueue<List<Enrollment>>(queueCapacity);
+        BlockingQueue<List<Enrollment>> codes = new ArrayBlockingQueue<List<Enrollment>>(queueCapacity);
+        BlockingQueue<List<Enrollment>> images = new ArrayBlockingQueue<List<Enrollment>>(queueCapacity);
+        run.start("oath-enroll-key-%d", keyGenerationThreads, new Stage(run, keys, uris, run.keysGenerated) {
+            @Override
+            void process(List<Enrollment> batch) {
+                List<OTPKey> generated = keyGenerator.generate(type, algorithm, batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).setKey(generated.get(i));
+                }
+            }
+        });
+        run.start("oath-enroll-uri-%d", uriBuildingThreads, new Stage(run, uris, codes, run.urisBuilt) {
+            @Override
+            void process(List<Enrollment> batch) {
+                for (Enrollment enrollment : batch) {
+                    String label = issuer == null ? enrollment.getAccountName() : issuer + ":" + enrollment.getAccountName();
+                    enrollment.setUri(OTPAuthURIBuilder.fromKey(enrollment.getKey()).label(label).issuer(issuer).digits(digits).timeStep(timeStep).build());
+                }
+            }
+        });
+        run.start("oath-enroll-qr-%d", renderingThreads, new Stage(run, codes, images, run.codesRendered) {
+            @Override
+            void process(List<Enrollment> batch) throws IOException {
+                for (Enrollment enrollment : batch) {
+                    enrollment.setImage(renderer.render(enrollment.getUri()));
+                }
+            }
+        });
+        run.start("oath-enroll-sink-%d", sinkThreads, new Stage(run, images, null, run.written) {
+            @Override
+            void process(List<Enrollment> batch) throws IOException {
+                for (Enrollment enrollment : batch) {
+                    sink.write(enrollment);
+                }
+            }
+        });
+        try {
+            feed(run, accountNames, keys);
+            run.awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.fail(new InterruptedIOException("Interrupted while enrolling"));
+        } catch (RuntimeException | Error e) {
+            run.fail(e);
+        } finally {
+            run.stop();
+        }
+        Throwable failure = run.failure.get();
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return run.progress();
+    }
+
+    /**
+     * Returns the progress of the current run, or of the last one (all zeros if
+     * the pipeline never ran). This method may be called from any thread.
+     *
+     * @return the progress of the current or last run.
+     */
+    public Progress getProgress() {
+        Run run = current;
+        return run == null ? new Progress(0, 0, 0, 0, 0, 0) : run.progress();
+    }
+
+    private void feed(Run run, Iterable<String> accountNames, BlockingQueue<List<Enrollment>> keys) throws InterruptedException {
+        List<Enrollment> batch = new ArrayList<Enrollment>(batchSize);
+        long index = 0;
+        for (String accountName : accountNames) {
+            Preconditions.checkNotNull(accountName, "Account %s is null", index);
+            batch.add(new Enrollment(index++, accountName, renderer.getImageFormatName()));
+            if (batch.size() == batchSize) {
+                if (!offer(run, keys, batch)) {
+                    return;
+                }
+                run.submitted.addAndGet(batch.size());
+                batch = new ArrayList<Enrollment>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            if (!offer(run, keys, batch)) {
+                return;
+            }
+            run.submitted.addAndGet(batch.size());
+        }
+        offer(run, keys, END);
+    }
+
+    /**
+     * Waits for room in the queue, unless the run fails first.
+     */
+    private static boolean offer(Run run, BlockingQueue<List<Enrollment>> queue, List<Enrollment> batch) throws InterruptedException {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (run.failure.get() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The state of a run: its stages, counters and first failure.
+     */
+    private static final class Run {
+
+        final long startNanos = System.nanoTime();
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong keysGenerated = new AtomicLong();
+        final AtomicLong urisBuilt = new AtomicLong();
+        final AtomicLong codesRendered = new AtomicLong();
+        final AtomicLong written = new AtomicLong();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final List<ExecutorService> executors = new CopyOnWriteArrayList<ExecutorService>();
+        volatile long endNanos = -1;
+
+        void start(String nameFormat, int threads, Stage stage) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build());
+            executors.add(executor);
+            stage.workers.set(threads);
+            for (int i = 0; i < threads; i++) {
+                executor.execute(stage);
+            }
+            executor.shutdown();
+        }
+
+        void fail(Throwable t) {
+            if (failure.compareAndSet(null, t)) {
+                for (ExecutorService executor : executors) {
+                    executor.shutdownNow();
+                }
+            }
+        }
+
+        void awaitTermination() throws InterruptedException {
+            for (ExecutorService executor : executors) {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    continue;
+                }
+            }
+        }
+
+        void stop() {
+            for (ExecutorService executor : executors) {
+                executor.shutdownNow();
+            }
+            endNanos = System.nanoTime();
+        }
+
+        Progress progress() {
+            long end = endNanos;
+            return new Progress(submitted.get(), keysGenerated.get(), urisBuilt.get(), codesRendered.get(), written.get(),
+                    (end < 0 ? System.nanoTime() : end) - startNanos);
+        }
+
+    }
+
+    /**
+     * A stage, run by each of its threads: takes batches from its input queue,
+     * processes them, and hands them to its output queue (if any), until the end
+     * of the stream, which the last of its threads hands on.
+     */
+    private abstract static class Stage implements Runnable {
+
+        private final Run run;
+        private final BlockingQueue<List<Enrollment>> in;
+        private final BlockingQueue<List<Enrollment>> out;
+        private final AtomicLong processed;
+        final AtomicInteger workers = new AtomicInteger();
+
+        Stage(Run run, BlockingQueue<List<Enrollment>> in, BlockingQueue<List<Enrollment>> out, AtomicLong processed) {
+            this.run = run;
+            this.in = in;
+            this.out = out;
+            this.processed = processed;
+        }
+
+        abstract void process(List<Enrollment> batch) throws IOException;
+
+        @Override
+        public void run() {
+            try {
+                for (;;) {
+                    List<Enrollment> batch = in.take();
+                    if (batch == END) {
+                        // Hands the end on to the other threads of the stage.
+                        in.put(END);
+                        break;
+                    }
+                    process(batch);
+                    processed.addAndGet(batch.size());
+                    if (out != null) {
+                        out.put(batch);
+                    }
+                }
+                if (workers.decrementAndGet() == 0 && out != null) {
+                    out.put(END);
+                }
+            } catch (InterruptedException e) {
+                // The run failed, and is being stopped.
+            } catch (Throwable t) {
+                run.fail(t);
+            }
+        }
+
+    }
+
+    /**
+     * A snapshot of the progress of a run: the number of accounts that went
+     * through each stage, and the throughput of the run.
+     */
+    public static final class Progress {
+
+        private final long submitted;
+        private final long keysGenerated;
+        private final long urisBuilt;
+        private final long codesRendered;
+        private final long written;
+        private final long elapsedNanos;
+
+        Progress(long submitted, long keysGenerated, long urisBuilt, long codesRendered, long written, long elapsedNanos) {
+            this.submitted = submitted;
+            this.keysGenerated = keysGenerated;
+            this.urisBuilt = urisBuilt;
+            this.codesRendered = codesRendered;
+            this.written = written;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Returns the number of accounts handed to the first stage.
+         *
+         * @return the number of submitted accounts.
+         */
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        /**
+         * Returns the number of accounts whose key was generated.
+         *
+         * @return the number of generated keys.
+         */
+        public long getKeysGenerated() {
+            return keysGenerated;
+        }
+
+        /**
+         * Returns the number of accounts whose URI was built.
+         *
+         * @return the number of built URIs.
+         */
+        public long getUrisBuilt() {
+            return urisBuilt;
+        }
+
+        /**
+         * Returns the number of accounts whose QR code was rendered.
+         *
+         * @return the number of rendered QR codes.
+         */
+        public long getCodesRendered() {
+            return codesRendered;
+        }
+
+        /**
+         * Returns the number of enrollments written to the sink.
+         *
+         * @return the number of written enrollments.
+         */
+        public long getWritten() {
+            return written;
+        }
+
+        /**
+         * Returns the time elapsed since the start of the run (until its end, if it ended).
+         *
+         * @param unit
+         *            the unit of the returned time
+         *
+         * @return the elapsed time.
+         */
+        public long getElapsed(TimeUnit unit) {
+            return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the number of enrollments written per second since the start of the run.
+         *
+         * @return the throughput, in enrollments per second.
+         */
+        public double getThroughput() {
+            return elapsedNanos == 0 ? 0 : written * 1e9 / elapsedNanos;
+        }
+
+        /** Return a string representation of this {@code Progress}. */
+        @Override
+        public String toString() {
+            return String.format("Progress[submitted=%d, keysGenerated=%d, urisBuilt=%d, codesRendered=%d, written=%d, elapsed=%dms, throughput=%.1f/s]",
+                    submitted, keysGenerated, urisBuilt, codesRendered, written, getElapsed(TimeUnit.MILLISECONDS), getThroughput());
+        }
+
+    }
+
+}
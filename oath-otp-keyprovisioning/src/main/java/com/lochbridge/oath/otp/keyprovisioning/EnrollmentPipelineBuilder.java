@@ -0,0 +1,371 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.TOTPBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRCodeWriter;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRCodeWriter.ErrorCorrectionLevel;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRRenderer;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRRendererBuilder;
+
+/**
+ * A class that creates {@link EnrollmentPipeline}s.
+ * <p>
+ * Example:
+ * <pre>
+ * EnrollmentPipeline pipeline = EnrollmentPipelineBuilder.fromSink(new DirectoryEnrollmentSink(Paths.get("qrcodes")))
+ *     .issuer("Acme Corporation")
+ *     .type(OTPType.TOTP)
+ *     .renderingThreads(8)
+ *     .build();
+ * </pre>
+ */
+public final class EnrollmentPipelineBuilder {
+
+    /** The default number of accounts handed from one stage to the next at once. */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    /** The default capacity (in batches) of the queues between the stages. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    private final EnrollmentSink sink;
+    private OTPKeyGenerator keyGenerator;
+    private OTPType type = OTPType.TOTP;
+    private HmacShaAlgorithm algorithm = HmacShaAlgorithm.HMAC_SHA_1;
+    private String issuer;
+    private int digits = -1;
+    private long timeStep = TOTPBuilder.DEFAULT_TIME_STEP;
+    private int width = 250;
+    private int height = 250;
+    private ErrorCorrectionLevel errorCorrectionLevel = ErrorCorrectionLevel.L;
+    private String imageFormatName = "PNG";
+    private int keyGenerationThreads = 1;
+    private int uriBuildingThreads = 1;
+    private int renderingThreads = Runtime.getRuntime().availableProcessors();
+    private int sinkThreads = 1;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    private EnrollmentPipelineBuilder(EnrollmentSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Returns a new {@link EnrollmentPipelineBuilder} instance initialized with
+     * the specified {@link EnrollmentSink}.
+     *
+     * @param sink
+     *            the sink the completed enrollments are written to
+     *
+     * @return a new {@link EnrollmentPipelineBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code sink} is {@code null}.
+     */
+    public static EnrollmentPipelineBuilder fromSink(EnrollmentSink sink) {
+        Preconditions.checkNotNull(sink);
+        return new EnrollmentPipelineBuilder(sink);
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the {@link OTPKeyGenerator} generating the keys. Defaults to
+     * {@link OTPKeyGenerator#newInstance()}.
+     *
+     * @param keyGenerator
+     *            the {@link OTPKeyGenerator}
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code keyGenerator} is {@code null}.
+     */
+    public EnrollmentPipelineBuilder keyGenerator(OTPKeyGenerator keyGenerator) {
+        this.keyGenerator = Preconditions.checkNotNull(keyGenerator);
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the type of the generated keys. Defaults to {@link OTPType#TOTP}.
+     *
+     * @param type
+     *            the type of OTP
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code type} is {@code null}.
+     */
+    public EnrollmentPipelineBuilder type(OTPType type) {
+        this.type = Preconditions.checkNotNull(type);
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the HMAC algorithm the keys are sized for (see {@link OTPKeyGenerator#keyLength(HmacShaAlgorithm)}).
+     * Defaults to {@link HmacShaAlgorithm#HMAC_SHA_1}.
+     *
+     * @param algorithm
+     *            the HMAC algorithm
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code algorithm} is {@code null}.
+     */
+    public EnrollmentPipelineBuilder algorithm(HmacShaAlgorithm algorithm) {
+        this.algorithm = Preconditions.checkNotNull(algorithm);
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the issuer of the URIs, which also prefixes their labels (see
+     * {@link OTPAuthURIBuilder#issuer(String)}). Defaults to none.
+     *
+     * @param issuer
+     *            the issuer (decoded/plain-text)
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code issuer} is not {@code null}, and contains a literal colon.
+     */
+    public EnrollmentPipelineBuilder issuer(String issuer) {
+        Preconditions.checkArgument(issuer == null || !issuer.contains(":"), "The issuer cannot contain a colon!");
+        this.issuer = issuer;
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the number of digits of the OTPs (see {@link OTPAuthURIBuilder#digits(int)}).
+     * Defaults to the default of the type.
+     *
+     * @param digits
+     *            the number of digits an OTP will contain
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     */
+    public EnrollmentPipelineBuilder digits(int digits) {
+        this.digits = digits;
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the time step size (in milliseconds) of TOTPs (see {@link OTPAuthURIBuilder#timeStep(long)}).
+     * Defaults to {@link TOTPBuilder#DEFAULT_TIME_STEP}.
+     *
+     * @param timeStep
+     *            the time step size, in milliseconds
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code timeStep} is {@literal <=} 0.
+     */
+    public EnrollmentPipelineBuilder timeStep(long timeStep) {
+        Preconditions.checkArgument(timeStep > 0);
+        this.timeStep = timeStep;
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the (maximum) size, in pixels, of the QR code images (see {@link QRCodeWriter}). Defaults to 250 x 250.
+     *
+     * @param width
+     *            the width of the images
+     * @param height
+     *            the height of the images
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code width} or {@code height} is {@literal <=} 0.
+     */
+    public EnrollmentPipelineBuilder imageSize(int width, int height) {
+        Preconditions.checkArgument(width > 0 && height > 0);
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the {@link ErrorCorrectionLevel} of the QR codes. Defaults to {@link ErrorCorrectionLevel#L}.
+     *
+     * @param errorCorrectionLevel
+     *            the error correction level
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code errorCorrectionLevel} is {@code null}.
+     */
+    public EnrollmentPipelineBuilder errorCorrectionLevel(ErrorCorrectionLevel errorCorrectionLevel) {
+        this.errorCorrectionLevel = Preconditions.checkNotNull(errorCorrectionLevel);
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the informal name of the format of the QR code images. Defaults to "PNG".
+     *
+     * @param imageFormatName
+     *            the informal image format name
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code imageFormatName} is {@code null}.
+     */
+    public EnrollmentPipelineBuilder imageFormatName(String imageFormatName) {
+        this.imageFormatName = Preconditions.checkNotNull(imageFormatName);
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the number of threads generating keys. Defaults to 1.
+     *
+     * @param threads
+     *            the number of threads
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code threads} is {@literal <=} 0.
+     */
+    public EnrollmentPipelineBuilder keyGenerationThreads(int threads) {
+        Preconditions.checkArgument(threads > 0);
+        this.keyGenerationThreads = threads;
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the number of threads building URIs. Defaults to 1.
+     *
+     * @param threads
+     *            the number of threads
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code threads} is {@literal <=} 0.
+     */
+    public EnrollmentPipelineBuilder uriBuildingThreads(int threads) {
+        Preconditions.checkArgument(threads > 0);
+        this.uriBuildingThreads = threads;
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the number of threads rendering QR codes, by far the most expensive stage.
+     * Defaults to the number of available processors.
+     *
+     * @param threads
+     *            the number of threads
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code threads} is {@literal <=} 0.
+     */
+    public EnrollmentPipelineBuilder renderingThreads(int threads) {
+        Preconditions.checkArgument(threads > 0);
+        this.renderingThreads = threads;
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the number of threads writing to the sink, which must then be thread-safe.
+     * Defaults to 1.
+     *
+     * @param threads
+     *            the number of threads
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code threads} is {@literal <=} 0.
+     */
+    public EnrollmentPipelineBuilder sinkThreads(int threads) {
+        Preconditions.checkArgument(threads > 0);
+        this.sinkThreads = threads;
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the number of accounts handed from one stage to the next at once (the keys
+     * of a batch are also generated at once). Defaults to {@value #DEFAULT_BATCH_SIZE}.
+     *
+     * @param batchSize
+     *            the number of accounts per batch
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code batchSize} is {@literal <=} 0.
+     */
+    public EnrollmentPipelineBuilder batchSize(int batchSize) {
+        Preconditions.checkArgument(batchSize > 0);
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Returns this {@code EnrollmentPipelineBuilder} instance initialized with
+     * the capacity (in batches) of each of the queues between the stages: a
+     * stage waits for the next one when its output queue is full, which bounds
+     * the memory used whatever the number of accounts. Defaults to
+     * {@value #DEFAULT_QUEUE_CAPACITY}.
+     *
+     * @param queueCapacity
+     *            the capacity of the queues, in batches
+     *
+     * @return this {@code EnrollmentPipelineBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code queueCapacity} is {@literal <=} 0.
+     */
+    public EnrollmentPipelineBuilder queueCapacity(int queueCapacity) {
+        Preconditions.checkArgument(queueCapacity > 0);
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Creates a new instance of {@link EnrollmentPipeline} initialized with the
+     * values of this builder.
+     *
+     * @return a new {@link EnrollmentPipeline} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if the configured digits are out of the acceptable range of the type
+     *             (see {@link OTPAuthURIBuilder#digits(int)}), or no image of the
+     *             configured format can be written (see {@link QRRendererBuilder#imageFormatName(String)}).
+     */
+    public EnrollmentPipeline build() {
+        OTPAuthURIBuilder template = OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBV", type)).timeStep(timeStep);
+        if (digits >= 0) {
+            template.digits(digits);
+        }
+        int otpDigits = template.label("account").build().getDigits();
+        // The rendering threads share one renderer, and each keeps its scratch space pooled.
+        QRRenderer renderer = QRRendererBuilder.newBuilder().width(width).height(height).errorCorrectionLevel(errorCorrectionLevel)
+                .imageFormatName(imageFormatName).maximumPooled(renderingThreads).build();
+        return new EnrollmentPipeline(sink, keyGenerator != null ? keyGenerator : OTPKeyGenerator.newInstance(), type, algorithm, issuer, otpDigits,
+                timeStep, renderer, keyGenerationThreads, uriBuildingThreads, renderingThreads, sinkThreads,
+                batchSize, queueCapacity);
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.io.IOException;
+
+/**
+ * The destination of the enrollments completed by an {@link EnrollmentPipeline}.
+ * <p>
+ * Implementations must be thread-safe when the pipeline writes with several
+ * threads (see {@link EnrollmentPipelineBuilder#sinkThreads(int)}).
+ */
+public interface EnrollmentSink {
+
+    /**
+     * Writes the specified enrollment.
+     *
+     * @param enrollment
+     *            the completed enrollment
+     *
+     * @throws IOException
+     *             if the enrollment cannot be written, which aborts the run of the pipeline.
+     */
+    void write(Enrollment enrollment) throws IOException;
+
+}
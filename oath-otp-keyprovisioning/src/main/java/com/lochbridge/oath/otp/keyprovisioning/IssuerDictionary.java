@@ -0,0 +1,193 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A thread-safe dictionary of issuers, holding one canonical {@code String}
+ * instance per distinct issuer, along with its URI-encoded form (see
+ * {@link OTPAuthURI#encodeIssuer(String)}).
+ * <p>
+ * Large provisioning sets typically carry a few hundred distinct issuers over
+ * millions of {@link OTPAuthURI}s. The {@link OTPAuthURI}s built by an
+ * {@link OTPAuthURIBuilder} configured with a dictionary (see
+ * {@link OTPAuthURIBuilder#issuerDictionary(IssuerDictionary)}), or imported
+ * by an {@link OTPAuthURIImporter}, reference the canonical issuer instead of a
+ * copy of their own, and share its encoded form instead of encoding (and
+ * caching) it when serialized.
+ * <p>
+ * The dictionary is bounded: once it holds {@code maximumSize} issuers, the
+ * least recently used ones are evicted (they are only interned again, into a
+ * new canonical instance, when looked up next).
+ * <p>
+ * Example:
+ * <pre>
+ * IssuerDictionary issuers = IssuerDictionary.newInstance();
+ * OTPAuthURI uri = OTPAuthURIBuilder.fromKey(key).label("Acme:alice").issuer("Acme").issuerDictionary(issuers).build();
+ * ...
+ * System.out.println(issuers.getEstimatedBytesSaved());
+ * </pre>
+ */
+public final class IssuerDictionary {
+
+    /** The default maximum number of issuers held by a dictionary. */
+    public static final int DEFAULT_MAXIMUM_SIZE = 4096;
+
+    private final Cache<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    private IssuerDictionary(int maximumSize) {
+        this.entries = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    /**
+     * Returns a new, empty {@link IssuerDictionary} holding at most
+     * {@value #DEFAULT_MAXIMUM_SIZE} issuers.
+     *
+     * @return a new {@link IssuerDictionary} instance.
+     */
+    public static IssuerDictionary newInstance() {
+        return newInstance(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Returns a new, empty {@link IssuerDictionary} holding at most the specified
+     * number of issuers.
+     *
+     * @param maximumSize
+     *            the maximum number of issuers held
+     *
+     * @return a new {@link IssuerDictionary} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code maximumSize} is {@literal <=} 0.
+     */
+    public static IssuerDictionary newInstance(int maximumSize) {
+        Preconditions.checkArgument(maximumSize > 0);
+        return new IssuerDictionary(maximumSize);
+    }
+
+    /**
+     * Returns the canonical instance of the specified issuer: the first instance
+     * interned that is equal to it (and still held by this dictionary).
+     *
+     * @param issuer
+     *            the issuer (decoded/plain-text)
+     *
+     * @return the canonical instance equal to {@code issuer}.
+     *
+     * @throws NullPointerException
+     *             if {@code issuer} is {@code null}.
+     */
+    public String intern(String issuer) {
+        return entry(issuer).issuer;
+    }
+
+    /**
+     * Returns the {@link Entry} of the specified issuer, adding it if missing.
+     */
+    Entry entry(String issuer) {
+        Preconditions.checkNotNull(issuer);
+        Entry entry = entries.getIfPresent(issuer);
+        if (entry == null) {
+            Entry added = new Entry(issuer);
+            entry = entries.asMap().putIfAbsent(issuer, added);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return added;
+            }
+        }
+        hits.incrementAndGet();
+        if (entry.issuer != issuer) {
+            bytesSaved.addAndGet(entry.size);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the number of issuers currently held.
+     *
+     * @return the number of issuers held.
+     */
+    public long size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of lookups that found their issuer already interned.
+     *
+     * @return the number of hits.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups that interned a new issuer.
+     *
+     * @return the number of misses.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns an estimate of the memory saved (in bytes) by this dictionary so
+     * far: the size of every equal copy of an issuer that was replaced by its
+     * canonical instance, as laid out by a 64-bit JVM with compressed references
+     * and compact strings. The encoded forms, shared by the {@link OTPAuthURI}s
+     * instead of being cached by each one, come on top of it.
+     *
+     * @return an estimate of the memory saved, in bytes.
+     */
+    public long getEstimatedBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    @Override
+    public String toString() {
+        return "IssuerDictionary [size=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get() + ", estimatedBytesSaved=" + bytesSaved.get() + "]";
+    }
+
+    /**
+     * Returns the estimated size (in bytes) of the specified {@code String}: a
+     * 24 bytes object, plus a 16 bytes array header and one byte per character
+     * (two if any of them is not Latin-1), rounded up to 8 bytes.
+     */
+    static long estimateSize(String s) {
+        int bytesPerChar = 1;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xFF) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        return 24 + ((16 + (long) s.length() * bytesPerChar + 7) & ~7L);
+    }
+
+    /**
+     * A canonical issuer, and its precomputed encoded forms.
+     */
+    static final class Entry {
+
+        final String issuer;
+        final String encodedIssuer;
+        final byte[] encodedIssuerBytes;
+        final long size;
+
+        Entry(String issuer) {
+            this.issuer = issuer;
+            this.encodedIssuer = OTPAuthURI.encodeIssuer(issuer);
+            this.encodedIssuerBytes = encodedIssuer.getBytes(StandardCharsets.US_ASCII);
+            this.size = estimateSize(issuer);
+        }
+
+    }
+
+}
@@ -1,6 +1,9 @@
 package com.lochbridge.oath.otp.keyprovisioning;
 
-import java.util.Locale;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import com.google.common.base.Preconditions;
 import com.google.common.escape.Escaper;
@@ -35,6 +38,14 @@ import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
  * // Prints "otpauth://totp/Acme%20Corporation:Alice%20Smith?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ&amp;issuer=Acme%20Corporation&amp;digits=6&amp;period=30"
  * System.out.println(uri.toUriString());
  * </pre>
+ * <p>
+ * Existing URI strings (or UTF-8 bytes, e.g. lines of an import file) are parsed
+ * with {@link #parse(CharSequence)} and {@link #parse(byte[], int, int)}.
+ * <p>
+ * The URI-encoded label and issuer are cached on first use, and
+ * {@link #writeTo(Appendable)} and {@link #writeTo(ByteBuffer)} serialize the URI
+ * straight into the caller's buffer, so that bulk exports create no garbage
+ * per URI.
  */
 public class OTPAuthURI {
     
@@ -46,12 +57,31 @@ public class OTPAuthURI {
     
     private static final Escaper QUERY_STRING_ESCAPER_NO_PLUS = new PercentEscaper(URI_SAFECHARS_QUERY_STRING, false);
     
+    private static final String HOTP_PREFIX = "otpauth://hotp/";
+    private static final String TOTP_PREFIX = "otpauth://totp/";
+    private static final String SECRET_PARAMETER = "?secret=";
+    private static final String ISSUER_PARAMETER = "&issuer=";
+    private static final String DIGITS_PARAMETER = "&digits=";
+    private static final String COUNTER_PARAMETER = "&counter=";
+    private static final String PERIOD_PARAMETER = "&period=";
+    private static final byte[] HOTP_PREFIX_BYTES = HOTP_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TOTP_PREFIX_BYTES = TOTP_PREFIX.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SECRET_PARAMETER_BYTES = SECRET_PARAMETER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ISSUER_PARAMETER_BYTES = ISSUER_PARAMETER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DIGITS_PARAMETER_BYTES = DIGITS_PARAMETER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COUNTER_PARAMETER_BYTES = COUNTER_PARAMETER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PERIOD_PARAMETER_BYTES = PERIOD_PARAMETER.getBytes(StandardCharsets.US_ASCII);
+    
     private final OTPKey key;
     private final String issuer;
     private final String label;
     private final long counter;
     private final int digits;
     private final long timeStep;
+    private volatile String encodedLabel;
+    private volatile String encodedIssuer;
+    private volatile byte[] encodedLabelBytes;
+    private volatile byte[] encodedIssuerBytes;
 
     /**
      * Creates a new instance of an OTP Auth URI. Note that all parameters are assumed to be valid since the
@@ -73,6 +103,61 @@ public class OTPAuthURI {
         this.timeStep = timeStep;
     }
 
+    /**
+     * Creates a new instance of an OTP Auth URI sharing the precomputed encoded forms
+     * of its issuer (see {@link IssuerDictionary}).
+     */
+    OTPAuthURI(OTPKey key, String issuer, String encodedIssuer, byte[] encodedIssuerBytes, String label, long counter, int digits, long timeStep) {
+        this(key, issuer, label, counter, digits, timeStep);
+        this.encodedIssuer = encodedIssuer;
+        this.encodedIssuerBytes = encodedIssuerBytes;
+    }
+
+    /**
+     * Returns the {@link OTPAuthURI} represented by the specified OTP Auth URI
+     * string. This is equivalent to {@code OTPAuthURIBuilder.fromUriString(uri.toString()).build()},
+     * without the intermediate string (refer to {@link OTPAuthURIBuilder#fromUriString(String)}
+     * for the exceptions thrown).
+     * 
+     * @param uri the OTP Auth URI string
+     * 
+     * @return the {@link OTPAuthURI} represented by {@code uri}.
+     * 
+     * @throws NullPointerException
+     *             if {@code uri} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code uri} is not a valid OTP Auth URI.
+     * @throws IllegalStateException
+     *             if the {@code uri}'s issuer parameter and label issuer prefix are different.
+     */
+    public static OTPAuthURI parse(CharSequence uri) {
+        return OTPAuthURIParser.parse(uri).build();
+    }
+
+    /**
+     * Returns the {@link OTPAuthURI} represented by the specified UTF-8 encoded
+     * OTP Auth URI (see {@link #parse(CharSequence)}). ASCII URIs are parsed in
+     * place, without being decoded into a string first.
+     * 
+     * @param uri the array holding the UTF-8 encoded OTP Auth URI
+     * @param offset the offset of the URI in {@code uri}
+     * @param length the length (in bytes) of the URI
+     * 
+     * @return the {@link OTPAuthURI} represented by the specified bytes.
+     * 
+     * @throws NullPointerException
+     *             if {@code uri} is {@code null}.
+     * @throws IndexOutOfBoundsException
+     *             if the specified range is out of the bounds of {@code uri}.
+     * @throws IllegalArgumentException
+     *             if the bytes are not a valid OTP Auth URI.
+     * @throws IllegalStateException
+     *             if the URI's issuer parameter and label issuer prefix are different.
+     */
+    public static OTPAuthURI parse(byte[] uri, int offset, int length) {
+        return OTPAuthURIParser.parse(uri, offset, length).build();
+    }
+
     /**
      * Returns the {@link OTPKey}.
      * 
@@ -106,7 +191,11 @@ public class OTPAuthURI {
      * if no issuer.
      */
     public String getEncodedIssuer() {
-        return issuer == null ? null : safeEncodeIssuer(issuer);
+        String encoded = encodedIssuer;
+        if (encoded == null && issuer != null) {
+            encodedIssuer = encoded = safeEncodeIssuer(issuer);
+        }
+        return encoded;
     }
 
     /**
@@ -147,7 +236,11 @@ public class OTPAuthURI {
      * @return the RFC 3986 URI-encoded value of this URI's label component.
      */
     public String getEncodedLabel() {
-        return safeEncodeLabel(label);
+        String encoded = encodedLabel;
+        if (encoded == null) {
+            encodedLabel = encoded = safeEncodeLabel(label);
+        }
+        return encoded;
     }
 
     /**
@@ -200,31 +293,211 @@ public class OTPAuthURI {
         return key.getType().equals(OTPType.TOTP);
     }
     
-    private String contstructUriString(boolean ignoreEncodeSettings) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("otpauth://");
-        sb.append(key.getType().getName().toLowerCase(Locale.US));
-        sb.append("/");
-        sb.append(ignoreEncodeSettings ? label : safeEncodeLabel(label));
-        sb.append("?secret=");
-        sb.append(key.getKey());
+    private void appendTo(Appendable out, boolean ignoreEncodeSettings) throws IOException {
+        out.append(isHOTP() ? HOTP_PREFIX : TOTP_PREFIX);
+        out.append(ignoreEncodeSettings ? label : getEncodedLabel());
+        out.append(SECRET_PARAMETER);
+        out.append(key.getKey());
         if (issuer != null) {
-            sb.append("&issuer=");
-            sb.append(ignoreEncodeSettings ? issuer : safeEncodeIssuer(issuer));
+            out.append(ISSUER_PARAMETER);
+            out.append(ignoreEncodeSettings ? issuer : getEncodedIssuer());
         }
-        sb.append("&digits=");
-        sb.append(digits);
+        out.append(DIGITS_PARAMETER);
+        appendDecimal(out, digits);
         if (isHOTP()) {
-            sb.append("&counter=");
-            sb.append(counter);
+            out.append(COUNTER_PARAMETER);
+            appendDecimal(out, counter);
+        } else {
+            out.append(PERIOD_PARAMETER);
+            appendDecimal(out, timeStep);
         }
-        if (isTOTP()) {
-            sb.append("&period=");
-            sb.append(timeStep);
+    }
+    
+    private String contstructUriString(boolean ignoreEncodeSettings) {
+        String secret = key.getKey();
+        StringBuilder sb = new StringBuilder(ignoreEncodeSettings
+                ? uriLength(label.length(), secret.length(), issuer == null ? -1 : issuer.length())
+                : uriLength(getEncodedLabel().length(), secret.length(), issuer == null ? -1 : getEncodedIssuer().length()));
+        try {
+            appendTo(sb, ignoreEncodeSettings);
+        } catch (IOException e) {
+            throw new AssertionError(e); // StringBuilders do not throw.
         }
         return sb.toString();
     }
     
+    /**
+     * Appends the content of this URI, as returned by {@link #toUriString()}, to
+     * the specified {@link Appendable} (e.g. a {@code StringBuilder}, or a
+     * {@code Writer}), without creating any intermediate string.
+     * 
+     * @param out the {@link Appendable} to append to
+     * 
+     * @throws NullPointerException
+     *             if {@code out} is {@code null}.
+     * @throws IOException
+     *             if {@code out} throws.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        Preconditions.checkNotNull(out);
+        appendTo(out, false);
+    }
+    
+    /**
+     * Writes the content of this URI, as returned by {@link #toUriString()}, UTF-8
+     * encoded, at the current position of the specified {@link ByteBuffer} (which
+     * is advanced past it). The encoded URI is US-ASCII, unless the secret itself
+     * is not. Nothing is written if the buffer has too little room for the whole
+     * URI, so that a bulk export can flush the buffer and retry.
+     * 
+     * @param out the {@link ByteBuffer} to write to
+     * 
+     * @throws NullPointerException
+     *             if {@code out} is {@code null}.
+     * @throws BufferOverflowException
+     *             if {@code out} has less remaining bytes than the length of the URI.
+     * @throws java.nio.ReadOnlyBufferException
+     *             if {@code out} is read-only.
+     */
+    public void writeTo(ByteBuffer out) {
+        Preconditions.checkNotNull(out);
+        String secret = key.getKey();
+        byte[] utf8Secret = isAscii(secret) ? null : secret.getBytes(StandardCharsets.UTF_8);
+        byte[] labelBytes = encodedLabelBytes();
+        byte[] issuerBytes = issuer == null ? null : encodedIssuerBytes();
+        int length = uriLength(labelBytes.length, utf8Secret == null ? secret.length() : utf8Secret.length, issuerBytes == null ? -1 : issuerBytes.length);
+        if (out.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+        // Heap buffers are filled through their array, direct ones with bulk puts of the cached components.
+        if (out.hasArray() && !out.isReadOnly()) {
+            writeToArray(out.array(), out.arrayOffset() + out.position(), secret, utf8Secret, labelBytes, issuerBytes);
+            out.position(out.position() + length);
+            return;
+        }
+        out.put(isHOTP() ? HOTP_PREFIX_BYTES : TOTP_PREFIX_BYTES).put(labelBytes).put(SECRET_PARAMETER_BYTES);
+        if (utf8Secret == null) {
+            for (int i = 0; i < secret.length(); i++) {
+                out.put((byte) secret.charAt(i));
+            }
+        } else {
+            out.put(utf8Secret);
+        }
+        if (issuerBytes != null) {
+            out.put(ISSUER_PARAMETER_BYTES).put(issuerBytes);
+        }
+        putDecimal(out.put(DIGITS_PARAMETER_BYTES), digits);
+        if (isHOTP()) {
+            putDecimal(out.put(COUNTER_PARAMETER_BYTES), counter);
+        } else {
+            putDecimal(out.put(PERIOD_PARAMETER_BYTES), timeStep);
+        }
+    }
+    
+    private void writeToArray(byte[] out, int offset, String secret, byte[] utf8Secret, byte[] labelBytes, byte[] issuerBytes) {
+        int index = copy(isHOTP() ? HOTP_PREFIX_BYTES : TOTP_PREFIX_BYTES, out, offset);
+        index = copy(SECRET_PARAMETER_BYTES, out, copy(labelBytes, out, index));
+        if (utf8Secret == null) {
+            for (int i = 0; i < secret.length(); i++) {
+                out[index++] = (byte) secret.charAt(i);
+            }
+        } else {
+            index = copy(utf8Secret, out, index);
+        }
+        if (issuerBytes != null) {
+            index = copy(issuerBytes, out, copy(ISSUER_PARAMETER_BYTES, out, index));
+        }
+        index = putDecimal(out, copy(DIGITS_PARAMETER_BYTES, out, index), digits);
+        if (isHOTP()) {
+            putDecimal(out, copy(COUNTER_PARAMETER_BYTES, out, index), counter);
+        } else {
+            putDecimal(out, copy(PERIOD_PARAMETER_BYTES, out, index), timeStep);
+        }
+    }
+    
+    private static int copy(byte[] src, byte[] dst, int index) {
+        System.arraycopy(src, 0, dst, index, src.length);
+        return index + src.length;
+    }
+    
+    private static int putDecimal(byte[] out, int index, long value) {
+        int end = index + decimalLength(value);
+        long v = value;
+        for (int i = end - 1; i >= index; i--) {
+            out[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        return end;
+    }
+    
+    // The issuer length is -1 if there is no issuer.
+    private int uriLength(int labelLength, int secretLength, int issuerLength) {
+        int length = HOTP_PREFIX.length() + labelLength + SECRET_PARAMETER.length() + secretLength
+                + DIGITS_PARAMETER.length() + decimalLength(digits);
+        if (issuerLength >= 0) {
+            length += ISSUER_PARAMETER.length() + issuerLength;
+        }
+        return length + (isHOTP() ? COUNTER_PARAMETER.length() + decimalLength(counter) : PERIOD_PARAMETER.length() + decimalLength(timeStep));
+    }
+    
+    private byte[] encodedLabelBytes() {
+        byte[] encoded = encodedLabelBytes;
+        if (encoded == null) {
+            encodedLabelBytes = encoded = getEncodedLabel().getBytes(StandardCharsets.US_ASCII);
+        }
+        return encoded;
+    }
+    
+    private byte[] encodedIssuerBytes() {
+        byte[] encoded = encodedIssuerBytes;
+        if (encoded == null) {
+            encodedIssuerBytes = encoded = getEncodedIssuer().getBytes(StandardCharsets.US_ASCII);
+        }
+        return encoded;
+    }
+    
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    // The counter, digits and time step are never negative (see OTPAuthURIBuilder).
+    private static int decimalLength(long value) {
+        int length = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            length++;
+        }
+        return length;
+    }
+    
+    private static long decimalUnit(long value) {
+        long unit = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            unit *= 10;
+        }
+        return unit;
+    }
+    
+    private static void appendDecimal(Appendable out, long value) throws IOException {
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(value);
+            return;
+        }
+        for (long unit = decimalUnit(value); unit > 0; unit /= 10) {
+            out.append((char) ('0' + (value / unit) % 10));
+        }
+    }
+    
+    private static void putDecimal(ByteBuffer out, long value) {
+        for (long unit = decimalUnit(value); unit > 0; unit /= 10) {
+            out.put((byte) ('0' + (value / unit) % 10));
+        }
+    }
+    
     /**
      * Returns the content of this URI as a string, with no URI-encoding of any of the components. This assumes that the 
      * individual components were themselves decoded/plain-text when this instance was built (this is a prerequisite).
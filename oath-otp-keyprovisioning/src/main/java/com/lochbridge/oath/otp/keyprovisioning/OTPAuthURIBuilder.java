@@ -1,20 +1,8 @@
 package com.lochbridge.oath.otp.keyprovisioning;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
-import java.util.Locale;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
-import com.google.common.base.Strings;
 import com.google.common.collect.Range;
 import com.lochbridge.oath.otp.HOTPBuilder;
 import com.lochbridge.oath.otp.TOTPBuilder;
@@ -39,17 +27,6 @@ import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
  */
 public class OTPAuthURIBuilder {
 
-    private static final String SCHEME_PATTERN = "(otpauth)";
-
-    private static final String OTP_TYPE_PATTERN = "(hotp|totp)";
-
-    private static final String LABEL_PATTERN = "([^?#]*)";
-
-    private static final String QUERY_PATTERN = "([^#]*)";
-
-    /** Regex pattern that matches the OTP Auth URI format. */
-    private static final Pattern OTP_AUTH_URI_PATTERN = Pattern.compile(SCHEME_PATTERN + "://" + OTP_TYPE_PATTERN + "/" + LABEL_PATTERN + "\\?" + QUERY_PATTERN);
-
     private final OTPKey key;
     private String label;
     private String labelIssuerPrefix;
@@ -57,6 +34,7 @@ public class OTPAuthURIBuilder {
     private long counter = 0;
     private int digits;
     private long timeStep = TOTPBuilder.DEFAULT_TIME_STEP;
+    private IssuerDictionary issuerDictionary;
 
     private OTPAuthURIBuilder(OTPKey key) {
         this.key = key;
@@ -134,100 +112,7 @@ public class OTPAuthURIBuilder {
      *             (see {@link OTPAuthURIBuilder#timeStep(long)}).
      */
     public static OTPAuthURIBuilder fromUriString(String uri) {
-        Preconditions.checkNotNull(uri);
-        Matcher m = OTP_AUTH_URI_PATTERN.matcher(uri);
-        if (!m.matches()) {
-            throw new IllegalArgumentException("[" + uri + "] is not a valid OTP Auth URI");
-        }
-        final OTPType otpType = OTPType.from(m.group(2).toUpperCase(Locale.US));
-        
-        String label = null;
-        try {
-            // Since the label component of the Auth URI is expected to be encoded, we can use the URI class to obtain the decoded value.
-            // (do not include the leading '/') 
-            label = new URI(uri).getPath().substring(1);
-        } catch (URISyntaxException e) {
-            throw new IllegalArgumentException(e);
-        }
-        if (Strings.nullToEmpty(label).trim().isEmpty()) {
-            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'label' component is missing!");
-        }
-        
-        String secret = null;  // required
-        String issuer = null;  // optional
-        Integer digits = null; // required
-        Long counter = null;   // required if HOTP
-        Long period = null;    // required if TOTP
-        final String query = m.group(4);
-        final Map<String, String> decoder = Splitter.on('&').withKeyValueSeparator("=").split(query);
-        for (Entry<String, String> queryParam : decoder.entrySet()) {
-            if ("secret".equals(queryParam.getKey())) {
-                secret = queryParam.getValue();
-                if (Strings.nullToEmpty(secret).trim().isEmpty()) {
-                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'secret' parameter value is missing!");
-                }
-            }
-            else if ("issuer".equals(queryParam.getKey())) {
-                if (Strings.nullToEmpty(queryParam.getValue()).trim().isEmpty()) {
-                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'issuer' parameter value is missing!");
-                }
-                try {
-                    // Safe to use URLDecoder since we are dealing with a query parameter value.
-                    issuer = URLDecoder.decode(queryParam.getValue(), StandardCharsets.UTF_8.name());
-                } catch (UnsupportedEncodingException e) {
-                    // This should never happen!
-                    throw new RuntimeException("Unexpected error - underlying platform does not support UTF-8 charset!", e);
-                }
-            }
-            else if ("digits".equals(queryParam.getKey())) {
-                if (Strings.nullToEmpty(queryParam.getValue()).trim().isEmpty()) {
-                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'digits' parameter value is missing!");
-                }
-                digits = Integer.valueOf(queryParam.getValue());
-            }
-            else if ("counter".equals(queryParam.getKey())) {
-                if (!otpType.equals(OTPType.HOTP)) {
-                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'counter' is not a valid totp parameter!");
-                }
-                if (Strings.nullToEmpty(queryParam.getValue()).trim().isEmpty()) {
-                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'counter' parameter value is missing!");
-                }
-                counter = Long.valueOf(queryParam.getValue());
-            }
-            else if ("period".equals(queryParam.getKey())) {
-                if (!otpType.equals(OTPType.TOTP)) {
-                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'period' is not a valid hotp parameter!");
-                }
-                if (Strings.nullToEmpty(queryParam.getValue()).trim().isEmpty()) {
-                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'period' parameter value is missing!");
-                }
-                period = Long.valueOf(queryParam.getValue());
-            }
-            else {
-                throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: '" + queryParam.getKey() + "' is not a supported parameter!");
-            }
-        }
-        if (secret == null) {
-            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'secret' parameter is missing!");
-        }
-        if (digits == null) {
-            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'digits' parameter is missing!");
-        }
-        if (otpType.equals(OTPType.HOTP) && counter == null) {
-            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'counter' parameter is missing!");
-        }
-        if (otpType.equals(OTPType.TOTP) && period == null) {
-            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'period' parameter is missing!");
-        }
-        
-        OTPAuthURIBuilder builder = new OTPAuthURIBuilder(new OTPKey(secret, otpType)).label(label).issuer(issuer).digits(digits);
-        if (counter != null) {
-            builder.counter(counter);
-        }
-        if (period != null) {
-            builder.timeStep(TimeUnit.SECONDS.toMillis(period));
-        }
-        return builder;
+        return OTPAuthURIParser.parse(uri);
     }
     
     /**
@@ -407,6 +292,26 @@ public class OTPAuthURIBuilder {
         return this;
     }
     
+    /**
+     * Returns this {@code OTPAuthURIBuilder} instance initialized with the
+     * specified {@link IssuerDictionary}. The built {@link OTPAuthURI} then
+     * references the dictionary's canonical instance of its issuer (if any),
+     * and shares its encoded form.
+     * 
+     * @param issuerDictionary
+     *            the {@link IssuerDictionary} interning the issuers.
+     * 
+     * @return this {@code OTPAuthURIBuilder} instance initialized with the
+     *         specified {@link IssuerDictionary}.
+     * 
+     * @throws NullPointerException
+     *             if {@code issuerDictionary} is {@code null}.
+     */
+    public OTPAuthURIBuilder issuerDictionary(IssuerDictionary issuerDictionary) {
+        this.issuerDictionary = Preconditions.checkNotNull(issuerDictionary);
+        return this;
+    }
+    
     /**
      * Creates an {@link OTPAuthURI} using this builder's configured parameters.
      * 
@@ -424,6 +329,10 @@ public class OTPAuthURIBuilder {
         if (issuer != null && labelIssuerPrefix != null) {
             Preconditions.checkState(issuer.equals(labelIssuerPrefix), "The 'issuer' and label issuer prefix values are different!");
         }
+        if (issuer != null && issuerDictionary != null) {
+            IssuerDictionary.Entry entry = issuerDictionary.entry(issuer);
+            return new OTPAuthURI(key, entry.issuer, entry.encodedIssuer, entry.encodedIssuerBytes, label, counter, digits, TimeUnit.MILLISECONDS.toSeconds(timeStep));
+        }
         return new OTPAuthURI(key, issuer, label, counter, digits, TimeUnit.MILLISECONDS.toSeconds(timeStep));
     }
 
@@ -0,0 +1,350 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * A compact, versioned binary format for {@link OTPAuthURI}s, to cache and
+ * replicate provisioning records without the size, and the parsing cost, of
+ * their {@code otpauth://} strings.
+ * <p>
+ * A record is laid out as follows, where varints are unsigned LEB128 integers,
+ * and strings are UTF-8 bytes prefixed by their length (as a varint):
+ * <pre>
+ * flags     1 byte   bit 0: TOTP (HOTP otherwise)
+ *                    bit 1: an issuer is present
+ *                    bit 2: the issuer is a reference to the dictionary
+ *                    bit 3: the secret is held as raw key bytes
+ *                    bit 4: the label is prefixed by the issuer and a colon
+ * digits    1 byte
+ * counter   varint   the counter (HOTP), or the period in seconds (TOTP)
+ * secret    varint length, then the raw key bytes (bit 3), or the secret string
+ * issuer    varint index in the dictionary (bit 2), or string (bit 1 only)
+ * label     string   without the issuer prefix and colon (bit 4)
+ * </pre>
+ * The secret is held as raw key bytes (5/8 of the size of its Base32 encoding)
+ * whenever encoding those bytes gives back the secret exactly, which is the case
+ * of every secret generated by this library. The raw bytes are then handed to
+ * the decoded {@link OTPKey}, which never decodes its secret again.
+ * <p>
+ * Single records, prefixed by the {@link #VERSION} of the format, are encoded
+ * with {@link #toBytes(OTPAuthURI)} and {@link #encode(OTPAuthURI, ByteBuffer)},
+ * and decoded with {@link #fromBytes(byte[])} and {@link #decode(ByteBuffer)}.
+ * Large sets of records are written with an {@link OTPAuthURIWriter}, and read
+ * with an {@link OTPAuthURIReader}: the records of such a stream share a
+ * dictionary of issuers, which most accounts have in common, so that each issuer
+ * is written (and decoded into a single {@code String} instance) only once.
+ * <p>
+ * Records are decoded in place, from heap or direct buffers (e.g. memory-mapped
+ * files), and through the {@link OTPAuthURIBuilder} rules, so that the decoded
+ * URI of {@code uri} is the one returned by
+ * {@code OTPAuthURIBuilder.fromUriString(uri.toUriString()).build()}.
+ */
+public final class OTPAuthURICodec {
+
+    /** The version of the format written by this class. */
+    public static final int VERSION = 1;
+
+    /** The maximum number of issuers in the dictionary of a stream. */
+    static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    private static final int TOTP = 1;
+    private static final int ISSUER = 1 << 1;
+    private static final int ISSUER_REFERENCE = 1 << 2;
+    private static final int RAW_SECRET = 1 << 3;
+    private static final int LABEL_PREFIXED = 1 << 4;
+    private static final int KNOWN_FLAGS = TOTP | ISSUER | ISSUER_REFERENCE | RAW_SECRET | LABEL_PREFIXED;
+
+    private OTPAuthURICodec() {
+    }
+
+    /**
+     * Returns the encoded form of the specified {@link OTPAuthURI} (a single record,
+     * prefixed by the version of the format).
+     *
+     * @param uri
+     *            the {@link OTPAuthURI}
+     *
+     * @return the encoded form of {@code uri}.
+     *
+     * @throws NullPointerException
+     *             if {@code uri} is {@code null}.
+     */
+    public static byte[] toBytes(OTPAuthURI uri) {
+        Preconditions.checkNotNull(uri);
+        ByteBuffer buffer = ByteBuffer.allocate(maxEncodedLength(uri));
+        encode(uri, buffer);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Writes the encoded form of the specified {@link OTPAuthURI} (see
+     * {@link #toBytes(OTPAuthURI)}) at the current position of the specified
+     * {@link ByteBuffer}, which is advanced past it. Nothing is written if the
+     * buffer has too little room for the whole record.
+     *
+     * @param uri
+     *            the {@link OTPAuthURI}
+     * @param out
+     *            the {@link ByteBuffer} to write to
+     *
+     * @throws NullPointerException
+     *             if {@code uri} or {@code out} is {@code null}.
+     * @throws BufferOverflowException
+     *             if {@code out} has too little room for the record.
+     */
+    public static void encode(OTPAuthURI uri, ByteBuffer out) {
+        Preconditions.checkNotNull(uri);
+        int start = out.position();
+        try {
+            out.put((byte) VERSION);
+            encodeRecord(uri, out, null);
+        } catch (BufferOverflowException e) {
+            out.position(start);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the {@link OTPAuthURI} encoded by the specified bytes (see
+     * {@link #toBytes(OTPAuthURI)}).
+     *
+     * @param bytes
+     *            the encoded form of an {@link OTPAuthURI}
+     *
+     * @return the {@link OTPAuthURI} encoded by {@code bytes}.
+     *
+     * @throws NullPointerException
+     *             if {@code bytes} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code bytes} is not a valid record, is of an unsupported version,
+     *             or has trailing bytes.
+     * @throws IllegalStateException
+     *             if the record's issuer and label issuer prefix are different.
+     */
+    public static OTPAuthURI fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        OTPAuthURI uri = decode(buffer);
+        Preconditions.checkArgument(!buffer.hasRemaining(), "Trailing bytes after the record!");
+        return uri;
+    }
+
+    /**
+     * Reads the {@link OTPAuthURI} encoded at the current position of the specified
+     * {@link ByteBuffer} (see {@link #encode(OTPAuthURI, ByteBuffer)}), which is
+     * advanced past the record.
+     *
+     * @param in
+     *            the {@link ByteBuffer} to read from
+     *
+     * @return the decoded {@link OTPAuthURI}.
+     *
+     * @throws NullPointerException
+     *             if {@code in} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the bytes are not a valid record, or are of an unsupported version.
+     * @throws IllegalStateException
+     *             if the record's issuer and label issuer prefix are different.
+     */
+    public static OTPAuthURI decode(ByteBuffer in) {
+        Preconditions.checkNotNull(in);
+        Preconditions.checkArgument(in.hasRemaining(), "The record is truncated!");
+        int version = in.get() & 0xFF;
+        Preconditions.checkArgument(version == VERSION, "Unsupported version: %s", version);
+        return decodeRecord(in, null);
+    }
+
+    /**
+     * Returns an upper bound of the length of the encoded form of the specified URI.
+     */
+    static int maxEncodedLength(OTPAuthURI uri) {
+        String issuer = uri.getIssuer();
+        // Version, flags, digits, counter, and the lengths and UTF-8 bytes (at most 3 per char) of each string.
+        return 1 + 1 + 1 + 10 + 5 + 3 * uri.getKey().getKey().length()
+                + (issuer == null ? 0 : 5 + 3 * issuer.length()) + 5 + 3 * uri.getLabel().length();
+    }
+
+    /**
+     * Writes the specified URI (without version) at the current position of the
+     * specified buffer, referencing (and adding) issuers in the specified
+     * dictionary, if any. The dictionary is only updated once the whole record
+     * is written.
+     *
+     * @throws BufferOverflowException
+     *             if {@code out} has too little room for the record (in which case
+     *             part of it may have been written).
+     */
+    static void encodeRecord(OTPAuthURI uri, ByteBuffer out, Map<String, Integer> dictionary) {
+        OTPKey key = uri.getKey();
+        byte[] rawKey = canonicalRawKey(key);
+        String issuer = uri.getIssuer();
+        String label = uri.getLabel();
+        Integer reference = dictionary == null || issuer == null ? null : dictionary.get(issuer);
+        boolean prefixed = issuer != null && label.length() > issuer.length() && label.charAt(issuer.length()) == ':' && label.startsWith(issuer);
+        int flags = (uri.isTOTP() ? TOTP : 0)
+                | (issuer != null ? ISSUER : 0)
+                | (reference != null ? ISSUER_REFERENCE : 0)
+                | (rawKey != null ? RAW_SECRET : 0)
+                | (prefixed ? LABEL_PREFIXED : 0);
+        out.put((byte) flags);
+        out.put((byte) uri.getDigits());
+        putVarint(out, uri.isTOTP() ? uri.getTimeStep() : uri.getCounter());
+        if (rawKey != null) {
+            putVarint(out, rawKey.length);
+            out.put(rawKey);
+        } else {
+            putString(out, key.getKey(), 0);
+        }
+        if (reference != null) {
+            putVarint(out, reference);
+        } else if (issuer != null) {
+            putString(out, issuer, 0);
+        }
+        putString(out, label, prefixed ? issuer.length() + 1 : 0);
+        if (dictionary != null && issuer != null && reference == null && dictionary.size() < MAX_DICTIONARY_SIZE) {
+            dictionary.put(issuer, dictionary.size());
+        }
+    }
+
+    /**
+     * Reads the URI (without version) encoded at the current position of the
+     * specified buffer, resolving (and adding) issuers in the specified
+     * dictionary, if any.
+     */
+    static OTPAuthURI decodeRecord(ByteBuffer in, List<String> dictionary) {
+        try {
+            int flags = in.get() & 0xFF;
+            Preconditions.checkArgument((flags & ~KNOWN_FLAGS) == 0, "Unknown flags: %s", flags);
+            Preconditions.checkArgument((flags & ISSUER) != 0 || (flags & (ISSUER_REFERENCE | LABEL_PREFIXED)) == 0, "Inconsistent flags: %s", flags);
+            OTPType type = (flags & TOTP) != 0 ? OTPType.TOTP : OTPType.HOTP;
+            int digits = in.get();
+            long counter = getVarint(in);
+            OTPKey key;
+            if ((flags & RAW_SECRET) != 0) {
+                byte[] rawKey = new byte[getLength(in)];
+                in.get(rawKey);
+                key = new OTPKey(Base32.encode(rawKey), type, rawKey);
+            } else {
+                key = new OTPKey(getString(in), type);
+            }
+            String issuer = null;
+            boolean literal = false;
+            if ((flags & ISSUER_REFERENCE) != 0) {
+                Preconditions.checkArgument(dictionary != null, "Issuer reference outside of a stream!");
+                long index = getVarint(in);
+                Preconditions.checkArgument(index >= 0 && index < dictionary.size(), "Unknown issuer reference: %s", index);
+                issuer = dictionary.get((int) index);
+            } else if ((flags & ISSUER) != 0) {
+                issuer = getString(in);
+                literal = true;
+            }
+            String label = getString(in);
+            if ((flags & LABEL_PREFIXED) != 0) {
+                label = issuer + ":" + label;
+            }
+            OTPAuthURIBuilder builder = OTPAuthURIBuilder.fromKey(key).label(label).issuer(issuer).digits(digits);
+            if (type == OTPType.HOTP) {
+                builder.counter(counter);
+            } else {
+                builder.timeStep(TimeUnit.SECONDS.toMillis(counter));
+            }
+            OTPAuthURI uri = builder.build();
+            if (dictionary != null && literal && dictionary.size() < MAX_DICTIONARY_SIZE) {
+                dictionary.add(issuer);
+            }
+            return uri;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The record is truncated!", e);
+        }
+    }
+
+    /**
+     * Returns the raw key of the specified {@link OTPKey} if its (Base32) secret
+     * is exactly the encoding of those bytes, {@code null} otherwise.
+     */
+    private static byte[] canonicalRawKey(OTPKey key) {
+        byte[] rawKey;
+        try {
+            rawKey = key.decodedKey();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return Base32.encode(rawKey).equals(key.getKey()) ? rawKey : null;
+    }
+
+    static void putVarint(ByteBuffer out, long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    static long getVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint!");
+    }
+
+    private static int getLength(ByteBuffer in) {
+        long length = getVarint(in);
+        // A ten-byte varint may decode to a negative value.
+        Preconditions.checkArgument(length >= 0 && length <= Integer.MAX_VALUE, "Malformed length: %s", length);
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return (int) length;
+    }
+
+    private static void putString(ByteBuffer out, String s, int from) {
+        int n = s.length();
+        boolean ascii = true;
+        for (int i = from; i < n && ascii; i++) {
+            ascii = s.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            putVarint(out, n - from);
+            if (out.remaining() < n - from) {
+                throw new BufferOverflowException();
+            }
+            for (int i = from; i < n; i++) {
+                out.put((byte) s.charAt(i));
+            }
+        } else {
+            byte[] utf8 = s.substring(from).getBytes(StandardCharsets.UTF_8);
+            putVarint(out, utf8.length);
+            out.put(utf8);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = getLength(in);
+        String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+}
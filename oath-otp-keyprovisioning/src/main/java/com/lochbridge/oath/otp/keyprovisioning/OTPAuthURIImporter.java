@@ -0,0 +1,391 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Imports files of OTP Auth URIs, one per line (e.g. exported by another
+ * provider), into an {@link OTPAuthURISink}.
+ * <p>
+ * The file is memory-mapped, and split into chunks of about
+ * {@link OTPAuthURIImporterBuilder#chunkSize(int)} bytes, cut at line ends.
+ * The chunks are parsed in parallel ({@link OTPAuthURI#parse(byte[], int, int)},
+ * which applies the {@link OTPAuthURIBuilder} rules, plus a check that the
+ * secret is valid Base32), and handed to the sink in file order, from the
+ * importing thread. The issuers of the URIs are interned into an
+ * {@link IssuerDictionary}, so that the URIs of an issuer share one instance. At most {@link OTPAuthURIImporterBuilder#maxChunksInFlight(int)}
+ * chunks are mapped or parsed ahead of the sink, which bounds the memory used
+ * whatever the size of the file.
+ * <p>
+ * Blank lines are skipped, and surrounding whitespace (including the
+ * {@code '\r'} of CRLF line ends) is ignored. A line that cannot be imported
+ * does not abort the import: it is counted, and reported (up to
+ * {@link OTPAuthURIImporterBuilder#maxReportedErrors(int)} lines) in the
+ * returned {@link Result}, with the value of its {@code secret} parameter
+ * redacted. Only the failure of the sink, or of the file, aborts the import.
+ * <p>
+ * Example:
+ * <pre>
+ * OTPAuthURIImporter importer = OTPAuthURIImporterBuilder.fromSink(sink).parallelism(8).build();
+ * OTPAuthURIImporter.Result result = importer.importFile(Paths.get("export.txt"));
+ * </pre>
+ */
+public final class OTPAuthURIImporter {
+
+    private static final Pattern SECRET_VALUE = Pattern.compile("(\\bsecret=)[^&\\]\\s]*", Pattern.CASE_INSENSITIVE);
+
+    private final OTPAuthURISink sink;
+    private final int parallelism;
+    private final int chunkSize;
+    private final int maxChunksInFlight;
+    private final int maxReportedErrors;
+    private final IssuerDictionary issuerDictionary;
+
+    OTPAuthURIImporter(OTPAuthURISink sink, int parallelism, int chunkSize, int maxChunksInFlight, int maxReportedErrors, IssuerDictionary issuerDictionary) {
+        this.sink = sink;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.maxChunksInFlight = maxChunksInFlight;
+        this.maxReportedErrors = maxReportedErrors;
+        this.issuerDictionary = issuerDictionary;
+    }
+
+    /**
+     * Returns the {@link IssuerDictionary} the issuers of the imported URIs are
+     * interned into (see {@link OTPAuthURIImporterBuilder#issuerDictionary(IssuerDictionary)}),
+     * e.g. to report the memory it saved.
+     *
+     * @return the {@link IssuerDictionary} of this importer.
+     */
+    public IssuerDictionary getIssuerDictionary() {
+        return issuerDictionary;
+    }
+
+    /**
+     * Imports the OTP Auth URIs of the specified file (UTF-8 encoded, one per line).
+     *
+     * @param file
+     *            the file to import
+     *
+     * @return the outcome of the import.
+     *
+     * @throws NullPointerException
+     *             if {@code file} is {@code null}.
+     * @throws IOException
+     *             if the file cannot be read, or the sink fails (in which case the
+     *             URIs of the previous batches have been accepted).
+     */
+    public Result importFile(Path file) throws IOException {
+        Preconditions.checkNotNull(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return importChannel(channel);
+        }
+    }
+
+    private Result importChannel(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oath-import-%d").build());
+        Result result = new Result(maxReportedErrors);
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+        try {
+            long position = 0;
+            while (position < size) {
+                if (inFlight.size() >= maxChunksInFlight) {
+                    accept(inFlight.removeFirst(), result);
+                }
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunkSize, size - position));
+                int length = window.limit();
+                if (position + length < size) {
+                    length = lastLineEnd(window);
+                    if (length == 0) {
+                        // No line end in a whole chunk: skip the line rather than buffering it.
+                        inFlight.addLast(Futures.immediateFuture(new Chunk(new ArrayList<OTPAuthURI>(0),
+                                Collections.singletonList(new LineError(position, null, "The line is longer than " + chunkSize + " bytes")), 1)));
+                        position = nextLineEnd(channel, position + window.limit(), size);
+                        continue;
+                    }
+                    window.limit(length);
+                }
+                inFlight.addLast(executor.submit(new ChunkParser(window, position, maxReportedErrors, issuerDictionary)));
+                position += length;
+            }
+            while (!inFlight.isEmpty()) {
+                accept(inFlight.removeFirst(), result);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private void accept(Future<Chunk> future, Result result) throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while importing");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        if (!chunk.uris.isEmpty()) {
+            sink.accept(Collections.unmodifiableList(chunk.uris));
+        }
+        result.add(chunk);
+    }
+
+    private static int lastLineEnd(ByteBuffer window) {
+        for (int i = window.limit() - 1; i >= 0; i--) {
+            if (window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    private long nextLineEnd(FileChannel channel, long position, long size) throws IOException {
+        while (position < size) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunkSize, size - position));
+            for (int i = 0; i < window.limit(); i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += window.limit();
+        }
+        return size;
+    }
+
+    /**
+     * Parses the lines of a chunk.
+     */
+    private static final class ChunkParser implements Callable<Chunk> {
+
+        private final ByteBuffer window;
+        private final long offset;
+        private final int maxReportedErrors;
+        private final IssuerDictionary issuerDictionary;
+
+        ChunkParser(ByteBuffer window, long offset, int maxReportedErrors, IssuerDictionary issuerDictionary) {
+            this.window = window;
+            this.offset = offset;
+            this.maxReportedErrors = maxReportedErrors;
+            this.issuerDictionary = issuerDictionary;
+        }
+
+        @Override
+        public Chunk call() {
+            List<OTPAuthURI> uris = new ArrayList<OTPAuthURI>();
+            List<LineError> errors = new ArrayList<LineError>();
+            long failed = 0;
+            byte[] line = new byte[256];
+            int n = window.limit();
+            for (int start = 0; start < n;) {
+                int end = start;
+                while (end < n && window.get(end) != '\n') {
+                    end++;
+                }
+                int next = end + 1;
+                while (start < end && isWhitespace(window.get(start))) {
+                    start++;
+                }
+                while (end > start && isWhitespace(window.get(end - 1))) {
+                    end--;
+                }
+                int length = end - start;
+                if (length > 0) {
+                    if (line.length < length) {
+                        line = new byte[Math.max(length, line.length * 2)];
+                    }
+                    ByteBuffer source = window.duplicate();
+                    source.position(start);
+                    source.get(line, 0, length);
+                    try {
+                        OTPAuthURI uri = OTPAuthURIParser.parse(line, 0, length).issuerDictionary(issuerDictionary).build();
+                        // Decodes (and memoizes) the secret, so that invalid ones are reported here.
+                        uri.getKey().getDecodedKeyBuffer();
+                        uris.add(uri);
+                    } catch (IllegalArgumentException | IllegalStateException e) {
+                        failed++;
+                        if (errors.size() < maxReportedErrors) {
+                            // The parser's messages quote the URI: both are redacted.
+                            errors.add(new LineError(offset + start, redact(new String(line, 0, length, StandardCharsets.UTF_8)), redact(e.getMessage())));
+                        }
+                    }
+                }
+                start = next;
+            }
+            return new Chunk(uris, errors, failed);
+        }
+
+        private static String redact(String s) {
+            return s == null ? null : SECRET_VALUE.matcher(s).replaceAll("$1***");
+        }
+
+        private static boolean isWhitespace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r';
+        }
+
+    }
+
+    /**
+     * The outcome of parsing a chunk.
+     */
+    private static final class Chunk {
+
+        final List<OTPAuthURI> uris;
+        final List<LineError> errors;
+        final long failed;
+
+        Chunk(List<OTPAuthURI> uris, List<LineError> errors, long failed) {
+            this.uris = uris;
+            this.errors = errors;
+            this.failed = failed;
+        }
+
+    }
+
+    /**
+     * The outcome of an import.
+     */
+    public static final class Result {
+
+        private final int maxReportedErrors;
+        private final List<LineError> errors = new ArrayList<LineError>();
+        private long imported;
+        private long failed;
+
+        Result(int maxReportedErrors) {
+            this.maxReportedErrors = maxReportedErrors;
+        }
+
+        void add(Chunk chunk) {
+            imported += chunk.uris.size();
+            failed += chunk.failed;
+            for (LineError error : chunk.errors) {
+                if (errors.size() == maxReportedErrors) {
+                    break;
+                }
+                errors.add(error);
+            }
+        }
+
+        /**
+         * Returns the number of URIs accepted by the sink.
+         *
+         * @return the number of imported URIs.
+         */
+        public long getImported() {
+            return imported;
+        }
+
+        /**
+         * Returns the number of (non-blank) lines that could not be imported.
+         *
+         * @return the number of failed lines.
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Returns the first lines that could not be imported, in file order (at most
+         * {@link OTPAuthURIImporterBuilder#maxReportedErrors(int)} of them).
+         *
+         * @return an immutable list of the first failed lines.
+         */
+        public List<LineError> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        /** Return a string representation of this {@code Result}. */
+        @Override
+        public String toString() {
+            return "Result[imported=" + imported + ", failed=" + failed + "]";
+        }
+
+    }
+
+    /**
+     * A line that could not be imported.
+     */
+    public static final class LineError {
+
+        private final long offset;
+        private final String line;
+        private final String message;
+
+        LineError(long offset, String line, String message) {
+            this.offset = offset;
+            this.line = line;
+            this.message = message;
+        }
+
+        /**
+         * Returns the offset (in bytes) of the line in the file. Offsets, rather
+         * than line numbers, identify lines since chunks are parsed in parallel.
+         *
+         * @return the offset of the line.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Returns the (trimmed) line, with the value of its {@code secret}
+         * parameter replaced by {@code ***}, or {@code null} if it was too long to
+         * be read.
+         *
+         * @return the line, or {@code null}.
+         */
+        public String getLine() {
+            return line;
+        }
+
+        /**
+         * Returns the reason why the line could not be imported (with the value
+         * of the {@code secret} parameter redacted, like the line).
+         *
+         * @return the reason why the line could not be imported.
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /** Return a string representation of this {@code LineError}. */
+        @Override
+        public String toString() {
+            return "Line at offset " + offset + ": " + message;
+        }
+
+    }
+
+}
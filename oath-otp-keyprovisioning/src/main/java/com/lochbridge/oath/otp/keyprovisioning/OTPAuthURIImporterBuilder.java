@@ -0,0 +1,159 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A class that creates {@link OTPAuthURIImporter}s.
+ * <p>
+ * Example:
+ * <pre>
+ * OTPAuthURIImporter importer = OTPAuthURIImporterBuilder.fromSink(sink)
+ *     .parallelism(8)
+ *     .chunkSize(4 * 1024 * 1024)
+ *     .build();
+ * </pre>
+ */
+public final class OTPAuthURIImporterBuilder {
+
+    /** The default size (in bytes) of the chunks the input is split into. */
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /** The default maximum number of failed lines reported in the result of an import. */
+    public static final int DEFAULT_MAX_REPORTED_ERRORS = 1000;
+
+    private final OTPAuthURISink sink;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int maxChunksInFlight = -1;
+    private int maxReportedErrors = DEFAULT_MAX_REPORTED_ERRORS;
+    private IssuerDictionary issuerDictionary;
+
+    private OTPAuthURIImporterBuilder(OTPAuthURISink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Returns a new {@link OTPAuthURIImporterBuilder} instance initialized with
+     * the specified {@link OTPAuthURISink}.
+     *
+     * @param sink
+     *            the sink the imported URIs are handed to
+     *
+     * @return a new {@link OTPAuthURIImporterBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code sink} is {@code null}.
+     */
+    public static OTPAuthURIImporterBuilder fromSink(OTPAuthURISink sink) {
+        Preconditions.checkNotNull(sink);
+        return new OTPAuthURIImporterBuilder(sink);
+    }
+
+    /**
+     * Returns this {@code OTPAuthURIImporterBuilder} instance initialized with
+     * the number of threads parsing chunks. Defaults to the number of available
+     * processors.
+     *
+     * @param parallelism
+     *            the number of parsing threads
+     *
+     * @return this {@code OTPAuthURIImporterBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code parallelism} is {@literal <=} 0.
+     */
+    public OTPAuthURIImporterBuilder parallelism(int parallelism) {
+        Preconditions.checkArgument(parallelism > 0);
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Returns this {@code OTPAuthURIImporterBuilder} instance initialized with
+     * the size (in bytes) of the chunks the input is split into, which is also
+     * the maximum length of a line. Defaults to {@value #DEFAULT_CHUNK_SIZE}.
+     *
+     * @param chunkSize
+     *            the size of the chunks, in bytes
+     *
+     * @return this {@code OTPAuthURIImporterBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code chunkSize} is {@literal <=} 0.
+     */
+    public OTPAuthURIImporterBuilder chunkSize(int chunkSize) {
+        Preconditions.checkArgument(chunkSize > 0);
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Returns this {@code OTPAuthURIImporterBuilder} instance initialized with
+     * the maximum number of chunks being parsed, or waiting for the sink, at any
+     * time. Defaults to twice the parallelism.
+     *
+     * @param maxChunksInFlight
+     *            the maximum number of chunks in flight
+     *
+     * @return this {@code OTPAuthURIImporterBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code maxChunksInFlight} is {@literal <=} 0.
+     */
+    public OTPAuthURIImporterBuilder maxChunksInFlight(int maxChunksInFlight) {
+        Preconditions.checkArgument(maxChunksInFlight > 0);
+        this.maxChunksInFlight = maxChunksInFlight;
+        return this;
+    }
+
+    /**
+     * Returns this {@code OTPAuthURIImporterBuilder} instance initialized with
+     * the maximum number of failed lines reported in the result of an import
+     * (all of them are counted). Defaults to {@value #DEFAULT_MAX_REPORTED_ERRORS}.
+     *
+     * @param maxReportedErrors
+     *            the maximum number of reported failed lines
+     *
+     * @return this {@code OTPAuthURIImporterBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code maxReportedErrors} is {@literal <} 0.
+     */
+    public OTPAuthURIImporterBuilder maxReportedErrors(int maxReportedErrors) {
+        Preconditions.checkArgument(maxReportedErrors >= 0);
+        this.maxReportedErrors = maxReportedErrors;
+        return this;
+    }
+
+    /**
+     * Returns this {@code OTPAuthURIImporterBuilder} instance initialized with
+     * the {@link IssuerDictionary} the issuers of the imported URIs are interned
+     * into, e.g. to share it between several importers. Defaults to a new
+     * {@link IssuerDictionary} per importer.
+     *
+     * @param issuerDictionary
+     *            the {@link IssuerDictionary} interning the issuers
+     *
+     * @return this {@code OTPAuthURIImporterBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code issuerDictionary} is {@code null}.
+     */
+    public OTPAuthURIImporterBuilder issuerDictionary(IssuerDictionary issuerDictionary) {
+        this.issuerDictionary = Preconditions.checkNotNull(issuerDictionary);
+        return this;
+    }
+
+    /**
+     * Creates a new instance of {@link OTPAuthURIImporter} initialized with the
+     * values of this builder.
+     *
+     * @return a new {@link OTPAuthURIImporter} instance.
+     */
+    public OTPAuthURIImporter build() {
+        int inFlight = maxChunksInFlight > 0 ? maxChunksInFlight : 2 * parallelism;
+        IssuerDictionary dictionary = issuerDictionary != null ? issuerDictionary : IssuerDictionary.newInstance();
+        return new OTPAuthURIImporter(sink, parallelism, chunkSize, inFlight, maxReportedErrors, dictionary);
+    }
+
+}
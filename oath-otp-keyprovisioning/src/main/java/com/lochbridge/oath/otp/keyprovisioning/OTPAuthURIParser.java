@@ -0,0 +1,391 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * A single-pass parser of OTP Auth URIs, backing {@link OTPAuthURIBuilder#fromUriString(String)}
+ * and {@link OTPAuthURI#parse(CharSequence)}.
+ * <p>
+ * The parser accepts and rejects exactly the URIs the original parser did
+ * (a regular expression, {@code java.net.URI} to decode the label, Guava's
+ * {@code MapSplitter} for the query, and {@code URLDecoder} for the issuer),
+ * with the same exception types and messages, but works on the characters in
+ * place: the label and issuer are only copied when they hold escapes, and
+ * numbers are parsed without substrings.
+ */
+final class OTPAuthURIParser {
+
+    private static final String SCHEME = "otpauth://";
+    private static final int TYPE_END = SCHEME.length() + 4;
+
+    private static final String SECRET = "secret";
+    private static final String ISSUER = "issuer";
+    private static final String DIGITS = "digits";
+    private static final String COUNTER = "counter";
+    private static final String PERIOD = "period";
+
+    /** The characters {@code java.net.URI} accepts (unescaped) in a path and in a query (RFC 2396). */
+    private static final boolean[] PATH_CHARS = new boolean[128];
+    private static final boolean[] QUERY_CHARS = new boolean[128];
+
+    static {
+        String alphanumeric = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+        String unreserved = alphanumeric + "-_.!~*'()";
+        mark(PATH_CHARS, unreserved + ":@&=+$," + ";/");
+        mark(QUERY_CHARS, unreserved + ";/?:@&=+$,[]");
+    }
+
+    private OTPAuthURIParser() {
+    }
+
+    /**
+     * Parses the specified OTP Auth URI (see {@link OTPAuthURIBuilder#fromUriString(String)}
+     * for the exceptions thrown).
+     */
+    static OTPAuthURIBuilder parse(CharSequence uri) {
+        Preconditions.checkNotNull(uri);
+        int n = uri.length();
+        OTPType otpType = type(uri);
+        int labelStart = TYPE_END + 1;
+        int labelEnd = labelStart;
+        while (labelEnd < n && uri.charAt(labelEnd) != '?' && uri.charAt(labelEnd) != '#') {
+            labelEnd++;
+        }
+        if (otpType == null || labelEnd == n || uri.charAt(labelEnd) == '#' || indexOf(uri, '#', labelEnd + 1, n) >= 0) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid OTP Auth URI");
+        }
+        int queryStart = labelEnd + 1;
+        checkChars(uri, labelStart, labelEnd, PATH_CHARS, "path");
+        checkChars(uri, queryStart, n, QUERY_CHARS, "query");
+
+        String label = decodePath(uri, labelStart, labelEnd);
+        if (label.trim().isEmpty()) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'label' component is missing!");
+        }
+
+        // Same structural checks (and order) as Splitter.on('&').withKeyValueSeparator("=").split(query).
+        int entries = 1;
+        for (int i = queryStart; i < n; i++) {
+            if (uri.charAt(i) == '&') {
+                entries++;
+            }
+        }
+        int[] bounds = new int[entries * 3];
+        for (int entry = 0, start = queryStart; entry < entries; entry++) {
+            int end = indexOf(uri, '&', start, n);
+            if (end < 0) {
+                end = n;
+            }
+            int separator = indexOf(uri, '=', start, end);
+            int keyEnd = separator < 0 ? end : separator;
+            for (int previous = 0; previous < entry; previous++) {
+                if (regionEquals(uri, bounds[previous * 3], bounds[previous * 3 + 1], start, keyEnd)) {
+                    throw new IllegalArgumentException("Duplicate key [" + uri.subSequence(start, keyEnd) + "] found.");
+                }
+            }
+            if (separator < 0 || indexOf(uri, '=', separator + 1, end) >= 0) {
+                throw new IllegalArgumentException("Chunk [" + uri.subSequence(start, end) + "] is not a valid entry");
+            }
+            bounds[entry * 3] = start;
+            bounds[entry * 3 + 1] = keyEnd;
+            bounds[entry * 3 + 2] = end;
+            start = end + 1;
+        }
+
+        String secret = null;  // required
+        String issuer = null;  // optional
+        Integer digits = null; // required
+        Long counter = null;   // required if HOTP
+        Long period = null;    // required if TOTP
+        for (int entry = 0; entry < entries; entry++) {
+            int keyStart = bounds[entry * 3];
+            int keyEnd = bounds[entry * 3 + 1];
+            int valueStart = keyEnd + 1;
+            int valueEnd = bounds[entry * 3 + 2];
+            if (isKey(uri, keyStart, keyEnd, SECRET)) {
+                if (isBlank(uri, valueStart, valueEnd)) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'secret' parameter value is missing!");
+                }
+                secret = uri.subSequence(valueStart, valueEnd).toString();
+            }
+            else if (isKey(uri, keyStart, keyEnd, ISSUER)) {
+                if (isBlank(uri, valueStart, valueEnd)) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'issuer' parameter value is missing!");
+                }
+                issuer = decodeQueryValue(uri, valueStart, valueEnd);
+            }
+            else if (isKey(uri, keyStart, keyEnd, DIGITS)) {
+                if (isBlank(uri, valueStart, valueEnd)) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'digits' parameter value is missing!");
+                }
+                digits = (int) parseLong(uri, valueStart, valueEnd, true);
+            }
+            else if (isKey(uri, keyStart, keyEnd, COUNTER)) {
+                if (!otpType.equals(OTPType.HOTP)) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'counter' is not a valid totp parameter!");
+                }
+                if (isBlank(uri, valueStart, valueEnd)) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'counter' parameter value is missing!");
+                }
+                counter = parseLong(uri, valueStart, valueEnd, false);
+            }
+            else if (isKey(uri, keyStart, keyEnd, PERIOD)) {
+                if (!otpType.equals(OTPType.TOTP)) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'period' is not a valid hotp parameter!");
+                }
+                if (isBlank(uri, valueStart, valueEnd)) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'period' parameter value is missing!");
+                }
+                period = parseLong(uri, valueStart, valueEnd, false);
+            }
+            else {
+                throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: '" + uri.subSequence(keyStart, keyEnd) + "' is not a supported parameter!");
+            }
+        }
+        if (secret == null) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'secret' parameter is missing!");
+        }
+        if (digits == null) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'digits' parameter is missing!");
+        }
+        if (otpType.equals(OTPType.HOTP) && counter == null) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'counter' parameter is missing!");
+        }
+        if (otpType.equals(OTPType.TOTP) && period == null) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'period' parameter is missing!");
+        }
+
+        OTPAuthURIBuilder builder = OTPAuthURIBuilder.fromKey(new OTPKey(secret, otpType)).label(label).issuer(issuer).digits(digits);
+        if (counter != null) {
+            builder.counter(counter);
+        }
+        if (period != null) {
+            builder.timeStep(TimeUnit.SECONDS.toMillis(period));
+        }
+        return builder;
+    }
+
+    /**
+     * Parses the specified UTF-8 encoded OTP Auth URI (see {@link OTPAuthURIBuilder#fromUriString(String)}
+     * for the exceptions thrown). ASCII input, the common case, is read in place.
+     */
+    static OTPAuthURIBuilder parse(byte[] uri, int offset, int length) {
+        Preconditions.checkPositionIndexes(offset, offset + length, uri.length);
+        for (int i = offset; i < offset + length; i++) {
+            if (uri[i] < 0) {
+                return parse(new String(uri, offset, length, StandardCharsets.UTF_8));
+            }
+        }
+        return parse(new AsciiSequence(uri, offset, length));
+    }
+
+    private static OTPType type(CharSequence uri) {
+        if (uri.length() <= TYPE_END || uri.charAt(TYPE_END) != '/' || !regionMatches(uri, 0, SCHEME)) {
+            return null;
+        }
+        if (regionMatches(uri, SCHEME.length(), "hotp")) {
+            return OTPType.HOTP;
+        }
+        if (regionMatches(uri, SCHEME.length(), "totp")) {
+            return OTPType.TOTP;
+        }
+        return null;
+    }
+
+    private static void checkChars(CharSequence uri, int start, int end, boolean[] allowed, String component) {
+        for (int i = start; i < end; i++) {
+            char c = uri.charAt(i);
+            if (c < 128 ? allowed[c] : !Character.isSpaceChar(c) && !Character.isISOControl(c) && c != 128) {
+                continue;
+            }
+            if (c == '%') {
+                if (i + 2 < end && isHex(uri.charAt(i + 1)) && isHex(uri.charAt(i + 2))) {
+                    i += 2;
+                    continue;
+                }
+                throw new IllegalArgumentException(new URISyntaxException(uri.toString(), "Malformed escape pair", i));
+            }
+            throw new IllegalArgumentException(new URISyntaxException(uri.toString(), "Illegal character in " + component, i));
+        }
+    }
+
+    /** Decodes a path like {@code java.net.URI#getPath()}: escapes are decoded, and '+' left as is. */
+    private static String decodePath(CharSequence uri, int start, int end) {
+        int escape = indexOf(uri, '%', start, end);
+        if (escape < 0) {
+            return uri.subSequence(start, end).toString();
+        }
+        return decode(uri, start, end, escape, false);
+    }
+
+    /** Decodes a query value like {@code java.net.URLDecoder}: escapes are decoded, and '+' is a space. */
+    private static String decodeQueryValue(CharSequence uri, int start, int end) {
+        int escape = start;
+        while (escape < end && uri.charAt(escape) != '%' && uri.charAt(escape) != '+') {
+            escape++;
+        }
+        if (escape == end) {
+            return uri.subSequence(start, end).toString();
+        }
+        return decode(uri, start, end, escape, true);
+    }
+
+    private static String decode(CharSequence uri, int start, int end, int escape, boolean plusAsSpace) {
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(uri, start, escape);
+        byte[] bytes = null;
+        for (int i = escape; i < end;) {
+            char c = uri.charAt(i);
+            if (c != '%') {
+                sb.append(plusAsSpace && c == '+' ? ' ' : c);
+                i++;
+                continue;
+            }
+            // Runs of escapes are decoded together, as they may encode a multi-byte character.
+            if (bytes == null) {
+                bytes = new byte[(end - i) / 3];
+            }
+            int length = 0;
+            boolean ascii = true;
+            do {
+                byte b = (byte) (Character.digit(uri.charAt(i + 1), 16) << 4 | Character.digit(uri.charAt(i + 2), 16));
+                ascii &= b >= 0;
+                bytes[length++] = b;
+                i += 3;
+            } while (i < end && uri.charAt(i) == '%');
+            if (ascii) {
+                for (int j = 0; j < length; j++) {
+                    sb.append((char) bytes[j]);
+                }
+            }
+            else {
+                sb.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Parses like {@code Integer.valueOf} (or {@code Long.valueOf}), falling back to them off the fast path. */
+    private static long parseLong(CharSequence uri, int start, int end, boolean isInt) {
+        int length = end - start;
+        if (length <= (isInt ? 9 : 18)) {
+            long value = 0;
+            int i = start;
+            for (; i < end; i++) {
+                char c = uri.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (i == end) {
+                return value;
+            }
+        }
+        // Signs, non-ASCII digits, overflows and errors are left to the JDK (with its messages).
+        String value = uri.subSequence(start, end).toString();
+        return isInt ? Integer.parseInt(value) : Long.parseLong(value);
+    }
+
+    private static boolean isKey(CharSequence uri, int start, int end, String key) {
+        return end - start == key.length() && regionMatches(uri, start, key);
+    }
+
+    private static boolean regionMatches(CharSequence uri, int offset, String s) {
+        if (offset + s.length() > uri.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (uri.charAt(offset + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionEquals(CharSequence uri, int start1, int end1, int start2, int end2) {
+        if (end1 - start1 != end2 - start2) {
+            return false;
+        }
+        for (int i = 0; i < end1 - start1; i++) {
+            if (uri.charAt(start1 + i) != uri.charAt(start2 + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns whether {@code String.trim()} of the region would be empty. */
+    private static boolean isBlank(CharSequence uri, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (uri.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence uri, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (uri.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static void mark(boolean[] table, String chars) {
+        for (int i = 0; i < chars.length(); i++) {
+            table[chars.charAt(i)] = true;
+        }
+    }
+
+    /**
+     * A {@link CharSequence} view of ASCII bytes.
+     */
+    private static final class AsciiSequence implements CharSequence {
+
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        AsciiSequence(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            Preconditions.checkElementIndex(index, length);
+            return (char) bytes[offset + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            Preconditions.checkPositionIndexes(start, end, length);
+            return new AsciiSequence(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.US_ASCII);
+        }
+
+    }
+
+}
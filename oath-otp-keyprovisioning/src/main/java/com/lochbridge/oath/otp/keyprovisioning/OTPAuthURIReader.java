@@ -0,0 +1,192 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Reads streams of {@link OTPAuthURI}s written by an {@link OTPAuthURIWriter}.
+ * <p>
+ * The stream is read either from an {@link InputStream}, in blocks, or from a
+ * {@link ByteBuffer} holding the whole stream (e.g. a memory-mapped file), in
+ * which case the records are decoded in place. Either way, the issuers shared by
+ * the records of the stream are decoded once, into a single {@code String}
+ * instance each.
+ * <p>
+ * Example:
+ * <pre>
+ * try (OTPAuthURIReader reader = new OTPAuthURIReader(Files.newInputStream(path))) {
+ *     for (OTPAuthURI uri = reader.read(); uri != null; uri = reader.read()) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * Instances are not thread-safe.
+ */
+public final class OTPAuthURIReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final List<String> dictionary = new ArrayList<String>();
+    private ByteBuffer buffer;
+    private long count;
+
+    /**
+     * Creates a new {@link OTPAuthURIReader} reading from the specified
+     * {@link InputStream}, and reads the header of the stream.
+     *
+     * @param in
+     *            the underlying {@link InputStream}
+     *
+     * @throws NullPointerException
+     *             if {@code in} is {@code null}.
+     * @throws IOException
+     *             if the header cannot be read, or is not the one of a supported stream.
+     */
+    public OTPAuthURIReader(InputStream in) throws IOException {
+        this.in = Preconditions.checkNotNull(in);
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.flip();
+        readHeader();
+    }
+
+    /**
+     * Creates a new {@link OTPAuthURIReader} reading the stream held by the
+     * remaining bytes of the specified {@link ByteBuffer} (whose position is left
+     * unchanged), and reads the header of the stream.
+     *
+     * @param stream
+     *            the {@link ByteBuffer} holding the stream
+     *
+     * @throws NullPointerException
+     *             if {@code stream} is {@code null}.
+     * @throws IOException
+     *             if the header is truncated, or is not the one of a supported stream.
+     */
+    public OTPAuthURIReader(ByteBuffer stream) throws IOException {
+        this.in = null;
+        this.buffer = stream.duplicate();
+        readHeader();
+    }
+
+    private void readHeader() throws IOException {
+        if (!ensure(OTPAuthURIWriter.MAGIC.length + 1)) {
+            throw new EOFException("The stream header is truncated");
+        }
+        for (byte b : OTPAuthURIWriter.MAGIC) {
+            if (buffer.get() != b) {
+                throw new IOException("Not an OTP Auth URI stream");
+            }
+        }
+        int version = buffer.get() & 0xFF;
+        if (version != OTPAuthURICodec.VERSION) {
+            throw new IOException("Unsupported version: " + version);
+        }
+    }
+
+    /**
+     * Reads the next {@link OTPAuthURI} of the stream.
+     *
+     * @return the next {@link OTPAuthURI}, or {@code null} at the end of the stream.
+     *
+     * @throws EOFException
+     *             if the stream ends in the middle of a record.
+     * @throws IOException
+     *             if the underlying stream fails, or the record is corrupt.
+     */
+    public OTPAuthURI read() throws IOException {
+        if (!ensure(1)) {
+            return null;
+        }
+        int length = 0;
+        int lengthBytes = 0;
+        for (int shift = 0;; shift += 7) {
+            if (shift > 28 || !ensure(lengthBytes + 1)) {
+                throw new EOFException("The length of record " + count + " is truncated or malformed");
+            }
+            byte b = buffer.get(buffer.position() + lengthBytes++);
+            length |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length < 0 || !ensure(lengthBytes + length)) {
+            throw new EOFException("Record " + count + " is truncated");
+        }
+        int start = buffer.position() + lengthBytes;
+        int end = start + length;
+        int limit = buffer.limit();
+        buffer.position(start).limit(end);
+        try {
+            OTPAuthURI uri = OTPAuthURICodec.decodeRecord(buffer, dictionary);
+            if (buffer.position() != end) {
+                throw new IOException("Record " + count + " has trailing bytes");
+            }
+            count++;
+            return uri;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Record " + count + " is corrupt", e);
+        } finally {
+            buffer.limit(limit).position(end);
+        }
+    }
+
+    /**
+     * Returns the number of URIs read so far.
+     *
+     * @return the number of URIs read.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Closes the underlying stream, if any.
+     *
+     * @throws IOException
+     *             if the underlying stream fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    /**
+     * Makes sure that at least {@code n} bytes are buffered, reading from the
+     * underlying stream if needed; returns {@code false} if it ends first.
+     */
+    private boolean ensure(int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return true;
+        }
+        if (in == null) {
+            return false;
+        }
+        if (buffer.capacity() < n) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(n, 2 * buffer.capacity()));
+            larger.put(buffer);
+            buffer = larger;
+        } else {
+            buffer.compact();
+        }
+        while (buffer.position() < n) {
+            int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (read < 0) {
+                break;
+            }
+            buffer.position(buffer.position() + read);
+        }
+        buffer.flip();
+        return buffer.remaining() >= n;
+    }
+
+}
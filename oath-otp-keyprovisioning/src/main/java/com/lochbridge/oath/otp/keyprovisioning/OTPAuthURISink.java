@@ -0,0 +1,28 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The destination of the {@link OTPAuthURI}s imported by an {@link OTPAuthURIImporter},
+ * e.g. a credential store.
+ * <p>
+ * The importer calls {@link #accept(List)} from the importing thread only, one
+ * batch at a time, so implementations need not be thread-safe; while a batch
+ * is being accepted, at most a bounded number of further chunks are parsed
+ * ahead, so a slow sink slows the import down rather than filling the heap.
+ */
+public interface OTPAuthURISink {
+
+    /**
+     * Accepts a batch of imported (and validated) URIs.
+     *
+     * @param uris
+     *            the imported URIs, in file order within the batch
+     *
+     * @throws IOException
+     *             if the batch could not be stored, which aborts the import.
+     */
+    void accept(List<OTPAuthURI> uris) throws IOException;
+
+}
@@ -0,0 +1,140 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Writes streams of {@link OTPAuthURI}s in the binary format of
+ * {@link OTPAuthURICodec}, to be read by an {@link OTPAuthURIReader}.
+ * <p>
+ * A stream starts with the magic bytes {@code "OTPU"} and the version of the
+ * format, followed by the records, each prefixed by its length (as a varint).
+ * The issuers are written once, and referenced by the following records.
+ * Records are buffered, and written to the underlying stream in blocks.
+ * <p>
+ * Example:
+ * <pre>
+ * try (OTPAuthURIWriter writer = new OTPAuthURIWriter(Files.newOutputStream(path))) {
+ *     for (OTPAuthURI uri : uris) {
+ *         writer.write(uri);
+ *     }
+ * }
+ * </pre>
+ * Instances are not thread-safe.
+ */
+public final class OTPAuthURIWriter implements Closeable, Flushable {
+
+    static final byte[] MAGIC = { 'O', 'T', 'P', 'U' };
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer record = ByteBuffer.allocate(256);
+    private long count;
+
+    /**
+     * Creates a new {@link OTPAuthURIWriter}, and writes the header of the stream.
+     *
+     * @param out
+     *            the underlying {@link OutputStream}
+     *
+     * @throws NullPointerException
+     *             if {@code out} is {@code null}.
+     * @throws IOException
+     *             if the header cannot be written.
+     */
+    public OTPAuthURIWriter(OutputStream out) throws IOException {
+        this.out = Preconditions.checkNotNull(out);
+        buffer.put(MAGIC).put((byte) OTPAuthURICodec.VERSION);
+    }
+
+    /**
+     * Writes the specified {@link OTPAuthURI}.
+     *
+     * @param uri
+     *            the {@link OTPAuthURI}
+     *
+     * @throws NullPointerException
+     *             if {@code uri} is {@code null}.
+     * @throws IOException
+     *             if the underlying stream fails.
+     */
+    public void write(OTPAuthURI uri) throws IOException {
+        Preconditions.checkNotNull(uri);
+        while (true) {
+            record.clear();
+            try {
+                OTPAuthURICodec.encodeRecord(uri, record, dictionary);
+                break;
+            } catch (BufferOverflowException e) {
+                record = ByteBuffer.allocate(Math.max(2 * record.capacity(), OTPAuthURICodec.maxEncodedLength(uri)));
+            }
+        }
+        record.flip();
+        if (buffer.remaining() < 5 + record.remaining()) {
+            flushBuffer();
+        }
+        if (buffer.remaining() < 5 + record.remaining()) {
+            // Larger than the buffer: written straight through.
+            ByteBuffer length = ByteBuffer.allocate(5);
+            OTPAuthURICodec.putVarint(length, record.remaining());
+            out.write(length.array(), 0, length.position());
+            out.write(record.array(), 0, record.limit());
+        } else {
+            OTPAuthURICodec.putVarint(buffer, record.remaining());
+            buffer.put(record);
+        }
+        count++;
+    }
+
+    /**
+     * Returns the number of URIs written so far.
+     *
+     * @return the number of URIs written.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Writes the buffered records, and flushes the underlying stream.
+     *
+     * @throws IOException
+     *             if the underlying stream fails.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Writes the buffered records, and closes the underlying stream.
+     *
+     * @throws IOException
+     *             if the underlying stream fails.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+    }
+
+}
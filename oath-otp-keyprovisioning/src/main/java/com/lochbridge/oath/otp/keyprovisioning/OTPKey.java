@@ -1,6 +1,12 @@
 package com.lochbridge.oath.otp.keyprovisioning;
 
+import java.nio.ByteBuffer;
+
 import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.HOTP;
+import com.lochbridge.oath.otp.HOTPBuilder;
+import com.lochbridge.oath.otp.TOTP;
+import com.lochbridge.oath.otp.TOTPBuilder;
 
 /**
  * An immutable class representing a One Time Password (OTP) key. An OTP key
@@ -9,11 +15,17 @@ import com.google.common.base.Preconditions;
  * <li>The shared secret key,</li>
  * <li>The type of OTP (either HOTP or TOTP)</li>
  * </ul>
+ * <p>
+ * The shared secret key is held in its (Base32) encoded form, and decoded at
+ * most once: the raw bytes are kept privately, and handed out as copies
+ * ({@link #getDecodedKey()}), read-only views ({@link #getDecodedKeyBuffer()}),
+ * or straight to the OTP generators ({@link #hotp()} and {@link #totp()}).
  */
 public final class OTPKey {
 
     private final String key;
     private final OTPType type;
+    private volatile byte[] decodedKey;
 
     /**
      * Creates a new instance of an OTP key of type HOTP or TOTP.
@@ -30,6 +42,34 @@ public final class OTPKey {
         this.type = type;
     }
 
+    /**
+     * Creates a new OTP key whose raw shared secret key is already known (and is
+     * not copied), e.g. because it was just generated and encoded.
+     */
+    OTPKey(String key, OTPType type, byte[] decodedKey) {
+        this(key, type);
+        this.decodedKey = decodedKey;
+    }
+
+    /**
+     * Returns a new OTP key of the specified type, Base32-encoding the specified
+     * raw shared secret key (which is then never decoded again).
+     *
+     * @param key
+     *            the raw shared secret key. The contents of the array are copied to
+     *            protect against subsequent modification.
+     * @param type
+     *            the type of OTP
+     *
+     * @return a new {@link OTPKey} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code key} or {@code type} is {@code null}.
+     */
+    public static OTPKey fromRawKey(byte[] key, OTPType type) {
+        return new OTPKey(Base32.encode(key), type, key.clone());
+    }
+
     /**
      * Returns the encoded shared secret key used to generate an OTP.
      * @return the encoded shared secret key used to generate an OTP.
@@ -38,6 +78,63 @@ public final class OTPKey {
         return key;
     }
 
+    /**
+     * Returns a copy of the raw (Base32-decoded) shared secret key.
+     *
+     * @return a copy of the raw shared secret key.
+     *
+     * @throws IllegalArgumentException
+     *             if the encoded key is not valid Base32.
+     */
+    public byte[] getDecodedKey() {
+        return decodedKey().clone();
+    }
+
+    /**
+     * Returns a read-only view of the raw (Base32-decoded) shared secret key,
+     * without copying it.
+     *
+     * @return a read-only {@link ByteBuffer} over the raw shared secret key.
+     *
+     * @throws IllegalArgumentException
+     *             if the encoded key is not valid Base32.
+     */
+    public ByteBuffer getDecodedKeyBuffer() {
+        return ByteBuffer.wrap(decodedKey()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a new {@link HOTPBuilder} initialized with the raw shared secret key
+     * (copied once, by the builder).
+     *
+     * @return a new {@link HOTPBuilder} instance.
+     *
+     * @throws IllegalStateException
+     *             if this is not an HOTP key.
+     * @throws IllegalArgumentException
+     *             if the encoded key is not valid Base32.
+     */
+    public HOTPBuilder hotp() {
+        Preconditions.checkState(type == OTPType.HOTP, "Not an HOTP key");
+        return HOTP.key(decodedKey());
+    }
+
+    /**
+     * Returns a new {@link TOTPBuilder} initialized with the raw shared secret key
+     * (copied once, by the builder).
+     *
+     * @return a new {@link TOTPBuilder} instance.
+     *
+     * @throws IllegalStateException
+     *             if this is not a TOTP key.
+     * @throws IllegalArgumentException
+     *             if the encoded key is not valid Base32.
+     */
+    public TOTPBuilder totp() {
+        Preconditions.checkState(type == OTPType.TOTP, "Not a TOTP key");
+        return TOTP.key(decodedKey());
+    }
+
     /**
      * Returns the type of OTP.
      * @return the type of OTP.
@@ -46,6 +143,19 @@ public final class OTPKey {
         return type;
     }
 
+    /**
+     * Returns the raw shared secret key itself (not a copy), for the codecs of
+     * this package.
+     */
+    byte[] decodedKey() {
+        byte[] decoded = decodedKey;
+        if (decoded == null) {
+            // Racing threads decode the same bytes, so whichever array wins is fine.
+            decodedKey = decoded = Base32.decode(key);
+        }
+        return decoded;
+    }
+
     /**
      * Type of One Time Password. Valid types are either HOTP or TOTP.
      */
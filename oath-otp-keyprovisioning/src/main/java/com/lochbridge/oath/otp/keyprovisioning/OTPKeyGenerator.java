@@ -0,0 +1,191 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * A thread-safe generator of random {@link OTPKey}s, sized for their HMAC
+ * algorithm as recommended by RFC 4226 and RFC 6238: 20 bytes for HMAC-SHA1,
+ * 32 bytes for HMAC-SHA256 and 64 bytes for HMAC-SHA512.
+ * <p>
+ * A single {@link SecureRandom} shared by parallel enrollments serializes
+ * them (its generation is synchronized). The generator instead holds several
+ * independent, self-seeded DRBG instances (stripes), and each thread draws
+ * from the stripe its id maps to, so that threads seldom contend. Batches are
+ * drawn with a single call to the stripe, and Base32-encoded into a single
+ * character array, without padding (which OTP Auth URIs do not allow).
+ * <p>
+ * Example:
+ * <pre>
+ * OTPKeyGenerator generator = OTPKeyGenerator.newInstance();
+ * List&lt;OTPKey&gt; keys = generator.generate(OTPType.TOTP, HmacShaAlgorithm.HMAC_SHA_1, 1000);
+ * </pre>
+ */
+public final class OTPKeyGenerator {
+
+    /** The preferred DRBG algorithms, in order ({@code DRBG} is only available on Java 9+). */
+    private static final String[] DEFAULT_ALGORITHMS = { "DRBG", "SHA1PRNG" };
+
+    private final SecureRandom[] stripes;
+    private final int mask;
+
+    private OTPKeyGenerator(SecureRandom[] stripes) {
+        this.stripes = stripes;
+        this.mask = stripes.length - 1;
+    }
+
+    /**
+     * Returns a new {@link OTPKeyGenerator} instance with one stripe per available
+     * processor (rounded up to a power of two), using the {@code DRBG} algorithm
+     * when available, or {@code SHA1PRNG}.
+     *
+     * @return a new {@link OTPKeyGenerator} instance.
+     *
+     * @throws IllegalStateException
+     *             if none of the default algorithms is available.
+     */
+    public static OTPKeyGenerator newInstance() {
+        int stripes = Runtime.getRuntime().availableProcessors();
+        for (String algorithm : DEFAULT_ALGORITHMS) {
+            try {
+                return newInstance(algorithm, stripes);
+            } catch (NoSuchAlgorithmException e) {
+                // Try the next one.
+            }
+        }
+        throw new IllegalStateException("None of the " + Arrays.toString(DEFAULT_ALGORITHMS) + " algorithms is available");
+    }
+
+    /**
+     * Returns a new {@link OTPKeyGenerator} instance with the specified number of
+     * stripes (rounded up to a power of two) of the specified {@link SecureRandom}
+     * algorithm.
+     *
+     * @param algorithm
+     *            the {@link SecureRandom} algorithm (e.g. {@code "DRBG"}, {@code "SHA1PRNG"})
+     * @param stripes
+     *            the number of independent {@link SecureRandom} instances
+     *
+     * @return a new {@link OTPKeyGenerator} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code algorithm} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code stripes} is not in [1, 1024].
+     * @throws NoSuchAlgorithmException
+     *             if no provider supports {@code algorithm}.
+     */
+    public static OTPKeyGenerator newInstance(String algorithm, int stripes) throws NoSuchAlgorithmException {
+        Preconditions.checkNotNull(algorithm);
+        Preconditions.checkArgument(stripes >= 1 && stripes <= 1024, "The number of stripes must be in [1, 1024]: %s", stripes);
+        SecureRandom[] randoms = new SecureRandom[stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1];
+        for (int i = 0; i < randoms.length; i++) {
+            // Each instance seeds itself from the platform's entropy source on first use.
+            randoms[i] = SecureRandom.getInstance(algorithm);
+        }
+        return new OTPKeyGenerator(randoms);
+    }
+
+    /**
+     * Returns the recommended length (in bytes) of shared secret keys for the
+     * specified HMAC algorithm: the length of its output.
+     *
+     * @param algorithm
+     *            the HMAC algorithm
+     *
+     * @return the recommended key length, in bytes.
+     *
+     * @throws NullPointerException
+     *             if {@code algorithm} is {@code null}.
+     */
+    public static int keyLength(HmacShaAlgorithm algorithm) {
+        switch (algorithm) {
+        case HMAC_SHA_256:
+            return 32;
+        case HMAC_SHA_512:
+            return 64;
+        default:
+            return 20;
+        }
+    }
+
+    /**
+     * Returns a new random OTP key of the specified type, sized for the specified
+     * HMAC algorithm.
+     *
+     * @param type
+     *            the type of OTP
+     * @param algorithm
+     *            the HMAC algorithm the key is intended for
+     *
+     * @return a new random {@link OTPKey}.
+     *
+     * @throws NullPointerException
+     *             if {@code type} or {@code algorithm} is {@code null}.
+     */
+    public OTPKey generate(OTPType type, HmacShaAlgorithm algorithm) {
+        return generate(type, algorithm, 1).get(0);
+    }
+
+    /**
+     * Returns the specified number of new random OTP keys of the specified type,
+     * sized for the specified HMAC algorithm.
+     *
+     * @param type
+     *            the type of OTP
+     * @param algorithm
+     *            the HMAC algorithm the keys are intended for
+     * @param count
+     *            the number of keys to generate
+     *
+     * @return an immutable list of {@code count} new random {@link OTPKey}s.
+     *
+     * @throws NullPointerException
+     *             if {@code type} or {@code algorithm} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code count} is negative.
+     */
+    public List<OTPKey> generate(OTPType type, HmacShaAlgorithm algorithm, int count) {
+        Preconditions.checkNotNull(type);
+        Preconditions.checkArgument(count >= 0);
+        int keyLength = keyLength(algorithm);
+        int encodedLength = Base32.encodedLength(keyLength, false);
+        Preconditions.checkArgument(count <= Integer.MAX_VALUE / encodedLength, "Too many keys: %s", count);
+        byte[] bytes = new byte[count * keyLength];
+        stripe().nextBytes(bytes);
+        char[] chars = new char[count * encodedLength];
+        List<OTPKey> keys = new ArrayList<OTPKey>(count);
+        for (int i = 0; i < count; i++) {
+            Base32.encode(bytes, i * keyLength, keyLength, chars, i * encodedLength, false);
+            keys.add(new OTPKey(new String(chars, i * encodedLength, encodedLength), type,
+                    Arrays.copyOfRange(bytes, i * keyLength, (i + 1) * keyLength)));
+        }
+        Arrays.fill(bytes, (byte) 0);
+        Arrays.fill(chars, '\0');
+        return Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * Returns the number of independent {@link SecureRandom} instances.
+     *
+     * @return the number of stripes.
+     */
+    public int getStripes() {
+        return stripes.length;
+    }
+
+    private SecureRandom stripe() {
+        long id = Thread.currentThread().getId();
+        // Thread ids are mostly sequential, so the low bits alone spread threads evenly.
+        return stripes[(int) (id ^ (id >>> 16)) & mask];
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An {@link EnrollmentSink} writing the QR code image of each enrollment as an
+ * entry of a zip stream, named as by a {@link DirectoryEnrollmentSink}.
+ * <p>
+ * The images are already compressed (e.g. PNG), so the entries are stored
+ * rather than deflated again. Writes are serialized, in the order the
+ * enrollments are received. The zip stream is only complete once the sink is
+ * closed.
+ * <p>
+ * Example:
+ * <pre>
+ * try (ZipEnrollmentSink sink = new ZipEnrollmentSink(Files.newOutputStream(Paths.get("tenant.zip")))) {
+ *     EnrollmentPipelineBuilder.fromSink(sink).issuer("Acme").build().run(accountNames);
+ * }
+ * </pre>
+ */
+public final class ZipEnrollmentSink implements EnrollmentSink, Closeable {
+
+    private final ZipOutputStream out;
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Creates a new {@link ZipEnrollmentSink} writing to the specified stream.
+     *
+     * @param out
+     *            the underlying {@link OutputStream}
+     *
+     * @throws NullPointerException
+     *             if {@code out} is {@code null}.
+     */
+    public ZipEnrollmentSink(OutputStream out) {
+        this.out = new ZipOutputStream(Preconditions.checkNotNull(out));
+    }
+
+    @Override
+    public synchronized void write(Enrollment enrollment) throws IOException {
+        byte[] image = enrollment.getImage();
+        ZipEntry entry = new ZipEntry(DirectoryEnrollmentSink.fileName(enrollment));
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(image.length);
+        crc.reset();
+        crc.update(image, 0, image.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(image);
+        out.closeEntry();
+    }
+
+    /**
+     * Completes the zip stream, and closes the underlying stream.
+     *
+     * @throws IOException
+     *             if the underlying stream fails.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+}
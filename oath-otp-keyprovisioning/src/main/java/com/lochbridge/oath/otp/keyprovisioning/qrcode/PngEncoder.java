@@ -0,0 +1,203 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Encodes QR code modules as 1-bit grayscale PNG images, scaled by an integer
+ * factor, streaming the pixel rows straight into a {@link Deflater}, without
+ * building a {@code BufferedImage} (nor initializing AWT or ImageIO).
+ * <p>
+ * A pixel row identical to the previous one (all but the first row of a module
+ * row, with an integer scale) is written with the {@code Up} filter, i.e. as
+ * zeros, which deflates to almost nothing; other rows are written unfiltered.
+ * The compressed data is written in {@code IDAT} chunks of at most
+ * {@value #IDAT_SIZE} bytes, as it is produced.
+ * <p>
+ * Instances reuse their {@link Deflater} and buffers from one image to the next
+ * (until {@link #end() ended}), and are not thread-safe.
+ */
+final class PngEncoder {
+
+    private static final int IDAT_SIZE = 8192;
+
+    private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+    private static final byte[] IEND = { 0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xAE, 0x42, 0x60, (byte) 0x82 };
+
+    private static final byte FILTER_NONE = 0;
+    private static final byte FILTER_UP = 2;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+    private final CRC32 crc = new CRC32();
+    /** The chunk being written: length, type, data and CRC. */
+    private final byte[] chunk = new byte[8 + IDAT_SIZE + 4];
+    private int chunkLength;
+    private byte[] row = new byte[0];
+    private byte[] previous = new byte[0];
+    private byte[] up = new byte[0];
+
+    /**
+     * Writes the specified matrix of modules as a PNG image to the specified
+     * stream (which is neither flushed nor closed): each module is drawn as a
+     * square of {@code scale} x {@code scale} pixels, inside a white border of
+     * {@code margin} modules.
+     *
+     * @param modules
+     *            the modules, black where {@code 1}
+     * @param margin
+     *            the width of the border, in modules
+     * @param scale
+     *            the width of a module, in pixels
+     * @param out
+     *            the stream to write to
+     *
+     * @throws IOException
+     *             if the stream fails.
+     */
+    void write(ByteMatrix modules, int margin, int scale, OutputStream out) throws IOException {
+        int columns = modules.getWidth();
+        int rows = modules.getHeight();
+        int width = (columns + 2 * margin) * scale;
+        int height = (rows + 2 * margin) * scale;
+        int stride = (width + 7) >>> 3;
+        if (row.length < stride + 1) {
+            row = new byte[stride + 1];
+            previous = new byte[stride + 1];
+            up = new byte[stride + 1];
+            up[0] = FILTER_UP;
+        }
+        out.write(SIGNATURE);
+        writeHeader(width, height, out);
+        deflater.reset();
+        chunkLength = 0;
+        byte[][] array = modules.getArray();
+        for (int y = -margin; y < rows + margin; y++) {
+            Arrays.fill(row, 1, stride + 1, (byte) 0xFF);
+            if (y >= 0 && y < rows) {
+                byte[] line = array[y];
+                for (int x = 0; x < columns;) {
+                    if (line[x] != 1) {
+                        x++;
+                        continue;
+                    }
+                    int start = x;
+                    while (x < columns && line[x] == 1) {
+                        x++;
+                    }
+                    clearPixels(row, (margin + start) * scale, (margin + x) * scale);
+                }
+            }
+            // The first pixel row of a module row is only written unfiltered if it differs from the previous one.
+            boolean same = y > -margin;
+            for (int i = 1; same && i <= stride; i++) {
+                same = row[i] == previous[i];
+            }
+            int repeat = scale;
+            if (!same) {
+                row[0] = FILTER_NONE;
+                deflate(row, stride + 1, out);
+                byte[] swap = previous;
+                previous = row;
+                row = swap;
+                repeat--;
+            }
+            for (int i = 0; i < repeat; i++) {
+                deflate(up, stride + 1, out);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            drain(out);
+        }
+        if (chunkLength > 0) {
+            writeDataChunk(out);
+        }
+        out.write(IEND);
+    }
+
+    /**
+     * Releases the native memory of this encoder's {@link Deflater}: the encoder
+     * cannot be used afterwards.
+     */
+    void end() {
+        deflater.end();
+    }
+
+    /**
+     * Clears (blackens) the pixels {@code [from, to)} of a packed row, which
+     * starts with its filter byte.
+     */
+    private static void clearPixels(byte[] row, int from, int to) {
+        int first = from >>> 3;
+        int last = (to - 1) >>> 3;
+        int head = 0xFF >>> (from & 7);
+        int tail = (0xFF << (7 - ((to - 1) & 7))) & 0xFF;
+        if (first == last) {
+            row[1 + first] &= ~(head & tail);
+            return;
+        }
+        row[1 + first] &= ~head;
+        for (int i = first + 1; i < last; i++) {
+            row[1 + i] = 0;
+        }
+        row[1 + last] &= ~tail;
+    }
+
+    private void writeHeader(int width, int height, OutputStream out) throws IOException {
+        byte[] header = new byte[8 + 13 + 4];
+        putInt(header, 0, 13);
+        header[4] = 'I';
+        header[5] = 'H';
+        header[6] = 'D';
+        header[7] = 'R';
+        putInt(header, 8, width);
+        putInt(header, 12, height);
+        header[16] = 1; // Bit depth
+        header[17] = 0; // Color type: grayscale
+        // Compression, filter and interlace methods are all 0.
+        crc.reset();
+        crc.update(header, 4, 4 + 13);
+        putInt(header, 8 + 13, (int) crc.getValue());
+        out.write(header);
+    }
+
+    private void deflate(byte[] input, int length, OutputStream out) throws IOException {
+        deflater.setInput(input, 0, length);
+        while (!deflater.needsInput()) {
+            drain(out);
+        }
+    }
+
+    private void drain(OutputStream out) throws IOException {
+        chunkLength += deflater.deflate(chunk, 8 + chunkLength, IDAT_SIZE - chunkLength);
+        if (chunkLength == IDAT_SIZE) {
+            writeDataChunk(out);
+        }
+    }
+
+    private void writeDataChunk(OutputStream out) throws IOException {
+        putInt(chunk, 0, chunkLength);
+        chunk[4] = 'I';
+        chunk[5] = 'D';
+        chunk[6] = 'A';
+        chunk[7] = 'T';
+        crc.reset();
+        crc.update(chunk, 4, 4 + chunkLength);
+        putInt(chunk, 8 + chunkLength, (int) crc.getValue());
+        out.write(chunk, 0, 8 + chunkLength + 4);
+        chunkLength = 0;
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+}
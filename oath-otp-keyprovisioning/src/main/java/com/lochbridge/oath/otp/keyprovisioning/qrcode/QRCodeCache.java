@@ -0,0 +1,417 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+
+/**
+ * A thread-safe cache of rendered QR code images, for enrollment pages that
+ * render the same {@link OTPAuthURI} again whenever they are reloaded.
+ * <p>
+ * Images are cached as encoded bytes, keyed by a SHA-256 digest of the URI's
+ * string (see {@link OTPAuthURI#toUriString()}) and by the render options of
+ * the {@link QRCodeWriter} (width, height, margin, error correction level and
+ * image format name): the cache never holds the URIs themselves, nor their
+ * keys. Concurrent renders of the same image are coalesced, i.e. only one
+ * thread renders it while the others wait for its result.
+ * <p>
+ * The cache is bounded by the total size of the images it holds: once it
+ * exceeds {@code maximumBytes}, the least recently used images are evicted (an
+ * image larger than the whole budget is rendered, but never held). Images also
+ * expire a fixed time after they were rendered.
+ * <p>
+ * Since the images contain the secret keys of their URIs, the cache zeroes the
+ * bytes of every image it removes, whether evicted, expired, or explicitly
+ * revoked (see {@link #revoke(OTPAuthURI)}), and only ever hands out copies of
+ * them. Expired images are removed during the cache's routine maintenance,
+ * which happens as it is used, or on {@link #cleanUp()}.
+ * <p>
+ * Example:
+ * <pre>
+ * QRCodeCache cache = QRCodeCache.newInstance(16 * 1024 * 1024, 5, TimeUnit.MINUTES);
+ * ...
+ * cache.write(QRCodeWriter.fromURI(uri).width(300).height(300), response.getOutputStream());
+ * ...
+ * // Once the account is enrolled (or its key rotated).
+ * cache.revoke(uri);
+ * </pre>
+ */
+public final class QRCodeCache {
+
+    /** The default maximum size (in bytes) of the images held by a cache. */
+    public static final long DEFAULT_MAXIMUM_BYTES = 16 * 1024 * 1024;
+
+    /** The default time (in milliseconds) after which a rendered image expires. */
+    public static final long DEFAULT_EXPIRE_AFTER_WRITE = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * The number of times {@link #get(QRCodeWriter)} looks an image up again when
+     * it is removed before it could be copied, before rendering it uncached.
+     */
+    static final int MAX_ATTEMPTS = 3;
+
+    private final Cache<Key, Entry> entries;
+    /** Bumped by every revocation, so that renders in flight meanwhile can tell. */
+    private final AtomicLong revocations = new AtomicLong();
+
+    private QRCodeCache(long maximumBytes, long expireAfterWriteNanos, Ticker ticker) {
+        this.entries = CacheBuilder.newBuilder()
+                // One segment, so that the byte budget and the LRU order are cache-wide.
+                .concurrencyLevel(1)
+                .maximumWeight(maximumBytes)
+                .weigher(new Weigher<Key, Entry>() {
+                    @Override
+                    public int weigh(Key key, Entry entry) {
+                        return entry.length;
+                    }
+                })
+                .expireAfterWrite(expireAfterWriteNanos, TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .removalListener(new RemovalListener<Key, Entry>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, Entry> notification) {
+                        notification.getValue().zero();
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns a new, empty {@link QRCodeCache} holding at most
+     * {@value #DEFAULT_MAXIMUM_BYTES} bytes of images, which expire 5 minutes
+     * after they were rendered (see {@link #DEFAULT_EXPIRE_AFTER_WRITE}).
+     *
+     * @return a new {@link QRCodeCache} instance.
+     */
+    public static QRCodeCache newInstance() {
+        return newInstance(DEFAULT_MAXIMUM_BYTES, DEFAULT_EXPIRE_AFTER_WRITE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a new, empty {@link QRCodeCache} holding at most the specified
+     * number of bytes of images, which expire the specified time after they were
+     * rendered.
+     *
+     * @param maximumBytes
+     *            the maximum total size of the images held, in bytes
+     * @param expireAfterWrite
+     *            the time after which a rendered image expires
+     * @param unit
+     *            the unit of {@code expireAfterWrite}
+     *
+     * @return a new {@link QRCodeCache} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code maximumBytes} or {@code expireAfterWrite} is
+     *             {@literal <=} 0.
+     * @throws NullPointerException
+     *             if {@code unit} is {@code null}.
+     */
+    public static QRCodeCache newInstance(long maximumBytes, long expireAfterWrite, TimeUnit unit) {
+        return newInstance(maximumBytes, expireAfterWrite, unit, Ticker.systemTicker());
+    }
+
+    static QRCodeCache newInstance(long maximumBytes, long expireAfterWrite, TimeUnit unit, Ticker ticker) {
+        Preconditions.checkArgument(maximumBytes > 0);
+        Preconditions.checkArgument(expireAfterWrite > 0);
+        return new QRCodeCache(maximumBytes, unit.toNanos(expireAfterWrite), Preconditions.checkNotNull(ticker));
+    }
+
+    /**
+     * Returns the image rendered by the specified {@link QRCodeWriter}, rendering
+     * and caching it unless it is already cached.
+     *
+     * @param writer
+     *            the {@link QRCodeWriter}, configured with the URI and render
+     *            options of the image
+     *
+     * @return a copy of the image.
+     *
+     * @throws NullPointerException
+     *             if {@code writer} is {@code null}.
+     * @throws IOException
+     *             if the image cannot be rendered (see
+     *             {@link QRCodeWriter#write(OutputStream)}).
+     */
+    public byte[] get(QRCodeWriter writer) throws IOException {
+        Preconditions.checkNotNull(writer);
+        Key key = Key.of(writer);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            byte[][] rendered = new byte[1][];
+            byte[] copy = entry(key, writer, rendered).copy();
+            if (copy != null) {
+                if (rendered[0] != null) {
+                    Arrays.fill(rendered[0], (byte) 0);
+                }
+                return copy;
+            }
+            // The entry was zeroed (i.e. removed) before it could be copied: either
+            // this thread rendered it, and it was evicted as soon as it was
+            // inserted (e.g. it weighs more than the whole budget) or revoked
+            // while it rendered, or it was removed while this thread waited for it.
+            if (rendered[0] != null) {
+                return rendered[0];
+            }
+        }
+        // Removed again and again (e.g. by concurrent revocations): render it uncached.
+        return render(writer);
+    }
+
+    /**
+     * Writes the image rendered by the specified {@link QRCodeWriter} to the
+     * specified stream, rendering and caching it unless it is already cached.
+     *
+     * @param writer
+     *            the {@link QRCodeWriter}, configured with the URI and render
+     *            options of the image
+     * @param out
+     *            the stream to write to (it is neither flushed nor closed)
+     *
+     * @throws NullPointerException
+     *             if {@code writer} or {@code out} is {@code null}.
+     * @throws IOException
+     *             if the image cannot be rendered, or the stream fails.
+     */
+    public void write(QRCodeWriter writer, OutputStream out) throws IOException {
+        Preconditions.checkNotNull(out);
+        byte[] image = get(writer);
+        try {
+            out.write(image);
+        } finally {
+            Arrays.fill(image, (byte) 0);
+        }
+    }
+
+    /**
+     * Removes (and zeroes) every cached image of the specified URI, whatever its
+     * render options. Images still being rendered are not cached once rendered.
+     *
+     * @param uri
+     *            the {@link OTPAuthURI}
+     *
+     * @throws NullPointerException
+     *             if {@code uri} is {@code null}.
+     */
+    public void revoke(OTPAuthURI uri) {
+        HashCode digest = digest(uri);
+        revocations.incrementAndGet();
+        for (Key key : entries.asMap().keySet()) {
+            if (key.digest.equals(digest)) {
+                entries.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Removes (and zeroes) every cached image. Images still being rendered are
+     * not cached once rendered.
+     */
+    public void revokeAll() {
+        revocations.incrementAndGet();
+        entries.invalidateAll();
+    }
+
+    /**
+     * Removes (and zeroes) the expired images, which are otherwise only removed
+     * as the cache is used.
+     */
+    public void cleanUp() {
+        entries.cleanUp();
+    }
+
+    /**
+     * Returns the number of images currently held.
+     *
+     * @return the number of images held.
+     */
+    public long size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the statistics of this cache: its hits, misses (i.e. renders) and
+     * evictions.
+     *
+     * @return the {@link CacheStats} of this cache.
+     */
+    public CacheStats getStats() {
+        return entries.stats();
+    }
+
+    @Override
+    public String toString() {
+        return "QRCodeCache [size=" + size() + ", stats=" + getStats() + "]";
+    }
+
+    /**
+     * Returns the cached {@link Entry} of the specified key, rendering it with the
+     * specified writer if missing.
+     */
+    Entry entry(Key key, QRCodeWriter writer) throws IOException {
+        return entry(key, writer, new byte[1][]);
+    }
+
+    /**
+     * Returns the cached {@link Entry} of the specified key, rendering it with the
+     * specified writer if missing, in which case a copy of the rendered image is
+     * also stored in {@code rendered[0]}.
+     */
+    private Entry entry(Key key, final QRCodeWriter writer, final byte[][] rendered) throws IOException {
+        long generation = revocations.get();
+        Entry entry;
+        try {
+            entry = entries.get(key, new Callable<Entry>() {
+                @Override
+                public Entry call() throws IOException {
+                    byte[] image = render(writer);
+                    rendered[0] = image.clone();
+                    return new Entry(image);
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException(e.getCause());
+        }
+        if (rendered[0] != null && revocations.get() != generation) {
+            // Revoked while rendering: the revocation could not see the entry,
+            // which was not inserted yet, so remove (and zero) it now.
+            entries.asMap().remove(key, entry);
+        }
+        return entry;
+    }
+
+    private static byte[] render(QRCodeWriter writer) throws IOException {
+        ZeroingByteArrayOutputStream out = new ZeroingByteArrayOutputStream();
+        try {
+            writer.write(out);
+            return out.toByteArray();
+        } finally {
+            out.zero();
+        }
+    }
+
+    private static HashCode digest(OTPAuthURI uri) {
+        return Hashing.sha256().hashString(uri.toUriString(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The digest of a URI, and the options it is rendered with.
+     */
+    static final class Key {
+
+        final HashCode digest;
+        final int width;
+        final int height;
+        final int margin;
+        final QRCodeWriter.ErrorCorrectionLevel errorCorrectionLevel;
+        final String imageFormatName;
+
+        private Key(HashCode digest, int width, int height, int margin, QRCodeWriter.ErrorCorrectionLevel errorCorrectionLevel, String imageFormatName) {
+            this.digest = digest;
+            this.width = width;
+            this.height = height;
+            this.margin = margin;
+            this.errorCorrectionLevel = errorCorrectionLevel;
+            this.imageFormatName = imageFormatName;
+        }
+
+        static Key of(QRCodeWriter writer) {
+            String imageFormatName = writer.getImageFormatName();
+            return new Key(digest(writer.getURI()), writer.getWidth(), writer.getHeight(), writer.getMargin(), writer.getErrorCorrectionLevel(),
+                    imageFormatName == null ? null : imageFormatName.toUpperCase(Locale.ROOT));
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(digest, width, height, margin, errorCorrectionLevel, imageFormatName);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return digest.equals(other.digest) && width == other.width && height == other.height && margin == other.margin
+                    && errorCorrectionLevel == other.errorCorrectionLevel && Objects.equal(imageFormatName, other.imageFormatName);
+        }
+
+    }
+
+    /**
+     * A cached image, zeroed once removed from the cache.
+     */
+    static final class Entry {
+
+        final int length;
+        private final byte[] image;
+        private boolean zeroed;
+
+        Entry(byte[] image) {
+            this.length = image.length;
+            this.image = image;
+        }
+
+        synchronized byte[] copy() {
+            return zeroed ? null : image.clone();
+        }
+
+        synchronized void zero() {
+            Arrays.fill(image, (byte) 0);
+            zeroed = true;
+        }
+
+        synchronized boolean isZeroed() {
+            for (byte b : image) {
+                if (b != 0) {
+                    return false;
+                }
+            }
+            return zeroed;
+        }
+
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} whose buffer can be zeroed once copied.
+     */
+    private static final class ZeroingByteArrayOutputStream extends ByteArrayOutputStream {
+
+        ZeroingByteArrayOutputStream() {
+            super(1024);
+        }
+
+        void zero() {
+            Arrays.fill(buf, (byte) 0);
+        }
+
+    }
+
+}
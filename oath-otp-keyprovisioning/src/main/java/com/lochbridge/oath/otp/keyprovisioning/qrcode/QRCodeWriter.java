@@ -2,19 +2,9 @@ package com.lochbridge.oath.otp.keyprovisioning.qrcode;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.Hashtable;
-import java.util.Map;
 
 import com.google.common.base.Preconditions;
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.EncodeHintType;
-import com.google.zxing.MultiFormatWriter;
-import com.google.zxing.Writer;
-import com.google.zxing.WriterException;
-import com.google.zxing.client.j2se.MatrixToImageWriter;
-import com.google.zxing.common.BitMatrix;
 import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
 
 /**
@@ -33,9 +23,29 @@ import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
  * File file = new File("path/to/qrcode.png");
  * QRCodeWriter.fromURI(uri).width(300).height(300).errorCorrectionLevel(ErrorCorrectionLevel.H).margin(4).imageFormatName("PNG").write(file.toPath());
  * </pre>
+ * <p>
+ * The QR code is encoded at one bit per module, and each module is then drawn
+ * as a square of an integer number of pixels: the largest one at which the
+ * modules and the margin fit in the configured width and height. The image is
+ * therefore square, and at most as large as configured (e.g. 246 x 246 pixels for
+ * a QR code of 33 modules with the default size and margin), unless even one
+ * pixel per module does not fit.
+ * <p>
+ * QR codes can also be written as SVG documents, either with the "SVG" image
+ * format name, or to any {@link Appendable} (e.g. a {@code StringBuilder} or a
+ * servlet's {@code Writer}) with {@link #writeSvg(Appendable)}:
+ * <pre>
+ * QRCodeWriter.fromURI(uri).margin(4).writeSvg(response.getWriter());
+ * </pre>
+ * <p>
+ * To render many URIs with the same parameters, e.g. from a web endpoint, build
+ * a (thread-safe) {@link QRRenderer} once instead.
  */
 public class QRCodeWriter {
 
+    /** The scratch space shared by the writers' renders. */
+    private static final ScratchPool SCRATCH_POOL = new ScratchPool(2 * Runtime.getRuntime().availableProcessors());
+
     private final OTPAuthURI uri;
     private int width = 250;
     private int height = 250;
@@ -66,7 +76,7 @@ public class QRCodeWriter {
 
     /**
      * Returns this {@code QRCodeWriter} instance initialized with the
-     * specified width of the QR code image. The default width is 250 pixels.
+     * specified (maximum) width of the QR code image. The default width is 250 pixels.
      * 
      * @param width
      *            the width of the QR code image.
@@ -81,7 +91,7 @@ public class QRCodeWriter {
 
     /**
      * Returns this {@code QRCodeWriter} instance initialized with the
-     * specified height of the QR code image. The default width is 250 pixels.
+     * specified (maximum) height of the QR code image. The default height is 250 pixels.
      * 
      * @param height
      *            the height of the QR code image.
@@ -131,6 +141,10 @@ public class QRCodeWriter {
      * Returns this {@code QRCodeWriter} instance initialized with the
      * specified informal image format name to use when generating the QR code
      * image. The default is "PNG".
+     * <p>
+     * PNG images are encoded directly, as 1-bit grayscale images, and "SVG"
+     * documents as a single vector path (see {@link #writeSvg(Appendable)});
+     * other formats are written by ImageIO, from a {@code BufferedImage}.
      * 
      * @param imageFormatName
      *            the informal image format name.
@@ -154,7 +168,7 @@ public class QRCodeWriter {
      */
     public void write(OutputStream os) throws IOException {
         Preconditions.checkNotNull(os);
-        doWrite(os, null);
+        toRenderer().render(uri, os);
     }
 
     /**
@@ -167,26 +181,57 @@ public class QRCodeWriter {
      */
     public void write(Path path) throws IOException {
         Preconditions.checkNotNull(path);
-        doWrite(null, path);
+        toRenderer().render(uri, path);
     }
     
-    private void doWrite(OutputStream os, Path path) throws IOException {
-        try {
-            Writer writer = new MultiFormatWriter();
-            Map<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
-            hints.put(EncodeHintType.CHARACTER_SET, StandardCharsets.UTF_8.name());
-            hints.put(EncodeHintType.MARGIN, Integer.valueOf(margin));
-            hints.put(EncodeHintType.ERROR_CORRECTION, com.google.zxing.qrcode.decoder.ErrorCorrectionLevel.forBits(errorCorrectionLevel.getBits()));
-            BitMatrix matrix = writer.encode(uri.toUriString(), BarcodeFormat.QR_CODE, width, height, hints);
-            if (os != null) {
-                MatrixToImageWriter.writeToStream(matrix, imageFormatName, os);
-            }
-            else {
-                MatrixToImageWriter.writeToPath(matrix, imageFormatName, path);
-            }
-        } catch (WriterException e) {
-            throw new IOException(e);
-        }
+    /**
+     * Writes a QR code as an SVG document to an {@link Appendable}, using this
+     * writer's configured parameters (other than the image format name). The black
+     * modules are drawn as a single path, where each horizontal run of modules
+     * is one rectangle, and no raster image is built. The document is sized at
+     * the same (integer) scale as raster images, and its {@code viewBox} is in
+     * modules, so that it can be scaled freely.
+     * 
+     * @param out {@link Appendable} to append the SVG document to (it is neither flushed nor closed)
+     * 
+     * @throws NullPointerException if {@code out} is {@code null}
+     * @throws IOException <ul><li>if appending to {@code out} fails</li><li>if contents cannot be encoded legally in a format</li></ul>
+     */
+    public void writeSvg(Appendable out) throws IOException {
+        Preconditions.checkNotNull(out);
+        toRenderer().renderSvg(uri, out);
+    }
+
+    /**
+     * Returns a {@link QRRenderer} configured with this writer's parameters, as
+     * is.
+     */
+    QRRenderer toRenderer() {
+        return new QRRenderer(width, height, margin, errorCorrectionLevel, imageFormatName, SCRATCH_POOL);
+    }
+
+    OTPAuthURI getURI() {
+        return uri;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    ErrorCorrectionLevel getErrorCorrectionLevel() {
+        return errorCorrectionLevel;
+    }
+
+    int getMargin() {
+        return margin;
+    }
+
+    String getImageFormatName() {
+        return imageFormatName;
     }
 
     /**
@@ -215,7 +260,7 @@ public class QRCodeWriter {
             this.bits = bits;
         }
 
-        private int getBits() {
+        int getBits() {
             return bits;
         }
 
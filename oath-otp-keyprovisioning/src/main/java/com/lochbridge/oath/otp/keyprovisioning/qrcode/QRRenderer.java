@@ -0,0 +1,283 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRCodeWriter.ErrorCorrectionLevel;
+
+/**
+ * An immutable, thread-safe renderer of {@link OTPAuthURI}s as QR code images,
+ * configured once (see {@link QRRendererBuilder}) and then shared, e.g. by the
+ * threads of an enrollment endpoint.
+ * <p>
+ * Unlike a {@link QRCodeWriter}, which is configured anew for each URI, a
+ * renderer resolves its encoder configuration (error correction level and
+ * character set) and its image format up front, and borrows its scratch space
+ * (the PNG encoder's {@code Deflater} and packed pixel rows, and the output
+ * buffer of {@link #render(OTPAuthURI)}) from a bounded pool, so that a steady
+ * stream of renders allocates little more than ZXing's encoder does. Images are
+ * rendered exactly as a {@link QRCodeWriter} with the same parameters does.
+ * <p>
+ * Example:
+ * <pre>
+ * QRRenderer renderer = QRRendererBuilder.newBuilder().width(300).height(300).errorCorrectionLevel(ErrorCorrectionLevel.M).build();
+ * ...
+ * renderer.render(uri, response.getOutputStream());
+ * </pre>
+ */
+public final class QRRenderer {
+
+    private final int width;
+    private final int height;
+    private final int margin;
+    private final ErrorCorrectionLevel errorCorrectionLevel;
+    private final String imageFormatName;
+    private final com.google.zxing.qrcode.decoder.ErrorCorrectionLevel level;
+    private final Map<EncodeHintType, Object> hints;
+    private final boolean png;
+    private final boolean svg;
+    private final ScratchPool scratchPool;
+
+    /**
+     * Creates a new instance of {@code QRRenderer}. Note that all parameters are
+     * assumed to be valid since the {@link QRRendererBuilder} is responsible for
+     * validation, and creation of {@link QRRenderer}s (a {@link QRCodeWriter}
+     * renders its image with the parameters it was given as is).
+     *
+     * @param width
+     *            the (maximum) width of the images, in pixels
+     * @param height
+     *            the (maximum) height of the images, in pixels
+     * @param margin
+     *            the width of the white border, in modules
+     * @param errorCorrectionLevel
+     *            the error correction level
+     * @param imageFormatName
+     *            the informal image format name
+     * @param scratchPool
+     *            the pool to borrow scratch space from
+     */
+    QRRenderer(int width, int height, int margin, ErrorCorrectionLevel errorCorrectionLevel, String imageFormatName, ScratchPool scratchPool) {
+        this.width = width;
+        this.height = height;
+        this.margin = margin;
+        this.errorCorrectionLevel = errorCorrectionLevel;
+        this.imageFormatName = imageFormatName;
+        this.level = com.google.zxing.qrcode.decoder.ErrorCorrectionLevel.forBits(errorCorrectionLevel.getBits());
+        Map<EncodeHintType, Object> hints = new EnumMap<EncodeHintType, Object>(EncodeHintType.class);
+        hints.put(EncodeHintType.CHARACTER_SET, StandardCharsets.UTF_8.name());
+        this.hints = Collections.unmodifiableMap(hints);
+        this.png = "PNG".equalsIgnoreCase(imageFormatName);
+        this.svg = "SVG".equalsIgnoreCase(imageFormatName);
+        this.scratchPool = scratchPool;
+    }
+
+    /**
+     * Renders the QR code image of the specified URI.
+     *
+     * @param uri
+     *            the {@link OTPAuthURI}
+     *
+     * @return the encoded image.
+     *
+     * @throws NullPointerException
+     *             if {@code uri} is {@code null}.
+     * @throws IOException
+     *             if the URI cannot be encoded legally in a QR code, or the image
+     *             in the format.
+     */
+    public byte[] render(OTPAuthURI uri) throws IOException {
+        Preconditions.checkNotNull(uri);
+        ScratchPool.Scratch scratch = scratchPool.acquire();
+        try {
+            render(uri, scratch.out, scratch);
+            return scratch.out.toByteArray();
+        } finally {
+            scratchPool.release(scratch);
+        }
+    }
+
+    /**
+     * Renders the QR code image of the specified URI to a stream.
+     *
+     * @param uri
+     *            the {@link OTPAuthURI}
+     * @param out
+     *            the stream to write the image to (it is neither flushed nor
+     *            closed)
+     *
+     * @throws NullPointerException
+     *             if {@code uri} or {@code out} is {@code null}.
+     * @throws IOException
+     *             if the URI cannot be encoded legally in a QR code, or the image
+     *             in the format, or the stream fails.
+     */
+    public void render(OTPAuthURI uri, OutputStream out) throws IOException {
+        Preconditions.checkNotNull(uri);
+        Preconditions.checkNotNull(out);
+        ScratchPool.Scratch scratch = scratchPool.acquire();
+        try {
+            render(uri, out, scratch);
+        } finally {
+            scratchPool.release(scratch);
+        }
+    }
+
+    /**
+     * Renders the QR code image of the specified URI to a file.
+     *
+     * @param uri
+     *            the {@link OTPAuthURI}
+     * @param path
+     *            the file to write the image to
+     *
+     * @throws NullPointerException
+     *             if {@code uri} or {@code path} is {@code null}.
+     * @throws IOException
+     *             if the URI cannot be encoded legally in a QR code, or the image
+     *             in the format, or the file cannot be written.
+     */
+    public void render(OTPAuthURI uri, Path path) throws IOException {
+        Preconditions.checkNotNull(uri);
+        Preconditions.checkNotNull(path);
+        try (OutputStream out = Files.newOutputStream(path)) {
+            render(uri, out);
+        }
+    }
+
+    /**
+     * Renders the QR code of the specified URI as an SVG document, whatever the
+     * image format of this renderer (see {@link QRCodeWriter#writeSvg(Appendable)}).
+     *
+     * @param uri
+     *            the {@link OTPAuthURI}
+     * @param out
+     *            the {@link Appendable} to append the SVG document to (it is
+     *            neither flushed nor closed)
+     *
+     * @throws NullPointerException
+     *             if {@code uri} or {@code out} is {@code null}.
+     * @throws IOException
+     *             if the URI cannot be encoded legally in a QR code, or appending
+     *             to {@code out} fails.
+     */
+    public void renderSvg(OTPAuthURI uri, Appendable out) throws IOException {
+        Preconditions.checkNotNull(uri);
+        Preconditions.checkNotNull(out);
+        ByteMatrix modules = encode(uri);
+        SvgEncoder.write(modules, margin, scale(modules.getWidth(), margin, width, height), out);
+    }
+
+    /**
+     * Returns the (maximum) width of the images rendered, in pixels.
+     *
+     * @return the (maximum) width of the images.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the (maximum) height of the images rendered, in pixels.
+     *
+     * @return the (maximum) height of the images.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the width of the white border of the QR codes, in modules.
+     *
+     * @return the margin.
+     */
+    public int getMargin() {
+        return margin;
+    }
+
+    /**
+     * Returns the {@link ErrorCorrectionLevel} of the QR codes.
+     *
+     * @return the error correction level.
+     */
+    public ErrorCorrectionLevel getErrorCorrectionLevel() {
+        return errorCorrectionLevel;
+    }
+
+    /**
+     * Returns the informal name of the format of the images rendered.
+     *
+     * @return the informal image format name.
+     */
+    public String getImageFormatName() {
+        return imageFormatName;
+    }
+
+    @Override
+    public String toString() {
+        return "QRRenderer [width=" + width + ", height=" + height + ", margin=" + margin + ", errorCorrectionLevel=" + errorCorrectionLevel
+                + ", imageFormatName=" + imageFormatName + "]";
+    }
+
+    private void render(OTPAuthURI uri, OutputStream out, ScratchPool.Scratch scratch) throws IOException {
+        ByteMatrix modules = encode(uri);
+        int scale = scale(modules.getWidth(), margin, width, height);
+        if (png) {
+            scratch.png.write(modules, margin, scale, out);
+        }
+        else if (svg) {
+            SvgEncoder.write(modules, margin, scale, scratch.out);
+            if (out != scratch.out) {
+                scratch.out.writeTo(out);
+            }
+        }
+        else {
+            MatrixToImageWriter.writeToStream(toBitMatrix(modules, margin, scale), imageFormatName, out);
+        }
+    }
+
+    private ByteMatrix encode(OTPAuthURI uri) throws IOException {
+        try {
+            return Encoder.encode(uri.toUriString(), level, hints).getMatrix();
+        } catch (WriterException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Returns the largest integer scale (width of a module, in pixels) at which a
+     * QR code of {@code size} modules, plus its margin, fits in {@code width} x
+     * {@code height} pixels, or 1 if none does.
+     */
+    static int scale(int size, int margin, int width, int height) {
+        return Math.max(1, Math.min(width, height) / (size + 2 * margin));
+    }
+
+    private static BitMatrix toBitMatrix(ByteMatrix modules, int margin, int scale) {
+        int size = (modules.getWidth() + 2 * margin) * scale;
+        BitMatrix matrix = new BitMatrix(size, size);
+        for (int y = 0; y < modules.getHeight(); y++) {
+            for (int x = 0; x < modules.getWidth(); x++) {
+                if (modules.get(x, y) == 1) {
+                    matrix.setRegion((margin + x) * scale, (margin + y) * scale, scale, scale);
+                }
+            }
+        }
+        return matrix;
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import javax.imageio.ImageIO;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRCodeWriter.ErrorCorrectionLevel;
+
+/**
+ * A class that creates {@link QRRenderer}s.
+ * <p>
+ * Example:
+ * <pre>
+ * QRRenderer renderer = QRRendererBuilder.newBuilder()
+ *     .width(300)
+ *     .height(300)
+ *     .margin(4)
+ *     .errorCorrectionLevel(ErrorCorrectionLevel.M)
+ *     .imageFormatName("PNG")
+ *     .build();
+ * </pre>
+ */
+public final class QRRendererBuilder {
+
+    private int width = 250;
+    private int height = 250;
+    private int margin = 4;
+    private ErrorCorrectionLevel errorCorrectionLevel = ErrorCorrectionLevel.L;
+    private String imageFormatName = "PNG";
+    private int maximumPooled = 2 * Runtime.getRuntime().availableProcessors();
+
+    private QRRendererBuilder() {
+    }
+
+    /**
+     * Returns a new {@link QRRendererBuilder} instance, initialized with the
+     * same defaults as a {@link QRCodeWriter}.
+     *
+     * @return a new {@link QRRendererBuilder} instance.
+     */
+    public static QRRendererBuilder newBuilder() {
+        return new QRRendererBuilder();
+    }
+
+    /**
+     * Returns this {@code QRRendererBuilder} instance initialized with the
+     * (maximum) width, in pixels, of the images (see {@link QRCodeWriter}).
+     * Defaults to 250.
+     *
+     * @param width
+     *            the width of the images
+     *
+     * @return this {@code QRRendererBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code width} is {@literal <=} 0.
+     */
+    public QRRendererBuilder width(int width) {
+        Preconditions.checkArgument(width > 0);
+        this.width = width;
+        return this;
+    }
+
+    /**
+     * Returns this {@code QRRendererBuilder} instance initialized with the
+     * (maximum) height, in pixels, of the images (see {@link QRCodeWriter}).
+     * Defaults to 250.
+     *
+     * @param height
+     *            the height of the images
+     *
+     * @return this {@code QRRendererBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code height} is {@literal <=} 0.
+     */
+    public QRRendererBuilder height(int height) {
+        Preconditions.checkArgument(height > 0);
+        this.height = height;
+        return this;
+    }
+
+    /**
+     * Returns this {@code QRRendererBuilder} instance initialized with the
+     * width of the white border around the QR codes, in modules. Defaults to 4.
+     *
+     * @param margin
+     *            the margin
+     *
+     * @return this {@code QRRendererBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code margin} is {@literal <} 0.
+     */
+    public QRRendererBuilder margin(int margin) {
+        Preconditions.checkArgument(margin >= 0);
+        this.margin = margin;
+        return this;
+    }
+
+    /**
+     * Returns this {@code QRRendererBuilder} instance initialized with the
+     * {@link ErrorCorrectionLevel} of the QR codes. Defaults to {@link ErrorCorrectionLevel#L}.
+     *
+     * @param errorCorrectionLevel
+     *            the error correction level
+     *
+     * @return this {@code QRRendererBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code errorCorrectionLevel} is {@code null}.
+     */
+    public QRRendererBuilder errorCorrectionLevel(ErrorCorrectionLevel errorCorrectionLevel) {
+        this.errorCorrectionLevel = Preconditions.checkNotNull(errorCorrectionLevel);
+        return this;
+    }
+
+    /**
+     * Returns this {@code QRRendererBuilder} instance initialized with the
+     * informal name of the format of the images: "PNG", "SVG", or any other
+     * format ImageIO can write. Defaults to "PNG".
+     *
+     * @param imageFormatName
+     *            the informal image format name
+     *
+     * @return this {@code QRRendererBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code imageFormatName} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if no image of the format can be written.
+     */
+    public QRRendererBuilder imageFormatName(String imageFormatName) {
+        Preconditions.checkNotNull(imageFormatName);
+        Preconditions.checkArgument("PNG".equalsIgnoreCase(imageFormatName) || "SVG".equalsIgnoreCase(imageFormatName)
+                || ImageIO.getImageWritersByFormatName(imageFormatName).hasNext(), "No writer for image format %s", imageFormatName);
+        this.imageFormatName = imageFormatName;
+        return this;
+    }
+
+    /**
+     * Returns this {@code QRRendererBuilder} instance initialized with the
+     * maximum number of idle scratch spaces (PNG encoders and output buffers)
+     * retained by the renderer, i.e. the number of concurrent renders that
+     * allocate none. Defaults to twice the number of available processors.
+     *
+     * @param maximumPooled
+     *            the maximum number of idle scratch spaces retained
+     *
+     * @return this {@code QRRendererBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code maximumPooled} is {@literal <=} 0.
+     */
+    public QRRendererBuilder maximumPooled(int maximumPooled) {
+        Preconditions.checkArgument(maximumPooled > 0);
+        this.maximumPooled = maximumPooled;
+        return this;
+    }
+
+    /**
+     * Creates a new instance of {@link QRRenderer} initialized with the values
+     * of this builder.
+     *
+     * @return a new {@link QRRenderer} instance.
+     */
+    public QRRenderer build() {
+        return new QRRenderer(width, height, margin, errorCorrectionLevel, imageFormatName, new ScratchPool(maximumPooled));
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A thread-safe pool of the scratch space used to render QR codes: a
+ * {@link PngEncoder} (its {@code Deflater} and packed pixel rows), and an
+ * output buffer. Renders borrow a {@link Scratch} from the pool and return it
+ * when done, so that a steady stream of renders allocates neither.
+ * <p>
+ * The pool retains at most {@code maximumPooled} idle scratch spaces (those
+ * returned to a full pool are discarded), and never retains output buffers
+ * grown beyond {@value #MAXIMUM_POOLED_BUFFER_SIZE} bytes. Output buffers are
+ * zeroed when returned, since the images contain secret keys.
+ */
+final class ScratchPool {
+
+    static final int MAXIMUM_POOLED_BUFFER_SIZE = 1024 * 1024;
+
+    private final BlockingQueue<Scratch> idle;
+
+    /**
+     * Creates a new instance of {@code ScratchPool}.
+     *
+     * @param maximumPooled
+     *            the maximum number of idle scratch spaces retained by the pool
+     *
+     * @throws IllegalArgumentException
+     *             if {@code maximumPooled} is {@literal <} 1.
+     */
+    ScratchPool(int maximumPooled) {
+        Preconditions.checkArgument(maximumPooled >= 1);
+        this.idle = new ArrayBlockingQueue<Scratch>(maximumPooled);
+    }
+
+    /**
+     * Returns a scratch space, either pooled or newly allocated, with an empty
+     * output buffer.
+     *
+     * @return a scratch space.
+     */
+    Scratch acquire() {
+        Scratch scratch = idle.poll();
+        return scratch != null ? scratch : new Scratch();
+    }
+
+    /**
+     * Returns the specified scratch space (previously acquired from this pool) to
+     * the pool.
+     *
+     * @param scratch
+     *            the scratch space
+     */
+    void release(Scratch scratch) {
+        scratch.out.zero();
+        if (scratch.out.buffer().length > MAXIMUM_POOLED_BUFFER_SIZE || !idle.offer(scratch)) {
+            scratch.png.end();
+        }
+    }
+
+    /**
+     * Returns the number of idle scratch spaces retained by the pool.
+     *
+     * @return the number of idle scratch spaces retained by the pool.
+     */
+    int pooled() {
+        return idle.size();
+    }
+
+    /**
+     * The scratch space of a render.
+     */
+    static final class Scratch {
+
+        final PngEncoder png = new PngEncoder();
+        final ScratchOutputStream out = new ScratchOutputStream();
+
+    }
+
+    /**
+     * A {@link ByteArrayOutputStream} that can also be appended ASCII text (such as
+     * SVG documents), and be zeroed.
+     */
+    static final class ScratchOutputStream extends ByteArrayOutputStream implements Appendable {
+
+        ScratchOutputStream() {
+            super(4096);
+        }
+
+        @Override
+        public ScratchOutputStream append(CharSequence csq) {
+            return append(csq, 0, csq.length());
+        }
+
+        @Override
+        public ScratchOutputStream append(CharSequence csq, int start, int end) {
+            for (int i = start; i < end; i++) {
+                append(csq.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public ScratchOutputStream append(char c) {
+            write(c);
+            return this;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        /**
+         * Zeroes the bytes written so far, and empties the buffer.
+         */
+        void zero() {
+            Arrays.fill(buf, 0, count, (byte) 0);
+            count = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import java.io.IOException;
+
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Encodes QR code modules as SVG documents, appending the markup straight to an
+ * {@link Appendable}, without building any raster image.
+ * <p>
+ * The black modules are drawn as a single {@code path}, in module units (the
+ * {@code viewBox} covers the modules and the margin), where each horizontal run
+ * of consecutive black modules of a row is one rectangle: e.g.
+ * {@code M4 4h7v1h-7z} for the top row of the upper left finder pattern. The
+ * {@code width} and {@code height} of the document are the scaled size, in
+ * pixels, and {@code shape-rendering="crispEdges"} keeps the edges of adjacent
+ * runs from being anti-aliased.
+ * <p>
+ * The markup is plain ASCII, and has no XML declaration, so that it can be
+ * inlined in an HTML page as well as served as an {@code image/svg+xml}
+ * resource.
+ */
+final class SvgEncoder {
+
+    private SvgEncoder() {
+    }
+
+    /**
+     * Appends the specified matrix of modules as an SVG document to the
+     * specified {@link Appendable} (which is neither flushed nor closed).
+     *
+     * @param modules
+     *            the modules, black where {@code 1}
+     * @param margin
+     *            the width of the white border, in modules
+     * @param scale
+     *            the width of a module, in pixels
+     * @param out
+     *            the {@link Appendable} to append to
+     *
+     * @throws IOException
+     *             if the {@link Appendable} fails.
+     */
+    static void write(ByteMatrix modules, int margin, int scale, Appendable out) throws IOException {
+        int columns = modules.getWidth();
+        int rows = modules.getHeight();
+        int width = columns + 2 * margin;
+        int height = rows + 2 * margin;
+        out.append("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"");
+        appendInt(width * scale, out);
+        out.append("\" height=\"");
+        appendInt(height * scale, out);
+        out.append("\" viewBox=\"0 0 ");
+        appendInt(width, out);
+        out.append(' ');
+        appendInt(height, out);
+        out.append("\" shape-rendering=\"crispEdges\"><rect width=\"100%\" height=\"100%\" fill=\"#fff\"/><path fill=\"#000\" d=\"");
+        byte[][] array = modules.getArray();
+        for (int y = 0; y < rows; y++) {
+            byte[] line = array[y];
+            for (int x = 0; x < columns;) {
+                if (line[x] != 1) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < columns && line[x] == 1) {
+                    x++;
+                }
+                out.append('M');
+                appendInt(margin + start, out);
+                out.append(' ');
+                appendInt(margin + y, out);
+                out.append('h');
+                appendInt(x - start, out);
+                out.append("v1h-");
+                appendInt(x - start, out);
+                out.append('z');
+            }
+        }
+        out.append("\"/></svg>\n");
+    }
+
+    /**
+     * Appends the decimal digits of a non-negative integer, without creating a
+     * {@code String}.
+     */
+    private static void appendInt(int value, Appendable out) throws IOException {
+        if (value >= 10) {
+            appendInt(value / 10, out);
+        }
+        out.append((char) ('0' + value % 10));
+    }
+
+}
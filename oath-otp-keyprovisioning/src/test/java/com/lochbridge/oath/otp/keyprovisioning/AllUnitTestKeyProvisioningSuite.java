@@ -7,7 +7,7 @@ import org.junit.runners.Suite.SuiteClasses;
 import com.lochbridge.oath.otp.keyprovisioning.qrcode.AllUnitTestQRCodeSuite;
 
 @RunWith(Suite.class)
-@SuiteClasses({ TestOTPKey.class, TestOTPAuthURI.class, TestOTPAuthURIBuilder.class, AllUnitTestQRCodeSuite.class })
+@SuiteClasses({ TestBase32.class, TestOTPKey.class, TestOTPKeyGenerator.class, TestOTPAuthURI.class, TestOTPAuthURIParser.class, TestOTPAuthURIImporter.class, TestOTPAuthURICodec.class, TestOTPAuthURIReader.class, TestIssuerDictionary.class, TestEnrollmentPipeline.class, TestDirectoryEnrollmentSink.class, TestZipEnrollmentSink.class, TestOTPAuthURIBuilder.class, AllUnitTestQRCodeSuite.class })
 public class AllUnitTestKeyProvisioningSuite {
 
 }
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * The original, regex-based implementation of {@link OTPAuthURIBuilder#fromUriString(String)},
+ * kept as the reference {@link OTPAuthURIParser} is differentially tested against.
+ */
+final class LegacyOTPAuthURIParser {
+
+    private static final String SCHEME_PATTERN = "(otpauth)";
+
+    private static final String OTP_TYPE_PATTERN = "(hotp|totp)";
+
+    private static final String LABEL_PATTERN = "([^?#]*)";
+
+    private static final String QUERY_PATTERN = "([^#]*)";
+
+    /** Regex pattern that matches the OTP Auth URI format. */
+    private static final Pattern OTP_AUTH_URI_PATTERN = Pattern.compile(SCHEME_PATTERN + "://" + OTP_TYPE_PATTERN + "/" + LABEL_PATTERN + "\\?" + QUERY_PATTERN);
+
+    private LegacyOTPAuthURIParser() {
+    }
+
+    static OTPAuthURIBuilder parse(String uri) {
+        Preconditions.checkNotNull(uri);
+        Matcher m = OTP_AUTH_URI_PATTERN.matcher(uri);
+        if (!m.matches()) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid OTP Auth URI");
+        }
+        final OTPType otpType = OTPType.from(m.group(2).toUpperCase(Locale.US));
+        
+        String label = null;
+        try {
+            // Since the label component of the Auth URI is expected to be encoded, we can use the URI class to obtain the decoded value.
+            // (do not include the leading '/') 
+            label = new URI(uri).getPath().substring(1);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+        if (Strings.nullToEmpty(label).trim().isEmpty()) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'label' component is missing!");
+        }
+        
+        String secret = null;  // required
+        String issuer = null;  // optional
+        Integer digits = null; // required
+        Long counter = null;   // required if HOTP
+        Long period = null;    // required if TOTP
+        final String query = m.group(4);
+        final Map<String, String> decoder = Splitter.on('&').withKeyValueSeparator("=").split(query);
+        for (Entry<String, String> queryParam : decoder.entrySet()) {
+            if ("secret".equals(queryParam.getKey())) {
+                secret = queryParam.getValue();
+                if (Strings.nullToEmpty(secret).trim().isEmpty()) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'secret' parameter value is missing!");
+                }
+            }
+            else if ("issuer".equals(queryParam.getKey())) {
+                if (Strings.nullToEmpty(queryParam.getValue()).trim().isEmpty()) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'issuer' parameter value is missing!");
+                }
+                try {
+                    // Safe to use URLDecoder since we are dealing with a query parameter value.
+                    issuer = URLDecoder.decode(queryParam.getValue(), StandardCharsets.UTF_8.name());
+                } catch (UnsupportedEncodingException e) {
+                    // This should never happen!
+                    throw new RuntimeException("Unexpected error - underlying platform does not support UTF-8 charset!", e);
+                }
+            }
+            else if ("digits".equals(queryParam.getKey())) {
+                if (Strings.nullToEmpty(queryParam.getValue()).trim().isEmpty()) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'digits' parameter value is missing!");
+                }
+                digits = Integer.valueOf(queryParam.getValue());
+            }
+            else if ("counter".equals(queryParam.getKey())) {
+                if (!otpType.equals(OTPType.HOTP)) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'counter' is not a valid totp parameter!");
+                }
+                if (Strings.nullToEmpty(queryParam.getValue()).trim().isEmpty()) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'counter' parameter value is missing!");
+                }
+                counter = Long.valueOf(queryParam.getValue());
+            }
+            else if ("period".equals(queryParam.getKey())) {
+                if (!otpType.equals(OTPType.TOTP)) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'period' is not a valid hotp parameter!");
+                }
+                if (Strings.nullToEmpty(queryParam.getValue()).trim().isEmpty()) {
+                    throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'period' parameter value is missing!");
+                }
+                period = Long.valueOf(queryParam.getValue());
+            }
+            else {
+                throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: '" + queryParam.getKey() + "' is not a supported parameter!");
+            }
+        }
+        if (secret == null) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'secret' parameter is missing!");
+        }
+        if (digits == null) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'digits' parameter is missing!");
+        }
+        if (otpType.equals(OTPType.HOTP) && counter == null) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'counter' parameter is missing!");
+        }
+        if (otpType.equals(OTPType.TOTP) && period == null) {
+            throw new IllegalArgumentException("[" + uri + "] is not a valid otp auth URI: 'period' parameter is missing!");
+        }
+        
+        OTPAuthURIBuilder builder = OTPAuthURIBuilder.fromKey(new OTPKey(secret, otpType)).label(label).issuer(issuer).digits(digits);
+        if (counter != null) {
+            builder.counter(counter);
+        }
+        if (period != null) {
+            builder.timeStep(TimeUnit.SECONDS.toMillis(period));
+        }
+        return builder;
+    }
+
+}
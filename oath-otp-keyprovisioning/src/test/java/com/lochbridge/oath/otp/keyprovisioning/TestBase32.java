@@ -0,0 +1,156 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.io.BaseEncoding;
+
+public class TestBase32 {
+
+    @Test
+    public void encodeShouldMatchTheRFC4648TestVectors() {
+        String[] inputs = { "", "f", "fo", "foo", "foob", "fooba", "foobar" };
+        String[] outputs = { "", "MY======", "MZXQ====", "MZXW6===", "MZXW6YQ=", "MZXW6YTB", "MZXW6YTBOI======" };
+        for (int i = 0; i < inputs.length; i++) {
+            byte[] bytes = inputs[i].getBytes(StandardCharsets.US_ASCII);
+            assertEquals(outputs[i], Base32.encode(bytes));
+            assertArrayEquals(bytes, Base32.decode(outputs[i]));
+        }
+    }
+
+    @Test
+    public void encodeAndDecodeShouldAgreeWithGuava() {
+        Random random = new Random(42);
+        for (int length = 0; length <= 64; length++) {
+            for (int i = 0; i < 20; i++) {
+                byte[] bytes = new byte[length];
+                random.nextBytes(bytes);
+                String padded = BaseEncoding.base32().encode(bytes);
+                String unpadded = BaseEncoding.base32().omitPadding().encode(bytes);
+                assertEquals(padded, Base32.encode(bytes));
+                assertEquals(unpadded, Base32.encode(bytes, false));
+                assertArrayEquals(bytes, Base32.decode(padded));
+                assertArrayEquals(bytes, Base32.decode(unpadded));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeShouldRejectCharactersOutsideTheAlphabet() {
+        Base32.decode("MZXW6YT1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeShouldRejectLowerCaseCharacters() {
+        Base32.decode("mzxw6ytb");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeShouldRejectImpossibleLengths() {
+        Base32.decode("MZX");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeShouldRejectPaddingInTheMiddle() {
+        Base32.decode("MY==MZXQ");
+    }
+
+    @Test
+    public void arrayOverloadsShouldAgreeWithGuava() {
+        Random random = new Random(7);
+        for (int length = 0; length <= 64; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            for (boolean padding : new boolean[] { true, false }) {
+                String expected = padding ? BaseEncoding.base32().encode(bytes) : BaseEncoding.base32().omitPadding().encode(bytes);
+                assertEquals(expected.length(), Base32.encodedLength(length, padding));
+
+                char[] chars = new char[expected.length() + 3];
+                assertEquals(expected.length(), Base32.encode(bytes, 0, length, chars, 3, padding));
+                assertEquals(expected, new String(chars, 3, expected.length()));
+                byte[] ascii = new byte[expected.length() + 2];
+                assertEquals(expected.length(), Base32.encode(bytes, 0, length, ascii, 2, padding));
+                assertEquals(expected, new String(ascii, 2, expected.length(), StandardCharsets.US_ASCII));
+
+                byte[] decoded = new byte[length + 1];
+                assertEquals(length, Base32.decode(chars, 3, expected.length(), decoded, 1, false));
+                assertArrayEquals(bytes, Arrays.copyOfRange(decoded, 1, length + 1));
+                Arrays.fill(decoded, (byte) 0);
+                assertEquals(length, Base32.decode(ascii, 2, expected.length(), decoded, 1, false));
+                assertArrayEquals(bytes, Arrays.copyOfRange(decoded, 1, length + 1));
+            }
+        }
+    }
+
+    @Test
+    public void byteBufferOverloadsShouldHandleHeapAndDirectBuffers() {
+        byte[] bytes = new byte[1000];
+        new Random(3).nextBytes(bytes);
+        String expected = BaseEncoding.base32().encode(bytes);
+        for (boolean direct : new boolean[] { false, true }) {
+            ByteBuffer src = allocate(bytes.length, direct);
+            src.put(bytes).flip();
+            ByteBuffer chars = allocate(expected.length(), direct);
+            assertEquals(expected.length(), Base32.encode(src, chars, true));
+            assertEquals(0, src.remaining());
+            assertEquals(0, chars.remaining());
+            chars.flip();
+            byte[] ascii = new byte[expected.length()];
+            chars.duplicate().get(ascii);
+            assertEquals(expected, new String(ascii, StandardCharsets.US_ASCII));
+
+            ByteBuffer decoded = allocate(bytes.length, direct);
+            assertEquals(bytes.length, Base32.decode(chars, decoded, false));
+            assertEquals(0, chars.remaining());
+            decoded.flip();
+            byte[] actual = new byte[decoded.remaining()];
+            decoded.get(actual);
+            assertArrayEquals(bytes, actual);
+        }
+    }
+
+    @Test
+    public void lenientDecodeShouldAcceptLowerCaseAndSeparators() {
+        byte[] bytes = "foobar".getBytes(StandardCharsets.US_ASCII);
+        assertArrayEquals(bytes, Base32.decode("mzxw6ytboi", true));
+        assertArrayEquals(bytes, Base32.decode("mzxw 6ytb oi== ====", true));
+        assertArrayEquals(bytes, Base32.decode("MZXW-6YTB-OI\r\n", true));
+        char[] chars = "mzxw 6Ytb-oi".toCharArray();
+        byte[] decoded = new byte[Base32.maxDecodedLength(chars.length)];
+        assertEquals(bytes.length, Base32.decode(chars, 0, chars.length, decoded, 0, true));
+        assertArrayEquals(bytes, Arrays.copyOf(decoded, bytes.length));
+        byte[] ascii = "MZXW 6YTB OI".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(bytes.length, Base32.decode(ascii, 0, ascii.length, decoded, 0, true));
+        assertArrayEquals(bytes, Arrays.copyOf(decoded, bytes.length));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lenientDecodeShouldStillRejectCharactersOutsideTheAlphabet() {
+        Base32.decode("mzxw 6yt1", true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeShouldRejectNonAsciiBytes() {
+        byte[] ascii = "MZXW6YTB".getBytes(StandardCharsets.US_ASCII);
+        ascii[5] = (byte) 0xC1;
+        Base32.decode(ascii, 0, ascii.length, new byte[5], 0, false);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void decodeShouldRejectTooSmallDestinations() {
+        char[] chars = "MZXW6YTBOI======".toCharArray();
+        Base32.decode(chars, 0, chars.length, new byte[5], 0, false);
+    }
+
+    private static ByteBuffer allocate(int capacity, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestDirectoryEnrollmentSink {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected = NullPointerException.class)
+    public void constructorShouldFailWhenDirectoryIsNull() throws IOException {
+        new DirectoryEnrollmentSink(null);
+    }
+
+    @Test
+    public void writeShouldWriteOneFilePerAccount() throws IOException {
+        File directory = new File(folder.getRoot(), "qrcodes");
+        EnrollmentPipelineBuilder.fromSink(new DirectoryEnrollmentSink(directory.toPath())).imageSize(60, 60).sinkThreads(2).build()
+                .run(Arrays.asList("alice@example.com", "Alice Smith", "bob/../x", "caf\u00e9"));
+        String[] names = directory.list();
+        Arrays.sort(names);
+        assertArrayEquals(new String[] { "Alice%20Smith.png", "alice@example.com.png", "bob%2F..%2Fx.png", "caf%C3%A9.png" }, names);
+        for (String name : names) {
+            // The PNG signature.
+            assertEquals((byte) 0x89, Files.readAllBytes(new File(directory, name).toPath())[0]);
+        }
+    }
+
+}
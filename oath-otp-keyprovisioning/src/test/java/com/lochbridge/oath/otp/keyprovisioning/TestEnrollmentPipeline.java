@@ -0,0 +1,157 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+public class TestEnrollmentPipeline {
+
+    @Test(expected = NullPointerException.class)
+    public void fromSinkShouldFailWhenSinkIsNull() {
+        EnrollmentPipelineBuilder.fromSink(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buildShouldFailWhenDigitsAreOutOfRange() {
+        EnrollmentPipelineBuilder.fromSink(new CollectingSink()).digits(42).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void queueCapacityShouldFailWhenNotPositive() {
+        EnrollmentPipelineBuilder.fromSink(new CollectingSink()).queueCapacity(0);
+    }
+
+    @Test
+    public void runShouldEnrollEveryAccountOnce() throws IOException {
+        CollectingSink sink = new CollectingSink();
+        EnrollmentPipeline pipeline = EnrollmentPipelineBuilder.fromSink(sink).issuer("Acme").type(OTPType.HOTP).algorithm(HmacShaAlgorithm.HMAC_SHA_256)
+                .digits(8).imageSize(100, 100).keyGenerationThreads(2).uriBuildingThreads(2).renderingThreads(3).sinkThreads(2).batchSize(7).queueCapacity(2)
+                .build();
+        EnrollmentPipeline.Progress progress = pipeline.run(accounts(250));
+        assertEquals(250, progress.getSubmitted());
+        assertEquals(250, progress.getKeysGenerated());
+        assertEquals(250, progress.getUrisBuilt());
+        assertEquals(250, progress.getCodesRendered());
+        assertEquals(250, progress.getWritten());
+        assertTrue(progress.getThroughput() > 0);
+        assertEquals(progress.getElapsed(TimeUnit.NANOSECONDS), pipeline.getProgress().getElapsed(TimeUnit.NANOSECONDS));
+        assertEquals(250, sink.enrollments.size());
+        Set<Long> indexes = new HashSet<Long>();
+        Set<String> secrets = new HashSet<String>();
+        for (Enrollment enrollment : sink.enrollments) {
+            assertTrue(indexes.add(enrollment.getIndex()));
+            assertTrue(secrets.add(enrollment.getKey().getKey()));
+            assertEquals(32, enrollment.getKey().getDecodedKey().length);
+            OTPAuthURI uri = enrollment.getUri();
+            assertEquals("Acme:user" + enrollment.getIndex() + "@example.com", uri.getLabel());
+            assertEquals("Acme", uri.getIssuer());
+            assertEquals(8, uri.getDigits());
+            assertTrue(uri.isHOTP());
+            assertEquals("PNG", enrollment.getImageFormatName());
+            assertNotNull(ImageIO.read(new ByteArrayInputStream(enrollment.getImage())));
+        }
+        // A pipeline can be run again.
+        assertEquals(3, pipeline.run(accounts(3)).getWritten());
+        assertEquals(3, pipeline.getProgress().getWritten());
+    }
+
+    @Test
+    public void runShouldHandleNoAccounts() throws IOException {
+        CollectingSink sink = new CollectingSink();
+        assertEquals(0, EnrollmentPipelineBuilder.fromSink(sink).build().run(Collections.<String>emptyList()).getWritten());
+        assertTrue(sink.enrollments.isEmpty());
+    }
+
+    @Test
+    public void runShouldPropagateSinkFailures() {
+        final List<Enrollment> written = new ArrayList<Enrollment>();
+        EnrollmentSink sink = new EnrollmentSink() {
+            @Override
+            public void write(Enrollment enrollment) throws IOException {
+                if (written.size() == 20) {
+                    throw new IOException("Disk is full");
+                }
+                written.add(enrollment);
+            }
+        };
+        EnrollmentPipeline pipeline = EnrollmentPipelineBuilder.fromSink(sink).imageSize(50, 50).batchSize(4).queueCapacity(1).build();
+        try {
+            pipeline.run(accounts(10000));
+            fail();
+        } catch (IOException e) {
+            assertEquals("Disk is full", e.getMessage());
+        }
+        assertEquals(20, written.size());
+        assertEquals(20, pipeline.getProgress().getWritten());
+        // The bounded queues stopped the stages well before the end of the accounts.
+        assertTrue(pipeline.getProgress().getSubmitted() < 100);
+    }
+
+    @Test
+    public void runShouldRejectInvalidAccountNames() throws IOException {
+        EnrollmentPipeline pipeline = EnrollmentPipelineBuilder.fromSink(new CollectingSink()).issuer("Acme").imageSize(50, 50).build();
+        try {
+            pipeline.run(Arrays.asList("alice", "bob:smith"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("The label's account name cannot contain any ':' characters!", e.getMessage());
+        }
+        try {
+            pipeline.run(Arrays.asList("alice", null));
+            fail();
+        } catch (NullPointerException e) {
+            assertEquals("Account 1 is null", e.getMessage());
+        }
+    }
+
+    @Test
+    public void runShouldUseTheConfiguredKeyGenerator() throws IOException {
+        CollectingSink sink = new CollectingSink();
+        EnrollmentPipelineBuilder.fromSink(sink).keyGenerator(OTPKeyGenerator.newInstance()).algorithm(HmacShaAlgorithm.HMAC_SHA_512).imageSize(50, 50)
+                .build().run(accounts(2));
+        for (Enrollment enrollment : sink.enrollments) {
+            assertEquals(64, enrollment.getKey().getDecodedKey().length);
+            assertArrayEquals(enrollment.getKey().getDecodedKey(), enrollment.getUri().getKey().getDecodedKey());
+            assertEquals("user" + enrollment.getIndex() + "@example.com", enrollment.getUri().getLabel());
+        }
+    }
+
+    static List<String> accounts(int count) {
+        List<String> accounts = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            accounts.add("user" + i + "@example.com");
+        }
+        return accounts;
+    }
+
+    static final class CollectingSink implements EnrollmentSink {
+
+        final List<Enrollment> enrollments = Collections.synchronizedList(new ArrayList<Enrollment>());
+
+        @Override
+        public void write(Enrollment enrollment) {
+            enrollments.add(enrollment);
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+public class TestIssuerDictionary {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void newInstanceShouldFailWhenMaximumSizeIsNotPositive() {
+        IssuerDictionary.newInstance(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void internShouldFailWhenIssuerIsNull() {
+        IssuerDictionary.newInstance().intern(null);
+    }
+
+    @Test
+    public void internShouldReturnTheCanonicalInstance() {
+        IssuerDictionary dictionary = IssuerDictionary.newInstance();
+        String acme = new String("Acme Corporation");
+        assertSame(acme, dictionary.intern(acme));
+        assertSame(acme, dictionary.intern(new String("Acme Corporation")));
+        assertSame(acme, dictionary.intern(acme));
+        assertEquals("Other", dictionary.intern("Other"));
+        assertEquals(2, dictionary.size());
+        assertEquals(2, dictionary.getHitCount());
+        assertEquals(2, dictionary.getMissCount());
+        // Only the copy counts as saved: 24 bytes, plus 16 + 16 characters.
+        assertEquals(56, dictionary.getEstimatedBytesSaved());
+    }
+
+    @Test
+    public void internShouldBeBounded() {
+        IssuerDictionary dictionary = IssuerDictionary.newInstance(10);
+        for (int i = 0; i < 1000; i++) {
+            dictionary.intern("Issuer " + i);
+        }
+        assertTrue(dictionary.size() <= 10);
+    }
+
+    @Test
+    public void internShouldReturnOneInstanceAcrossThreads() throws Exception {
+        final IssuerDictionary dictionary = IssuerDictionary.newInstance();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String[]>> futures = new ArrayList<Future<String[]>>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(new Callable<String[]>() {
+                    @Override
+                    public String[] call() {
+                        String[] interned = new String[100];
+                        for (int i = 0; i < 100; i++) {
+                            interned[i] = dictionary.intern(new String("Issuer " + i));
+                        }
+                        return interned;
+                    }
+                }));
+            }
+            String[] first = futures.get(0).get();
+            for (Future<String[]> future : futures) {
+                String[] interned = future.get();
+                for (int i = 0; i < 100; i++) {
+                    assertSame(first[i], interned[i]);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(100, dictionary.size());
+        assertEquals(100, dictionary.getMissCount());
+        assertEquals(300, dictionary.getHitCount());
+    }
+
+    @Test
+    public void builderShouldShareTheIssuerAndItsEncodedForm() {
+        IssuerDictionary dictionary = IssuerDictionary.newInstance();
+        OTPKey key = new OTPKey("GEZDGNBVGY3TQOJQ", OTPType.TOTP);
+        OTPAuthURI first = OTPAuthURIBuilder.fromKey(key).label("Ben & Jerry:alice").issuer(new String("Ben & Jerry")).issuerDictionary(dictionary).build();
+        OTPAuthURI second = OTPAuthURIBuilder.fromKey(key).label("Ben & Jerry:bob").issuer(new String("Ben & Jerry")).issuerDictionary(dictionary).build();
+        OTPAuthURI plain = OTPAuthURIBuilder.fromKey(key).label("Ben & Jerry:bob").issuer("Ben & Jerry").build();
+        assertSame(first.getIssuer(), second.getIssuer());
+        assertSame(first.getEncodedIssuer(), second.getEncodedIssuer());
+        assertNotSame(first.getIssuer(), plain.getIssuer());
+        assertEquals("Ben%20%26%20Jerry", second.getEncodedIssuer());
+        assertEquals(plain.toUriString(), second.toUriString());
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        second.writeTo(buffer);
+        assertEquals(plain.toUriString(), new String(buffer.array(), 0, buffer.position()));
+        // Issuers are optional.
+        assertNull(OTPAuthURIBuilder.fromKey(key).label("alice").issuerDictionary(dictionary).build().getIssuer());
+        assertEquals(1, dictionary.size());
+    }
+
+}
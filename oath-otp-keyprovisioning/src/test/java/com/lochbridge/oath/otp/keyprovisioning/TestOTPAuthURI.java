@@ -2,8 +2,15 @@ package com.lochbridge.oath.otp.keyprovisioning;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 
 import org.junit.Test;
@@ -70,4 +77,55 @@ public class TestOTPAuthURI {
                 "Alice Smith", totpURI.getCounter(), totpURI.getDigits(), totpURI.getTimeStep()).toUriString());
     }
 
+    @Test
+    public void encodedIssuerAndLabelShouldBeCached() {
+        assertSame(totpURI.getEncodedLabel(), totpURI.getEncodedLabel());
+        assertSame(totpURI.getEncodedIssuer(), totpURI.getEncodedIssuer());
+    }
+
+    @Test
+    public void writeToShouldAgreeWithToUriString() throws IOException {
+        OTPAuthURI[] uris = {
+            totpURI,
+            hotpURI,
+            new OTPAuthURI(new OTPKey("GEZDGNBV", OTPType.HOTP), null, "caf\u00e9:\u20ac/\ud83d\ude00", Long.MAX_VALUE, 8, 30),
+            new OTPAuthURI(new OTPKey("GEZDGNBV", OTPType.TOTP), "a&b=c+d", "a&b=c+d:x", 0, 10, 1234567890L),
+            new OTPAuthURI(new OTPKey("s\u00e9cret", OTPType.TOTP), null, "x", 0, 6, 9),
+        };
+        ByteBuffer heap = ByteBuffer.allocate(4096);
+        ByteBuffer direct = ByteBuffer.allocateDirect(4096);
+        for (OTPAuthURI uri : uris) {
+            String expected = uri.toUriString();
+            StringWriter writer = new StringWriter();
+            uri.writeTo(writer);
+            assertEquals(expected, writer.toString());
+            StringBuilder sb = new StringBuilder("> ");
+            uri.writeTo(sb);
+            assertEquals("> " + expected, sb.toString());
+            for (ByteBuffer buffer : new ByteBuffer[] { heap, direct }) {
+                buffer.clear().position(3);
+                uri.writeTo(buffer);
+                buffer.flip().position(3);
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                assertEquals(expected, new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void writeToShouldWriteNothingWhenTheBufferIsTooSmall() {
+        int length = totpURI.toUriString().length();
+        ByteBuffer buffer = ByteBuffer.allocate(length - 1);
+        try {
+            totpURI.writeTo(buffer);
+            fail();
+        } catch (BufferOverflowException e) {
+            assertEquals(0, buffer.position());
+        }
+        buffer = ByteBuffer.allocate(length);
+        totpURI.writeTo(buffer);
+        assertFalse(buffer.hasRemaining());
+    }
+
 }
@@ -0,0 +1,155 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+public class TestOTPAuthURICodec {
+
+    static final String[] URIS = {
+        "otpauth://totp/Acme%20Corporation:Alice%20Smith?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ&issuer=Acme%20Corporation&digits=6&period=30",
+        "otpauth://hotp/foo:bar?secret=12345&issuer=foo&digits=6&counter=7",
+        "otpauth://totp/foo?secret=GEZDGNBV&digits=8&period=60",
+        "otpauth://totp/Acme:%20alice?secret=GEZDGNBVGY3TQOJQ&issuer=Acme&digits=6&period=30",
+        "otpauth://hotp/Acme:alice?secret=GEZDGNBVGY3TQOJQ&digits=6&counter=0",
+        "otpauth://totp/Other:alice?secret=GEZDGNBVGY3TQOJQ&digits=6&period=30",
+        "otpauth://totp/AcmeX:alice?secret=gezdgnbv&digits=6&period=30",
+        "otpauth://totp/Acme:alice?secret=GEZDGNBVGY3TQOJQ%3D%3D%3D&issuer=Acme&digits=6&period=30",
+        "otpauth://hotp/caf%C3%A9:%E2%82%AC?secret=AB&issuer=caf%C3%A9&digits=6&counter=9223372036854775807",
+        "otpauth://totp/foo?secret=ABC&digits=6&period=99999999999999999",
+        "otpauth://totp/Ben%20&%20Jerry:Alice?secret=ABC&issuer=Ben%20%26%20Jerry&digits=8&period=60",
+        "otpauth://totp/alice?secret=GEZDGNBV&issuer=Acme&digits=6&period=30",
+    };
+
+    @Test
+    public void fromBytesShouldRoundTripWithUriStrings() {
+        for (String s : URIS) {
+            assertRoundTrips(OTPAuthURI.parse(s));
+        }
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            // Padded secrets cannot be parsed back from URI strings, so the keys are multiples of 5 bytes.
+            byte[] key = new byte[5 * (1 + random.nextInt(8))];
+            random.nextBytes(key);
+            OTPType type = random.nextBoolean() ? OTPType.HOTP : OTPType.TOTP;
+            String issuer = random.nextBoolean() ? "Issuer " + random.nextInt(5) : null;
+            String label = (random.nextBoolean() && issuer != null ? issuer + ":" : "") + "user\u00e9 " + random.nextInt();
+            OTPAuthURIBuilder builder = OTPAuthURIBuilder.fromKey(OTPKey.fromRawKey(key, type)).label(label).issuer(issuer).digits(6 + random.nextInt(3));
+            if (type == OTPType.HOTP) {
+                builder.counter(random.nextLong() & Long.MAX_VALUE);
+            } else {
+                builder.timeStep((1 + random.nextInt(600)) * 1000L);
+            }
+            assertRoundTrips(builder.build());
+        }
+    }
+
+    @Test
+    public void toBytesShouldHoldCanonicalSecretsAsRawBytes() {
+        OTPAuthURI uri = OTPAuthURI.parse(URIS[0]);
+        byte[] bytes = OTPAuthURICodec.toBytes(uri);
+        assertTrue(bytes.length < uri.toUriString().length() / 2);
+        OTPAuthURI decoded = OTPAuthURICodec.fromBytes(bytes);
+        assertArrayEquals(uri.getKey().getDecodedKey(), decoded.getKey().getDecodedKey());
+        // Secrets that are not canonical Base32 (lower case, escaped padding) are kept as they are.
+        assertEquals("gezdgnbv", OTPAuthURICodec.fromBytes(OTPAuthURICodec.toBytes(OTPAuthURI.parse(URIS[6]))).getKey().getKey());
+        assertEquals("GEZDGNBVGY3TQOJQ%3D%3D%3D", OTPAuthURICodec.fromBytes(OTPAuthURICodec.toBytes(OTPAuthURI.parse(URIS[7]))).getKey().getKey());
+    }
+
+    @Test
+    public void encodeShouldWriteNothingWhenTheBufferIsTooSmall() {
+        OTPAuthURI uri = OTPAuthURI.parse(URIS[0]);
+        int length = OTPAuthURICodec.toBytes(uri).length;
+        for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(length - 1), ByteBuffer.allocateDirect(length - 1) }) {
+            try {
+                OTPAuthURICodec.encode(uri, buffer);
+                fail();
+            } catch (BufferOverflowException e) {
+                assertEquals(0, buffer.position());
+            }
+        }
+    }
+
+    @Test
+    public void decodeShouldReadHeapAndDirectBuffersInPlace() {
+        for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(4096), ByteBuffer.allocateDirect(4096) }) {
+            buffer.put((byte) 42);
+            for (String s : URIS) {
+                OTPAuthURICodec.encode(OTPAuthURI.parse(s), buffer);
+            }
+            buffer.flip().position(1);
+            for (String s : URIS) {
+                assertEquals(OTPAuthURI.parse(s).toUriString(), OTPAuthURICodec.decode(buffer).toUriString());
+            }
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    @Test
+    public void fromBytesShouldRejectInvalidRecords() {
+        byte[] bytes = OTPAuthURICodec.toBytes(OTPAuthURI.parse(URIS[0]));
+        assertRejected(new byte[0], "The record is truncated!");
+        assertRejected(Arrays.copyOf(bytes, bytes.length - 1), "The record is truncated!");
+        assertRejected(Arrays.copyOf(bytes, bytes.length + 1), "Trailing bytes after the record!");
+        byte[] version = bytes.clone();
+        version[0] = 2;
+        assertRejected(version, "Unsupported version: 2");
+        byte[] flags = bytes.clone();
+        flags[1] |= 1 << 6;
+        assertRejected(flags, "Unknown flags: " + (flags[1] & 0xFF));
+        byte[] digits = bytes.clone();
+        digits[2] = 42;
+        assertRejected(digits, null);
+        byte[] reference = bytes.clone();
+        reference[1] |= 1 << 2;
+        assertRejected(reference, "Issuer reference outside of a stream!");
+        // Lengths decoding to a negative value, or beyond the range of an int.
+        byte[] negative = { 1, 0, 6, 0, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1 };
+        assertRejected(negative, "Malformed length: -1");
+        byte[] tooLong = { 1, 0, 6, 0, -128, -128, -128, -128, 8 };
+        assertRejected(tooLong, "Malformed length: 2147483648");
+    }
+
+    @Test
+    public void varintsShouldRoundTrip() {
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+        for (long value : new long[] { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, Long.MAX_VALUE, -1 }) {
+            buffer.clear();
+            OTPAuthURICodec.putVarint(buffer, value);
+            buffer.flip();
+            assertEquals(value, OTPAuthURICodec.getVarint(buffer));
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    private static void assertRoundTrips(OTPAuthURI uri) {
+        OTPAuthURI expected = OTPAuthURIBuilder.fromUriString(uri.toUriString()).build();
+        OTPAuthURI decoded = OTPAuthURICodec.fromBytes(OTPAuthURICodec.toBytes(uri));
+        assertEquals(expected.toUriString(), decoded.toUriString());
+        assertEquals(expected.toPlainTextUriString(), decoded.toPlainTextUriString());
+        assertTrue(OTPAuthURICodec.toBytes(uri).length < uri.toUriString().getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static void assertRejected(byte[] bytes, String message) {
+        try {
+            OTPAuthURICodec.fromBytes(bytes);
+            fail();
+        } catch (IllegalArgumentException e) {
+            if (message != null) {
+                assertEquals(message, e.getMessage());
+            }
+        }
+    }
+
+}
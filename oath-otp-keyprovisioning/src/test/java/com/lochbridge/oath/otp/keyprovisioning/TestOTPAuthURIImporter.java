@@ -0,0 +1,231 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestOTPAuthURIImporter {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected = NullPointerException.class)
+    public void fromSinkShouldFailWhenSinkIsNull() {
+        OTPAuthURIImporterBuilder.fromSink(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chunkSizeShouldFailWhenNotPositive() {
+        OTPAuthURIImporterBuilder.fromSink(new CollectingSink()).chunkSize(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parallelismShouldFailWhenNotPositive() {
+        OTPAuthURIImporterBuilder.fromSink(new CollectingSink()).parallelism(0);
+    }
+
+    @Test
+    public void importFileShouldImportEveryLineOnceAndInOrder() throws IOException {
+        List<String> expected = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            String uri = uri(i);
+            expected.add(uri);
+            sb.append(uri).append(i % 3 == 0 ? "\r\n" : "\n");
+            if (i % 7 == 0) {
+                sb.append("\n  \n");
+            }
+        }
+        sb.setLength(sb.length() - 1); // No trailing line end.
+        File file = write(sb.toString());
+        for (int chunkSize : new int[] { 150, 257, 1024, 1 << 20 }) {
+            CollectingSink sink = new CollectingSink();
+            OTPAuthURIImporter.Result result = OTPAuthURIImporterBuilder.fromSink(sink).parallelism(3).chunkSize(chunkSize).maxChunksInFlight(4)
+                    .build().importFile(file.toPath());
+            assertEquals(500, result.getImported());
+            assertEquals(0, result.getFailed());
+            assertTrue(result.getErrors().isEmpty());
+            assertEquals(expected, sink.uris);
+        }
+    }
+
+    @Test
+    public void importFileShouldReportInvalidLinesWithoutAborting() throws IOException {
+        String valid = uri(0);
+        String invalid = "otpauth://totp/alice?digits=6&period=30";
+        String badSecret = "otpauth://totp/bob?secret=GEZDG1BV&digits=6&period=30";
+        String content = valid + "\n  " + invalid + "\n" + valid + "\n" + badSecret + "\n";
+        File file = write(content);
+        CollectingSink sink = new CollectingSink();
+        OTPAuthURIImporter.Result result = OTPAuthURIImporterBuilder.fromSink(sink).chunkSize(200).build().importFile(file.toPath());
+        assertEquals(2, result.getImported());
+        assertEquals(2, result.getFailed());
+        assertEquals(2, result.getErrors().size());
+        OTPAuthURIImporter.LineError first = result.getErrors().get(0);
+        assertEquals(content.indexOf(invalid), first.getOffset());
+        assertEquals(invalid, first.getLine());
+        assertEquals("[" + invalid + "] is not a valid otp auth URI: 'secret' parameter is missing!", first.getMessage());
+        OTPAuthURIImporter.LineError second = result.getErrors().get(1);
+        assertEquals(content.indexOf(badSecret), second.getOffset());
+        // The secret is redacted from the reported line and message.
+        assertEquals("otpauth://totp/bob?secret=***&digits=6&period=30", second.getLine());
+        assertFalse(second.getMessage(), second.getMessage().contains("GEZDG1BV"));
+        assertEquals(2, sink.uris.size());
+    }
+
+    @Test
+    public void importFileShouldRedactSecretsFromParserMessages() throws IOException {
+        String line = "otpauth://totp/alice?secret=GEZDGNBV&digits=6&period=30&counter=1";
+        OTPAuthURIImporter.Result result = OTPAuthURIImporterBuilder.fromSink(new CollectingSink()).build().importFile(write(line + "\n").toPath());
+        assertEquals(1, result.getFailed());
+        OTPAuthURIImporter.LineError error = result.getErrors().get(0);
+        assertEquals("otpauth://totp/alice?secret=***&digits=6&period=30&counter=1", error.getLine());
+        assertEquals("[" + error.getLine() + "] is not a valid otp auth URI: 'counter' is not a valid totp parameter!", error.getMessage());
+        assertFalse(error.toString().contains("GEZDGNBV"));
+    }
+
+    @Test
+    public void importFileShouldRedactSecretsFromInvalidEntryMessages() throws IOException {
+        String line = "otpauth://totp/alice?secret=GEZDGNBVGY3TQOJQ====&digits=6&period=30";
+        OTPAuthURIImporter.Result result = OTPAuthURIImporterBuilder.fromSink(new CollectingSink()).build().importFile(write(line + "\n").toPath());
+        assertEquals(1, result.getFailed());
+        OTPAuthURIImporter.LineError error = result.getErrors().get(0);
+        assertEquals("otpauth://totp/alice?secret=***&digits=6&period=30", error.getLine());
+        assertEquals("Chunk [secret=***] is not a valid entry", error.getMessage());
+    }
+
+    @Test
+    public void importFileShouldSkipLinesLongerThanTheChunkSize() throws IOException {
+        StringBuilder longLine = new StringBuilder("otpauth://totp/");
+        while (longLine.length() < 1000) {
+            longLine.append("alice");
+        }
+        String content = uri(0) + "\n" + longLine + "?secret=GEZDGNBV&digits=6&period=30\n" + uri(1) + "\n";
+        CollectingSink sink = new CollectingSink();
+        OTPAuthURIImporter.Result result = OTPAuthURIImporterBuilder.fromSink(sink).chunkSize(128).build().importFile(write(content).toPath());
+        assertEquals(2, result.getImported());
+        assertEquals(1, result.getFailed());
+        OTPAuthURIImporter.LineError error = result.getErrors().get(0);
+        assertNull(error.getLine());
+        assertEquals("The line is longer than 128 bytes", error.getMessage());
+        assertEquals(2, sink.uris.size());
+    }
+
+    @Test
+    public void importFileShouldCapTheReportedErrors() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            sb.append("not a uri ").append(i).append('\n');
+        }
+        OTPAuthURIImporter.Result result = OTPAuthURIImporterBuilder.fromSink(new CollectingSink()).chunkSize(64).maxReportedErrors(10).build()
+                .importFile(write(sb.toString()).toPath());
+        assertEquals(50, result.getFailed());
+        assertEquals(10, result.getErrors().size());
+        assertEquals("not a uri 0", result.getErrors().get(0).getLine());
+        assertEquals("not a uri 9", result.getErrors().get(9).getLine());
+    }
+
+    @Test
+    public void importFileShouldHandleEmptyFiles() throws IOException {
+        CollectingSink sink = new CollectingSink();
+        OTPAuthURIImporter.Result result = OTPAuthURIImporterBuilder.fromSink(sink).build().importFile(write("").toPath());
+        assertEquals(0, result.getImported());
+        assertEquals(0, result.getFailed());
+        assertTrue(sink.uris.isEmpty());
+    }
+
+    @Test
+    public void importFileShouldPropagateSinkFailures() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(uri(i)).append('\n');
+        }
+        final List<Integer> batches = new ArrayList<Integer>();
+        OTPAuthURISink sink = new OTPAuthURISink() {
+            @Override
+            public void accept(List<OTPAuthURI> uris) throws IOException {
+                batches.add(uris.size());
+                if (batches.size() == 2) {
+                    throw new IOException("Store is full");
+                }
+            }
+        };
+        try {
+            OTPAuthURIImporterBuilder.fromSink(sink).chunkSize(512).build().importFile(write(sb.toString()).toPath());
+            fail();
+        } catch (IOException e) {
+            assertEquals("Store is full", e.getMessage());
+        }
+        assertEquals(2, batches.size());
+    }
+
+    @Test
+    public void importFileShouldInternIssuers() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(uri(i)).append('\n');
+        }
+        final List<String> issuers = new ArrayList<String>();
+        OTPAuthURISink sink = new OTPAuthURISink() {
+            @Override
+            public void accept(List<OTPAuthURI> uris) {
+                for (OTPAuthURI uri : uris) {
+                    issuers.add(uri.getIssuer());
+                }
+            }
+        };
+        IssuerDictionary dictionary = IssuerDictionary.newInstance();
+        String acme = dictionary.intern("Acme");
+        OTPAuthURIImporter importer = OTPAuthURIImporterBuilder.fromSink(sink).issuerDictionary(dictionary).parallelism(2).chunkSize(512).build();
+        assertSame(dictionary, importer.getIssuerDictionary());
+        importer.importFile(write(sb.toString()).toPath());
+        assertEquals(100, issuers.size());
+        for (String issuer : issuers) {
+            assertSame(acme, issuer);
+        }
+        assertEquals(1, dictionary.size());
+        assertEquals(100, dictionary.getHitCount());
+        assertTrue(dictionary.getEstimatedBytesSaved() > 0);
+    }
+
+    private File write(String content) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String uri(int i) {
+        OTPAuthURIBuilder builder = i % 2 == 0
+                ? OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQ", OTPKey.OTPType.HOTP)).counter(i)
+                : OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQ", OTPKey.OTPType.TOTP)).timeStep(30000L);
+        return builder.label("Acme:user" + i).issuer("Acme").digits(6).build().toUriString();
+    }
+
+    private static final class CollectingSink implements OTPAuthURISink {
+
+        final List<String> uris = new ArrayList<String>();
+
+        @Override
+        public void accept(List<OTPAuthURI> batch) {
+            for (OTPAuthURI uri : batch) {
+                uris.add(uri.toUriString());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Differential tests of {@link OTPAuthURIParser} against the original,
+ * regex-based parser ({@link LegacyOTPAuthURIParser}): both must build the
+ * same URIs, or fail with the same exception and message.
+ */
+public class TestOTPAuthURIParser {
+
+    private static final String[] CORPUS = {
+        "otpauth://totp/Acme%20Corporation:Alice%20Smith?secret=GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ&issuer=Acme%20Corporation&digits=6&period=30",
+        "otpauth://hotp/foo:bar?secret=12345&issuer=foo&digits=6&counter=7",
+        "otpauth://totp/foo?secret=12345&digits=6&period=30",
+        "otpauth://totp/Ben%20&%20Jerry:Alice?secret=ABC&issuer=Ben%20%26%20Jerry&digits=8&period=60",
+        "otpauth://totp/caf%C3%A9:%E2%82%AC?secret=ABC&issuer=caf%C3%A9&digits=6&period=30",
+        "otpauth://totp/caf\u00e9:bob?secret=ABC&issuer=caf\u00e9&digits=6&period=30",
+        "otpauth://totp/%FF%FE:bob?secret=ABC&issuer=%FF&digits=6&period=30",
+        "otpauth://totp/a+b:c?secret=ABC&issuer=a+b&digits=6&period=30",
+        "otpauth://totp/a/b?secret=ABC&digits=6&period=30",
+        "otpauth://totp/foo?secret=ABC&digits=+6&period=30",
+        "otpauth://totp/foo?secret=ABC&digits=-6&period=30",
+        "otpauth://totp/foo?secret=ABC&digits=06&period=0030",
+        "otpauth://totp/foo?secret=ABC&digits=6&period=99999999999999999999",
+        "otpauth://totp/foo?secret=ABC&digits=6&period=9223372036854775807",
+        "otpauth://totp/foo?secret=ABC&digits=6&period=-30",
+        "otpauth://hotp/foo?secret=ABC&digits=6&counter=-1",
+        "otpauth://totp/foo?secret=ABC&digits=\u0666&period=30",
+        "otpauth://totp/foo?secret=ABC&digits=2147483648&period=30",
+        "otpauth://totp/foo?secret=ABC&digits=5&period=30",
+        "otpauth://totp/foo?secret=ABC&digits=6&period=30&secret=DEF",
+        "otpauth://totp/foo?secret=ABC&digits=6&period=30&foo",
+        "otpauth://totp/foo?secret=ABC&digits=6&period=30&foo=1&foo=2",
+        "otpauth://totp/foo?secret=ABC&digits=6&period=30&",
+        "otpauth://totp/foo?secret=ABC=DEF&digits=6&period=30",
+        "otpauth://totp/foo?=ABC&digits=6&period=30",
+        "otpauth://totp/foo?",
+        "otpauth://totp/foo",
+        "otpauth://totp/foo?secret=ABC#frag",
+        "otpauth://totp/fo#o?secret=ABC",
+        "otpauth://totp/foo?secret=ABC?&digits=6&period=30",
+        "otpauth://TOTP/foo?secret=ABC&digits=6&period=30",
+        "OTPAUTH://totp/foo?secret=ABC&digits=6&period=30",
+        "otpauth://xotp/foo?secret=ABC&digits=6&period=30",
+        "otpauth:/totp/foo?secret=ABC&digits=6&period=30",
+        "otpauth://totp?secret=ABC&digits=6&period=30",
+        "otpauth://totp/?secret=ABC&digits=6&period=30",
+        "otpauth://totp/%20%20?secret=ABC&digits=6&period=30",
+        "otpauth://totp/foo bar?secret=ABC&digits=6&period=30",
+        "otpauth://totp/foo[bar]?secret=ABC&digits=6&period=30",
+        "otpauth://totp/foo?secret=ABC&issuer=[x]&digits=6&period=30",
+        "otpauth://totp/foo%2?secret=ABC&digits=6&period=30",
+        "otpauth://totp/foo%zz?secret=ABC&digits=6&period=30",
+        "otpauth://totp/foo?secret=ABC&issuer=%&digits=6&period=30",
+        "otpauth://totp/foo?secret=ABC&issuer=%4&digits=6&period=30",
+        "otpauth://totp/foo?secret=ABC&issuer=bar%3Abaz&digits=6&period=30",
+        "otpauth://totp/foo:bar?secret=ABC&issuer=baz&digits=6&period=30",
+        "otpauth://totp/foo:bar:baz?secret=ABC&digits=6&period=30",
+        "otpauth://totp/:bar?secret=ABC&digits=6&period=30",
+        "otpauth://totp/foo:%20?secret=ABC&digits=6&period=30",
+        "otpauth://totp/foo?secret=%20&digits=6&period=30",
+        "otpauth://totp/foo?secret=ABC&issuer=%20&digits=6&period=30",
+        "otpauth://totp/foo?secret=ABC&issuer=+&digits=6&period=30",
+        "otpauth://totp/foo?secret=ABC&digits=6&counter=1",
+        "otpauth://hotp/foo?secret=ABC&digits=6&period=30",
+        "otpauth://hotp/foo?secret=ABC&digits=6",
+        "otpauth://totp/foo?secret=ABC&digits=6",
+        "otpauth://totp/foo?digits=6&period=30",
+        "otpauth://totp/foo?secret=ABC&period=30",
+        "otpauth://totp/foo?secret=ABC&digits=6&period=0",
+        "otpauth://totp/foo\u0001?secret=ABC&digits=6&period=30",
+        "otpauth://totp/foo\u00a0?secret=ABC&digits=6&period=30",
+        "otpauth://totp/foo\u0080?secret=ABC&digits=6&period=30",
+        "otpauth://totp/\ud83d\ude00?secret=ABC&digits=6&period=30",
+        "",
+    };
+
+    private static final String[] PREFIXES = { "otpauth://totp/", "otpauth://hotp/", "otpauth://totp", "otpauth://Totp/", "otpauth:/hotp/" };
+    private static final String[] LABEL_PARTS = { "alice", "Acme", "Acme:", "%20", "%3A", "%C3%A9", "%E2%82", "%2", "%", "+", "/", " ", "[", "\u00e9",
+        "\u00a0", "#", "&", "=", ";" };
+    private static final String[] KEYS = { "secret", "issuer", "digits", "counter", "period", "foo", "", "Secret" };
+    private static final String[] VALUES = { "GEZDGNBV", "", " ", "6", "8", "30", "0", "-1", "+7", "6A", "Acme", "Acme%20Inc", "Acme+Inc", "%C3%A9",
+        "%E9", "%", "%zz", "\u00e9", "[x]", "a=b", "99999999999999999999", "\u0663", "?" };
+
+    @Test
+    public void parseShouldAgreeWithTheLegacyParserOnTheCorpus() {
+        for (String uri : CORPUS) {
+            assertAgrees(uri);
+        }
+    }
+
+    @Test
+    public void parseShouldAgreeWithTheLegacyParserOnRandomUris() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            // Mostly well-formed URIs, with a few random parts, so that both successes and every failure are exercised.
+            boolean hotp = random.nextBoolean();
+            StringBuilder sb = new StringBuilder(random.nextInt(10) > 0 ? (hotp ? PREFIXES[1] : PREFIXES[0]) : pick(random, PREFIXES));
+            sb.append(random.nextInt(4) > 0 ? "Acme:alice" : "");
+            for (int parts = random.nextInt(3); parts > 0; parts--) {
+                sb.append(random.nextInt(3) > 0 ? "alice" : pick(random, LABEL_PARTS));
+            }
+            sb.append(random.nextInt(20) == 0 ? "" : "?");
+            String[] params = { "secret=GEZDGNBV", random.nextBoolean() ? "issuer=Acme" : "issuer=" + pick(random, VALUES), "digits=6",
+                hotp ? "counter=" + random.nextInt(1000) : "period=30", pick(random, KEYS) + (random.nextInt(10) > 0 ? "=" : "") + pick(random, VALUES) };
+            int count = 0;
+            for (int p = 0; p < params.length; p++) {
+                String param = params[p];
+                if (random.nextInt(8) == 0 || (p == params.length - 1 && random.nextInt(3) > 0)) {
+                    continue;
+                }
+                if (random.nextInt(12) == 0) {
+                    param = pick(random, KEYS) + "=" + pick(random, VALUES);
+                }
+                sb.append(count++ > 0 ? "&" : "").append(param);
+            }
+            assertAgrees(sb.toString());
+        }
+    }
+
+    @Test
+    public void parseShouldAgreeWithTheLegacyParserOnGeneratedUris() {
+        Random random = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            OTPAuthURIBuilder builder = random.nextBoolean()
+                    ? OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQ", OTPKey.OTPType.HOTP)).counter(random.nextInt(Integer.MAX_VALUE))
+                    : OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQ", OTPKey.OTPType.TOTP)).timeStep((1 + random.nextInt(300)) * 1000L);
+            String issuer = randomString(random);
+            String label = random.nextBoolean() ? issuer + ":" + randomString(random) : randomString(random);
+            OTPAuthURI uri = builder.label(label).issuer(random.nextBoolean() ? issuer : null).digits(6 + random.nextInt(3)).build();
+            assertAgrees(uri.toUriString());
+            assertEquals(uri.toUriString(), OTPAuthURI.parse(uri.toUriString()).toUriString());
+        }
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String randomString(Random random) {
+        String[] tokens = { "a", "b", "X", "0", "9", " ", "-", ".", "_", "~", "!", "$", "&", "'", "(", "*", "+", ",", ";", "=", "@", "/", "?", "%",
+            "[", "]", "\u00e9", "\u20ac", "\ud83d\ude00" };
+        StringBuilder sb = new StringBuilder("x");
+        for (int i = random.nextInt(8); i >= 0; i--) {
+            sb.append(tokens[random.nextInt(tokens.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static void assertAgrees(String uri) {
+        String expected = outcome(new Parser() {
+            @Override
+            public OTPAuthURIBuilder parse(String uri) {
+                return LegacyOTPAuthURIParser.parse(uri);
+            }
+        }, uri);
+        assertEquals(uri, expected, outcome(new Parser() {
+            @Override
+            public OTPAuthURIBuilder parse(String uri) {
+                return OTPAuthURIParser.parse(uri);
+            }
+        }, uri));
+        assertEquals(uri, expected, outcome(new Parser() {
+            @Override
+            public OTPAuthURIBuilder parse(String uri) {
+                byte[] bytes = ("  " + uri + " ").getBytes(StandardCharsets.UTF_8);
+                return OTPAuthURIParser.parse(bytes, 2, bytes.length - 3);
+            }
+        }, uri));
+    }
+
+    private static String outcome(Parser parser, String uri) {
+        try {
+            OTPAuthURI parsed = parser.parse(uri).build();
+            return parsed.toUriString() + " | " + parsed.toPlainTextUriString() + " | " + parsed.getKey().getKey() + " | " + parsed.getIssuer()
+                    + " | " + parsed.getLabel() + " | " + parsed.getDigits() + " | " + parsed.getCounter() + " | " + parsed.getTimeStep();
+        } catch (RuntimeException e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+
+    private interface Parser {
+        OTPAuthURIBuilder parse(String uri);
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+public class TestOTPAuthURIReader {
+
+    @Test
+    public void readShouldReturnTheWrittenUris() throws IOException {
+        List<OTPAuthURI> uris = uris(5000);
+        byte[] stream = write(uris);
+        List<InputStream> inputs = Arrays.asList(new ByteArrayInputStream(stream), trickle(stream));
+        for (InputStream input : inputs) {
+            try (OTPAuthURIReader reader = new OTPAuthURIReader(input)) {
+                assertReads(uris, reader);
+            }
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(stream.length + 3);
+        direct.put(new byte[3]).put(stream).flip().position(3);
+        for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.wrap(stream), direct }) {
+            assertReads(uris, new OTPAuthURIReader(buffer));
+            assertEquals(buffer == direct ? 3 : 0, buffer.position());
+        }
+    }
+
+    @Test
+    public void readShouldShareIssuerInstances() throws IOException {
+        OTPAuthURIReader reader = new OTPAuthURIReader(new ByteArrayInputStream(write(uris(10))));
+        String issuer = reader.read().getIssuer();
+        reader.read();
+        reader.read();
+        assertSame(issuer, reader.read().getIssuer());
+    }
+
+    @Test
+    public void writeShouldBeMoreCompactThanUriStrings() throws IOException {
+        List<OTPAuthURI> uris = uris(1000);
+        int strings = 0;
+        for (OTPAuthURI uri : uris) {
+            strings += uri.toUriString().length() + 1;
+        }
+        assertTrue(write(uris).length < strings / 2);
+    }
+
+    @Test
+    public void readShouldHandleRecordsLargerThanTheBuffer() throws IOException {
+        OTPAuthURI large = OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBV", OTPType.TOTP)).label(Strings.repeat("alice", 30000)).build();
+        List<OTPAuthURI> uris = new ArrayList<OTPAuthURI>(uris(10));
+        uris.add(5, large);
+        assertReads(uris, new OTPAuthURIReader(trickle(write(uris))));
+    }
+
+    @Test
+    public void readerShouldRejectInvalidStreams() throws IOException {
+        byte[] stream = write(uris(3));
+        assertRejected(new byte[0], EOFException.class, "The stream header is truncated");
+        byte[] magic = stream.clone();
+        magic[0] = 'X';
+        assertRejected(magic, IOException.class, "Not an OTP Auth URI stream");
+        byte[] version = stream.clone();
+        version[4] = 9;
+        assertRejected(version, IOException.class, "Unsupported version: 9");
+        assertRejected(Arrays.copyOf(stream, stream.length - 1), EOFException.class, "Record 2 is truncated");
+        byte[] corrupt = stream.clone();
+        corrupt[6] = (byte) 0xFF;
+        assertRejected(corrupt, IOException.class, "Record 0 is corrupt");
+    }
+
+    private static List<OTPAuthURI> uris(int count) {
+        List<OTPAuthURI> uris = new ArrayList<OTPAuthURI>();
+        OTPKeyGenerator generator = OTPKeyGenerator.newInstance();
+        for (int i = 0; i < count; i++) {
+            String issuer = "Issuer " + (i % 3);
+            OTPAuthURIBuilder builder = OTPAuthURIBuilder.fromKey(generator.generate(i % 2 == 0 ? OTPType.HOTP : OTPType.TOTP, HmacShaAlgorithm.HMAC_SHA_1))
+                    .label(issuer + ":user" + i + "@example.com").issuer(issuer);
+            uris.add(i % 2 == 0 ? builder.counter(i).build() : builder.timeStep(30000L).build());
+        }
+        return uris;
+    }
+
+    private static byte[] write(List<OTPAuthURI> uris) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OTPAuthURIWriter writer = new OTPAuthURIWriter(out)) {
+            for (OTPAuthURI uri : uris) {
+                writer.write(uri);
+            }
+            assertEquals(uris.size(), writer.getCount());
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertReads(List<OTPAuthURI> expected, OTPAuthURIReader reader) throws IOException {
+        for (OTPAuthURI uri : expected) {
+            assertEquals(uri.toUriString(), reader.read().toUriString());
+        }
+        assertNull(reader.read());
+        assertNull(reader.read());
+        assertEquals(expected.size(), reader.getCount());
+    }
+
+    private static void assertRejected(byte[] stream, Class<? extends IOException> type, String message) {
+        try {
+            OTPAuthURIReader reader = new OTPAuthURIReader(new ByteArrayInputStream(stream));
+            while (reader.read() != null) {
+                continue;
+            }
+            fail();
+        } catch (IOException e) {
+            assertEquals(type, e.getClass());
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns a stream handing out at most 7 bytes per read.
+     */
+    private static InputStream trickle(byte[] bytes) {
+        return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+    }
+
+}
@@ -1,13 +1,23 @@
 package com.lochbridge.oath.otp.keyprovisioning;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Test;
 
+import com.lochbridge.oath.otp.HOTP;
+import com.lochbridge.oath.otp.TOTP;
+
 import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
 
 public class TestOTPKey {
 
+    private static final byte[] RAW_KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
     @Test(expected = NullPointerException.class)
     public void constructorShouldFailWhenKeyArgumentIsNull() {
         new OTPKey(null, OTPType.HOTP);
@@ -33,4 +43,49 @@ public class TestOTPKey {
         assertEquals(OTPType.HOTP.getName(), OTPType.HOTP.toString());
     }
 
+    @Test
+    public void decodedKeyShouldBeACopy() {
+        OTPKey key = new OTPKey("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", OTPType.HOTP);
+        byte[] decoded = key.getDecodedKey();
+        assertArrayEquals(RAW_KEY, decoded);
+        decoded[0] = 0;
+        assertArrayEquals(RAW_KEY, key.getDecodedKey());
+    }
+
+    @Test
+    public void decodedKeyBufferShouldBeAReadOnlyView() {
+        ByteBuffer buffer = OTPKey.fromRawKey(RAW_KEY, OTPType.TOTP).getDecodedKeyBuffer();
+        assertTrue(buffer.isReadOnly());
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        assertArrayEquals(RAW_KEY, bytes);
+    }
+
+    @Test
+    public void fromRawKeyShouldEncodeTheKey() {
+        byte[] raw = RAW_KEY.clone();
+        OTPKey key = OTPKey.fromRawKey(raw, OTPType.HOTP);
+        raw[0] = 0;
+        assertEquals("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", key.getKey());
+        assertArrayEquals(RAW_KEY, key.getDecodedKey());
+    }
+
+    @Test
+    public void buildersShouldUseTheDecodedKey() {
+        assertEquals(HOTP.key(RAW_KEY).movingFactor(3).build().value(),
+                OTPKey.fromRawKey(RAW_KEY, OTPType.HOTP).hotp().movingFactor(3).build().value());
+        assertEquals(TOTP.key(RAW_KEY).build(1000).value(),
+                new OTPKey("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", OTPType.TOTP).totp().build(1000).value());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void hotpShouldFailForTOTPKeys() {
+        OTPKey.fromRawKey(RAW_KEY, OTPType.TOTP).hotp();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getDecodedKeyShouldFailWhenTheKeyIsNotBase32() {
+        new OTPKey("123", OTPType.HOTP).getDecodedKey();
+    }
+
 }
@@ -0,0 +1,104 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.io.BaseEncoding;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+public class TestOTPKeyGenerator {
+
+    @Test
+    public void keyLengthShouldMatchTheHmacOutputLength() {
+        assertEquals(20, OTPKeyGenerator.keyLength(HmacShaAlgorithm.HMAC_SHA_1));
+        assertEquals(32, OTPKeyGenerator.keyLength(HmacShaAlgorithm.HMAC_SHA_256));
+        assertEquals(64, OTPKeyGenerator.keyLength(HmacShaAlgorithm.HMAC_SHA_512));
+    }
+
+    @Test
+    public void generateShouldReturnEncodedKeysOfTheRequestedTypeAndLength() throws NoSuchAlgorithmException {
+        OTPKeyGenerator generator = OTPKeyGenerator.newInstance("SHA1PRNG", 2);
+        for (HmacShaAlgorithm algorithm : HmacShaAlgorithm.values()) {
+            List<OTPKey> keys = generator.generate(OTPType.TOTP, algorithm, 50);
+            assertEquals(50, keys.size());
+            for (OTPKey key : keys) {
+                assertEquals(OTPType.TOTP, key.getType());
+                byte[] decoded = key.getDecodedKey();
+                assertEquals(OTPKeyGenerator.keyLength(algorithm), decoded.length);
+                assertEquals(BaseEncoding.base32().omitPadding().encode(decoded), key.getKey());
+                assertArrayEquals(decoded, new OTPKey(key.getKey(), OTPType.TOTP).getDecodedKey());
+            }
+        }
+        assertEquals(OTPType.HOTP, generator.generate(OTPType.HOTP, HmacShaAlgorithm.HMAC_SHA_1).getType());
+        assertTrue(generator.generate(OTPType.HOTP, HmacShaAlgorithm.HMAC_SHA_1, 0).isEmpty());
+    }
+
+    @Test
+    public void generatedKeysShouldSurviveAnOTPAuthURIRoundTrip() throws NoSuchAlgorithmException {
+        OTPKeyGenerator generator = OTPKeyGenerator.newInstance("SHA1PRNG", 1);
+        for (HmacShaAlgorithm algorithm : HmacShaAlgorithm.values()) {
+            OTPKey key = generator.generate(OTPType.TOTP, algorithm);
+            OTPAuthURI uri = OTPAuthURIBuilder.fromKey(key).label("Acme:alice").issuer("Acme").build();
+            OTPAuthURI parsed = OTPAuthURIBuilder.fromUriString(uri.toUriString()).build();
+            assertEquals(key.getKey(), parsed.getKey().getKey());
+            assertArrayEquals(key.getDecodedKey(), parsed.getKey().getDecodedKey());
+        }
+    }
+
+    @Test
+    public void generateShouldNotRepeatKeysAcrossThreads() throws Exception {
+        final OTPKeyGenerator generator = OTPKeyGenerator.newInstance();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<OTPKey>>> futures = new ArrayList<Future<List<OTPKey>>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<List<OTPKey>>() {
+                    @Override
+                    public List<OTPKey> call() {
+                        return generator.generate(OTPType.HOTP, HmacShaAlgorithm.HMAC_SHA_1, 500);
+                    }
+                }));
+            }
+            Set<String> keys = new HashSet<String>();
+            for (Future<List<OTPKey>> future : futures) {
+                for (OTPKey key : future.get()) {
+                    assertTrue(keys.add(key.getKey()));
+                }
+            }
+            assertEquals(4000, keys.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void newInstanceShouldRoundTheStripesUpToAPowerOfTwo() throws NoSuchAlgorithmException {
+        assertEquals(1, OTPKeyGenerator.newInstance("SHA1PRNG", 1).getStripes());
+        assertEquals(8, OTPKeyGenerator.newInstance("SHA1PRNG", 5).getStripes());
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void newInstanceShouldRejectUnknownAlgorithms() throws NoSuchAlgorithmException {
+        OTPKeyGenerator.newInstance("NoSuchPRNG", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void generateShouldRejectNegativeCounts() {
+        OTPKeyGenerator.newInstance().generate(OTPType.HOTP, HmacShaAlgorithm.HMAC_SHA_1, -1);
+    }
+
+}
@@ -0,0 +1,47 @@
+package com.lochbridge.oath.otp.keyprovisioning;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class TestZipEnrollmentSink {
+
+    @Test
+    public void writeShouldWriteOneStoredEntryPerAccount() throws IOException {
+        final TestEnrollmentPipeline.CollectingSink enrollments = new TestEnrollmentPipeline.CollectingSink();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final ZipEnrollmentSink zip = new ZipEnrollmentSink(out)) {
+            EnrollmentPipelineBuilder.fromSink(new EnrollmentSink() {
+                @Override
+                public void write(Enrollment enrollment) throws IOException {
+                    zip.write(enrollment);
+                    enrollments.write(enrollment);
+                }
+            }).issuer("Acme").imageSize(60, 60).sinkThreads(3).build().run(TestEnrollmentPipeline.accounts(50));
+        }
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                assertNull(entries.put(entry.getName(), ByteStreams.toByteArray(in)));
+            }
+        }
+        assertEquals(50, entries.size());
+        for (Enrollment enrollment : enrollments.enrollments) {
+            assertArrayEquals(enrollment.getImage(), entries.get(enrollment.getAccountName() + ".png"));
+        }
+    }
+
+}
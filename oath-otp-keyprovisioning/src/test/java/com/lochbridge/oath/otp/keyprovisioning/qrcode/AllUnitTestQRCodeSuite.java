@@ -5,7 +5,7 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ TestQRCodeWriter.class })
+@SuiteClasses({ TestQRCodeWriter.class, TestPngEncoder.class, TestSvgEncoder.class, TestQRCodeCache.class, TestQRRenderer.class, TestScratchPool.class })
 public class AllUnitTestQRCodeSuite {
 
 }
\ No newline at end of file
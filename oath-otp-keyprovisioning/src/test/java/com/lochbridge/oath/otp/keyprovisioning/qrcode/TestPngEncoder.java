@@ -0,0 +1,103 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+public class TestPngEncoder {
+
+    @Test
+    public void writeShouldEncodeEveryPixel() throws IOException {
+        PngEncoder encoder = new PngEncoder();
+        Random random = new Random(7);
+        for (int[] size : new int[][] { { 1, 1 }, { 7, 3 }, { 8, 8 }, { 9, 17 }, { 33, 2 }, { 250, 250 }, { 1001, 601 } }) {
+            ByteMatrix modules = randomModules(size[0], size[1], random);
+            assertDecodes(modules, 0, 1, encode(encoder, modules, 0, 1));
+        }
+    }
+
+    @Test
+    public void writeShouldScaleModulesAndAddTheMargin() throws IOException {
+        PngEncoder encoder = new PngEncoder();
+        Random random = new Random(5);
+        for (int[] size : new int[][] { { 21, 21 }, { 25, 25 }, { 3, 5 } }) {
+            ByteMatrix modules = randomModules(size[0], size[1], random);
+            for (int margin : new int[] { 0, 1, 4 }) {
+                for (int scale : new int[] { 1, 2, 3, 7, 8, 9, 13 }) {
+                    assertDecodes(modules, margin, scale, encode(encoder, modules, margin, scale));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void writeShouldSplitLargeImagesIntoSeveralChunks() throws IOException {
+        // Random pixels do not compress, so the data spans several IDAT chunks.
+        ByteMatrix modules = randomModules(800, 800, new Random(11));
+        byte[] png = encode(new PngEncoder(), modules, 0, 1);
+        assertTrue(png.length > 800 * 100);
+        assertDecodes(modules, 0, 1, png);
+    }
+
+    @Test
+    public void writeShouldBeSmallerThanImageIO() throws IOException {
+        ByteMatrix modules = randomModules(33, 33, new Random(3));
+        BitMatrix matrix = new BitMatrix(41 * 6, 41 * 6);
+        for (int y = 0; y < 33; y++) {
+            for (int x = 0; x < 33; x++) {
+                if (modules.get(x, y) == 1) {
+                    matrix.setRegion((4 + x) * 6, (4 + y) * 6, 6, 6);
+                }
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MatrixToImageWriter.writeToStream(matrix, "PNG", out);
+        assertTrue(encode(new PngEncoder(), modules, 4, 6).length < out.size());
+    }
+
+    private static ByteMatrix randomModules(int width, int height, Random random) {
+        ByteMatrix modules = new ByteMatrix(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Repeats some rows, which are then written with the Up filter.
+                boolean repeat = y > 0 && random.nextInt(4) == 0;
+                modules.set(x, y, repeat ? modules.get(x, y - 1) : random.nextInt(2));
+            }
+        }
+        return modules;
+    }
+
+    private static byte[] encode(PngEncoder encoder, ByteMatrix modules, int margin, int scale) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.write(modules, margin, scale, out);
+        return out.toByteArray();
+    }
+
+    private static void assertDecodes(ByteMatrix modules, int margin, int scale, byte[] png) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals((modules.getWidth() + 2 * margin) * scale, image.getWidth());
+        assertEquals((modules.getHeight() + 2 * margin) * scale, image.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int mx = x / scale - margin;
+                int my = y / scale - margin;
+                boolean black = mx >= 0 && mx < modules.getWidth() && my >= 0 && my < modules.getHeight() && modules.get(mx, my) == 1;
+                assertEquals(black ? 0xFF000000 : 0xFFFFFFFF, image.getRGB(x, y));
+            }
+        }
+    }
+
+}
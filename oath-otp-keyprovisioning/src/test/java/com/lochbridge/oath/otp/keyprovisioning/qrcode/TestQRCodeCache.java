@@ -0,0 +1,238 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRCodeWriter.ErrorCorrectionLevel;
+
+public class TestQRCodeCache {
+
+    private static final OTPAuthURI ALICE = uri("alice");
+    private static final OTPAuthURI BOB = uri("bob");
+
+    @Test(expected = IllegalArgumentException.class)
+    public void newInstanceShouldFailWhenMaximumBytesIsNotPositive() {
+        QRCodeCache.newInstance(0, 1, TimeUnit.MINUTES);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void newInstanceShouldFailWhenExpireAfterWriteIsNotPositive() {
+        QRCodeCache.newInstance(1024, 0, TimeUnit.MINUTES);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void getShouldFailWhenWriterIsNull() throws IOException {
+        QRCodeCache.newInstance().get(null);
+    }
+
+    @Test
+    public void getShouldRenderEachImageOnce() throws IOException {
+        QRCodeCache cache = QRCodeCache.newInstance();
+        byte[] image = cache.get(QRCodeWriter.fromURI(ALICE));
+        assertArrayEquals(render(QRCodeWriter.fromURI(ALICE)), image);
+        // Copies are handed out.
+        byte[] again = cache.get(QRCodeWriter.fromURI(ALICE).imageFormatName("png"));
+        assertNotSame(image, again);
+        assertArrayEquals(image, again);
+        image[0] = 42;
+        assertArrayEquals(again, cache.get(QRCodeWriter.fromURI(ALICE)));
+        assertEquals(1, cache.getStats().loadCount());
+        assertEquals(2, cache.getStats().hitCount());
+
+        // Any other option is another image.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.write(QRCodeWriter.fromURI(ALICE).errorCorrectionLevel(ErrorCorrectionLevel.H), out);
+        assertArrayEquals(render(QRCodeWriter.fromURI(ALICE).errorCorrectionLevel(ErrorCorrectionLevel.H)), out.toByteArray());
+        cache.get(QRCodeWriter.fromURI(ALICE).margin(2));
+        cache.get(QRCodeWriter.fromURI(ALICE).width(100));
+        cache.get(QRCodeWriter.fromURI(ALICE).height(100));
+        cache.get(QRCodeWriter.fromURI(ALICE).imageFormatName("SVG"));
+        cache.get(QRCodeWriter.fromURI(BOB));
+        assertEquals(7, cache.size());
+        assertEquals(7, cache.getStats().loadCount());
+    }
+
+    @Test
+    public void getShouldCoalesceConcurrentRenders() throws Exception {
+        final QRCodeCache cache = QRCodeCache.newInstance();
+        final CyclicBarrier barrier = new CyclicBarrier(8);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> images = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 8; i++) {
+                images.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws Exception {
+                        barrier.await();
+                        return cache.get(QRCodeWriter.fromURI(ALICE));
+                    }
+                }));
+            }
+            for (Future<byte[]> image : images) {
+                assertArrayEquals(images.get(0).get(), image.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, cache.getStats().loadCount());
+    }
+
+    @Test
+    public void getShouldPropagateRenderFailures() {
+        QRCodeCache cache = QRCodeCache.newInstance();
+        try {
+            cache.get(QRCodeWriter.fromURI(ALICE).imageFormatName("NO-SUCH-FORMAT"));
+            fail();
+        } catch (IOException e) {
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void revokeShouldZeroEveryImageOfTheURI() throws IOException {
+        QRCodeCache cache = QRCodeCache.newInstance();
+        QRCodeCache.Entry png = entry(cache, QRCodeWriter.fromURI(ALICE));
+        QRCodeCache.Entry svg = entry(cache, QRCodeWriter.fromURI(ALICE).imageFormatName("SVG"));
+        QRCodeCache.Entry bob = entry(cache, QRCodeWriter.fromURI(BOB));
+        cache.revoke(uri("alice"));
+        assertTrue(png.isZeroed());
+        assertTrue(svg.isZeroed());
+        assertFalse(bob.isZeroed());
+        assertEquals(1, cache.size());
+        // A revoked image is rendered again if asked for.
+        assertArrayEquals(render(QRCodeWriter.fromURI(ALICE)), cache.get(QRCodeWriter.fromURI(ALICE)));
+
+        cache.revokeAll();
+        assertTrue(bob.isZeroed());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void revokeShouldZeroAnImageThatIsStillBeingRendered() throws IOException {
+        final QRCodeCache[] cache = new QRCodeCache[1];
+        // The cache reads its ticker once the render is under way: revoke the URI then.
+        FakeTicker ticker = new FakeTicker() {
+            private boolean revoked;
+
+            @Override
+            public long read() {
+                if (!revoked) {
+                    revoked = true;
+                    cache[0].revoke(ALICE);
+                }
+                return super.read();
+            }
+        };
+        cache[0] = QRCodeCache.newInstance(QRCodeCache.DEFAULT_MAXIMUM_BYTES, 5, TimeUnit.MINUTES, ticker);
+        QRCodeCache.Entry entry = entry(cache[0], QRCodeWriter.fromURI(ALICE));
+        assertTrue(entry.isZeroed());
+        assertEquals(0, cache[0].size());
+        // Renders that start after the revocation are cached again.
+        assertArrayEquals(render(QRCodeWriter.fromURI(ALICE)), cache[0].get(QRCodeWriter.fromURI(ALICE)));
+        assertEquals(1, cache[0].size());
+    }
+
+    @Test
+    public void imagesShouldExpireAfterWrite() throws IOException {
+        FakeTicker ticker = new FakeTicker();
+        QRCodeCache cache = QRCodeCache.newInstance(QRCodeCache.DEFAULT_MAXIMUM_BYTES, 5, TimeUnit.MINUTES, ticker);
+        QRCodeCache.Entry entry = entry(cache, QRCodeWriter.fromURI(ALICE));
+        ticker.advance(4, TimeUnit.MINUTES);
+        cache.get(QRCodeWriter.fromURI(ALICE));
+        assertEquals(1, cache.getStats().loadCount());
+        ticker.advance(1, TimeUnit.MINUTES);
+        cache.cleanUp();
+        assertTrue(entry.isZeroed());
+        assertEquals(0, cache.size());
+        cache.get(QRCodeWriter.fromURI(ALICE));
+        assertEquals(2, cache.getStats().loadCount());
+    }
+
+    @Test
+    public void imagesShouldBeEvictedBeyondTheByteBudget() throws IOException {
+        long budget = 0;
+        for (int i = 0; i < 3; i++) {
+            budget += render(QRCodeWriter.fromURI(ALICE).margin(i)).length;
+        }
+        QRCodeCache cache = QRCodeCache.newInstance(budget, 5, TimeUnit.MINUTES);
+        List<QRCodeCache.Entry> entries = new ArrayList<QRCodeCache.Entry>();
+        for (int i = 0; i < 3; i++) {
+            entries.add(entry(cache, QRCodeWriter.fromURI(ALICE).margin(i)));
+        }
+        assertEquals(3, cache.size());
+        // The least recently used image is now the one with a margin of 1.
+        cache.get(QRCodeWriter.fromURI(ALICE).margin(0));
+        QRCodeCache.Entry added = entry(cache, QRCodeWriter.fromURI(ALICE).margin(3));
+        assertTrue(entries.get(1).isZeroed());
+        assertFalse(added.isZeroed());
+        assertTrue(cache.size() < 4);
+        assertTrue(cache.getStats().evictionCount() > 0);
+    }
+
+    @Test(timeout = 10000)
+    public void getShouldRenderImagesLargerThanTheByteBudgetUncached() throws IOException {
+        QRCodeCache cache = QRCodeCache.newInstance(100, 5, TimeUnit.MINUTES);
+        byte[] expected = render(QRCodeWriter.fromURI(ALICE));
+        assertTrue(expected.length > 100);
+        assertArrayEquals(expected, cache.get(QRCodeWriter.fromURI(ALICE)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cache.write(QRCodeWriter.fromURI(ALICE), out);
+        assertArrayEquals(expected, out.toByteArray());
+        assertEquals(0, cache.size());
+        // Each image was rendered exactly once.
+        assertEquals(2, cache.getStats().loadCount());
+    }
+
+    private static QRCodeCache.Entry entry(QRCodeCache cache, QRCodeWriter writer) throws IOException {
+        return cache.entry(QRCodeCache.Key.of(writer), writer);
+    }
+
+    private static byte[] render(QRCodeWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out);
+        return out.toByteArray();
+    }
+
+    private static OTPAuthURI uri(String accountName) {
+        return OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", OTPType.TOTP)).label("Acme:" + accountName).issuer("Acme").build();
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        void advance(long duration, TimeUnit unit) {
+            nanos.addAndGet(unit.toNanos(duration));
+        }
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+    }
+
+}
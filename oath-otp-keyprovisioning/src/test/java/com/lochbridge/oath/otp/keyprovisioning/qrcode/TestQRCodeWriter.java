@@ -3,6 +3,8 @@ package com.lochbridge.oath.otp.keyprovisioning.qrcode;
 import static org.junit.Assert.assertEquals;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -25,11 +27,15 @@ import org.junit.Test;
 import com.google.common.io.BaseEncoding;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
+import com.google.zxing.EncodeHintType;
 import com.google.zxing.MultiFormatReader;
 import com.google.zxing.NotFoundException;
 import com.google.zxing.Result;
+import com.google.zxing.WriterException;
 import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
 import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
 import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
 import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
 import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
@@ -88,6 +94,11 @@ public class TestQRCodeWriter {
         QRCodeWriter.fromURI(TOTP_AUTH_URI).write((OutputStream) null);
     }
 
+    @Test(expected = NullPointerException.class)
+    public void writeSvgShouldFailWhenAppendableArgumentIsNull() throws IOException {
+        QRCodeWriter.fromURI(TOTP_AUTH_URI).writeSvg(null);
+    }
+
     @Test
     public void writeToFileShouldSucceedWhenQRCodeIsBasedOffTheURIString() throws IOException, NotFoundException {
         QRCodeWriter.fromURI(TOTP_AUTH_URI)
@@ -112,4 +123,53 @@ public class TestQRCodeWriter {
         assertEquals(TOTP_AUTH_URI.toUriString(), getQRCodeImageRawText(pathOfQRCodeImage));
     }
 
+    @Test
+    public void writeShouldScaleModulesByAnIntegerFactor() throws IOException, WriterException {
+        Map<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
+        hints.put(EncodeHintType.CHARACTER_SET, StandardCharsets.UTF_8.name());
+        ByteMatrix modules = Encoder.encode(TOTP_AUTH_URI.toUriString(), com.google.zxing.qrcode.decoder.ErrorCorrectionLevel.L, hints).getMatrix();
+        int size = modules.getWidth() + 2 * 4;
+        for (String format : new String[] { "PNG", "BMP" }) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            QRCodeWriter.fromURI(TOTP_AUTH_URI).width(250).height(300).imageFormatName(format).write(out);
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+            int scale = 250 / size;
+            assertEquals(size * scale, image.getWidth());
+            assertEquals(size * scale, image.getHeight());
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    int mx = x / scale - 4;
+                    int my = y / scale - 4;
+                    boolean black = mx >= 0 && mx < modules.getWidth() && my >= 0 && my < modules.getHeight() && modules.get(mx, my) == 1;
+                    assertEquals(black ? 0xFF000000 : 0xFFFFFFFF, image.getRGB(x, y));
+                }
+            }
+        }
+        // At least one pixel per module.
+        assertEquals(1, QRRenderer.scale(modules.getWidth(), 4, 10, 10));
+        assertEquals(3, QRRenderer.scale(25, 4, 100, 99));
+    }
+
+    @Test
+    public void writeSvgShouldDrawTheModulesAsASinglePath() throws IOException, WriterException {
+        Map<EncodeHintType, Object> hints = new Hashtable<EncodeHintType, Object>();
+        hints.put(EncodeHintType.CHARACTER_SET, StandardCharsets.UTF_8.name());
+        ByteMatrix modules = Encoder.encode(TOTP_AUTH_URI.toUriString(), com.google.zxing.qrcode.decoder.ErrorCorrectionLevel.M, hints).getMatrix();
+        StringBuilder expected = new StringBuilder();
+        SvgEncoder.write(modules, 2, 300 / (modules.getWidth() + 2 * 2), expected);
+
+        QRCodeWriter writer = QRCodeWriter.fromURI(TOTP_AUTH_URI).width(300).height(300).errorCorrectionLevel(ErrorCorrectionLevel.M).margin(2);
+        StringBuilder svg = new StringBuilder();
+        writer.writeSvg(svg);
+        assertEquals(expected.toString(), svg.toString());
+        assertEquals(1, svg.toString().split("<path ", -1).length - 1);
+
+        // The "SVG" image format name writes the same document to streams and files.
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.imageFormatName("svg").write(out);
+        assertEquals(svg.toString(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+        writer.imageFormatName("SVG").write(pathOfQRCodeImage);
+        assertEquals(svg.toString(), new String(Files.readAllBytes(pathOfQRCodeImage), StandardCharsets.UTF_8));
+    }
+
 }
@@ -0,0 +1,126 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.keyprovisioning.qrcode.QRCodeWriter.ErrorCorrectionLevel;
+
+public class TestQRRenderer {
+
+    private static final OTPAuthURI URI = uri("alice");
+
+    @Test(expected = IllegalArgumentException.class)
+    public void widthShouldFailWhenNotPositive() {
+        QRRendererBuilder.newBuilder().width(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void marginShouldFailWhenNegative() {
+        QRRendererBuilder.newBuilder().margin(-1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void errorCorrectionLevelShouldFailWhenNull() {
+        QRRendererBuilder.newBuilder().errorCorrectionLevel(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void imageFormatNameShouldFailWhenNoWriterExists() {
+        QRRendererBuilder.newBuilder().imageFormatName("NO-SUCH-FORMAT");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void renderShouldFailWhenURIIsNull() throws IOException {
+        QRRendererBuilder.newBuilder().build().render(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void renderToOutputStreamShouldFailWhenStreamIsNull() throws IOException {
+        QRRendererBuilder.newBuilder().build().render(URI, (OutputStream) null);
+    }
+
+    @Test
+    public void renderShouldMatchQRCodeWriter() throws IOException {
+        for (String format : new String[] { "png", "SVG", "BMP" }) {
+            QRRenderer renderer = QRRendererBuilder.newBuilder().width(300).height(200).margin(2).errorCorrectionLevel(ErrorCorrectionLevel.Q)
+                    .imageFormatName(format).build();
+            assertEquals(300, renderer.getWidth());
+            assertEquals(200, renderer.getHeight());
+            assertEquals(2, renderer.getMargin());
+            assertEquals(ErrorCorrectionLevel.Q, renderer.getErrorCorrectionLevel());
+            assertEquals(format, renderer.getImageFormatName());
+            byte[] expected = write(QRCodeWriter.fromURI(URI).width(300).height(200).margin(2).errorCorrectionLevel(ErrorCorrectionLevel.Q)
+                    .imageFormatName(format));
+            assertArrayEquals(expected, renderer.render(URI));
+            // Rendering again reuses the pooled scratch space.
+            assertArrayEquals(expected, renderer.render(URI));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            renderer.render(URI, out);
+            assertArrayEquals(expected, out.toByteArray());
+            Path path = Files.createTempFile("qrcode", format);
+            try {
+                renderer.render(URI, path);
+                assertArrayEquals(expected, Files.readAllBytes(path));
+            } finally {
+                Files.delete(path);
+            }
+            StringBuilder svg = new StringBuilder();
+            renderer.renderSvg(URI, svg);
+            StringBuilder expectedSvg = new StringBuilder();
+            QRCodeWriter.fromURI(URI).width(300).height(200).margin(2).errorCorrectionLevel(ErrorCorrectionLevel.Q).writeSvg(expectedSvg);
+            assertEquals(expectedSvg.toString(), svg.toString());
+        }
+    }
+
+    @Test
+    public void renderShouldBeThreadSafe() throws Exception {
+        final QRRenderer renderer = QRRendererBuilder.newBuilder().maximumPooled(2).build();
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<byte[]>> images = new ArrayList<Future<byte[]>>();
+            for (int i = 0; i < 60; i++) {
+                final OTPAuthURI uri = uri("user" + i);
+                images.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return renderer.render(uri);
+                    }
+                }));
+            }
+            for (int i = 0; i < 60; i++) {
+                assertArrayEquals(write(QRCodeWriter.fromURI(uri("user" + i))), images.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static byte[] write(QRCodeWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.write(out);
+        return out.toByteArray();
+    }
+
+    private static OTPAuthURI uri(String accountName) {
+        return OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", OTPType.TOTP)).label("Acme:" + accountName).issuer("Acme").build();
+    }
+
+}
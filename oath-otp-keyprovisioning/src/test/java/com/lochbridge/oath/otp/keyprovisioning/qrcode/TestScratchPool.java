@@ -0,0 +1,56 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TestScratchPool {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorShouldFailWhenMaximumPooledIsNotPositive() {
+        new ScratchPool(0);
+    }
+
+    @Test
+    public void acquireShouldReuseReleasedScratchSpaces() {
+        ScratchPool pool = new ScratchPool(2);
+        ScratchPool.Scratch first = pool.acquire();
+        ScratchPool.Scratch second = pool.acquire();
+        ScratchPool.Scratch third = pool.acquire();
+        assertNotSame(first, second);
+        pool.release(first);
+        pool.release(second);
+        // The pool is full.
+        pool.release(third);
+        assertEquals(2, pool.pooled());
+        assertSame(first, pool.acquire());
+        assertSame(second, pool.acquire());
+        assertEquals(0, pool.pooled());
+    }
+
+    @Test
+    public void releaseShouldZeroTheOutputBuffer() throws IOException {
+        ScratchPool pool = new ScratchPool(1);
+        ScratchPool.Scratch scratch = pool.acquire();
+        scratch.out.write(new byte[] { 1, 2, 3 });
+        scratch.out.append("<svg/>");
+        assertEquals("\u0001\u0002\u0003<svg/>", scratch.out.toString("US-ASCII"));
+        pool.release(scratch);
+        assertEquals(0, scratch.out.size());
+        assertEquals(0, scratch.out.buffer()[0] | scratch.out.buffer()[3] | scratch.out.buffer()[8]);
+    }
+
+    @Test
+    public void releaseShouldDropOversizedOutputBuffers() throws IOException {
+        ScratchPool pool = new ScratchPool(1);
+        ScratchPool.Scratch scratch = pool.acquire();
+        scratch.out.write(new byte[ScratchPool.MAXIMUM_POOLED_BUFFER_SIZE + 1]);
+        pool.release(scratch);
+        assertEquals(0, pool.pooled());
+    }
+
+}
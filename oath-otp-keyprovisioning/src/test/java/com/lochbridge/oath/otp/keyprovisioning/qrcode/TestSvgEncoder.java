@@ -0,0 +1,98 @@
+package com.lochbridge.oath.otp.keyprovisioning.qrcode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+public class TestSvgEncoder {
+
+    private static final Pattern DOCUMENT = Pattern.compile("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"(\\d+)\" height=\"(\\d+)\" "
+            + "viewBox=\"0 0 (\\d+) (\\d+)\" shape-rendering=\"crispEdges\"><rect width=\"100%\" height=\"100%\" fill=\"#fff\"/>"
+            + "<path fill=\"#000\" d=\"([^\"]*)\"/></svg>\n");
+    private static final Pattern RUN = Pattern.compile("M(\\d+) (\\d+)h(\\d+)v1h-(\\d+)z");
+
+    @Test
+    public void writeShouldDrawEveryBlackModuleOnce() throws IOException {
+        Random random = new Random(13);
+        for (int[] size : new int[][] { { 1, 1 }, { 7, 3 }, { 21, 21 }, { 33, 33 }, { 177, 177 } }) {
+            ByteMatrix modules = new ByteMatrix(size[0], size[1]);
+            for (int y = 0; y < size[1]; y++) {
+                for (int x = 0; x < size[0]; x++) {
+                    modules.set(x, y, random.nextInt(2));
+                }
+            }
+            for (int margin : new int[] { 0, 4 }) {
+                for (int scale : new int[] { 1, 6 }) {
+                    assertDraws(modules, margin, scale);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void writeShouldMergeHorizontalRuns() throws IOException {
+        ByteMatrix modules = new ByteMatrix(9, 2);
+        modules.clear((byte) 0);
+        for (int x = 1; x < 8; x++) {
+            modules.set(x, 0, 1);
+        }
+        modules.set(0, 1, 1);
+        modules.set(8, 1, 1);
+        StringBuilder svg = new StringBuilder();
+        SvgEncoder.write(modules, 4, 10, svg);
+        Matcher document = DOCUMENT.matcher(svg);
+        assertTrue(document.matches());
+        assertEquals("170", document.group(1));
+        assertEquals("100", document.group(2));
+        assertEquals("M5 4h7v1h-7zM4 5h1v1h-1zM12 5h1v1h-1z", document.group(5));
+    }
+
+    private static void assertDraws(ByteMatrix modules, int margin, int scale) throws IOException {
+        StringBuilder svg = new StringBuilder();
+        SvgEncoder.write(modules, margin, scale, svg);
+        Matcher document = DOCUMENT.matcher(svg);
+        assertTrue(document.matches());
+        int width = modules.getWidth() + 2 * margin;
+        int height = modules.getHeight() + 2 * margin;
+        assertEquals(width * scale, Integer.parseInt(document.group(1)));
+        assertEquals(height * scale, Integer.parseInt(document.group(2)));
+        assertEquals(width, Integer.parseInt(document.group(3)));
+        assertEquals(height, Integer.parseInt(document.group(4)));
+        int[][] drawn = new int[height][width];
+        String path = document.group(5);
+        Matcher run = RUN.matcher(path);
+        int end = 0;
+        while (run.find()) {
+            assertEquals(end, run.start());
+            end = run.end();
+            int x = Integer.parseInt(run.group(1));
+            int y = Integer.parseInt(run.group(2));
+            int length = Integer.parseInt(run.group(3));
+            assertEquals(length, Integer.parseInt(run.group(4)));
+            for (int i = 0; i < length; i++) {
+                drawn[y][x + i]++;
+            }
+            // Runs are maximal: the modules on either side are white.
+            assertTrue(x == margin || modules.get(x - margin - 1, y - margin) == 0);
+            assertTrue(x + length == margin + modules.getWidth() || modules.get(x + length - margin, y - margin) == 0);
+        }
+        assertEquals(path.length(), end);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int mx = x - margin;
+                int my = y - margin;
+                boolean black = mx >= 0 && mx < modules.getWidth() && my >= 0 && my < modules.getHeight() && modules.get(mx, my) == 1;
+                assertEquals(black ? 1 : 0, drawn[y][x]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A {@link CredentialStore} that also advances counters atomically, and loads
+ * and writes credentials in batches. This is the storage SPI to implement when
+ * several validators (threads, or nodes) share one store: a compare-and-set
+ * lets exactly one of the validations racing for the same counter value win,
+ * without any lock held across calls.
+ * <p>
+ * Like {@link CredentialStore}s, implementations are free to block on I/O, and
+ * must be safe for use by multiple concurrent threads.
+ *
+ * @see JdbcCredentialStore
+ * @see InMemoryCredentialStore
+ */
+public interface AtomicCredentialStore extends CredentialStore {
+
+    /**
+     * Atomically sets the moving factor of the specified user's HOTP credential
+     * to {@code update} if it currently equals {@code expect}.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param expect
+     *            the expected moving factor
+     * @param update
+     *            the new moving factor
+     *
+     * @return {@code true} if the moving factor was updated, {@code false} otherwise.
+     *
+     * @throws IllegalArgumentException
+     *             if the store holds no HOTP credential for the user.
+     * @throws IOException
+     *             if the store cannot be written
+     */
+    boolean compareAndSetMovingFactor(String userId, long expect, long update) throws IOException;
+
+    /**
+     * Returns the last time step a TOTP value of the specified user was accepted
+     * in, or -1 if none.
+     *
+     * @param userId
+     *            the ID of the user
+     *
+     * @return the last used time step, or -1 if none.
+     *
+     * @throws IllegalArgumentException
+     *             if the store holds no TOTP credential for the user.
+     * @throws IOException
+     *             if the store cannot be read
+     */
+    long getLastUsedStep(String userId) throws IOException;
+
+    /**
+     * Atomically sets the last used time step of the specified user's TOTP
+     * credential to {@code step} if it currently equals {@code expect}. Since a
+     * TOTP value should be accepted at most once, validators may call this method
+     * (with the step returned by {@link #getLastUsedStep(String)}) and reject the
+     * value unless it succeeds, and {@code step} is greater.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param expect
+     *            the expected last used time step
+     * @param step
+     *            the new last used time step
+     *
+     * @return {@code true} if the last used time step was updated, {@code false} otherwise.
+     *
+     * @throws IllegalArgumentException
+     *             if the store holds no TOTP credential for the user.
+     * @throws IOException
+     *             if the store cannot be written
+     */
+    boolean compareAndSetLastUsedStep(String userId, long expect, long step) throws IOException;
+
+    /**
+     * Returns the {@link Credential}s of the specified users. Users the store
+     * holds no credential for are left out of the returned map.
+     *
+     * @param userIds
+     *            the IDs of the users
+     *
+     * @return a map of user IDs to {@link Credential}s.
+     *
+     * @throws IOException
+     *             if the store cannot be read
+     */
+    Map<String, Credential> loadAll(Collection<String> userIds) throws IOException;
+
+    /**
+     * Adds (or replaces) the specified {@link Credential}s.
+     *
+     * @param credentials
+     *            the {@link Credential}s
+     *
+     * @throws IOException
+     *             if the store cannot be written
+     */
+    void saveAll(Collection<Credential> credentials) throws IOException;
+
+    /**
+     * Stores the new moving factors of the specified users' HOTP credentials.
+     * Users the store holds no credential for are ignored.
+     *
+     * @param movingFactors
+     *            a map of user IDs to new moving factors
+     *
+     * @throws IOException
+     *             if the store cannot be written
+     */
+    void updateMovingFactors(Map<String, Long> movingFactors) throws IOException;
+
+}
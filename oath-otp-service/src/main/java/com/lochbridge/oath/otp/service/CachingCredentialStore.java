@@ -0,0 +1,507 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * A read-through cache of {@link Credential}s in front of a slower
+ * {@link CredentialStore}. A cached credential is the "compiled" form of a
+ * user's key: the decoded secret, algorithm, digits and time step (or moving
+ * factor), ready to hand to the validators, so that the hot set of users is
+ * validated without a round trip to storage.
+ * <p>
+ * Hits are lock-free: a lookup in a {@link ConcurrentHashMap}, and an entry in a
+ * lossy, striped buffer recording the access for the eviction policy. The
+ * buffers are drained (and accesses dropped when they overflow) by whichever
+ * thread manages to take the eviction lock. Misses load the credential from the
+ * underlying store, with concurrent misses for the same user collapsed into one
+ * load.
+ * <p>
+ * The cache holds at most {@link CachingCredentialStoreBuilder#maximumSize(long)}
+ * credentials, evicted according to the W-TinyLFU policy: new entries go to a
+ * small LRU window (1% of the capacity), and entries leaving the window are only
+ * admitted to the main LRU region if a {@link FrequencySketch} estimates they are
+ * accessed more often than the main region's eviction victim. A scan of cold
+ * users therefore cannot flush the hot set. Entries also expire a fixed time
+ * after they were loaded (see {@link CachingCredentialStoreBuilder#expireAfterWrite(long, java.util.concurrent.TimeUnit)}),
+ * so that changes made behind the cache's back eventually show.
+ * <p>
+ * Writes go through to the underlying store first. {@link #save(Credential)}
+ * (i.e. a key rotation) invalidates the cached credential, while
+ * {@link #updateMovingFactor(String, long)} updates it in place. Keys rotated
+ * directly in the underlying store should be {@link #invalidate(String) invalidated}
+ * explicitly. Since cached moving factors are only kept current by this cache,
+ * the underlying store must not be shared with other validation services (e.g.
+ * a {@link JdbcCredentialStore} used by several nodes): this cache is not an
+ * {@link AtomicCredentialStore}, so a {@link ValidationService} in front of it
+ * only serializes the validations of its own process.
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * CachingCredentialStore store = CachingCredentialStoreBuilder.fromStore(localStore)
+ *     .maximumSize(1000000)
+ *     .expireAfterWrite(10, TimeUnit.MINUTES)
+ *     .build();
+ * ValidationService service = ValidationServiceBuilder.fromStore(store).build();
+ * ...
+ * CacheStats stats = store.getStats();
+ * </pre>
+ */
+public final class CachingCredentialStore implements CredentialStore {
+
+    private static final int WINDOW = 0;
+    private static final int MAIN = 1;
+    private static final int DEAD = 2;
+
+    private static final int LOCK_STRIPES = 1024;
+
+    private final CredentialStore store;
+    private final long expireAfterWriteNanos;
+    private final Ticker ticker;
+
+    private final ConcurrentMap<String, Node> data = new ConcurrentHashMap<String, Node>();
+    private final Striped<Lock> userLocks = Striped.lock(LOCK_STRIPES);
+    private final ReadBuffer[] readBuffers;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // Guarded by the eviction lock.
+    private final FrequencySketch sketch;
+    private final AccessOrderQueue window = new AccessOrderQueue();
+    private final AccessOrderQueue main = new AccessOrderQueue();
+    private final long windowMaximum;
+    private final long mainMaximum;
+    private long windowSize;
+    private long mainSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loadSuccesses = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a new instance of {@code CachingCredentialStore}. Note that all parameters
+     * are assumed to be valid since the {@link CachingCredentialStoreBuilder} is responsible
+     * for validation, and creation of {@link CachingCredentialStore}s.
+     *
+     * @param store
+     *            the underlying {@link CredentialStore}
+     * @param maximumSize
+     *            the maximum number of cached credentials
+     * @param expireAfterWriteNanos
+     *            the time (in nanoseconds) after which a loaded credential expires
+     * @param ticker
+     *            the time source
+     */
+    CachingCredentialStore(CredentialStore store, long maximumSize, long expireAfterWriteNanos, Ticker ticker) {
+        this.store = store;
+        this.expireAfterWriteNanos = expireAfterWriteNanos;
+        this.ticker = ticker;
+        this.sketch = new FrequencySketch(maximumSize);
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.mainMaximum = maximumSize - windowMaximum;
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripes = Math.min(64, Integer.highestOneBit(4 * processors - 1) << 1);
+        this.readBuffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+
+    @Override
+    public Credential load(String userId) throws IOException {
+        Node node = data.get(userId);
+        if (node != null && !isExpired(node, ticker.read())) {
+            Credential credential = node.credential;
+            hits.incrementAndGet();
+            recordRead(node);
+            return credential;
+        }
+        return loadSlowly(userId);
+    }
+
+    /**
+     * Saves the specified {@link Credential} to the underlying store, and
+     * invalidates the cached credential of the user.
+     *
+     * @param credential
+     *            the {@link Credential}
+     *
+     * @throws IOException
+     *             if the underlying store fails.
+     */
+    @Override
+    public void save(Credential credential) throws IOException {
+        Lock lock = userLocks.get(credential.getUserId());
+        lock.lock();
+        try {
+            try {
+                store.save(credential);
+            } finally {
+                // Even a failed save may have replaced the key.
+                discard(credential.getUserId());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stores the new moving factor in the underlying store, and updates the
+     * cached credential of the user (if any).
+     *
+     * @param userId
+     *            the ID of the user
+     * @param movingFactor
+     *            the new moving factor
+     *
+     * @throws IOException
+     *             if the underlying store fails.
+     */
+    @Override
+    public void updateMovingFactor(String userId, long movingFactor) throws IOException {
+        Lock lock = userLocks.get(userId);
+        lock.lock();
+        try {
+            try {
+                store.updateMovingFactor(userId, movingFactor);
+            } catch (IOException | RuntimeException e) {
+                discard(userId);
+                throw e;
+            }
+            Node node = data.get(userId);
+            if (node != null && node.credential.isHOTP()) {
+                node.credential = node.credential.withMovingFactor(movingFactor);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards the cached credential of the specified user (if any), e.g. after
+     * the user's key was rotated directly in the underlying store.
+     *
+     * @param userId
+     *            the ID of the user
+     */
+    public void invalidate(String userId) {
+        Lock lock = userLocks.get(userId);
+        lock.lock();
+        try {
+            discard(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards all cached credentials.
+     */
+    public void invalidateAll() {
+        for (String userId : data.keySet()) {
+            invalidate(userId);
+        }
+    }
+
+    /**
+     * Returns the number of cached credentials.
+     *
+     * @return the number of cached credentials.
+     */
+    public long size() {
+        return data.size();
+    }
+
+    /**
+     * Returns a snapshot of the statistics of this cache. Rejections by the
+     * admission policy count as evictions.
+     *
+     * @return a snapshot of the statistics of this cache.
+     */
+    public CacheStats getStats() {
+        return new CacheStats(hits.get(), misses.get(), loadSuccesses.get(), loadFailures.get(), totalLoadTime.get(), evictions.get());
+    }
+
+    private Credential loadSlowly(String userId) throws IOException {
+        Lock lock = userLocks.get(userId);
+        lock.lock();
+        try {
+            // Another thread may have loaded the credential in the meantime.
+            Node node = data.get(userId);
+            if (node != null && !isExpired(node, ticker.read())) {
+                hits.incrementAndGet();
+                recordRead(node);
+                return node.credential;
+            }
+            misses.incrementAndGet();
+            long start = ticker.read();
+            Credential credential;
+            try {
+                credential = store.load(userId);
+            } catch (IOException | RuntimeException e) {
+                loadFailures.incrementAndGet();
+                totalLoadTime.addAndGet(ticker.read() - start);
+                throw e;
+            }
+            long now = ticker.read();
+            loadSuccesses.incrementAndGet();
+            totalLoadTime.addAndGet(now - start);
+            if (credential == null) {
+                // Unknown users are not cached, and may not evict anyone.
+                discard(userId);
+            } else if (node != null && data.get(userId) == node) {
+                node.credential = credential;
+                node.writeTime = now;
+            } else {
+                insert(new Node(userId, credential, now));
+            }
+            return credential;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Called with the user's lock held. */
+    private void insert(Node node) {
+        data.put(node.userId, node);
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            sketch.increment(node.userId);
+            window.linkFirst(node);
+            node.queue = WINDOW;
+            windowSize++;
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /** Called with the user's lock held. */
+    private void discard(String userId) {
+        Node node = data.remove(userId);
+        if (node == null) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            unlink(node);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /** Called with the eviction lock held. */
+    private void evict() {
+        while (windowSize > windowMaximum) {
+            Node candidate = window.pollLast();
+            windowSize--;
+            if (mainSize < mainMaximum) {
+                main.linkFirst(candidate);
+                candidate.queue = MAIN;
+                mainSize++;
+                continue;
+            }
+            // TinyLFU admission: the candidate only replaces the victim if it is more popular.
+            Node victim = main.peekLast();
+            if (victim != null && sketch.frequency(candidate.userId) > sketch.frequency(victim.userId)) {
+                unlink(victim);
+                evicted(victim);
+                main.linkFirst(candidate);
+                candidate.queue = MAIN;
+                mainSize++;
+            } else {
+                candidate.queue = DEAD;
+                evicted(candidate);
+            }
+        }
+    }
+
+    /** Called with the eviction lock held. */
+    private void evicted(Node node) {
+        data.remove(node.userId, node);
+        evictions.incrementAndGet();
+    }
+
+    /** Called with the eviction lock held. */
+    private void unlink(Node node) {
+        if (node.queue == WINDOW) {
+            window.unlink(node);
+            windowSize--;
+        } else if (node.queue == MAIN) {
+            main.unlink(node);
+            mainSize--;
+        }
+        node.queue = DEAD;
+    }
+
+    private boolean isExpired(Node node, long now) {
+        return now - node.writeTime >= expireAfterWriteNanos;
+    }
+
+    private void recordRead(Node node) {
+        int stripe = (int) (Thread.currentThread().getId() * 0x9E3779B97F4A7C15L >>> 32) & (readBuffers.length - 1);
+        if (!readBuffers[stripe].offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    /** Called with the eviction lock held. */
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drainTo(this);
+        }
+    }
+
+    /** Called with the eviction lock held. */
+    private void onAccess(Node node) {
+        if (node.queue == DEAD) {
+            return;
+        }
+        sketch.increment(node.userId);
+        (node.queue == WINDOW ? window : main).moveToFront(node);
+    }
+
+    /**
+     * A cache entry.
+     */
+    private static final class Node {
+
+        final String userId;
+        volatile Credential credential;
+        volatile long writeTime;
+
+        // Guarded by the eviction lock.
+        int queue;
+        Node previous;
+        Node next;
+
+        Node(String userId, Credential credential, long writeTime) {
+            this.userId = userId;
+            this.credential = credential;
+            this.writeTime = writeTime;
+        }
+
+    }
+
+    /**
+     * A doubly-linked list of {@link Node}s, most recently used first.
+     */
+    private static final class AccessOrderQueue {
+
+        private Node first;
+        private Node last;
+
+        void linkFirst(Node node) {
+            node.previous = null;
+            node.next = first;
+            if (first == null) {
+                last = node;
+            } else {
+                first.previous = node;
+            }
+            first = node;
+        }
+
+        void unlink(Node node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+
+        void moveToFront(Node node) {
+            if (node != first) {
+                unlink(node);
+                linkFirst(node);
+            }
+        }
+
+        Node peekLast() {
+            return last;
+        }
+
+        Node pollLast() {
+            Node node = last;
+            if (node != null) {
+                unlink(node);
+            }
+            return node;
+        }
+
+    }
+
+    /**
+     * A bounded, lossy buffer of accessed {@link Node}s: many producers (the
+     * reading threads, which never block), one consumer at a time (the holder of
+     * the eviction lock). Accesses offered while the buffer is full, or while
+     * another producer claims the same slot, are dropped.
+     */
+    private static final class ReadBuffer {
+
+        private static final int SIZE = 16;
+        private static final int MASK = SIZE - 1;
+
+        private final AtomicLong writeCount = new AtomicLong();
+        private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<Node>(SIZE);
+        private volatile long readCount;
+
+        /**
+         * Returns {@code false} if the buffer is full, and should be drained.
+         */
+        boolean offer(Node node) {
+            long head = readCount;
+            long tail = writeCount.get();
+            if (tail - head >= SIZE) {
+                return false;
+            }
+            if (writeCount.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & MASK), node);
+            }
+            return true;
+        }
+
+        void drainTo(CachingCredentialStore cache) {
+            long head = readCount;
+            long tail = writeCount.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & MASK);
+                Node node = slots.get(index);
+                if (node == null) {
+                    // Claimed, but not published yet.
+                    break;
+                }
+                slots.lazySet(index, null);
+                cache.onAccess(node);
+            }
+            readCount = head;
+        }
+
+    }
+
+}
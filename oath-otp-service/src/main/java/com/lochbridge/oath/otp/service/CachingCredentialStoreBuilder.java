@@ -0,0 +1,122 @@
+package com.lochbridge.oath.otp.service;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+/**
+ * A class that creates {@link CachingCredentialStore}s.
+ * <p>
+ * Example:
+ * <pre>
+ * CachingCredentialStore store = CachingCredentialStoreBuilder.fromStore(localStore)
+ *     .maximumSize(1000000)
+ *     .expireAfterWrite(10, TimeUnit.MINUTES)
+ *     .build();
+ * </pre>
+ */
+public final class CachingCredentialStoreBuilder {
+
+    /** The default maximum number of cached credentials. */
+    public static final long DEFAULT_MAXIMUM_SIZE = 100000;
+
+    /** The default time (in milliseconds) after which a loaded credential expires. */
+    public static final long DEFAULT_EXPIRE_AFTER_WRITE = TimeUnit.MINUTES.toMillis(10);
+
+    private final CredentialStore store;
+    private long maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private long expireAfterWriteNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_EXPIRE_AFTER_WRITE);
+    private Ticker ticker = Ticker.systemTicker();
+
+    private CachingCredentialStoreBuilder(CredentialStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Returns a new {@link CachingCredentialStoreBuilder} instance initialized with
+     * the specified underlying {@link CredentialStore}.
+     *
+     * @param store
+     *            the underlying {@link CredentialStore}
+     *
+     * @return a new {@link CachingCredentialStoreBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code store} is {@code null}.
+     */
+    public static CachingCredentialStoreBuilder fromStore(CredentialStore store) {
+        Preconditions.checkNotNull(store);
+        return new CachingCredentialStoreBuilder(store);
+    }
+
+    /**
+     * Returns this {@code CachingCredentialStoreBuilder} instance initialized with
+     * the maximum number of cached credentials. Defaults to {@value #DEFAULT_MAXIMUM_SIZE}.
+     *
+     * @param maximumSize
+     *            the maximum number of cached credentials
+     *
+     * @return this {@code CachingCredentialStoreBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code maximumSize} is {@literal <=} 0.
+     */
+    public CachingCredentialStoreBuilder maximumSize(long maximumSize) {
+        Preconditions.checkArgument(maximumSize > 0);
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /**
+     * Returns this {@code CachingCredentialStoreBuilder} instance initialized with
+     * the time after which a credential loaded from the underlying store expires,
+     * and is loaded again. Defaults to 10 minutes (see {@link #DEFAULT_EXPIRE_AFTER_WRITE}).
+     *
+     * @param duration
+     *            the time after which a loaded credential expires
+     * @param unit
+     *            the unit of {@code duration}
+     *
+     * @return this {@code CachingCredentialStoreBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code duration} is {@literal <=} 0.
+     * @throws NullPointerException
+     *             if {@code unit} is {@code null}.
+     */
+    public CachingCredentialStoreBuilder expireAfterWrite(long duration, TimeUnit unit) {
+        Preconditions.checkArgument(duration > 0);
+        this.expireAfterWriteNanos = unit.toNanos(duration);
+        return this;
+    }
+
+    /**
+     * Returns this {@code CachingCredentialStoreBuilder} instance initialized with
+     * the time source used to expire credentials (mostly useful for testing).
+     * Defaults to {@link Ticker#systemTicker()}.
+     *
+     * @param ticker
+     *            the time source
+     *
+     * @return this {@code CachingCredentialStoreBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code ticker} is {@code null}.
+     */
+    public CachingCredentialStoreBuilder ticker(Ticker ticker) {
+        this.ticker = Preconditions.checkNotNull(ticker);
+        return this;
+    }
+
+    /**
+     * Creates a new instance of {@link CachingCredentialStore} initialized with the
+     * values of this builder.
+     *
+     * @return a new {@link CachingCredentialStore} instance.
+     */
+    public CachingCredentialStore build() {
+        return new CachingCredentialStore(store, maximumSize, expireAfterWriteNanos, ticker);
+    }
+
+}
@@ -0,0 +1,624 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * A local, append-only journal of HOTP moving factors, which makes each new
+ * moving factor durable before the OTP value it was derived from is deemed
+ * spent, without paying for one {@code fsync} per validation.
+ * <p>
+ * Callers of {@link #append(String, long)} hand their record to a single
+ * flusher thread and park until it is durable. The flusher writes pending
+ * records in batches (group commit): a batch is synced once it holds
+ * {@code maxBatchRecords} records, or once its oldest record has waited
+ * {@code maxBatchDelay}, whichever comes first. Records are checksummed, so
+ * that a record torn by a crash is detected (and dropped) on recovery.
+ * <p>
+ * The journal is made of generations: when the current journal file grows
+ * beyond the compaction threshold (or when {@link #compact()} is called), the
+ * flusher switches to a new file, and a background thread folds the previous
+ * ones into a snapshot of the latest moving factor of each user, which is
+ * replaced atomically. When a journal is opened, the snapshot and the
+ * remaining journal files are replayed (see {@link #getRecoveredMovingFactors()}).
+ * <p>
+ * Instances are created using the {@link CounterJournalBuilder}, for example:
+ * </p>
+ *
+ * <pre>
+ * CounterJournal journal = CounterJournalBuilder.fromDirectory(Paths.get("/var/lib/oath/journal"))
+ *     .maxBatchRecords(256)
+ *     .maxBatchDelay(200, TimeUnit.MICROSECONDS)
+ *     .build();
+ * AtomicCredentialStore store = JournaledCredentialStore.from(delegate, journal);
+ * </pre>
+ *
+ * @see JournaledCredentialStore
+ */
+public final class CounterJournal implements Closeable {
+
+    /** The magic number identifying a snapshot file ("OTPC"). */
+    public static final int SNAPSHOT_MAGIC = 0x4F545043;
+
+    /** The snapshot file format version. */
+    public static final int SNAPSHOT_VERSION = 1;
+
+    /** The maximum length (in bytes) of an encoded user ID. */
+    public static final int MAX_USER_ID_LENGTH = 0xFFFF;
+
+    static final String SNAPSHOT_FILE = "counters.snapshot";
+    private static final String SNAPSHOT_TEMP_FILE = "counters.snapshot.tmp";
+    private static final String JOURNAL_PREFIX = "counters-";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    /** CRC-32 (int32), user ID length (uint16), moving factor (int64). */
+    private static final int RECORD_OVERHEAD = 4 + 2 + 8;
+
+    private final Path directory;
+    private final int maxBatchRecords;
+    private final long maxBatchDelayNanos;
+    private final long compactionThreshold;
+    private final Map<String, Long> recovered;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingCondition = lock.newCondition();
+    private final Condition durableCondition = lock.newCondition();
+    private List<byte[]> pending = new ArrayList<byte[]>();
+    private long firstPendingNanos;
+    private long appended;
+    private long durable;
+    private long syncs;
+    private IOException failure;
+    private boolean closed;
+    private SettableFuture<Void> requestedCompaction;
+
+    // Owned by the flusher thread.
+    private FileChannel channel;
+    private long generation;
+    private ByteBuffer batchBuffer = ByteBuffer.allocate(4096);
+    private ListenableFuture<Void> lastCompaction = Futures.immediateFuture(null);
+
+    private final Thread flusher;
+    private final ExecutorService compactor;
+
+    private CounterJournal(Path directory, int maxBatchRecords, long maxBatchDelayNanos, long compactionThreshold, Map<String, Long> recovered,
+            long generation) throws IOException {
+        this.directory = directory;
+        this.maxBatchRecords = maxBatchRecords;
+        this.maxBatchDelayNanos = maxBatchDelayNanos;
+        this.compactionThreshold = compactionThreshold;
+        this.recovered = Collections.unmodifiableMap(recovered);
+        this.generation = generation;
+        this.channel = FileChannel.open(journalPath(directory, generation), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        syncDirectory(directory);
+        this.compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "oath-journal-compactor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, "oath-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Opens the journal in the specified directory, replaying the snapshot and
+     * journal files left by a previous instance. Note that all parameters are
+     * assumed to be valid since the {@link CounterJournalBuilder} is responsible
+     * for validation, and creation of {@link CounterJournal}s.
+     */
+    static CounterJournal open(Path directory, int maxBatchRecords, long maxBatchDelayNanos, long compactionThreshold) throws IOException {
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(SNAPSHOT_TEMP_FILE));
+        Map<String, Long> counters = new HashMap<String, Long>();
+        long snapshotGeneration = readSnapshot(directory, counters);
+        long lastGeneration = snapshotGeneration;
+        for (long journal : listJournals(directory)) {
+            if (journal <= snapshotGeneration) {
+                // Already folded into the snapshot by a compaction that did not get to delete it.
+                Files.deleteIfExists(journalPath(directory, journal));
+                continue;
+            }
+            replay(journalPath(directory, journal), counters, true);
+            lastGeneration = journal;
+        }
+        return new CounterJournal(directory, maxBatchRecords, maxBatchDelayNanos, compactionThreshold, counters, lastGeneration + 1);
+    }
+
+    /**
+     * Appends the new moving factor of the specified user to the journal, and
+     * returns once it is durable. Callers are parked (not interrupted) while
+     * their record waits for the next group commit.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param movingFactor
+     *            the new moving factor
+     *
+     * @throws NullPointerException
+     *             if {@code userId} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the encoded {@code userId} is longer than {@link #MAX_USER_ID_LENGTH} bytes,
+     *             or {@code movingFactor} is {@literal <} 0.
+     * @throws IOException
+     *             if the journal has been closed, or the record could not be made durable.
+     */
+    public void append(String userId, long movingFactor) throws IOException {
+        Preconditions.checkArgument(movingFactor >= 0);
+        append(Collections.singletonList(encode(userId, movingFactor)));
+    }
+
+    /**
+     * Appends the new moving factors of the specified users to the journal (in
+     * the map's iteration order), and returns once they are all durable. The
+     * records join the same group commit, so that a batch costs one sync rather
+     * than one per record.
+     *
+     * @param movingFactors
+     *            a map of user IDs to new moving factors
+     *
+     * @throws NullPointerException
+     *             if {@code movingFactors} is (or contains) {@code null}.
+     * @throws IllegalArgumentException
+     *             if an encoded user ID is longer than {@link #MAX_USER_ID_LENGTH} bytes,
+     *             or a moving factor is {@literal <} 0.
+     * @throws IOException
+     *             if the journal has been closed, or the records could not be made durable.
+     */
+    public void appendAll(Map<String, Long> movingFactors) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>(movingFactors.size());
+        for (Map.Entry<String, Long> entry : movingFactors.entrySet()) {
+            Preconditions.checkArgument(entry.getValue() >= 0);
+            records.add(encode(entry.getKey(), entry.getValue()));
+        }
+        if (!records.isEmpty()) {
+            append(records);
+        }
+    }
+
+    private void append(List<byte[]> records) throws IOException {
+        lock.lock();
+        try {
+            checkUsable();
+            if (pending.isEmpty()) {
+                firstPendingNanos = System.nanoTime();
+            }
+            pending.addAll(records);
+            appended += records.size();
+            long sequence = appended;
+            if (pending.size() == records.size() || pending.size() >= maxBatchRecords) {
+                pendingCondition.signal();
+            }
+            while (durable < sequence) {
+                if (failure != null) {
+                    throw new IOException("The counter journal has failed", failure);
+                }
+                durableCondition.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the latest moving factor of each user found in the snapshot and
+     * journal files when this journal was opened.
+     *
+     * @return an unmodifiable map of user IDs to moving factors.
+     */
+    public Map<String, Long> getRecoveredMovingFactors() {
+        return recovered;
+    }
+
+    /**
+     * Switches to a new journal file, and folds the previous ones into the
+     * snapshot, in the background.
+     *
+     * @return a future completing once the compaction is done.
+     */
+    public ListenableFuture<Void> compact() {
+        lock.lock();
+        try {
+            if (failure != null || closed) {
+                return Futures.immediateFailedFuture(new IOException("The counter journal is closed"));
+            }
+            if (requestedCompaction == null) {
+                requestedCompaction = SettableFuture.create();
+                pendingCondition.signal();
+            }
+            return requestedCompaction;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of records appended so far.
+     *
+     * @return the number of records appended so far.
+     */
+    public long getAppendCount() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of group commits (each ending with one {@code fsync}) so far.
+     *
+     * @return the number of group commits so far.
+     */
+    public long getSyncCount() {
+        lock.lock();
+        try {
+            return syncs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes this journal: pending records are made durable, and a running
+     * compaction is completed, but no new records are accepted.
+     *
+     * @throws IOException
+     *             if the journal file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pendingCondition.signal();
+        } finally {
+            lock.unlock();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                flusher.join();
+                compactor.shutdown();
+                compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void checkUsable() throws IOException {
+        if (failure != null) {
+            throw new IOException("The counter journal has failed", failure);
+        }
+        if (closed) {
+            throw new IOException("The counter journal is closed");
+        }
+    }
+
+    private void flush() {
+        while (true) {
+            List<byte[]> batch;
+            long last;
+            SettableFuture<Void> compaction;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && requestedCompaction == null && !closed) {
+                    pendingCondition.awaitUninterruptibly();
+                }
+                // Let the batch fill up, unless its oldest record has waited long enough.
+                while (!closed && !pending.isEmpty() && pending.size() < maxBatchRecords) {
+                    long remaining = firstPendingNanos + maxBatchDelayNanos - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    try {
+                        pendingCondition.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        // The flusher is never interrupted by this class; keep flushing.
+                    }
+                }
+                batch = pending;
+                pending = new ArrayList<byte[]>();
+                last = appended;
+                compaction = requestedCompaction;
+                requestedCompaction = null;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                if (!batch.isEmpty()) {
+                    write(batch);
+                }
+                if (compaction != null || (channel.position() >= compactionThreshold && lastCompaction.isDone())) {
+                    lastCompaction = rotate(compaction == null ? SettableFuture.<Void>create() : compaction);
+                }
+            } catch (IOException e) {
+                error = e;
+                if (compaction != null) {
+                    compaction.setException(e);
+                }
+            }
+
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                } else if (!batch.isEmpty()) {
+                    durable = last;
+                    syncs++;
+                }
+                durableCondition.signalAll();
+                if (error != null || (closed && pending.isEmpty())) {
+                    if (requestedCompaction != null) {
+                        requestedCompaction.setException(new IOException("The counter journal is closed", error));
+                    }
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void write(List<byte[]> batch) throws IOException {
+        int size = 0;
+        for (byte[] record : batch) {
+            size += record.length;
+        }
+        if (batchBuffer.capacity() < size) {
+            batchBuffer = ByteBuffer.allocate(Math.max(size, batchBuffer.capacity() * 2));
+        }
+        batchBuffer.clear();
+        for (byte[] record : batch) {
+            batchBuffer.put(record);
+        }
+        batchBuffer.flip();
+        while (batchBuffer.hasRemaining()) {
+            channel.write(batchBuffer);
+        }
+        // On Linux this is an fdatasync, which still persists the file size needed to read appended records back.
+        channel.force(false);
+    }
+
+    private ListenableFuture<Void> rotate(final SettableFuture<Void> future) throws IOException {
+        final long upTo = generation;
+        FileChannel next = FileChannel.open(journalPath(directory, upTo + 1), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        syncDirectory(directory);
+        channel.close();
+        channel = next;
+        generation = upTo + 1;
+        compactor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fold(directory, upTo);
+                    future.set(null);
+                } catch (IOException | RuntimeException e) {
+                    future.setException(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Folds the journal files up to (and including) the specified generation
+     * into the snapshot, and deletes them.
+     */
+    private static void fold(Path directory, long upTo) throws IOException {
+        Map<String, Long> counters = new HashMap<String, Long>();
+        long snapshotGeneration = readSnapshot(directory, counters);
+        List<Long> folded = new ArrayList<Long>();
+        for (long journal : listJournals(directory)) {
+            if (journal > upTo) {
+                break;
+            }
+            if (journal > snapshotGeneration) {
+                replay(journalPath(directory, journal), counters, false);
+            }
+            folded.add(journal);
+        }
+        if (upTo > snapshotGeneration) {
+            writeSnapshot(directory, counters, upTo);
+        }
+        for (long journal : folded) {
+            Files.deleteIfExists(journalPath(directory, journal));
+        }
+    }
+
+    private static long readSnapshot(Path directory, Map<String, Long> counters) throws IOException {
+        Path path = directory.resolve(SNAPSHOT_FILE);
+        InputStream in;
+        try {
+            in = Files.newInputStream(path);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16))) {
+            if (data.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a counter snapshot file: " + path);
+            }
+            if (data.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported counter snapshot version: " + path);
+            }
+            long generation = data.readLong();
+            long count = data.readLong();
+            for (long i = 0; i < count; i++) {
+                if (readRecord(data, counters) < 0) {
+                    throw new IOException("Corrupt counter snapshot file: " + path);
+                }
+            }
+            return generation;
+        } catch (EOFException e) {
+            throw new IOException("Truncated counter snapshot file: " + path, e);
+        }
+    }
+
+    private static void writeSnapshot(Path directory, Map<String, Long> counters, long generation) throws IOException {
+        Path temp = directory.resolve(SNAPSHOT_TEMP_FILE);
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file), 1 << 16));
+            data.writeInt(SNAPSHOT_MAGIC);
+            data.writeInt(SNAPSHOT_VERSION);
+            data.writeLong(generation);
+            data.writeLong(counters.size());
+            for (Map.Entry<String, Long> entry : counters.entrySet()) {
+                data.write(encode(entry.getKey(), entry.getValue()));
+            }
+            data.flush();
+            file.force(true);
+        }
+        Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(directory);
+    }
+
+    /**
+     * Replays the records of the specified journal file into {@code counters},
+     * up to the first torn (or corrupt) record, which is truncated away if
+     * {@code truncate} is {@code true}.
+     */
+    private static void replay(Path path, Map<String, Long> counters, boolean truncate) throws IOException {
+        long valid = 0;
+        try (DataInputStream data = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            while (true) {
+                int length;
+                try {
+                    length = readRecord(data, counters);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < 0) {
+                    break;
+                }
+                valid += length;
+            }
+        }
+        if (truncate && Files.size(path) > valid) {
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                file.truncate(valid);
+                file.force(true);
+            }
+        }
+    }
+
+    /**
+     * Reads one record into {@code counters}, and returns its length, or -1 if
+     * its checksum does not match.
+     */
+    private static int readRecord(DataInputStream data, Map<String, Long> counters) throws IOException {
+        int checksum = data.readInt();
+        int userIdLength = data.readUnsignedShort();
+        byte[] userId = new byte[userIdLength];
+        data.readFully(userId);
+        long movingFactor = data.readLong();
+        CRC32 crc = new CRC32();
+        crc.update(userIdLength >>> 8);
+        crc.update(userIdLength);
+        crc.update(userId);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (movingFactor >>> shift));
+        }
+        if ((int) crc.getValue() != checksum) {
+            return -1;
+        }
+        counters.put(new String(userId, StandardCharsets.UTF_8), movingFactor);
+        return RECORD_OVERHEAD + userIdLength;
+    }
+
+    private static byte[] encode(String userId, long movingFactor) {
+        byte[] encodedUserId = userId.getBytes(StandardCharsets.UTF_8);
+        Preconditions.checkArgument(encodedUserId.length <= MAX_USER_ID_LENGTH, "The user ID must be at most %s bytes long", MAX_USER_ID_LENGTH);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + encodedUserId.length);
+        record.position(4);
+        record.putShort((short) encodedUserId.length);
+        record.put(encodedUserId);
+        record.putLong(movingFactor);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.capacity() - 4);
+        record.putInt(0, (int) crc.getValue());
+        return record.array();
+    }
+
+    private static List<Long> listJournals(Path directory) throws IOException {
+        List<Long> journals = new ArrayList<Long>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    journals.add(Long.parseLong(name.substring(JOURNAL_PREFIX.length(), name.length() - JOURNAL_SUFFIX.length()), 16));
+                } catch (NumberFormatException e) {
+                    // Not one of ours.
+                }
+            }
+        }
+        Collections.sort(journals);
+        return journals;
+    }
+
+    static Path journalPath(Path directory, long generation) {
+        return directory.resolve(String.format("%s%016x%s", JOURNAL_PREFIX, generation, JOURNAL_SUFFIX));
+    }
+
+    /** Makes the creation (or renaming) of files in the directory durable, where the platform supports it. */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened (nor synced) on some platforms.
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A class that creates (and recovers) {@link CounterJournal}s.
+ * <p>
+ * Example:
+ * <pre>
+ * CounterJournal journal = CounterJournalBuilder.fromDirectory(Paths.get("/var/lib/oath/journal"))
+ *     .maxBatchRecords(256)
+ *     .maxBatchDelay(200, TimeUnit.MICROSECONDS)
+ *     .compactionThreshold(64 * 1024 * 1024)
+ *     .build();
+ * </pre>
+ */
+public final class CounterJournalBuilder {
+
+    /** The default maximum number of records per group commit. */
+    public static final int DEFAULT_MAX_BATCH_RECORDS = 128;
+
+    /** The default maximum time (in microseconds) a record waits for its group commit. */
+    public static final long DEFAULT_MAX_BATCH_DELAY = 200;
+
+    /** The default size (in bytes) of a journal file that triggers a compaction. */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 64L * 1024 * 1024;
+
+    private final Path directory;
+    private int maxBatchRecords = DEFAULT_MAX_BATCH_RECORDS;
+    private long maxBatchDelayNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_MAX_BATCH_DELAY);
+    private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    private CounterJournalBuilder(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns a new {@link CounterJournalBuilder} instance initialized with the
+     * specified directory, which holds the journal and snapshot files (and is
+     * created if needed).
+     *
+     * @param directory
+     *            the directory of the journal
+     *
+     * @return a new {@link CounterJournalBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code directory} is {@code null}.
+     */
+    public static CounterJournalBuilder fromDirectory(Path directory) {
+        Preconditions.checkNotNull(directory);
+        return new CounterJournalBuilder(directory);
+    }
+
+    /**
+     * Returns this {@code CounterJournalBuilder} instance initialized with the
+     * specified maximum number of records per group commit: a batch is synced
+     * as soon as it holds that many records. The default is
+     * {@link #DEFAULT_MAX_BATCH_RECORDS}.
+     *
+     * @param maxBatchRecords
+     *            the maximum number of records per group commit
+     *
+     * @return this {@code CounterJournalBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code maxBatchRecords} is {@literal <} 1.
+     */
+    public CounterJournalBuilder maxBatchRecords(int maxBatchRecords) {
+        Preconditions.checkArgument(maxBatchRecords >= 1);
+        this.maxBatchRecords = maxBatchRecords;
+        return this;
+    }
+
+    /**
+     * Returns this {@code CounterJournalBuilder} instance initialized with the
+     * specified maximum time a record waits for more records to share its group
+     * commit. A delay of 0 syncs whatever is pending as soon as the previous
+     * group commit is done. The default is {@link #DEFAULT_MAX_BATCH_DELAY}
+     * microseconds.
+     *
+     * @param maxBatchDelay
+     *            the maximum time a record waits for its group commit
+     * @param unit
+     *            the unit of {@code maxBatchDelay}
+     *
+     * @return this {@code CounterJournalBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code maxBatchDelay} is {@literal <} 0.
+     */
+    public CounterJournalBuilder maxBatchDelay(long maxBatchDelay, TimeUnit unit) {
+        Preconditions.checkArgument(maxBatchDelay >= 0);
+        this.maxBatchDelayNanos = unit.toNanos(maxBatchDelay);
+        return this;
+    }
+
+    /**
+     * Returns this {@code CounterJournalBuilder} instance initialized with the
+     * specified size of a journal file beyond which the journal switches to a
+     * new file, and folds the previous ones into the snapshot. The default is
+     * {@link #DEFAULT_COMPACTION_THRESHOLD} bytes.
+     *
+     * @param compactionThreshold
+     *            the size (in bytes) of a journal file that triggers a compaction
+     *
+     * @return this {@code CounterJournalBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code compactionThreshold} is {@literal <} 1.
+     */
+    public CounterJournalBuilder compactionThreshold(long compactionThreshold) {
+        Preconditions.checkArgument(compactionThreshold >= 1);
+        this.compactionThreshold = compactionThreshold;
+        return this;
+    }
+
+    /**
+     * Opens a {@link CounterJournal} using this builder's configured parameters,
+     * replaying the snapshot and journal files found in the directory.
+     *
+     * @return a {@link CounterJournal} using this builder's configured parameters.
+     *
+     * @throws IOException
+     *             if the directory cannot be created, or its files cannot be read or written.
+     */
+    public CounterJournal build() throws IOException {
+        return CounterJournal.open(directory, maxBatchRecords, maxBatchDelayNanos, compactionThreshold);
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.lochbridge.oath.otp.service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Range;
+import com.lochbridge.oath.otp.HOTPBuilder;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.TOTPBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * An immutable class representing the OTP credential of a single user, as
+ * held by a {@link CredentialStore}. A credential consists of:
+ * <ul>
+ * <li>The ID of the user the credential belongs to,</li>
+ * <li>The type of OTP (either HOTP or TOTP),</li>
+ * <li>The (raw) shared secret key,</li>
+ * <li>The HMAC-SHA algorithm, and number of digits of the OTPs,</li>
+ * <li>The time step size (TOTP only), or the current moving factor (HOTP only).</li>
+ * </ul>
+ * <p>
+ * Instances are created using the static {@link #hotp(String, byte[], int, long)} and
+ * {@link #totp(String, byte[], HmacShaAlgorithm, int, long)} methods.
+ */
+public final class Credential {
+
+    private final String userId;
+    private final OTPType type;
+    private final byte[] key;
+    private final HmacShaAlgorithm hmacShaAlgorithm;
+    private final int digits;
+    private final long timeStep;
+    private final long movingFactor;
+
+    private Credential(String userId, OTPType type, byte[] key, HmacShaAlgorithm hmacShaAlgorithm, int digits, long timeStep, long movingFactor) {
+        this.userId = userId;
+        this.type = type;
+        this.key = key;
+        this.hmacShaAlgorithm = hmacShaAlgorithm;
+        this.digits = digits;
+        this.timeStep = timeStep;
+        this.movingFactor = movingFactor;
+    }
+
+    /**
+     * Returns a new HOTP {@link Credential}.
+     *
+     * @param userId
+     *            the ID of the user the credential belongs to
+     * @param key
+     *            the shared secret key. The contents of the array are copied to
+     *            protect against subsequent modification.
+     * @param digits
+     *            the number of digits an HOTP should contain
+     * @param movingFactor
+     *            the current moving factor
+     *
+     * @return a new HOTP {@link Credential}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} or {@code key} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code digits} is not in [{@link HOTPBuilder#MIN_ALLOWED_DIGITS},
+     *             {@link HOTPBuilder#MAX_ALLOWED_DIGITS}], or {@code movingFactor} is {@literal <} 0.
+     */
+    public static Credential hotp(String userId, byte[] key, int digits, long movingFactor) {
+        Preconditions.checkNotNull(userId);
+        Preconditions.checkNotNull(key);
+        Preconditions.checkArgument(Range.closed(HOTPBuilder.MIN_ALLOWED_DIGITS, HOTPBuilder.MAX_ALLOWED_DIGITS).contains(digits));
+        Preconditions.checkArgument(movingFactor >= 0);
+        return new Credential(userId, OTPType.HOTP, key.clone(), HmacShaAlgorithm.HMAC_SHA_1, digits, 0, movingFactor);
+    }
+
+    /**
+     * Returns a new TOTP {@link Credential}.
+     *
+     * @param userId
+     *            the ID of the user the credential belongs to
+     * @param key
+     *            the shared secret key. The contents of the array are copied to
+     *            protect against subsequent modification.
+     * @param hmacShaAlgorithm
+     *            the {@link HmacShaAlgorithm}
+     * @param digits
+     *            the number of digits a TOTP should contain
+     * @param timeStep
+     *            the time step size in milliseconds
+     *
+     * @return a new TOTP {@link Credential}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId}, {@code key} or {@code hmacShaAlgorithm} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code digits} is not in [{@link TOTPBuilder#MIN_ALLOWED_DIGITS},
+     *             {@link TOTPBuilder#MAX_ALLOWED_DIGITS}], or {@code timeStep} is {@literal <=} 0.
+     */
+    public static Credential totp(String userId, byte[] key, HmacShaAlgorithm hmacShaAlgorithm, int digits, long timeStep) {
+        Preconditions.checkNotNull(userId);
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(hmacShaAlgorithm);
+        Preconditions.checkArgument(Range.closed(TOTPBuilder.MIN_ALLOWED_DIGITS, TOTPBuilder.MAX_ALLOWED_DIGITS).contains(digits));
+        Preconditions.checkArgument(timeStep > 0);
+        return new Credential(userId, OTPType.TOTP, key.clone(), hmacShaAlgorithm, digits, timeStep, 0);
+    }
+
+    /**
+     * Returns a copy of this HOTP {@code Credential} with the specified {@code movingFactor}.
+     *
+     * @param movingFactor
+     *            the new moving factor
+     *
+     * @return a copy of this HOTP {@code Credential} with the specified {@code movingFactor}.
+     *
+     * @throws IllegalStateException
+     *             if this {@code Credential} is not HOTP-based.
+     * @throws IllegalArgumentException
+     *             if {@code movingFactor} is {@literal <} 0.
+     */
+    public Credential withMovingFactor(long movingFactor) {
+        Preconditions.checkState(isHOTP(), "Only HOTP credentials have a moving factor!");
+        Preconditions.checkArgument(movingFactor >= 0);
+        return new Credential(userId, type, key, hmacShaAlgorithm, digits, timeStep, movingFactor);
+    }
+
+    /**
+     * Returns the ID of the user the credential belongs to.
+     *
+     * @return the ID of the user the credential belongs to.
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Returns the type of OTP.
+     *
+     * @return the type of OTP.
+     */
+    public OTPType getType() {
+        return type;
+    }
+
+    /**
+     * Returns a copy of the shared secret key.
+     *
+     * @return a copy of the shared secret key.
+     */
+    public byte[] getKey() {
+        return key.clone();
+    }
+
+    /**
+     * Returns the {@link HmacShaAlgorithm} (always {@link HmacShaAlgorithm#HMAC_SHA_1} for HOTP).
+     *
+     * @return the {@link HmacShaAlgorithm}.
+     */
+    public HmacShaAlgorithm getHmacShaAlgorithm() {
+        return hmacShaAlgorithm;
+    }
+
+    /**
+     * Returns the number of digits an OTP should contain.
+     *
+     * @return the number of digits an OTP should contain.
+     */
+    public int getDigits() {
+        return digits;
+    }
+
+    /**
+     * Returns the time step size in milliseconds (TOTP only, otherwise 0).
+     *
+     * @return the time step size in milliseconds.
+     */
+    public long getTimeStep() {
+        return timeStep;
+    }
+
+    /**
+     * Returns the current moving factor (HOTP only, otherwise 0).
+     *
+     * @return the current moving factor.
+     */
+    public long getMovingFactor() {
+        return movingFactor;
+    }
+
+    /**
+     * Returns {@code true} if the credential is HOTP-based, {@code false} otherwise.
+     *
+     * @return {@code true} if the credential is HOTP-based, {@code false} otherwise.
+     */
+    public boolean isHOTP() {
+        return type.equals(OTPType.HOTP);
+    }
+
+    /**
+     * Returns {@code true} if the credential is TOTP-based, {@code false} otherwise.
+     *
+     * @return {@code true} if the credential is TOTP-based, {@code false} otherwise.
+     */
+    public boolean isTOTP() {
+        return type.equals(OTPType.TOTP);
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.IOException;
+
+/**
+ * A (possibly blocking) store of OTP {@link Credential}s, keyed by user ID.
+ * <p>
+ * Implementations are free to block on I/O: the {@link ValidationService}
+ * never invokes a store while holding a monitor, so blocking calls do not pin
+ * the carrier thread of a virtual thread. Implementations must be safe for
+ * use by multiple concurrent threads.
+ */
+public interface CredentialStore {
+
+    /**
+     * Returns the {@link Credential} of the specified user, or {@code null} if
+     * the store holds no credential for that user.
+     *
+     * @param userId
+     *            the ID of the user
+     *
+     * @return the {@link Credential} of the specified user, or {@code null}.
+     *
+     * @throws IOException
+     *             if the store cannot be read
+     */
+    Credential load(String userId) throws IOException;
+
+    /**
+     * Adds (or replaces) the specified {@link Credential}.
+     *
+     * @param credential
+     *            the {@link Credential}
+     *
+     * @throws IOException
+     *             if the store cannot be written
+     */
+    void save(Credential credential) throws IOException;
+
+    /**
+     * Stores the new moving factor of the specified user's HOTP credential.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param movingFactor
+     *            the new moving factor
+     *
+     * @throws IOException
+     *             if the store cannot be written
+     */
+    void updateMovingFactor(String userId, long movingFactor) throws IOException;
+
+}
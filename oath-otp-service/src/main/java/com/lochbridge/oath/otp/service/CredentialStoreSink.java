@@ -0,0 +1,79 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIImporter;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURISink;
+
+/**
+ * An {@link OTPAuthURISink} that saves the imported {@link OTPAuthURI}s into a
+ * {@link CredentialStore}, e.g. to migrate the users of another provider with
+ * an {@link OTPAuthURIImporter}.
+ * <p>
+ * The ID of the user a credential belongs to is the account name of the URI's
+ * label (i.e. without its issuer prefix, if any). TOTP credentials use
+ * HMAC-SHA-1, as otpauth URIs do not carry the algorithm. Each batch is saved
+ * with a single {@link AtomicCredentialStore#saveAll(java.util.Collection)} if
+ * the store supports it, or credential by credential otherwise.
+ */
+public final class CredentialStoreSink implements OTPAuthURISink {
+
+    private final CredentialStore store;
+
+    /**
+     * Creates a new {@link CredentialStoreSink} saving into the specified store.
+     *
+     * @param store
+     *            the {@link CredentialStore}
+     *
+     * @throws NullPointerException
+     *             if {@code store} is {@code null}.
+     */
+    public CredentialStoreSink(CredentialStore store) {
+        this.store = Preconditions.checkNotNull(store);
+    }
+
+    @Override
+    public void accept(List<OTPAuthURI> uris) throws IOException {
+        List<Credential> credentials = new ArrayList<Credential>(uris.size());
+        for (OTPAuthURI uri : uris) {
+            credentials.add(toCredential(uri));
+        }
+        if (store instanceof AtomicCredentialStore) {
+            ((AtomicCredentialStore) store).saveAll(credentials);
+        } else {
+            for (Credential credential : credentials) {
+                store.save(credential);
+            }
+        }
+    }
+
+    /**
+     * Returns the {@link Credential} described by the specified {@link OTPAuthURI}.
+     *
+     * @param uri
+     *            the {@link OTPAuthURI}
+     *
+     * @return the {@link Credential} described by the URI.
+     */
+    static Credential toCredential(OTPAuthURI uri) {
+        String userId = accountName(uri.getLabel());
+        byte[] key = uri.getKey().getDecodedKey();
+        if (uri.isHOTP()) {
+            return Credential.hotp(userId, key, uri.getDigits(), uri.getCounter());
+        }
+        return Credential.totp(userId, key, HmacShaAlgorithm.HMAC_SHA_1, uri.getDigits(), TimeUnit.SECONDS.toMillis(uri.getTimeStep()));
+    }
+
+    private static String accountName(String label) {
+        int colon = label.indexOf(':');
+        return colon < 0 ? label : label.substring(colon + 1).trim();
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.lochbridge.oath.otp.service;
+
+/**
+ * A probabilistic estimate of how often keys were recently accessed: a
+ * count-min sketch of 4-bit counters (16 per {@code long}), periodically
+ * halved so that old popularity fades (the "TinyLFU" frequency histogram).
+ * An estimate is never lower than the true (aged) count, and saturates at 15.
+ * <p>
+ * Instances are not thread-safe: the {@link CachingCredentialStore} only uses
+ * them while holding its eviction lock.
+ */
+final class FrequencySketch {
+
+    /** The maximum frequency estimate. */
+    static final int MAX_FREQUENCY = 15;
+
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int MAX_TABLE_LENGTH = 1 << 30;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    /**
+     * Creates a new instance of {@code FrequencySketch}, sized for (and aging
+     * after about ten times) the specified number of distinct keys.
+     *
+     * @param maximumSize
+     *            the expected number of distinct keys worth remembering
+     */
+    FrequencySketch(long maximumSize) {
+        int maximum = (int) Math.max(1, Math.min(maximumSize, MAX_TABLE_LENGTH));
+        this.table = new long[maximum == 1 ? 1 : Integer.highestOneBit(maximum - 1) << 1];
+        this.tableMask = table.length - 1;
+        this.sampleSize = (int) Math.min(10L * maximum, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the estimated number of recent occurrences of the specified key.
+     *
+     * @param key
+     *            the key
+     *
+     * @return the estimated frequency, in [0, {@link #MAX_FREQUENCY}].
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = MAX_FREQUENCY;
+        for (int i = 0; i < 4; i++) {
+            int count = (int) ((table[indexOf(hash, i)] >>> ((start + i) << 2)) & 0xFL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an occurrence of the specified key, and halves all counters once
+     * the sample size is reached.
+     *
+     * @param key
+     *            the key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xFL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        // Halving odd counters truncates them: take those lost increments off the sample too.
+        size = (size >>> 1) - (odd >>> 2);
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.lochbridge.oath.otp.service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * An {@link AtomicCredentialStore} that holds its {@link Credential}s on heap.
+ * Mostly useful for testing, and for small deployments that load their
+ * credentials at start-up.
+ */
+public final class InMemoryCredentialStore implements AtomicCredentialStore {
+
+    private final ConcurrentMap<String, Credential> credentials = new ConcurrentHashMap<String, Credential>();
+    private final ConcurrentMap<String, Long> lastUsedSteps = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Adds (or replaces) the specified {@link Credential}.
+     *
+     * @param credential
+     *            the {@link Credential}
+     *
+     * @return this {@code InMemoryCredentialStore} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code credential} is {@code null}.
+     */
+    public InMemoryCredentialStore put(Credential credential) {
+        Preconditions.checkNotNull(credential);
+        credentials.put(credential.getUserId(), credential);
+        lastUsedSteps.remove(credential.getUserId());
+        return this;
+    }
+
+    /**
+     * Removes the {@link Credential} of the specified user (if any).
+     *
+     * @param userId
+     *            the ID of the user
+     *
+     * @return the removed {@link Credential}, or {@code null} if none.
+     */
+    public Credential remove(String userId) {
+        lastUsedSteps.remove(userId);
+        return credentials.remove(userId);
+    }
+
+    @Override
+    public Credential load(String userId) {
+        return credentials.get(userId);
+    }
+
+    @Override
+    public void save(Credential credential) {
+        put(credential);
+    }
+
+    @Override
+    public void updateMovingFactor(String userId, long movingFactor) {
+        Credential credential = credentials.get(userId);
+        Preconditions.checkArgument(credential != null, "No credential for user [" + userId + "]");
+        credentials.put(userId, credential.withMovingFactor(movingFactor));
+    }
+
+    @Override
+    public boolean compareAndSetMovingFactor(String userId, long expect, long update) {
+        Preconditions.checkArgument(update >= 0);
+        while (true) {
+            Credential credential = require(userId, OTPType.HOTP);
+            if (credential.getMovingFactor() != expect) {
+                return false;
+            }
+            // Credentials compare by identity, so a concurrent update makes the replacement fail.
+            if (credentials.replace(userId, credential, credential.withMovingFactor(update))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public long getLastUsedStep(String userId) {
+        require(userId, OTPType.TOTP);
+        Long step = lastUsedSteps.get(userId);
+        return step == null ? -1 : step;
+    }
+
+    @Override
+    public boolean compareAndSetLastUsedStep(String userId, long expect, long step) {
+        Preconditions.checkArgument(step >= 0);
+        require(userId, OTPType.TOTP);
+        return expect == -1 ? lastUsedSteps.putIfAbsent(userId, step) == null : lastUsedSteps.replace(userId, expect, step);
+    }
+
+    @Override
+    public Map<String, Credential> loadAll(Collection<String> userIds) {
+        Map<String, Credential> loaded = new HashMap<String, Credential>();
+        for (String userId : userIds) {
+            Credential credential = credentials.get(userId);
+            if (credential != null) {
+                loaded.put(userId, credential);
+            }
+        }
+        return loaded;
+    }
+
+    @Override
+    public void saveAll(Collection<Credential> credentials) {
+        for (Credential credential : credentials) {
+            put(credential);
+        }
+    }
+
+    @Override
+    public void updateMovingFactors(Map<String, Long> movingFactors) {
+        for (Map.Entry<String, Long> entry : movingFactors.entrySet()) {
+            Credential credential = credentials.get(entry.getKey());
+            if (credential != null) {
+                credentials.put(entry.getKey(), credential.withMovingFactor(entry.getValue()));
+            }
+        }
+    }
+
+    private Credential require(String userId, OTPType type) {
+        Credential credential = credentials.get(userId);
+        Preconditions.checkArgument(credential != null && credential.getType() == type, "No %s credential for user [%s]", type, userId);
+        return credential;
+    }
+
+}
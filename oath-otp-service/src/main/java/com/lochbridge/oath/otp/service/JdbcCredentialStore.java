@@ -0,0 +1,543 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+import javax.sql.DataSource;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * An {@link AtomicCredentialStore} keeping its {@link Credential}s in a table
+ * of a relational database, through JDBC. It is the reference adapter of the
+ * storage SPI, tested against an embedded H2 database, and sticks to portable
+ * SQL so that it runs on most databases.
+ * <p>
+ * The store keeps a small pool of connections, each with its own cache of
+ * prepared statements, so that a validation costs a couple of statement
+ * executions rather than a connection set-up and a parse. Batch operations
+ * ({@link #loadAll(Collection)}, {@link #saveAll(Collection)} and
+ * {@link #updateMovingFactors(Map)}) run in a single transaction, using JDBC
+ * batches (or {@code IN} lists of a fixed size) rather than one round trip per
+ * credential. Counters are advanced with conditional {@code UPDATE}s, so that
+ * validation services on several nodes may share the same table.
+ * <p>
+ * The table has the following columns (see {@link JdbcCredentialStoreBuilder#createTable(boolean)}):
+ * </p>
+ *
+ * <pre>
+ * user_id         VARCHAR(255) PRIMARY KEY
+ * type            VARCHAR(4)      'HOTP' or 'TOTP'
+ * algorithm       VARCHAR(16)     the {@link HmacShaAlgorithm} name
+ * digits          SMALLINT
+ * time_step       BIGINT          the time step size in milliseconds (TOTP only, otherwise 0)
+ * secret          VARBINARY(128)  the shared secret key
+ * moving_factor   BIGINT          the moving factor (HOTP only, otherwise 0)
+ * last_used_step  BIGINT          the last used time step (TOTP only), or -1 if none
+ * </pre>
+ * <p>
+ * {@link SQLException}s are reported as {@link IOException}s, and the connection
+ * they occurred on is discarded.
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * JdbcCredentialStore store = JdbcCredentialStoreBuilder.fromDataSource(dataSource)
+ *     .tableName("otp_credentials")
+ *     .poolSize(8)
+ *     .build();
+ * ValidationService service = ValidationServiceBuilder.fromStore(store).build();
+ * ...
+ * service.close();
+ * store.close();
+ * </pre>
+ */
+public final class JdbcCredentialStore implements AtomicCredentialStore, Closeable {
+
+    /** The number of user IDs looked up per query by {@link #loadAll(Collection)}. */
+    static final int LOAD_BATCH_SIZE = 32;
+
+    private static final String COLUMNS = "user_id, type, algorithm, digits, time_step, secret, moving_factor";
+
+    private final DataSource dataSource;
+    private final Queue<Session> idle = new ConcurrentLinkedQueue<Session>();
+    private final Semaphore permits;
+    private volatile boolean closed;
+
+    private final String selectOne;
+    private final String selectMany;
+    private final String selectLastUsedStep;
+    private final String update;
+    private final String insert;
+    private final String updateMovingFactor;
+    private final String casMovingFactor;
+    private final String casLastUsedStep;
+
+    /**
+     * Creates a new instance of {@code JdbcCredentialStore}. Note that all parameters
+     * are assumed to be valid since the {@link JdbcCredentialStoreBuilder} is responsible
+     * for validation, and creation of {@link JdbcCredentialStore}s.
+     *
+     * @param dataSource
+     *            the {@link DataSource}
+     * @param tableName
+     *            the name of the table
+     * @param poolSize
+     *            the maximum number of pooled connections
+     */
+    JdbcCredentialStore(DataSource dataSource, String tableName, int poolSize) {
+        this.dataSource = dataSource;
+        this.permits = new Semaphore(poolSize);
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < LOAD_BATCH_SIZE; i++) {
+            placeholders.append(", ?");
+        }
+        this.selectOne = "SELECT " + COLUMNS + " FROM " + tableName + " WHERE user_id = ?";
+        this.selectMany = "SELECT " + COLUMNS + " FROM " + tableName + " WHERE user_id IN (" + placeholders + ")";
+        this.selectLastUsedStep = "SELECT type, last_used_step FROM " + tableName + " WHERE user_id = ?";
+        this.update = "UPDATE " + tableName
+                + " SET type = ?, algorithm = ?, digits = ?, time_step = ?, secret = ?, moving_factor = ?, last_used_step = -1 WHERE user_id = ?";
+        this.insert = "INSERT INTO " + tableName + " (type, algorithm, digits, time_step, secret, moving_factor, last_used_step, user_id)"
+                + " VALUES (?, ?, ?, ?, ?, ?, -1, ?)";
+        this.updateMovingFactor = "UPDATE " + tableName + " SET moving_factor = ? WHERE user_id = ? AND type = 'HOTP'";
+        this.casMovingFactor = "UPDATE " + tableName + " SET moving_factor = ? WHERE user_id = ? AND type = 'HOTP' AND moving_factor = ?";
+        this.casLastUsedStep = "UPDATE " + tableName + " SET last_used_step = ? WHERE user_id = ? AND type = 'TOTP' AND last_used_step = ?";
+    }
+
+    /**
+     * Creates the table of this store, unless it exists already.
+     *
+     * @param tableName
+     *            the name of the table
+     *
+     * @throws IOException
+     *             if the table cannot be created.
+     */
+    void createTable(final String tableName) throws IOException {
+        execute(new Work<Void>() {
+            @Override
+            Void run(Session session) throws SQLException {
+                try (Statement statement = session.connection.createStatement()) {
+                    statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + tableName + " ("
+                            + "user_id VARCHAR(255) NOT NULL PRIMARY KEY, "
+                            + "type VARCHAR(4) NOT NULL, "
+                            + "algorithm VARCHAR(16) NOT NULL, "
+                            + "digits SMALLINT NOT NULL, "
+                            + "time_step BIGINT NOT NULL, "
+                            + "secret VARBINARY(128) NOT NULL, "
+                            + "moving_factor BIGINT NOT NULL, "
+                            + "last_used_step BIGINT NOT NULL)");
+                }
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Credential load(final String userId) throws IOException {
+        Preconditions.checkNotNull(userId);
+        return execute(new Work<Credential>() {
+            @Override
+            Credential run(Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(selectOne);
+                statement.setString(1, userId);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return rs.next() ? toCredential(rs) : null;
+                }
+            }
+        });
+    }
+
+    @Override
+    public void save(Credential credential) throws IOException {
+        Preconditions.checkNotNull(credential);
+        List<Credential> credentials = new ArrayList<Credential>(1);
+        credentials.add(credential);
+        saveAll(credentials);
+    }
+
+    /**
+     * Stores the new moving factor of the specified user's HOTP credential.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param movingFactor
+     *            the new moving factor
+     *
+     * @throws NullPointerException
+     *             if {@code userId} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the store holds no HOTP credential for the user, or {@code movingFactor} is {@literal <} 0.
+     * @throws IOException
+     *             if the database fails.
+     */
+    @Override
+    public void updateMovingFactor(final String userId, final long movingFactor) throws IOException {
+        Preconditions.checkNotNull(userId);
+        Preconditions.checkArgument(movingFactor >= 0);
+        int updated = execute(new Work<Integer>() {
+            @Override
+            Integer run(Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(updateMovingFactor);
+                statement.setLong(1, movingFactor);
+                statement.setString(2, userId);
+                return statement.executeUpdate();
+            }
+        });
+        Preconditions.checkArgument(updated > 0, "No HOTP credential for user [%s]", userId);
+    }
+
+    @Override
+    public boolean compareAndSetMovingFactor(final String userId, final long expect, final long update) throws IOException {
+        Preconditions.checkNotNull(userId);
+        Preconditions.checkArgument(update >= 0);
+        int updated = execute(new Work<Integer>() {
+            @Override
+            Integer run(Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(casMovingFactor);
+                statement.setLong(1, update);
+                statement.setString(2, userId);
+                statement.setLong(3, expect);
+                return statement.executeUpdate();
+            }
+        });
+        if (updated > 0) {
+            return true;
+        }
+        // Tell a lost race from a missing credential.
+        Credential credential = load(userId);
+        Preconditions.checkArgument(credential != null && credential.isHOTP(), "No HOTP credential for user [%s]", userId);
+        return false;
+    }
+
+    @Override
+    public long getLastUsedStep(final String userId) throws IOException {
+        Preconditions.checkNotNull(userId);
+        Long step = execute(new Work<Long>() {
+            @Override
+            Long run(Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(selectLastUsedStep);
+                statement.setString(1, userId);
+                try (ResultSet rs = statement.executeQuery()) {
+                    return rs.next() && OTPType.TOTP.name().equals(rs.getString(1)) ? rs.getLong(2) : null;
+                }
+            }
+        });
+        Preconditions.checkArgument(step != null, "No TOTP credential for user [%s]", userId);
+        return step;
+    }
+
+    @Override
+    public boolean compareAndSetLastUsedStep(final String userId, final long expect, final long step) throws IOException {
+        Preconditions.checkNotNull(userId);
+        Preconditions.checkArgument(step >= 0);
+        int updated = execute(new Work<Integer>() {
+            @Override
+            Integer run(Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(casLastUsedStep);
+                statement.setLong(1, step);
+                statement.setString(2, userId);
+                statement.setLong(3, expect);
+                return statement.executeUpdate();
+            }
+        });
+        if (updated > 0) {
+            return true;
+        }
+        getLastUsedStep(userId);
+        return false;
+    }
+
+    @Override
+    public Map<String, Credential> loadAll(Collection<String> userIds) throws IOException {
+        final List<String> ids = new ArrayList<String>(userIds);
+        for (String userId : ids) {
+            Preconditions.checkNotNull(userId);
+        }
+        if (ids.isEmpty()) {
+            return new HashMap<String, Credential>();
+        }
+        return execute(new Work<Map<String, Credential>>() {
+            @Override
+            Map<String, Credential> run(Session session) throws SQLException {
+                Map<String, Credential> loaded = new HashMap<String, Credential>();
+                PreparedStatement statement = session.prepare(selectMany);
+                for (int from = 0; from < ids.size(); from += LOAD_BATCH_SIZE) {
+                    // Short chunks are padded with their last ID, so that a single statement serves all chunks.
+                    int to = Math.min(from + LOAD_BATCH_SIZE, ids.size());
+                    for (int i = 0; i < LOAD_BATCH_SIZE; i++) {
+                        statement.setString(i + 1, ids.get(Math.min(from + i, to - 1)));
+                    }
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            Credential credential = toCredential(rs);
+                            loaded.put(credential.getUserId(), credential);
+                        }
+                    }
+                }
+                return loaded;
+            }
+        });
+    }
+
+    /**
+     * Adds (or replaces) the specified {@link Credential}s, in one transaction.
+     * Replacing a credential resets its last used time step.
+     *
+     * @param credentials
+     *            the {@link Credential}s
+     *
+     * @throws NullPointerException
+     *             if {@code credentials} is (or contains) {@code null}.
+     * @throws IOException
+     *             if the database fails, in which case none of the credentials are stored.
+     */
+    @Override
+    public void saveAll(Collection<Credential> credentials) throws IOException {
+        // The last credential of a user wins, as if they were saved one at a time.
+        Map<String, Credential> latest = new LinkedHashMap<String, Credential>();
+        for (Credential credential : credentials) {
+            latest.put(credential.getUserId(), credential);
+        }
+        final List<Credential> batch = new ArrayList<Credential>(latest.values());
+        if (batch.isEmpty()) {
+            return;
+        }
+        execute(new Work<Void>() {
+            @Override
+            Void run(Session session) throws SQLException {
+                // A portable upsert: update every credential, then insert those that matched no row.
+                PreparedStatement statement = session.prepare(update);
+                for (Credential credential : batch) {
+                    bind(statement, credential);
+                    statement.addBatch();
+                }
+                int[] updated = statement.executeBatch();
+                PreparedStatement inserter = session.prepare(insert);
+                boolean inserts = false;
+                for (int i = 0; i < batch.size(); i++) {
+                    if (updated[i] < 0) {
+                        // The driver did not report the row count (SUCCESS_NO_INFO):
+                        // update the row alone (it is idempotent) to learn it.
+                        bind(statement, batch.get(i));
+                        updated[i] = statement.executeUpdate();
+                    }
+                    if (updated[i] <= 0) {
+                        bind(inserter, batch.get(i));
+                        inserter.addBatch();
+                        inserts = true;
+                    }
+                }
+                if (inserts) {
+                    inserter.executeBatch();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stores the new moving factors of the specified users' HOTP credentials, in
+     * one transaction. Users the store holds no HOTP credential for are ignored.
+     *
+     * @param movingFactors
+     *            a map of user IDs to new moving factors
+     *
+     * @throws NullPointerException
+     *             if {@code movingFactors} is (or contains) {@code null}.
+     * @throws IllegalArgumentException
+     *             if a moving factor is {@literal <} 0.
+     * @throws IOException
+     *             if the database fails, in which case none of the moving factors are stored.
+     */
+    @Override
+    public void updateMovingFactors(Map<String, Long> movingFactors) throws IOException {
+        final Map<String, Long> batch = new HashMap<String, Long>(movingFactors);
+        for (Map.Entry<String, Long> entry : batch.entrySet()) {
+            Preconditions.checkNotNull(entry.getKey());
+            Preconditions.checkArgument(entry.getValue() >= 0);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        execute(new Work<Void>() {
+            @Override
+            Void run(Session session) throws SQLException {
+                PreparedStatement statement = session.prepare(updateMovingFactor);
+                for (Map.Entry<String, Long> entry : batch.entrySet()) {
+                    statement.setLong(1, entry.getValue());
+                    statement.setString(2, entry.getKey());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Closes the pooled connections. Connections in use are closed as they are
+     * returned to the pool, and the store fails all subsequent calls.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        drain();
+    }
+
+    private <T> T execute(Work<T> work) throws IOException {
+        Session session = acquire();
+        boolean reusable = false;
+        try {
+            T result = work.run(session);
+            session.connection.commit();
+            reusable = true;
+            return result;
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            if (reusable) {
+                release(session);
+            } else {
+                discard(session);
+            }
+        }
+    }
+
+    /**
+     * Acquires one of the pool's permits (each held while a session is in use),
+     * then an idle session, or a new one if none is idle.
+     */
+    private Session acquire() throws IOException {
+        if (closed) {
+            throw new IOException("The credential store is closed");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection", e);
+        }
+        if (closed) {
+            permits.release();
+            throw new IOException("The credential store is closed");
+        }
+        Session session = idle.poll();
+        if (session != null) {
+            return session;
+        }
+        try {
+            Connection connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+            return new Session(connection);
+        } catch (SQLException e) {
+            permits.release();
+            throw new IOException(e);
+        }
+    }
+
+    private void release(Session session) {
+        idle.add(session);
+        permits.release();
+        if (closed) {
+            drain();
+        }
+    }
+
+    private void discard(Session session) {
+        session.close();
+        permits.release();
+    }
+
+    private void drain() {
+        Session session;
+        while ((session = idle.poll()) != null) {
+            session.close();
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Credential credential) throws SQLException {
+        statement.setString(1, credential.getType().name());
+        statement.setString(2, credential.getHmacShaAlgorithm().name());
+        statement.setInt(3, credential.getDigits());
+        statement.setLong(4, credential.getTimeStep());
+        statement.setBytes(5, credential.getKey());
+        statement.setLong(6, credential.getMovingFactor());
+        statement.setString(7, credential.getUserId());
+    }
+
+    private static Credential toCredential(ResultSet rs) throws SQLException {
+        String userId = rs.getString(1);
+        byte[] key = rs.getBytes(6);
+        if (OTPType.HOTP.name().equals(rs.getString(2))) {
+            return Credential.hotp(userId, key, rs.getInt(4), rs.getLong(7));
+        }
+        return Credential.totp(userId, key, HmacShaAlgorithm.valueOf(rs.getString(3)), rs.getInt(4), rs.getLong(5));
+    }
+
+    /**
+     * A unit of work run in a transaction of a pooled {@link Session}.
+     */
+    private abstract static class Work<T> {
+
+        abstract T run(Session session) throws SQLException;
+
+    }
+
+    /**
+     * A pooled connection, and the statements prepared on it.
+     */
+    private static final class Session {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+        Session(Connection connection) {
+            this.connection = connection;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        void close() {
+            // Whether closing a connection rolls back what has not been committed is up
+            // to the driver, and a pooled connection is merely returned to its pool.
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                // The connection is being discarded anyway.
+            }
+            // Closing the connection closes its statements.
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // The connection is being discarded anyway.
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.IOException;
+
+import javax.sql.DataSource;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A class that creates {@link JdbcCredentialStore}s.
+ * <p>
+ * Example:
+ * <pre>
+ * JdbcCredentialStore store = JdbcCredentialStoreBuilder.fromDataSource(dataSource)
+ *     .tableName("otp_credentials")
+ *     .poolSize(8)
+ *     .createTable(true)
+ *     .build();
+ * </pre>
+ */
+public final class JdbcCredentialStoreBuilder {
+
+    /** The default name of the credentials table. */
+    public static final String DEFAULT_TABLE_NAME = "otp_credentials";
+
+    /** The default maximum number of pooled connections. */
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    private static final String TABLE_NAME_PATTERN = "[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)?";
+
+    private final DataSource dataSource;
+    private String tableName = DEFAULT_TABLE_NAME;
+    private int poolSize = DEFAULT_POOL_SIZE;
+    private boolean createTable;
+
+    private JdbcCredentialStoreBuilder(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Returns a new {@link JdbcCredentialStoreBuilder} instance initialized with
+     * the specified {@link DataSource}.
+     *
+     * @param dataSource
+     *            the {@link DataSource} providing connections to the database
+     *
+     * @return a new {@link JdbcCredentialStoreBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code dataSource} is {@code null}.
+     */
+    public static JdbcCredentialStoreBuilder fromDataSource(DataSource dataSource) {
+        Preconditions.checkNotNull(dataSource);
+        return new JdbcCredentialStoreBuilder(dataSource);
+    }
+
+    /**
+     * Returns this {@code JdbcCredentialStoreBuilder} instance initialized with
+     * the name of the credentials table (optionally qualified by a schema name).
+     * Defaults to {@value #DEFAULT_TABLE_NAME}.
+     *
+     * @param tableName
+     *            the name of the table
+     *
+     * @return this {@code JdbcCredentialStoreBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code tableName} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code tableName} is not a plain SQL identifier (letters, digits and underscores).
+     */
+    public JdbcCredentialStoreBuilder tableName(String tableName) {
+        Preconditions.checkArgument(Preconditions.checkNotNull(tableName).matches(TABLE_NAME_PATTERN), "Invalid table name: %s", tableName);
+        this.tableName = tableName;
+        return this;
+    }
+
+    /**
+     * Returns this {@code JdbcCredentialStoreBuilder} instance initialized with
+     * the maximum number of connections kept open (and used concurrently) by the
+     * store. Calls beyond that number wait for a connection to be returned.
+     * Defaults to {@value #DEFAULT_POOL_SIZE}.
+     *
+     * @param poolSize
+     *            the maximum number of pooled connections
+     *
+     * @return this {@code JdbcCredentialStoreBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code poolSize} is {@literal <=} 0.
+     */
+    public JdbcCredentialStoreBuilder poolSize(int poolSize) {
+        Preconditions.checkArgument(poolSize > 0);
+        this.poolSize = poolSize;
+        return this;
+    }
+
+    /**
+     * Returns this {@code JdbcCredentialStoreBuilder} instance set to create the
+     * credentials table (unless it exists already) when the store is built.
+     * Defaults to {@code false}.
+     *
+     * @param createTable
+     *            whether to create the table
+     *
+     * @return this {@code JdbcCredentialStoreBuilder} instance.
+     */
+    public JdbcCredentialStoreBuilder createTable(boolean createTable) {
+        this.createTable = createTable;
+        return this;
+    }
+
+    /**
+     * Creates a new instance of {@link JdbcCredentialStore} initialized with the
+     * values of this builder.
+     *
+     * @return a new {@link JdbcCredentialStore} instance.
+     *
+     * @throws IOException
+     *             if the table cannot be created.
+     */
+    public JdbcCredentialStore build() throws IOException {
+        JdbcCredentialStore store = new JdbcCredentialStore(dataSource, tableName, poolSize);
+        if (createTable) {
+            try {
+                store.createTable(tableName);
+            } catch (IOException | RuntimeException e) {
+                store.close();
+                throw e;
+            }
+        }
+        return store;
+    }
+
+}
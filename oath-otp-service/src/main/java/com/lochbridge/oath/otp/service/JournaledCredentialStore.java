@@ -0,0 +1,165 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An {@link AtomicCredentialStore} that makes each new HOTP moving factor durable
+ * in a {@link CounterJournal} before handing it to another store. The latter may
+ * then persist moving factors lazily (or not at all, like the
+ * {@link InMemoryCredentialStore}), since the journal brings it up to date
+ * when the service restarts.
+ * <p>
+ * Credentials added via {@link #save(Credential)} (or {@link #saveAll(Collection)})
+ * must be made durable by the underlying store, but their moving factors are
+ * journaled too: a re-enrolled credential starts again from its own moving
+ * factor, rather than being raised to the one journaled for the credential it
+ * replaced. The last used time steps of TOTP credentials are not journaled.
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * CounterJournal journal = CounterJournalBuilder.fromDirectory(Paths.get("/var/lib/oath/journal")).build();
+ * AtomicCredentialStore store = JournaledCredentialStore.from(delegate, journal);
+ * ValidationService service = ValidationServiceBuilder.fromStore(store).build();
+ * </pre>
+ */
+public final class JournaledCredentialStore implements AtomicCredentialStore {
+
+    private final AtomicCredentialStore store;
+    private final CounterJournal journal;
+
+    private JournaledCredentialStore(AtomicCredentialStore store, CounterJournal journal) {
+        this.store = store;
+        this.journal = journal;
+    }
+
+    /**
+     * Returns a new {@link JournaledCredentialStore} journaling the moving factors
+     * of the specified store. The moving factors recovered by the journal (see
+     * {@link CounterJournal#getRecoveredMovingFactors()}) are first applied to the
+     * HOTP credentials of the store they are ahead of; moving factors never move
+     * backwards, so that no spent OTP value becomes valid again.
+     *
+     * @param store
+     *            the underlying {@link AtomicCredentialStore}
+     * @param journal
+     *            the {@link CounterJournal}
+     *
+     * @return a new {@link JournaledCredentialStore} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code store} or {@code journal} is {@code null}.
+     * @throws IOException
+     *             if the recovered moving factors cannot be applied to the store.
+     */
+    public static JournaledCredentialStore from(AtomicCredentialStore store, CounterJournal journal) throws IOException {
+        Preconditions.checkNotNull(store);
+        Preconditions.checkNotNull(journal);
+        for (Map.Entry<String, Long> entry : journal.getRecoveredMovingFactors().entrySet()) {
+            Credential credential = store.load(entry.getKey());
+            if (credential != null && credential.isHOTP() && credential.getMovingFactor() < entry.getValue()) {
+                store.updateMovingFactor(entry.getKey(), entry.getValue());
+            }
+        }
+        return new JournaledCredentialStore(store, journal);
+    }
+
+    @Override
+    public Credential load(String userId) throws IOException {
+        return store.load(userId);
+    }
+
+    /**
+     * Appends the moving factor of the specified credential to the journal, waits
+     * until it is durable, and then adds (or replaces) the credential in the
+     * underlying store.
+     *
+     * @param credential
+     *            the {@link Credential}
+     *
+     * @throws IOException
+     *             if the moving factor cannot be made durable, or the underlying store fails.
+     */
+    @Override
+    public void save(Credential credential) throws IOException {
+        journal.append(credential.getUserId(), credential.getMovingFactor());
+        store.save(credential);
+    }
+
+    /**
+     * Appends the new moving factor to the journal, waits until it is durable,
+     * and then stores it in the underlying store.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param movingFactor
+     *            the new moving factor
+     *
+     * @throws IOException
+     *             if the moving factor cannot be made durable, or the underlying store fails.
+     */
+    @Override
+    public void updateMovingFactor(String userId, long movingFactor) throws IOException {
+        journal.append(userId, movingFactor);
+        store.updateMovingFactor(userId, movingFactor);
+    }
+
+    /**
+     * Appends the new moving factor to the journal, waits until it is durable,
+     * and then compares-and-sets it in the underlying store. Should the
+     * compare-and-set fail, the journal is left ahead of the store, which can
+     * only burn OTP values on recovery, never make spent ones valid again.
+     */
+    @Override
+    public boolean compareAndSetMovingFactor(String userId, long expect, long update) throws IOException {
+        journal.append(userId, update);
+        return store.compareAndSetMovingFactor(userId, expect, update);
+    }
+
+    @Override
+    public long getLastUsedStep(String userId) throws IOException {
+        return store.getLastUsedStep(userId);
+    }
+
+    @Override
+    public boolean compareAndSetLastUsedStep(String userId, long expect, long step) throws IOException {
+        return store.compareAndSetLastUsedStep(userId, expect, step);
+    }
+
+    @Override
+    public Map<String, Credential> loadAll(Collection<String> userIds) throws IOException {
+        return store.loadAll(userIds);
+    }
+
+    /**
+     * Appends the moving factors of the specified credentials to the journal (in
+     * one group commit), waits until they are durable, and then adds (or
+     * replaces) the credentials in the underlying store.
+     */
+    @Override
+    public void saveAll(Collection<Credential> credentials) throws IOException {
+        Map<String, Long> movingFactors = new LinkedHashMap<String, Long>();
+        for (Credential credential : credentials) {
+            movingFactors.put(credential.getUserId(), credential.getMovingFactor());
+        }
+        journal.appendAll(movingFactors);
+        store.saveAll(credentials);
+    }
+
+    /**
+     * Appends the new moving factors to the journal (in one group commit), waits
+     * until they are durable, and then stores them in the underlying store.
+     */
+    @Override
+    public void updateMovingFactors(Map<String, Long> movingFactors) throws IOException {
+        journal.appendAll(movingFactors);
+        store.updateMovingFactors(movingFactors);
+    }
+
+}
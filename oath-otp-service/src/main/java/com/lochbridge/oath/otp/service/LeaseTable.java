@@ -0,0 +1,396 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A table of time-bound leases on counter partitions, kept in a file shared by
+ * the validator processes of a host (or of hosts sharing a file system with
+ * working locks). A node holding the lease of a partition is the only one
+ * allowed to advance the moving factors of the partition's users.
+ * <p>
+ * Each lease carries a fencing token, incremented whenever the partition
+ * changes hands (or is re-acquired after lapsing), so that a node can tell
+ * whether anyone else may have owned the partition since it last held it.
+ * Leases expire according to the wall clock ({@link System#currentTimeMillis()}),
+ * so holders must stop using a lease some time before its expiry to allow for
+ * clock skew between processes.
+ * <p>
+ * The file holds a 32-byte header followed by one 32-byte record per partition:
+ * </p>
+ *
+ * <pre>
+ * header:  magic (int32), version (int32), partitions (int32)
+ * record:  owner node ID (int64, 0 if none), fencing token (int64), expiry in epoch milliseconds (int64)
+ * </pre>
+ * <p>
+ * Every operation reads and writes a record under an exclusive {@link FileLock}
+ * on that record, so concurrent processes see leases change atomically.
+ *
+ * @see LeasedCredentialStore
+ */
+public final class LeaseTable implements Closeable {
+
+    /** The magic number identifying a lease table file ("OTPL"). */
+    public static final int MAGIC = 0x4F54504C;
+
+    /** The file format version. */
+    public static final int VERSION = 1;
+
+    /** The maximum number of partitions of a table. */
+    public static final int MAX_PARTITIONS = 1 << 20;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 32;
+
+    /**
+     * File locks are held on behalf of the whole JVM, so threads (and tables)
+     * of the same JVM are serialized by these locks first.
+     */
+    private static final ConcurrentMap<Path, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<Path, ReentrantLock>();
+
+    private final FileChannel channel;
+    private final int partitions;
+    private final ReentrantLock jvmLock;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+    private LeaseTable(FileChannel channel, int partitions, ReentrantLock jvmLock) {
+        this.channel = channel;
+        this.partitions = partitions;
+        this.jvmLock = jvmLock;
+    }
+
+    /**
+     * Opens the lease table file at the specified path, creating it with the
+     * specified number of partitions if it does not exist.
+     *
+     * @param path
+     *            the path of the file
+     * @param partitions
+     *            the number of partitions
+     *
+     * @return a {@link LeaseTable} instance backed by the file.
+     *
+     * @throws NullPointerException
+     *             if {@code path} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code partitions} is not in [1, {@link #MAX_PARTITIONS}].
+     * @throws IOException
+     *             if the file cannot be created or read, is not a lease table file, or
+     *             has a different number of partitions.
+     */
+    public static LeaseTable open(Path path, int partitions) throws IOException {
+        Preconditions.checkNotNull(path);
+        Preconditions.checkArgument(partitions >= 1 && partitions <= MAX_PARTITIONS, "partitions must be in [1, %s]", MAX_PARTITIONS);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ReentrantLock jvmLock = jvmLock(path);
+        jvmLock.lock();
+        try {
+            FileLock lock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                if (channel.size() == 0) {
+                    header.putInt(MAGIC).putInt(VERSION).putInt(partitions).clear();
+                    writeFully(channel, ByteBuffer.allocate(RECORD_SIZE), HEADER_SIZE + (long) (partitions - 1) * RECORD_SIZE);
+                    writeFully(channel, header, 0);
+                } else {
+                    readFully(channel, header, 0);
+                    if (header.getInt(0) != MAGIC) {
+                        throw new IOException("Not a lease table file: " + path);
+                    }
+                    if (header.getInt(4) != VERSION) {
+                        throw new IOException("Unsupported lease table version: " + header.getInt(4));
+                    }
+                    if (header.getInt(8) != partitions) {
+                        throw new IOException("The lease table has " + header.getInt(8) + " partitions, not " + partitions);
+                    }
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        } finally {
+            jvmLock.unlock();
+        }
+        return new LeaseTable(channel, partitions, jvmLock);
+    }
+
+    /**
+     * Returns the number of partitions of this table.
+     *
+     * @return the number of partitions of this table.
+     */
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Returns the current lease of the specified partition, which may be
+     * expired, or have no owner.
+     *
+     * @param partition
+     *            the partition
+     *
+     * @return the current {@link Lease} of the partition.
+     *
+     * @throws IndexOutOfBoundsException
+     *             if {@code partition} is not in [0, {@link #getPartitions()}).
+     * @throws IOException
+     *             if the table cannot be read.
+     */
+    public Lease getLease(int partition) throws IOException {
+        Preconditions.checkElementIndex(partition, partitions);
+        jvmLock.lock();
+        try {
+            FileLock lock = lockRecord(partition);
+            try {
+                return readRecord(partition);
+            } finally {
+                lock.release();
+            }
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+
+    /**
+     * Acquires (or extends) the lease of the specified partition on behalf of
+     * the specified node, unless another node holds an unexpired lease. The
+     * fencing token is incremented unless the node holds an unexpired lease
+     * already.
+     *
+     * @param partition
+     *            the partition
+     * @param owner
+     *            the ID of the node
+     * @param durationMillis
+     *            the duration (in milliseconds) of the lease
+     *
+     * @return the acquired {@link Lease}, or {@code null} if another node holds the partition.
+     *
+     * @throws IndexOutOfBoundsException
+     *             if {@code partition} is not in [0, {@link #getPartitions()}).
+     * @throws IllegalArgumentException
+     *             if {@code owner} is 0, or {@code durationMillis} is {@literal <=} 0.
+     * @throws IOException
+     *             if the table cannot be read or written.
+     */
+    public Lease tryAcquire(int partition, long owner, long durationMillis) throws IOException {
+        Preconditions.checkElementIndex(partition, partitions);
+        Preconditions.checkArgument(owner != 0, "The owner ID must not be 0");
+        Preconditions.checkArgument(durationMillis > 0);
+        jvmLock.lock();
+        try {
+            FileLock lock = lockRecord(partition);
+            try {
+                Lease current = readRecord(partition);
+                long now = System.currentTimeMillis();
+                boolean held = current.getOwner() != 0 && current.getExpiry() > now;
+                if (held && current.getOwner() != owner) {
+                    return null;
+                }
+                long token = held ? current.getToken() : current.getToken() + 1;
+                return writeRecord(new Lease(partition, owner, token, now + durationMillis));
+            } finally {
+                lock.release();
+            }
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+
+    /**
+     * Extends the specified lease, provided the partition has not changed hands
+     * (or been released) since. A lapsed lease can still be renewed if no other
+     * node acquired the partition in between.
+     *
+     * @param lease
+     *            the lease to renew
+     * @param durationMillis
+     *            the new duration (in milliseconds) of the lease, from now
+     *
+     * @return the renewed {@link Lease} (with the same fencing token), or {@code null}
+     *         if the partition has changed hands.
+     *
+     * @throws NullPointerException
+     *             if {@code lease} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code durationMillis} is {@literal <=} 0, or {@code lease} has no owner.
+     * @throws IOException
+     *             if the table cannot be read or written.
+     */
+    public Lease renew(Lease lease, long durationMillis) throws IOException {
+        Preconditions.checkArgument(lease.getOwner() != 0, "The lease has no owner");
+        Preconditions.checkArgument(durationMillis > 0);
+        jvmLock.lock();
+        try {
+            FileLock lock = lockRecord(lease.getPartition());
+            try {
+                Lease current = readRecord(lease.getPartition());
+                if (current.getOwner() != lease.getOwner() || current.getToken() != lease.getToken()) {
+                    return null;
+                }
+                return writeRecord(new Lease(lease.getPartition(), lease.getOwner(), lease.getToken(), System.currentTimeMillis() + durationMillis));
+            } finally {
+                lock.release();
+            }
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+
+    /**
+     * Releases the specified lease (if the partition has not changed hands since),
+     * so that other nodes may acquire the partition right away.
+     *
+     * @param lease
+     *            the lease to release
+     *
+     * @return {@code true} if the lease was released, {@code false} if the partition had changed hands.
+     *
+     * @throws NullPointerException
+     *             if {@code lease} is {@code null}.
+     * @throws IOException
+     *             if the table cannot be read or written.
+     */
+    public boolean release(Lease lease) throws IOException {
+        jvmLock.lock();
+        try {
+            FileLock lock = lockRecord(lease.getPartition());
+            try {
+                Lease current = readRecord(lease.getPartition());
+                if (current.getOwner() != lease.getOwner() || current.getToken() != lease.getToken()) {
+                    return false;
+                }
+                writeRecord(new Lease(lease.getPartition(), 0, lease.getToken(), 0));
+                return true;
+            } finally {
+                lock.release();
+            }
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+
+    /**
+     * Closes the table file. Leases are left as they are.
+     *
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private FileLock lockRecord(int partition) throws IOException {
+        return channel.lock(HEADER_SIZE + (long) partition * RECORD_SIZE, RECORD_SIZE, false);
+    }
+
+    private Lease readRecord(int partition) throws IOException {
+        record.clear();
+        readFully(channel, record, HEADER_SIZE + (long) partition * RECORD_SIZE);
+        return new Lease(partition, record.getLong(0), record.getLong(8), record.getLong(16));
+    }
+
+    private Lease writeRecord(Lease lease) throws IOException {
+        record.clear();
+        record.putLong(lease.getOwner()).putLong(lease.getToken()).putLong(lease.getExpiry()).putLong(0).clear();
+        writeFully(channel, record, HEADER_SIZE + (long) lease.getPartition() * RECORD_SIZE);
+        return lease;
+    }
+
+    private static ReentrantLock jvmLock(Path path) throws IOException {
+        Path key = path.toRealPath();
+        ReentrantLock lock = JVM_LOCKS.get(key);
+        if (lock == null) {
+            ReentrantLock existing = JVM_LOCKS.putIfAbsent(key, lock = new ReentrantLock());
+            if (existing != null) {
+                lock = existing;
+            }
+        }
+        return lock;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0) {
+                throw new IOException("Truncated lease table file");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            channel.write(src, position + src.position());
+        }
+    }
+
+    /**
+     * An immutable snapshot of the lease of a partition.
+     */
+    public static final class Lease {
+
+        private final int partition;
+        private final long owner;
+        private final long token;
+        private final long expiry;
+
+        Lease(int partition, long owner, long token, long expiry) {
+            this.partition = partition;
+            this.owner = owner;
+            this.token = token;
+            this.expiry = expiry;
+        }
+
+        /**
+         * Returns the partition.
+         *
+         * @return the partition.
+         */
+        public int getPartition() {
+            return partition;
+        }
+
+        /**
+         * Returns the ID of the owner node, or 0 if none.
+         *
+         * @return the ID of the owner node, or 0 if none.
+         */
+        public long getOwner() {
+            return owner;
+        }
+
+        /**
+         * Returns the fencing token, which changes whenever the partition changes hands.
+         *
+         * @return the fencing token.
+         */
+        public long getToken() {
+            return token;
+        }
+
+        /**
+         * Returns the expiry of the lease, in milliseconds since the epoch.
+         *
+         * @return the expiry of the lease, in milliseconds since the epoch.
+         */
+        public long getExpiry() {
+            return expiry;
+        }
+
+    }
+
+}
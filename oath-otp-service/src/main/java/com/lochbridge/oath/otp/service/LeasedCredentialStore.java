@@ -0,0 +1,502 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.service.LeaseTable.Lease;
+
+/**
+ * A {@link CredentialStore} that lets several validator nodes share one
+ * counter store without a round-trip per HOTP validation: users are hashed to
+ * the partitions of a {@link LeaseTable}, and the node holding the lease of a
+ * partition advances its users' moving factors in memory, writing them back to
+ * the shared store asynchronously.
+ * <p>
+ * A node acquires the lease of a partition on first use. While it holds the
+ * lease, other nodes cannot validate the partition's users: their
+ * {@link #load(String)} and {@link #updateMovingFactor(String, long)} calls
+ * fail with an {@link IOException} naming the owner, so that requests should be
+ * routed to the owner (e.g. by partition). A background thread:
+ * <ul>
+ * <li>writes the moving factors advanced since the last run back to the shared
+ * store, every {@code flushInterval},</li>
+ * <li>renews the leases of the partitions in use before they expire,</li>
+ * <li>hands off partitions left idle for {@code idleTimeout}: their moving
+ * factors are written back first, and the lease is then released, so that the
+ * next owner reloads them from the shared store.</li>
+ * </ul>
+ * <p>
+ * A lease is only used until a quarter of its duration before its expiry, to
+ * leave room for clock skew and for the last write-back. Should a node crash,
+ * the moving factors it advanced since its last write-back (at most
+ * {@code flushInterval} earlier) are lost, and the partition's lease can be
+ * acquired by another node once expired; deployments that cannot tolerate this
+ * may combine the shared store with a {@link CounterJournal}.
+ * <p>
+ * Moving factors follow the semantics of the {@link com.lochbridge.oath.otp.HOTPValidator}:
+ * the shared store is only ever written with the latest moving factor of a user,
+ * and write-backs never move it backwards. A write-back is made conditional on
+ * the moving factor this node last read from (or wrote to) the shared store:
+ * with an {@link AtomicCredentialStore}, as a compare-and-set; otherwise by
+ * reading the moving factor back first, which only narrows the window of a
+ * former owner resuming from a pause. The latter write-back is therefore
+ * skipped unless the lease table still records this node's unexpired lease
+ * with the same fencing token. A compare-and-set, however, cannot overwrite
+ * the moving factors advanced by another node: the advances of a node whose
+ * lease lapsed (e.g. during a pause) are still written back to an
+ * {@link AtomicCredentialStore} before they are dropped. With another store,
+ * they cannot be, and dropping them fails with an {@link IOException}. A user
+ * whose moving factor was changed by another node is dropped from memory, and
+ * reloaded on next use.
+ * <p>
+ * Instances are created using the {@link LeasedCredentialStoreBuilder}, for example:
+ * </p>
+ *
+ * <pre>
+ * LeaseTable table = LeaseTable.open(Paths.get("/var/lib/oath/leases"), 256);
+ * LeasedCredentialStore store = LeasedCredentialStoreBuilder.fromStore(sharedStore)
+ *     .leaseTable(table)
+ *     .nodeId(nodeId)
+ *     .leaseDuration(10, TimeUnit.SECONDS)
+ *     .build();
+ * ValidationService service = ValidationServiceBuilder.fromStore(store).build();
+ * </pre>
+ */
+public final class LeasedCredentialStore implements CredentialStore, Closeable {
+
+    private final CredentialStore store;
+    private final LeaseTable table;
+    private final long nodeId;
+    private final long leaseDuration;
+    private final long idleTimeout;
+    private final Partition[] partitions;
+    private final ScheduledExecutorService maintainer;
+    private final AtomicLong writeBacks = new AtomicLong();
+
+    /**
+     * Creates a new instance of {@code LeasedCredentialStore}. Note that all
+     * parameters are assumed to be valid since the {@link LeasedCredentialStoreBuilder}
+     * is responsible for validation, and creation of {@link LeasedCredentialStore}s.
+     *
+     * @param store
+     *            the shared {@link CredentialStore}
+     * @param table
+     *            the {@link LeaseTable}
+     * @param nodeId
+     *            the ID of this node
+     * @param leaseDuration
+     *            the duration (in milliseconds) of leases
+     * @param flushInterval
+     *            the interval (in milliseconds) between write-backs
+     * @param idleTimeout
+     *            the time (in milliseconds) after which an unused partition is handed off
+     */
+    LeasedCredentialStore(CredentialStore store, LeaseTable table, long nodeId, long leaseDuration, long flushInterval, long idleTimeout) {
+        this.store = store;
+        this.table = table;
+        this.nodeId = nodeId;
+        this.leaseDuration = leaseDuration;
+        this.idleTimeout = idleTimeout;
+        this.partitions = new Partition[table.getPartitions()];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i] = new Partition(i);
+        }
+        this.maintainer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "oath-lease-maintainer-" + LeasedCredentialStore.this.nodeId);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        maintainer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                maintain();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the partition of the lease table the specified user maps to.
+     *
+     * @param userId
+     *            the ID of the user
+     *
+     * @return the partition of the user.
+     */
+    public int partition(String userId) {
+        return partition(userId, partitions.length);
+    }
+
+    /**
+     * Returns whether this node currently holds the lease of the specified partition.
+     *
+     * @param partition
+     *            the partition
+     *
+     * @return {@code true} if this node holds the lease of the partition, {@code false} otherwise.
+     */
+    public boolean holds(int partition) {
+        return partitions[partition].isUsable(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the number of moving factors written back to the shared store so far.
+     *
+     * @return the number of moving factors written back to the shared store so far.
+     */
+    public long getWriteBackCount() {
+        return writeBacks.get();
+    }
+
+    /**
+     * Returns the {@link Credential} of the specified user, acquiring the lease
+     * of the user's partition if needed.
+     *
+     * @throws IOException
+     *             if another node holds the lease of the user's partition, or the
+     *             shared store fails.
+     */
+    @Override
+    public Credential load(String userId) throws IOException {
+        Partition partition = enter(userId);
+        try {
+            return partition.load(userId);
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds (or replaces) the specified {@link Credential}, in the shared store
+     * right away.
+     *
+     * @throws IOException
+     *             if another node holds the lease of the user's partition, or the
+     *             shared store fails.
+     */
+    @Override
+    public void save(Credential credential) throws IOException {
+        Partition partition = enter(credential.getUserId());
+        try {
+            store.save(credential);
+            partition.dirty.remove(credential.getUserId());
+            partition.persisted.put(credential.getUserId(), credential.getMovingFactor());
+            partition.credentials.put(credential.getUserId(), credential);
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Advances the moving factor of the specified user in memory; it is written
+     * back to the shared store asynchronously.
+     *
+     * @throws IOException
+     *             if another node holds the lease of the user's partition, or the
+     *             shared store fails.
+     * @throws IllegalArgumentException
+     *             if there is no credential for the user.
+     */
+    @Override
+    public void updateMovingFactor(String userId, long movingFactor) throws IOException {
+        Partition partition = enter(userId);
+        try {
+            Credential credential = partition.load(userId);
+            Preconditions.checkArgument(credential != null, "No credential for user [" + userId + "]");
+            partition.credentials.put(userId, credential.withMovingFactor(movingFactor));
+            partition.dirty.add(userId);
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes all advanced moving factors back to the shared store, and releases
+     * all leases held by this node. The shared store and the lease table are
+     * left open.
+     *
+     * @throws IOException
+     *             if the shared store or the lease table fails, or advanced
+     *             moving factors could not be written back since a lease lapsed.
+     */
+    @Override
+    public void close() throws IOException {
+        maintainer.shutdown();
+        try {
+            maintainer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException failure = null;
+        for (Partition partition : partitions) {
+            try {
+                partition.handOff();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns the partition of the specified user, with its read lock held and a
+     * usable lease, acquiring (or renewing) the lease if needed.
+     */
+    private Partition enter(String userId) throws IOException {
+        Partition partition = partitions[partition(userId)];
+        partition.lastUsed = System.currentTimeMillis();
+        partition.lock.readLock().lock();
+        if (partition.isUsable(System.currentTimeMillis())) {
+            return partition;
+        }
+        partition.lock.readLock().unlock();
+        partition.lock.writeLock().lock();
+        try {
+            partition.ensureLease();
+            // Downgrade to the read lock.
+            partition.lock.readLock().lock();
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+        return partition;
+    }
+
+    private void maintain() {
+        long now = System.currentTimeMillis();
+        for (Partition partition : partitions) {
+            Lease lease = partition.lease;
+            if (lease == null) {
+                continue;
+            }
+            try {
+                if (now - partition.lastUsed >= idleTimeout) {
+                    partition.handOff();
+                    continue;
+                }
+                if (lease.getExpiry() - now < leaseDuration / 2) {
+                    partition.lock.writeLock().lock();
+                    try {
+                        if (partition.lease != null) {
+                            partition.renew();
+                        }
+                    } finally {
+                        partition.lock.writeLock().unlock();
+                    }
+                }
+                partition.lock.readLock().lock();
+                try {
+                    partition.writeBack();
+                } finally {
+                    partition.lock.readLock().unlock();
+                }
+            } catch (IOException | RuntimeException e) {
+                // Retried on the next run; the lease lapses if the failure persists.
+            }
+        }
+    }
+
+    static int partition(String userId, int partitions) {
+        int h = 1;
+        for (byte b : userId.getBytes(StandardCharsets.UTF_8)) {
+            h = 31 * h + b;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % partitions;
+    }
+
+    /**
+     * The state of a partition: its lease (if held), the credentials of its users
+     * loaded (and possibly advanced) under that lease, and their moving factors
+     * as last read from (or written to) the shared store. Operations on the
+     * credentials run under the read lock; changes of the lease run under the
+     * write lock.
+     */
+    private final class Partition {
+
+        final int index;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final ConcurrentMap<String, Credential> credentials = new ConcurrentHashMap<String, Credential>();
+        final ConcurrentMap<String, Long> persisted = new ConcurrentHashMap<String, Long>();
+        final Set<String> dirty = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        volatile Lease lease;
+        volatile long lastUsed;
+
+        Partition(int index) {
+            this.index = index;
+        }
+
+        boolean isUsable(long now) {
+            Lease current = lease;
+            return current != null && now < current.getExpiry() - leaseDuration / 4;
+        }
+
+        Credential load(String userId) throws IOException {
+            Credential credential = credentials.get(userId);
+            if (credential == null) {
+                credential = store.load(userId);
+                if (credential != null) {
+                    // Keep a moving factor advanced concurrently.
+                    Credential existing = credentials.putIfAbsent(userId, credential);
+                    if (existing != null) {
+                        credential = existing;
+                    } else {
+                        persisted.put(userId, credential.getMovingFactor());
+                    }
+                }
+            }
+            return credential;
+        }
+
+        /** Called with the write lock held. */
+        void ensureLease() throws IOException {
+            if (isUsable(System.currentTimeMillis())) {
+                return;
+            }
+            if (lease != null) {
+                renew();
+                if (lease != null) {
+                    return;
+                }
+            }
+            Lease acquired = table.tryAcquire(index, nodeId, leaseDuration);
+            if (acquired == null) {
+                throw new IOException("The lease of partition " + index + " is held by node " + table.getLease(index).getOwner());
+            }
+            lease = acquired;
+        }
+
+        /** Called with the write lock held. */
+        void renew() throws IOException {
+            Lease renewed = table.renew(lease, leaseDuration);
+            if (renewed == null) {
+                // Another node has owned the partition since: whatever is cached is stale, once written back.
+                writeBack();
+                drop();
+                return;
+            }
+            lease = renewed;
+        }
+
+        /**
+         * Called with (at least) the read lock held. Unless the shared store is an
+         * {@link AtomicCredentialStore}, nothing is written back once the lease has
+         * lapsed, or another node has taken the partition over.
+         */
+        void writeBack() throws IOException {
+            Lease current = lease;
+            if (current == null || dirty.isEmpty()) {
+                return;
+            }
+            if (!(store instanceof AtomicCredentialStore) && isFencedOff(current)) {
+                // Another node may own the partition by now, and must not see its moving factors overwritten.
+                return;
+            }
+            Iterator<String> users = dirty.iterator();
+            while (users.hasNext()) {
+                String userId = users.next();
+                // Removed before reading the moving factor, so that a concurrent update marks the user dirty again.
+                users.remove();
+                Credential credential = credentials.get(userId);
+                Long expected = persisted.get(userId);
+                if (credential == null || expected == null || credential.getMovingFactor() <= expected) {
+                    continue;
+                }
+                try {
+                    if (writeBack(userId, expected, credential.getMovingFactor())) {
+                        persisted.put(userId, credential.getMovingFactor());
+                        writeBacks.incrementAndGet();
+                    } else {
+                        // Changed by another node: whatever is cached is stale.
+                        credentials.remove(userId);
+                        persisted.remove(userId);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    dirty.add(userId);
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Writes the specified moving factor of a user back to the shared store,
+         * provided the store still holds the expected one.
+         */
+        private boolean writeBack(String userId, long expected, long movingFactor) throws IOException {
+            if (store instanceof AtomicCredentialStore) {
+                return ((AtomicCredentialStore) store).compareAndSetMovingFactor(userId, expected, movingFactor);
+            }
+            Credential stored = store.load(userId);
+            if (stored == null || stored.getMovingFactor() != expected) {
+                return false;
+            }
+            store.updateMovingFactor(userId, movingFactor);
+            return true;
+        }
+
+        private boolean isFencedOff(Lease current) throws IOException {
+            if (System.currentTimeMillis() >= current.getExpiry()) {
+                return true;
+            }
+            Lease recorded = table.getLease(index);
+            return recorded.getOwner() != nodeId || recorded.getToken() != current.getToken();
+        }
+
+        void handOff() throws IOException {
+            lock.writeLock().lock();
+            try {
+                if (lease == null) {
+                    return;
+                }
+                if (!isUsable(System.currentTimeMillis())) {
+                    // Lapsed (e.g. during a pause): renewed, unless another node has taken the partition over.
+                    renew();
+                    if (lease == null) {
+                        return;
+                    }
+                }
+                writeBack();
+                table.release(lease);
+                drop();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * Called with the write lock held. Forgets the lease and what is cached,
+         * failing if advanced moving factors could not be written back.
+         */
+        private void drop() throws IOException {
+            int unwritten = dirty.size();
+            lease = null;
+            credentials.clear();
+            persisted.clear();
+            dirty.clear();
+            if (unwritten > 0) {
+                throw new IOException("The lease of partition " + index + " lapsed before the moving factors of " + unwritten
+                        + " user(s) could be written back");
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,178 @@
+package com.lochbridge.oath.otp.service;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A class that creates {@link LeasedCredentialStore}s.
+ * <p>
+ * Example:
+ * <pre>
+ * LeasedCredentialStore store = LeasedCredentialStoreBuilder.fromStore(sharedStore)
+ *     .leaseTable(LeaseTable.open(Paths.get("/var/lib/oath/leases"), 256))
+ *     .nodeId(nodeId)
+ *     .leaseDuration(10, TimeUnit.SECONDS)
+ *     .flushInterval(100, TimeUnit.MILLISECONDS)
+ *     .idleTimeout(30, TimeUnit.SECONDS)
+ *     .build();
+ * </pre>
+ */
+public final class LeasedCredentialStoreBuilder {
+
+    /** The default duration (in milliseconds) of leases. */
+    public static final long DEFAULT_LEASE_DURATION = TimeUnit.SECONDS.toMillis(10);
+
+    /** The default interval (in milliseconds) between write-backs to the shared store. */
+    public static final long DEFAULT_FLUSH_INTERVAL = 100;
+
+    /** The default time (in milliseconds) after which an unused partition is handed off. */
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+    private final CredentialStore store;
+    private LeaseTable table;
+    private long nodeId;
+    private long leaseDuration = DEFAULT_LEASE_DURATION;
+    private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+    private LeasedCredentialStoreBuilder(CredentialStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Returns a new {@link LeasedCredentialStoreBuilder} instance initialized with
+     * the specified {@link CredentialStore} shared by all nodes.
+     *
+     * @param store
+     *            the shared {@link CredentialStore}
+     *
+     * @return a new {@link LeasedCredentialStoreBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code store} is {@code null}.
+     */
+    public static LeasedCredentialStoreBuilder fromStore(CredentialStore store) {
+        Preconditions.checkNotNull(store);
+        return new LeasedCredentialStoreBuilder(store);
+    }
+
+    /**
+     * Returns this {@code LeasedCredentialStoreBuilder} instance initialized with
+     * the specified {@link LeaseTable} shared by all nodes. This parameter is required.
+     *
+     * @param table
+     *            the {@link LeaseTable}
+     *
+     * @return this {@code LeasedCredentialStoreBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code table} is {@code null}.
+     */
+    public LeasedCredentialStoreBuilder leaseTable(LeaseTable table) {
+        this.table = Preconditions.checkNotNull(table);
+        return this;
+    }
+
+    /**
+     * Returns this {@code LeasedCredentialStoreBuilder} instance initialized with
+     * the ID of this node, which must be unique among the nodes sharing the lease
+     * table. This parameter is required.
+     *
+     * @param nodeId
+     *            the ID of this node
+     *
+     * @return this {@code LeasedCredentialStoreBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code nodeId} is 0.
+     */
+    public LeasedCredentialStoreBuilder nodeId(long nodeId) {
+        Preconditions.checkArgument(nodeId != 0, "The node ID must not be 0");
+        this.nodeId = nodeId;
+        return this;
+    }
+
+    /**
+     * Returns this {@code LeasedCredentialStoreBuilder} instance initialized with
+     * the specified duration of leases. The default is {@link #DEFAULT_LEASE_DURATION}
+     * milliseconds.
+     *
+     * @param leaseDuration
+     *            the duration of leases
+     * @param unit
+     *            the unit of {@code leaseDuration}
+     *
+     * @return this {@code LeasedCredentialStoreBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code leaseDuration} is {@literal <} 4 milliseconds.
+     */
+    public LeasedCredentialStoreBuilder leaseDuration(long leaseDuration, TimeUnit unit) {
+        Preconditions.checkArgument(unit.toMillis(leaseDuration) >= 4);
+        this.leaseDuration = unit.toMillis(leaseDuration);
+        return this;
+    }
+
+    /**
+     * Returns this {@code LeasedCredentialStoreBuilder} instance initialized with
+     * the specified interval between write-backs of advanced moving factors to the
+     * shared store. The default is {@link #DEFAULT_FLUSH_INTERVAL} milliseconds.
+     *
+     * @param flushInterval
+     *            the interval between write-backs
+     * @param unit
+     *            the unit of {@code flushInterval}
+     *
+     * @return this {@code LeasedCredentialStoreBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code flushInterval} is {@literal <} 1 millisecond.
+     */
+    public LeasedCredentialStoreBuilder flushInterval(long flushInterval, TimeUnit unit) {
+        Preconditions.checkArgument(unit.toMillis(flushInterval) >= 1);
+        this.flushInterval = unit.toMillis(flushInterval);
+        return this;
+    }
+
+    /**
+     * Returns this {@code LeasedCredentialStoreBuilder} instance initialized with
+     * the specified time after which a partition none of whose users has been
+     * validated is handed off. The default is {@link #DEFAULT_IDLE_TIMEOUT} milliseconds.
+     *
+     * @param idleTimeout
+     *            the time after which an unused partition is handed off
+     * @param unit
+     *            the unit of {@code idleTimeout}
+     *
+     * @return this {@code LeasedCredentialStoreBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code idleTimeout} is {@literal <} 0.
+     */
+    public LeasedCredentialStoreBuilder idleTimeout(long idleTimeout, TimeUnit unit) {
+        Preconditions.checkArgument(idleTimeout >= 0);
+        this.idleTimeout = unit.toMillis(idleTimeout);
+        return this;
+    }
+
+    /**
+     * Creates a {@link LeasedCredentialStore} using this builder's configured parameters.
+     *
+     * @return a {@link LeasedCredentialStore} using this builder's configured parameters.
+     *
+     * @throws IllegalStateException
+     *             <ul>
+     *             <li>if the lease table or the node ID has not been configured.</li>
+     *             <li>if the flush interval is not shorter than a quarter of the lease duration
+     *             (the margin leases are given up by before they expire).</li>
+     *             </ul>
+     */
+    public LeasedCredentialStore build() {
+        Preconditions.checkState(table != null, "The lease table has not been configured!");
+        Preconditions.checkState(nodeId != 0, "The node ID has not been configured!");
+        Preconditions.checkState(flushInterval < leaseDuration / 4, "The flush interval must be shorter than a quarter of the lease duration!");
+        return new LeasedCredentialStore(store, table, nodeId, leaseDuration, flushInterval, idleTimeout);
+    }
+
+}
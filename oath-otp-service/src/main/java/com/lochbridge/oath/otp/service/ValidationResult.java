@@ -0,0 +1,90 @@
+package com.lochbridge.oath.otp.service;
+
+/**
+ * An immutable class representing the outcome of a {@link ValidationService}
+ * validation request.
+ */
+public final class ValidationResult {
+
+    /**
+     * The status of a validation request.
+     */
+    public static enum Status {
+
+        /** The OTP value is valid. */
+        VALID,
+
+        /** The OTP value is invalid. */
+        INVALID,
+
+        /** The store holds no credential for the user. */
+        UNKNOWN_USER
+
+    }
+
+    private static final ValidationResult UNKNOWN_USER = new ValidationResult(Status.UNKNOWN_USER, 0, 0);
+
+    private final Status status;
+    private final long movingFactor;
+    private final int drift;
+
+    private ValidationResult(Status status, long movingFactor, int drift) {
+        this.status = status;
+        this.movingFactor = movingFactor;
+        this.drift = drift;
+    }
+
+    static ValidationResult valid(long movingFactor, int drift) {
+        return new ValidationResult(Status.VALID, movingFactor, drift);
+    }
+
+    static ValidationResult invalid(long movingFactor) {
+        return new ValidationResult(Status.INVALID, movingFactor, 0);
+    }
+
+    static ValidationResult unknownUser() {
+        return UNKNOWN_USER;
+    }
+
+    /**
+     * Returns the {@link Status} of the validation request.
+     *
+     * @return the {@link Status} of the validation request.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns {@code true} if the OTP value is valid, {@code false} otherwise.
+     *
+     * @return {@code true} if the OTP value is valid, {@code false} otherwise.
+     */
+    public boolean isValid() {
+        return status == Status.VALID;
+    }
+
+    /**
+     * Returns the moving factor of an HOTP credential after the validation
+     * request (0 for TOTP credentials, and unknown users). Upon successful
+     * validation, the {@link ValidationService} has already persisted this
+     * value to its {@link CredentialStore}.
+     *
+     * @return the moving factor of an HOTP credential after the validation request.
+     */
+    public long getMovingFactor() {
+        return movingFactor;
+    }
+
+    /**
+     * Returns the drift (in time steps) of the client of a TOTP credential upon
+     * successful validation (0 otherwise, and for HOTP credentials). See
+     * {@link com.lochbridge.oath.otp.TOTPValidationResult#getDrift()}.
+     *
+     * @return the drift (in time steps) of the client of a TOTP credential.
+     */
+    public int getDrift() {
+        return drift;
+    }
+
+}
@@ -0,0 +1,293 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Striped;
+import com.lochbridge.oath.otp.CoalescingHOTPValidator;
+import com.lochbridge.oath.otp.CoalescingTOTPValidator;
+import com.lochbridge.oath.otp.HOTPValidationResult;
+import com.lochbridge.oath.otp.TOTPValidationResult;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+
+/**
+ * A service that validates client submitted OTP values against the
+ * {@link Credential}s held by a (possibly blocking) {@link CredentialStore}.
+ * <p>
+ * Each validation request submitted via {@link #submit(String, String, String)}
+ * runs on its own virtual thread when the running Java runtime supports them
+ * (Java 21+), and on a bounded pool of platform threads otherwise. To keep
+ * virtual threads from pinning their carrier thread, the service never calls
+ * the {@link CredentialStore} while holding a monitor: HOTP (and TOTP)
+ * validations of the same user are serialized with striped
+ * {@link java.util.concurrent.locks.ReentrantLock}s instead, so that the moving
+ * factor (or last used time step) is read, validated and advanced atomically.
+ * If the store is an {@link AtomicCredentialStore} (possibly shared by several
+ * services), the moving factor is advanced with a compare-and-set, and a value
+ * another service accepted first is deemed invalid. Likewise, a TOTP value is
+ * only accepted if its time step is later than the last used one, which is
+ * then advanced with a compare-and-set (see
+ * {@link AtomicCredentialStore#compareAndSetLastUsedStep(String, long, long)}),
+ * so that it cannot be replayed while it is still within the validation window.
+ * Other stores record no time step: their TOTP validations are not serialized,
+ * nor protected against replays.
+ * The underlying validators keep no MAC state in thread-locals, so the
+ * per-request footprint stays small even with hundreds of thousands of pending
+ * validations.
+ * <p>
+ * Retried requests may carry a request ID, in which case they are answered
+ * with the original result (see {@link CoalescingHOTPValidator} and
+ * {@link CoalescingTOTPValidator}).
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * ValidationService service = ValidationServiceBuilder.fromStore(store).build();
+ * ListenableFuture&lt;ValidationResult&gt; result = service.submit(requestId, "alice", clientOTPValue);
+ * ...
+ * service.close();
+ * </pre>
+ */
+public final class ValidationService implements Closeable {
+
+    private final CredentialStore store;
+    private final CoalescingHOTPValidator hotpValidator;
+    private final CoalescingTOTPValidator totpValidator;
+    private final Striped<Lock> locks;
+    /**
+     * The last TOTP result accepted for each user, so that retries replayed that
+     * result (see {@link CoalescingTOTPValidator}) are answered alike. Held
+     * weakly: a result is only replayed while the TOTP validator retains it.
+     */
+    private final Cache<String, TOTPValidationResult> acceptedTOTPResults = CacheBuilder.newBuilder().weakValues().build();
+    private final ListeningExecutorService executor;
+    private final boolean ownsExecutor;
+
+    /**
+     * Creates a new instance of {@code ValidationService}. Note that all parameters
+     * are assumed to be valid since the {@link ValidationServiceBuilder} is responsible
+     * for validation, and creation of {@link ValidationService}s.
+     *
+     * @param store
+     *            the {@link CredentialStore}
+     * @param hotpValidator
+     *            the HOTP validator
+     * @param totpValidator
+     *            the TOTP validator
+     * @param lockStripes
+     *            the number of locks serializing HOTP (and TOTP) validations
+     * @param executor
+     *            the executor running submitted requests, or {@code null} to run them on virtual threads
+     */
+    ValidationService(CredentialStore store, CoalescingHOTPValidator hotpValidator, CoalescingTOTPValidator totpValidator, int lockStripes,
+            ExecutorService executor) {
+        this.store = store;
+        this.hotpValidator = hotpValidator;
+        this.totpValidator = totpValidator;
+        this.locks = Striped.lock(lockStripes);
+        this.ownsExecutor = executor == null;
+        this.executor = MoreExecutors.listeningDecorator(executor == null ? VirtualThreads.newExecutor() : executor);
+    }
+
+    /**
+     * Submits a validation request, and returns a future of its
+     * {@link ValidationResult}. The future fails with an {@link IOException}
+     * if the {@link CredentialStore} fails.
+     *
+     * @param requestId
+     *            the (optional) request ID used to answer retries (of the same user and value) idempotently, or {@code null}
+     * @param userId
+     *            the ID of the user
+     * @param value
+     *            the OTP value to validate
+     *
+     * @return a future of the {@link ValidationResult}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} or {@code value} is {@code null}.
+     * @throws java.util.concurrent.RejectedExecutionException
+     *             if this service has been closed.
+     */
+    public ListenableFuture<ValidationResult> submit(String requestId, String userId, String value) {
+        return submit(requestId, userId, null, value);
+    }
+
+    /**
+     * Submits a validation request for an OTP value of the specified type, and
+     * returns a future of its {@link ValidationResult}. The future fails with an
+     * {@link IOException} if the {@link CredentialStore} fails.
+     *
+     * @param requestId
+     *            the (optional) request ID used to answer retries (of the same user and value) idempotently, or {@code null}
+     * @param userId
+     *            the ID of the user
+     * @param type
+     *            the expected type of the user's credential, or {@code null} if any
+     * @param value
+     *            the OTP value to validate
+     *
+     * @return a future of the {@link ValidationResult}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} or {@code value} is {@code null}.
+     * @throws java.util.concurrent.RejectedExecutionException
+     *             if this service has been closed.
+     */
+    public ListenableFuture<ValidationResult> submit(final String requestId, final String userId, final OTPType type, final String value) {
+        Preconditions.checkNotNull(userId);
+        Preconditions.checkNotNull(value);
+        return executor.submit(new Callable<ValidationResult>() {
+            @Override
+            public ValidationResult call() throws IOException {
+                return validate(requestId, userId, type, value);
+            }
+        });
+    }
+
+    /**
+     * Validates the specified OTP {@code value} on the calling thread.
+     *
+     * @param requestId
+     *            the (optional) request ID used to answer retries (of the same user and value) idempotently, or {@code null}
+     * @param userId
+     *            the ID of the user
+     * @param value
+     *            the OTP value to validate
+     *
+     * @return the {@link ValidationResult}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} or {@code value} is {@code null}.
+     * @throws IOException
+     *             if the {@link CredentialStore} fails.
+     */
+    public ValidationResult validate(String requestId, String userId, String value) throws IOException {
+        return validate(requestId, userId, null, value);
+    }
+
+    /**
+     * Validates the specified OTP {@code value} of the specified type on the
+     * calling thread. If the user's credential is not of the specified type, the
+     * value is deemed invalid.
+     *
+     * @param requestId
+     *            the (optional) request ID used to answer retries (of the same user and value) idempotently, or {@code null}
+     * @param userId
+     *            the ID of the user
+     * @param type
+     *            the expected type of the user's credential, or {@code null} if any
+     * @param value
+     *            the OTP value to validate
+     *
+     * @return the {@link ValidationResult}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} or {@code value} is {@code null}.
+     * @throws IOException
+     *             if the {@link CredentialStore} fails.
+     */
+    public ValidationResult validate(String requestId, String userId, OTPType type, String value) throws IOException {
+        Preconditions.checkNotNull(userId);
+        Preconditions.checkNotNull(value);
+        Credential credential = store.load(userId);
+        if (credential == null) {
+            return ValidationResult.unknownUser();
+        }
+        if (type != null && type != credential.getType()) {
+            return ValidationResult.invalid(credential.getMovingFactor());
+        }
+        if (credential.isTOTP()) {
+            return validateTOTP(requestId, credential, value);
+        }
+        return validateHOTP(requestId, userId, value);
+    }
+
+    private ValidationResult validateTOTP(String requestId, Credential credential, String value) throws IOException {
+        if (!(store instanceof AtomicCredentialStore)) {
+            TOTPValidationResult result = validate(requestId, credential, value);
+            return result.isValid() ? ValidationResult.valid(0, result.getDrift()) : ValidationResult.invalid(0);
+        }
+        AtomicCredentialStore atomicStore = (AtomicCredentialStore) store;
+        String userId = credential.getUserId();
+        Lock lock = locks.get(userId);
+        lock.lock();
+        try {
+            TOTPValidationResult result = validate(requestId, credential, value);
+            if (!result.isValid()) {
+                return ValidationResult.invalid(0);
+            }
+            // A replayed (idempotent) result has already been recorded.
+            if (acceptedTOTPResults.getIfPresent(userId) != result) {
+                // The lock only covers this process: another node sharing the store may have used the time step first.
+                long lastUsedStep = atomicStore.getLastUsedStep(userId);
+                if (result.getTimeStepIndex() <= lastUsedStep
+                        || !atomicStore.compareAndSetLastUsedStep(userId, lastUsedStep, result.getTimeStepIndex())) {
+                    return ValidationResult.invalid(0);
+                }
+                acceptedTOTPResults.put(userId, result);
+            }
+            return ValidationResult.valid(0, result.getDrift());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TOTPValidationResult validate(String requestId, Credential credential, String value) {
+        return totpValidator.validate(requestId, credential.getUserId(), credential.getKey(), credential.getTimeStep(), credential.getDigits(),
+                credential.getHmacShaAlgorithm(), value, System.currentTimeMillis());
+    }
+
+    private ValidationResult validateHOTP(String requestId, String userId, String value) throws IOException {
+        Lock lock = locks.get(userId);
+        lock.lock();
+        try {
+            // Reload under the lock, since a concurrent validation may have advanced the moving factor.
+            Credential credential = store.load(userId);
+            if (credential == null) {
+                return ValidationResult.unknownUser();
+            }
+            HOTPValidationResult result = hotpValidator.validate(requestId, userId, credential.getKey(), credential.getMovingFactor(),
+                    credential.getDigits(), value);
+            if (!result.isValid()) {
+                return ValidationResult.invalid(credential.getMovingFactor());
+            }
+            // A replayed (idempotent) result has already been persisted.
+            if (result.getNewMovingFactor() > credential.getMovingFactor()) {
+                if (store instanceof AtomicCredentialStore) {
+                    // The lock only covers this process: another node sharing the store may have used the value first.
+                    if (!((AtomicCredentialStore) store).compareAndSetMovingFactor(userId, credential.getMovingFactor(), result.getNewMovingFactor())) {
+                        return ValidationResult.invalid(credential.getMovingFactor());
+                    }
+                } else {
+                    store.updateMovingFactor(userId, result.getNewMovingFactor());
+                }
+            }
+            return ValidationResult.valid(result.getNewMovingFactor(), 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes this service. Pending validation requests are completed, but no new
+     * requests are accepted. An executor supplied via
+     * {@link ValidationServiceBuilder#executor(ExecutorService)} is left running.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.lochbridge.oath.otp.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.CoalescingHOTPValidator;
+import com.lochbridge.oath.otp.CoalescingTOTPValidator;
+import com.lochbridge.oath.otp.HOTPValidator;
+import com.lochbridge.oath.otp.TOTPValidator;
+
+/**
+ * A class that creates {@link ValidationService}s.
+ * <p>
+ * Example:
+ * <pre>
+ * ValidationService service = ValidationServiceBuilder.fromStore(store)
+ *     .hotpValidator(HOTPValidator.lookAheadWindow(3))
+ *     .totpValidator(TOTPValidator.window(1))
+ *     .idempotencyTtl(30, TimeUnit.SECONDS)
+ *     .build();
+ * </pre>
+ */
+public final class ValidationServiceBuilder {
+
+    /** The default number of locks serializing HOTP (and TOTP) validations. */
+    public static final int DEFAULT_LOCK_STRIPES = 1024;
+
+    private final CredentialStore store;
+    private HOTPValidator hotpValidator = HOTPValidator.defaultLookAheadWindow();
+    private TOTPValidator totpValidator = TOTPValidator.defaultWindow();
+    private long idempotencyTtl = CoalescingHOTPValidator.DEFAULT_IDEMPOTENCY_TTL;
+    private int lockStripes = DEFAULT_LOCK_STRIPES;
+    private ExecutorService executor;
+
+    private ValidationServiceBuilder(CredentialStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Returns a new {@link ValidationServiceBuilder} instance initialized with the
+     * specified {@link CredentialStore}.
+     *
+     * @param store
+     *            the {@link CredentialStore}
+     *
+     * @return a new {@link ValidationServiceBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code store} is {@code null}.
+     */
+    public static ValidationServiceBuilder fromStore(CredentialStore store) {
+        Preconditions.checkNotNull(store);
+        return new ValidationServiceBuilder(store);
+    }
+
+    /**
+     * Returns this {@code ValidationServiceBuilder} instance initialized with the
+     * specified {@link HOTPValidator}. The default is {@link HOTPValidator#defaultLookAheadWindow()}.
+     *
+     * @param hotpValidator
+     *            the {@link HOTPValidator}
+     *
+     * @return this {@code ValidationServiceBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code hotpValidator} is {@code null}.
+     */
+    public ValidationServiceBuilder hotpValidator(HOTPValidator hotpValidator) {
+        this.hotpValidator = Preconditions.checkNotNull(hotpValidator);
+        return this;
+    }
+
+    /**
+     * Returns this {@code ValidationServiceBuilder} instance initialized with the
+     * specified {@link TOTPValidator}. The default is {@link TOTPValidator#defaultWindow()}.
+     *
+     * @param totpValidator
+     *            the {@link TOTPValidator}
+     *
+     * @return this {@code ValidationServiceBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code totpValidator} is {@code null}.
+     */
+    public ValidationServiceBuilder totpValidator(TOTPValidator totpValidator) {
+        this.totpValidator = Preconditions.checkNotNull(totpValidator);
+        return this;
+    }
+
+    /**
+     * Returns this {@code ValidationServiceBuilder} instance initialized with the
+     * specified amount of time results are retained under their request ID. The
+     * default is {@link CoalescingHOTPValidator#DEFAULT_IDEMPOTENCY_TTL} milliseconds.
+     *
+     * @param idempotencyTtl
+     *            the amount of time results are retained under their request ID
+     * @param unit
+     *            the unit of {@code idempotencyTtl}
+     *
+     * @return this {@code ValidationServiceBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code idempotencyTtl} is {@literal <} 0.
+     */
+    public ValidationServiceBuilder idempotencyTtl(long idempotencyTtl, TimeUnit unit) {
+        Preconditions.checkArgument(idempotencyTtl >= 0);
+        this.idempotencyTtl = unit.toMillis(idempotencyTtl);
+        return this;
+    }
+
+    /**
+     * Returns this {@code ValidationServiceBuilder} instance initialized with the
+     * specified number of locks serializing HOTP (and TOTP) validations (the
+     * validations of users mapping to the same lock never run concurrently). The
+     * default is {@link #DEFAULT_LOCK_STRIPES}.
+     *
+     * @param lockStripes
+     *            the number of locks
+     *
+     * @return this {@code ValidationServiceBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code lockStripes} is {@literal <} 1.
+     */
+    public ValidationServiceBuilder lockStripes(int lockStripes) {
+        Preconditions.checkArgument(lockStripes >= 1);
+        this.lockStripes = lockStripes;
+        return this;
+    }
+
+    /**
+     * Returns this {@code ValidationServiceBuilder} instance initialized with the
+     * specified {@link ExecutorService} running submitted validation requests. By
+     * default, each request runs on its own virtual thread (if supported by the
+     * running Java runtime).
+     *
+     * @param executor
+     *            the {@link ExecutorService}
+     *
+     * @return this {@code ValidationServiceBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code executor} is {@code null}.
+     */
+    public ValidationServiceBuilder executor(ExecutorService executor) {
+        this.executor = Preconditions.checkNotNull(executor);
+        return this;
+    }
+
+    /**
+     * Creates a {@link ValidationService} using this builder's configured parameters.
+     *
+     * @return a {@link ValidationService} using this builder's configured parameters.
+     */
+    public ValidationService build() {
+        return new ValidationService(store,
+                CoalescingHOTPValidator.from(hotpValidator, idempotencyTtl, TimeUnit.MILLISECONDS),
+                CoalescingTOTPValidator.from(totpValidator, idempotencyTtl, TimeUnit.MILLISECONDS),
+                lockStripes, executor);
+    }
+
+}
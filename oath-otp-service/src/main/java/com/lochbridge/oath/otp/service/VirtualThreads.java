@@ -0,0 +1,62 @@
+package com.lochbridge.oath.otp.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Provides access to virtual threads when running on a Java runtime that
+ * supports them (Java 21+), while allowing this module to be compiled for,
+ * and run on, the same Java 7 baseline as the rest of the toolkit.
+ */
+final class VirtualThreads {
+
+    /** The number of platform threads used when virtual threads are not available. */
+    static final int FALLBACK_POOL_SIZE = Math.max(64, Runtime.getRuntime().availableProcessors() * 8);
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookupNewVirtualThreadPerTaskExecutor();
+
+    private VirtualThreads() {
+    }
+
+    private static Method lookupNewVirtualThreadPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the running Java runtime supports virtual threads.
+     *
+     * @return {@code true} if the running Java runtime supports virtual threads.
+     */
+    static boolean isSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Returns an {@link ExecutorService} that starts a new virtual thread per
+     * task if the running Java runtime supports virtual threads, otherwise a
+     * fixed pool of {@link #FALLBACK_POOL_SIZE} daemon platform threads. In the
+     * latter case, pending tasks queue up (at the cost of a single small
+     * object each) until a platform thread becomes available.
+     *
+     * @return an {@link ExecutorService} suitable for running blocking tasks.
+     */
+    static ExecutorService newExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                // Fall through to the platform thread pool.
+            }
+        }
+        return Executors.newFixedThreadPool(FALLBACK_POOL_SIZE, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oath-validation-%d").build());
+    }
+
+}
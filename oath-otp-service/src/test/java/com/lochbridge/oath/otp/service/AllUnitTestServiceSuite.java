@@ -0,0 +1,13 @@
+package com.lochbridge.oath.otp.service;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith(Suite.class)
+@SuiteClasses({ TestCachingCredentialStore.class, TestCounterJournal.class, TestCredential.class, TestCredentialStoreSink.class, TestFrequencySketch.class,
+        TestJdbcCredentialStore.class, TestJournaledCredentialStore.class, TestLeasedCredentialStore.class, TestLeaseTable.class,
+        TestValidationService.class })
+public class AllUnitTestServiceSuite {
+
+}
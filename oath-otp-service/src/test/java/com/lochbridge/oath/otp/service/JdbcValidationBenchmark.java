@@ -0,0 +1,112 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import com.lochbridge.oath.otp.HOTP;
+
+/**
+ * A throughput benchmark of HOTP validations against an {@link InMemoryCredentialStore}
+ * and a {@link JdbcCredentialStore} backed by an embedded (in-memory) H2 database,
+ * and of the batch operations of the JDBC store. Each thread validates the next
+ * HOTP value of its own users, so every validation loads a credential and
+ * advances its moving factor with a compare-and-set.
+ * <p>
+ * Usage (from the {@code oath-otp-service} directory, after {@code mvn test-compile}):
+ * <pre>
+ * mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.lochbridge.oath.otp.service.JdbcValidationBenchmark -Dexec.args="[users] [threads] [seconds]"
+ * </pre>
+ */
+public final class JdbcValidationBenchmark {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    private JdbcValidationBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        List<Credential> credentials = new ArrayList<Credential>();
+        List<String> userIds = new ArrayList<String>();
+        for (int i = 0; i < users; i++) {
+            credentials.add(Credential.hotp("user" + i, KEY, 6, 0));
+            userIds.add("user" + i);
+        }
+
+        InMemoryCredentialStore memory = new InMemoryCredentialStore();
+        memory.saveAll(credentials);
+        run("in-memory", memory, users, threads, seconds);
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+        try (JdbcCredentialStore jdbc = JdbcCredentialStoreBuilder.fromDataSource(dataSource).poolSize(threads).createTable(true).build()) {
+            long start = System.nanoTime();
+            jdbc.saveAll(credentials);
+            report("jdbc saveAll", users, System.nanoTime() - start, "credentials");
+            start = System.nanoTime();
+            jdbc.loadAll(userIds);
+            report("jdbc loadAll", users, System.nanoTime() - start, "credentials");
+            run("jdbc (h2, in-memory)", jdbc, users, threads, seconds);
+        }
+    }
+
+    private static void run(String name, CredentialStore store, final int users, final int threads, int seconds) throws Exception {
+        // The values of the next few moving factors are computed up front, to measure the store rather than the HMACs.
+        final String[] values = new String[64];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = HOTP.key(KEY).movingFactor(i).build().value();
+        }
+        final ValidationService service = ValidationServiceBuilder.fromStore(store).build();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        long validations = 0;
+                        for (int round = 0; round < values.length && System.nanoTime() < deadline; round++) {
+                            for (int user = thread; user < users && System.nanoTime() < deadline; user += threads) {
+                                if (!service.validate(null, "user" + user, values[round]).isValid()) {
+                                    throw new IllegalStateException("Rejected a valid HOTP value of user" + user);
+                                }
+                                validations++;
+                            }
+                        }
+                        return validations;
+                    }
+                }));
+            }
+            long start = System.nanoTime();
+            long validations = 0;
+            for (Future<Long> future : futures) {
+                validations += future.get();
+            }
+            report(name, validations, System.nanoTime() - start, "validations");
+        } finally {
+            executor.shutdown();
+            service.close();
+        }
+    }
+
+    private static void report(String name, long count, long elapsedNanos, String unit) {
+        System.out.println(String.format(Locale.ROOT, "%-24s %10d %s in %6.0f ms  %10.0f %s/s", name, count, unit, elapsedNanos / 1e6,
+                count * 1e9 / elapsedNanos, unit));
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.lochbridge.oath.otp.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.lochbridge.oath.otp.service.LeaseTable.Lease;
+
+/**
+ * A process contending for partition 0 of a lease table: whenever it holds
+ * the lease, it increments a counter kept in a plain file (an unsafe
+ * read-modify-write, unless the lease excludes the other processes).
+ * <p>
+ * Arguments: the lease table path, the counter file path, the node ID, and
+ * the number of increments.
+ */
+public final class LeaseTableContender {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Path counter = Paths.get(args[1]);
+        long nodeId = Long.parseLong(args[2]);
+        int increments = Integer.parseInt(args[3]);
+        try (LeaseTable table = LeaseTable.open(Paths.get(args[0]), 1)) {
+            for (int i = 0; i < increments;) {
+                Lease lease = table.tryAcquire(0, nodeId, 5000);
+                if (lease == null) {
+                    Thread.sleep(1);
+                    continue;
+                }
+                long value = Long.parseLong(new String(Files.readAllBytes(counter), StandardCharsets.US_ASCII).trim());
+                Thread.sleep(1);
+                Files.write(counter, Long.toString(value + 1).getBytes(StandardCharsets.US_ASCII));
+                table.release(lease);
+                i++;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.lochbridge.oath.otp.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheStats;
+import com.lochbridge.oath.otp.HOTP;
+
+public class TestCachingCredentialStore {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ROTATED_KEY = "09876543210987654321".getBytes(StandardCharsets.US_ASCII);
+
+    private CountingStore underlying;
+    private FakeTicker ticker;
+
+    @Before
+    public void setUp() {
+        underlying = new CountingStore();
+        ticker = new FakeTicker();
+        for (int i = 0; i < 1000; i++) {
+            underlying.put(Credential.hotp("user" + i, KEY, 6, 0));
+        }
+    }
+
+    @Test
+    public void loadShouldReadThrough() throws IOException {
+        CachingCredentialStore store = CachingCredentialStoreBuilder.fromStore(underlying).build();
+        assertEquals(0, store.load("user1").getMovingFactor());
+        assertEquals(0, store.load("user1").getMovingFactor());
+        assertNull(store.load("nobody"));
+        assertEquals(2, underlying.loads.get());
+
+        CacheStats stats = store.getStats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(2, stats.missCount());
+        assertEquals(2, stats.loadSuccessCount());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void updateMovingFactorShouldWriteThrough() throws IOException {
+        CachingCredentialStore store = CachingCredentialStoreBuilder.fromStore(underlying).build();
+        ValidationService service = ValidationServiceBuilder.fromStore(store).build();
+        try {
+            for (int movingFactor = 0; movingFactor < 10; movingFactor++) {
+                assertTrue(service.validate(null, "user1", HOTP.key(KEY).movingFactor(movingFactor).build().value()).isValid());
+            }
+        } finally {
+            service.close();
+        }
+        assertEquals(10, underlying.load("user1").getMovingFactor());
+        assertEquals(10, store.load("user1").getMovingFactor());
+        // Loaded once by the validation service, not once per validation.
+        assertEquals(2, underlying.loads.get());
+    }
+
+    @Test
+    public void saveShouldInvalidateTheCachedKey() throws IOException {
+        CachingCredentialStore store = CachingCredentialStoreBuilder.fromStore(underlying).build();
+        store.load("user1");
+        store.save(Credential.hotp("user1", ROTATED_KEY, 6, 0));
+        assertArrayEquals(ROTATED_KEY, store.load("user1").getKey());
+    }
+
+    @Test
+    public void invalidateShouldDiscardTheCachedKey() throws IOException {
+        CachingCredentialStore store = CachingCredentialStoreBuilder.fromStore(underlying).build();
+        store.load("user1");
+        store.load("user2");
+        // Rotated behind the cache's back.
+        underlying.put(Credential.hotp("user1", ROTATED_KEY, 6, 0));
+        assertArrayEquals(KEY, store.load("user1").getKey());
+        store.invalidate("user1");
+        assertArrayEquals(ROTATED_KEY, store.load("user1").getKey());
+
+        store.invalidateAll();
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void credentialsShouldExpireAfterWrite() throws IOException {
+        CachingCredentialStore store = CachingCredentialStoreBuilder.fromStore(underlying).expireAfterWrite(1, TimeUnit.MINUTES).ticker(ticker).build();
+        store.load("user1");
+        ticker.advance(59, TimeUnit.SECONDS);
+        store.load("user1");
+        assertEquals(1, underlying.loads.get());
+        ticker.advance(1, TimeUnit.SECONDS);
+        store.load("user1");
+        assertEquals(2, underlying.loads.get());
+    }
+
+    @Test
+    public void sizeShouldNeverExceedTheMaximum() throws IOException {
+        CachingCredentialStore store = CachingCredentialStoreBuilder.fromStore(underlying).maximumSize(100).build();
+        for (int i = 0; i < 1000; i++) {
+            store.load("user" + i);
+        }
+        assertEquals(100, store.size());
+        assertEquals(900, store.getStats().evictionCount());
+    }
+
+    @Test
+    public void aScanShouldNotFlushTheHotSet() throws IOException {
+        CachingCredentialStore store = CachingCredentialStoreBuilder.fromStore(underlying).maximumSize(100).build();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                store.load("user" + i);
+            }
+        }
+        // A scan of cold users, each accessed once.
+        for (int i = 100; i < 1000; i++) {
+            store.load("user" + i);
+        }
+        int loads = underlying.loads.get();
+        for (int i = 0; i < 50; i++) {
+            store.load("user" + i);
+        }
+        assertEquals(loads, underlying.loads.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maximumSizeShouldBePositive() {
+        CachingCredentialStoreBuilder.fromStore(underlying).maximumSize(0);
+    }
+
+    private static final class CountingStore implements CredentialStore {
+
+        private final InMemoryCredentialStore store = new InMemoryCredentialStore();
+        private final AtomicInteger loads = new AtomicInteger();
+
+        void put(Credential credential) {
+            store.put(credential);
+        }
+
+        @Override
+        public Credential load(String userId) {
+            loads.incrementAndGet();
+            return store.load(userId);
+        }
+
+        @Override
+        public void save(Credential credential) {
+            store.save(credential);
+        }
+
+        @Override
+        public void updateMovingFactor(String userId, long movingFactor) {
+            store.updateMovingFactor(userId, movingFactor);
+        }
+
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private final AtomicLong nanos = new AtomicLong();
+
+        void advance(long duration, TimeUnit unit) {
+            nanos.addAndGet(unit.toNanos(duration));
+        }
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+    }
+
+}
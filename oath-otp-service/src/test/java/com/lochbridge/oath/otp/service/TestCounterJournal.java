@@ -0,0 +1,218 @@
+package com.lochbridge.oath.otp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestCounterJournal {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private CounterJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.getRoot().toPath().resolve("journal");
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    public void appendedMovingFactorsShouldBeRecovered() throws IOException {
+        assertTrue(journal.getRecoveredMovingFactors().isEmpty());
+        journal.append("alice", 1);
+        journal.append("bob", 10);
+        journal.append("alice", 2);
+        journal.close();
+
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        Map<String, Long> recovered = journal.getRecoveredMovingFactors();
+        assertEquals(2, recovered.size());
+        assertEquals(Long.valueOf(2), recovered.get("alice"));
+        assertEquals(Long.valueOf(10), recovered.get("bob"));
+    }
+
+    @Test
+    public void appendAllShouldMakeABatchDurableInOneGroupCommit() throws IOException {
+        Map<String, Long> movingFactors = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < 100; i++) {
+            movingFactors.put("user" + i, (long) i);
+        }
+        journal.appendAll(movingFactors);
+        assertEquals(100, journal.getAppendCount());
+        assertEquals(1, journal.getSyncCount());
+        journal.close();
+
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        assertEquals(movingFactors, journal.getRecoveredMovingFactors());
+    }
+
+    @Test
+    public void concurrentAppendsShouldShareGroupCommits() throws Exception {
+        journal.close();
+        journal = CounterJournalBuilder.fromDirectory(directory).maxBatchRecords(8).maxBatchDelay(50, TimeUnit.MILLISECONDS).build();
+        int threads = 8;
+        final int appends = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                final String userId = "user" + t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for (int i = 1; i <= appends; i++) {
+                            journal.append(userId, i);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(threads * appends, journal.getAppendCount());
+        assertTrue("syncs: " + journal.getSyncCount(), journal.getSyncCount() < journal.getAppendCount());
+        journal.close();
+
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        for (int t = 0; t < threads; t++) {
+            assertEquals(Long.valueOf(appends), journal.getRecoveredMovingFactors().get("user" + t));
+        }
+    }
+
+    @Test
+    public void recoveryShouldDropATornRecord() throws IOException {
+        journal.append("alice", 1);
+        journal.append("alice", 2);
+        journal.close();
+        Path file = CounterJournal.journalPath(directory, 1);
+        long size = Files.size(file);
+        // A crash in the middle of the next record.
+        Files.write(file, new byte[] { 0x12, 0x34, 0x56, 0x78, 0, 5, 'a', 'l' }, StandardOpenOption.APPEND);
+
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        assertEquals(Long.valueOf(2), journal.getRecoveredMovingFactors().get("alice"));
+        assertEquals(size, Files.size(file));
+    }
+
+    @Test
+    public void recoveryShouldDropACorruptRecord() throws IOException {
+        journal.append("alice", 1);
+        journal.append("alice", 2);
+        journal.close();
+        Path file = CounterJournal.journalPath(directory, 1);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        assertEquals(Long.valueOf(1), journal.getRecoveredMovingFactors().get("alice"));
+    }
+
+    @Test
+    public void compactShouldFoldTheJournalIntoTheSnapshot() throws Exception {
+        journal.append("alice", 1);
+        journal.append("bob", 7);
+        journal.compact().get(30, TimeUnit.SECONDS);
+        journal.append("alice", 3);
+        assertEquals(1, countJournals());
+        assertTrue(Files.exists(directory.resolve(CounterJournal.SNAPSHOT_FILE)));
+
+        journal.compact().get(30, TimeUnit.SECONDS);
+        journal.close();
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        assertEquals(Long.valueOf(3), journal.getRecoveredMovingFactors().get("alice"));
+        assertEquals(Long.valueOf(7), journal.getRecoveredMovingFactors().get("bob"));
+    }
+
+    @Test
+    public void journalsLargerThanTheThresholdShouldBeCompacted() throws Exception {
+        journal.close();
+        journal = CounterJournalBuilder.fromDirectory(directory).compactionThreshold(64).maxBatchDelay(0, TimeUnit.MICROSECONDS).build();
+        for (int i = 0; i < 100; i++) {
+            journal.append("alice", i);
+        }
+        journal.compact().get(30, TimeUnit.SECONDS);
+        assertEquals(1, countJournals());
+        journal.close();
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        assertEquals(Long.valueOf(99), journal.getRecoveredMovingFactors().get("alice"));
+    }
+
+    @Test
+    public void journalsAlreadyFoldedShouldBeDeletedOnRecovery() throws Exception {
+        journal.append("alice", 1);
+        journal.close();
+        // Keep a copy of the first journal, as if the compaction had crashed before deleting it.
+        Path copy = folder.getRoot().toPath().resolve("copy");
+        Files.copy(CounterJournal.journalPath(directory, 1), copy);
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        journal.compact().get(30, TimeUnit.SECONDS);
+        journal.close();
+        Files.copy(copy, CounterJournal.journalPath(directory, 1));
+
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        assertFalse(Files.exists(CounterJournal.journalPath(directory, 1)));
+        assertEquals(Long.valueOf(1), journal.getRecoveredMovingFactors().get("alice"));
+    }
+
+    @Test(expected = IOException.class)
+    public void appendShouldFailOnceClosed() throws IOException {
+        journal.close();
+        journal.append("alice", 1);
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void compactShouldFailOnceClosed() throws Exception {
+        journal.close();
+        journal.compact().get();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void appendShouldRejectNegativeMovingFactors() throws IOException {
+        journal.append("alice", -1);
+    }
+
+    private int countJournals() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.journal")) {
+            for (@SuppressWarnings("unused") Path path : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
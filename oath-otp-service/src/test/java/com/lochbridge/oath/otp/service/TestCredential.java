@@ -0,0 +1,71 @@
+package com.lochbridge.oath.otp.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+
+public class TestCredential {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final long TIME_STEP = TimeUnit.SECONDS.toMillis(30);
+
+    @Test
+    public void hotpShouldSucceed() {
+        Credential credential = Credential.hotp("alice", KEY, 6, 5);
+        assertEquals("alice", credential.getUserId());
+        assertTrue(credential.isHOTP());
+        assertFalse(credential.isTOTP());
+        assertArrayEquals(KEY, credential.getKey());
+        assertEquals(HmacShaAlgorithm.HMAC_SHA_1, credential.getHmacShaAlgorithm());
+        assertEquals(6, credential.getDigits());
+        assertEquals(5, credential.getMovingFactor());
+        assertEquals(7, credential.withMovingFactor(7).getMovingFactor());
+    }
+
+    @Test
+    public void totpShouldSucceed() {
+        Credential credential = Credential.totp("alice", KEY, HmacShaAlgorithm.HMAC_SHA_256, 8, TIME_STEP);
+        assertTrue(credential.isTOTP());
+        assertEquals(HmacShaAlgorithm.HMAC_SHA_256, credential.getHmacShaAlgorithm());
+        assertEquals(8, credential.getDigits());
+        assertEquals(TIME_STEP, credential.getTimeStep());
+    }
+
+    @Test
+    public void getKeyShouldReturnADefensiveCopy() {
+        byte[] key = KEY.clone();
+        Credential credential = Credential.hotp("alice", key, 6, 0);
+        key[0] = 0;
+        credential.getKey()[1] = 0;
+        assertArrayEquals(KEY, credential.getKey());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void hotpShouldFailWhenUserIdArgumentIsNull() {
+        Credential.hotp(null, KEY, 6, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hotpShouldFailWhenDigitsArgumentIsOutOfRange() {
+        Credential.hotp("alice", KEY, 9, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void totpShouldFailWhenTimeStepArgumentIsNotPositive() {
+        Credential.totp("alice", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void withMovingFactorShouldFailForTOTPCredentials() {
+        Credential.totp("alice", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP).withMovingFactor(1);
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.lochbridge.oath.otp.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.BaseEncoding;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIImporter;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIImporterBuilder;
+
+public class TestCredentialStoreSink {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final String SECRET = BaseEncoding.base32().omitPadding().encode(KEY);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected = NullPointerException.class)
+    public void constructorShouldFailWhenStoreIsNull() {
+        new CredentialStoreSink(null);
+    }
+
+    @Test
+    public void toCredentialShouldMapHotpUris() {
+        Credential credential = CredentialStoreSink.toCredential(
+                OTPAuthURI.parse("otpauth://hotp/Acme:%20alice?secret=" + SECRET + "&issuer=Acme&digits=8&counter=42"));
+        assertEquals("alice", credential.getUserId());
+        assertTrue(credential.isHOTP());
+        assertArrayEquals(KEY, credential.getKey());
+        assertEquals(8, credential.getDigits());
+        assertEquals(42, credential.getMovingFactor());
+    }
+
+    @Test
+    public void toCredentialShouldMapTotpUris() {
+        Credential credential = CredentialStoreSink.toCredential(OTPAuthURI.parse("otpauth://totp/bob?secret=" + SECRET + "&digits=6&period=60"));
+        assertEquals("bob", credential.getUserId());
+        assertTrue(credential.isTOTP());
+        assertEquals(HmacShaAlgorithm.HMAC_SHA_1, credential.getHmacShaAlgorithm());
+        assertEquals(TimeUnit.SECONDS.toMillis(60), credential.getTimeStep());
+    }
+
+    @Test
+    public void importShouldSaveIntoAnAtomicStore() throws IOException {
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        OTPAuthURIImporter.Result result = OTPAuthURIImporterBuilder.fromSink(new CredentialStoreSink(store)).chunkSize(256).build()
+                .importFile(write(100).toPath());
+        assertEquals(100, result.getImported());
+        for (int i = 0; i < 100; i++) {
+            Credential credential = store.load("user" + i);
+            assertArrayEquals(KEY, credential.getKey());
+            assertEquals(i, credential.getMovingFactor());
+        }
+    }
+
+    @Test
+    public void importShouldSaveIntoAPlainStore() throws IOException {
+        final List<String> saved = new ArrayList<String>();
+        CredentialStore store = new CredentialStore() {
+            @Override
+            public Credential load(String userId) {
+                return null;
+            }
+
+            @Override
+            public void save(Credential credential) {
+                saved.add(credential.getUserId());
+            }
+
+            @Override
+            public void updateMovingFactor(String userId, long movingFactor) {
+            }
+        };
+        OTPAuthURIImporterBuilder.fromSink(new CredentialStoreSink(store)).build().importFile(write(3).toPath());
+        assertEquals(Arrays.asList("user0", "user1", "user2"), saved);
+    }
+
+    private File write(int count) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("otpauth://hotp/Acme:user").append(i).append("?secret=").append(SECRET).append("&issuer=Acme&digits=6&counter=").append(i)
+                    .append('\n');
+        }
+        File file = folder.newFile();
+        Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.lochbridge.oath.otp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestFrequencySketch {
+
+    @Test
+    public void frequencyShouldCountIncrements() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        assertEquals(0, sketch.frequency("alice"));
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("alice");
+        }
+        assertEquals(5, sketch.frequency("alice"));
+    }
+
+    @Test
+    public void frequencyShouldSaturate() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("alice");
+        }
+        assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency("alice"));
+    }
+
+    @Test
+    public void frequenciesShouldBeHalvedOnceTheSampleSizeIsReached() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int i = 0; i < 10; i++) {
+            sketch.increment("alice");
+        }
+        // Ten times the maximum size of distinct increments trigger the aging.
+        for (int i = 0; i < 640; i++) {
+            sketch.increment("user" + i);
+        }
+        assertTrue("frequency: " + sketch.frequency("alice"), sketch.frequency("alice") <= 5);
+    }
+
+}
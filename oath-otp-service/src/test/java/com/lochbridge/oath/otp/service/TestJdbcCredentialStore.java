@@ -0,0 +1,318 @@
+package com.lochbridge.oath.otp.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lochbridge.oath.otp.HOTP;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+
+public class TestJdbcCredentialStore {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final long TIME_STEP = TimeUnit.SECONDS.toMillis(30);
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private JdbcDataSource dataSource;
+    private JdbcCredentialStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:credentials" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+        store = JdbcCredentialStoreBuilder.fromDataSource(dataSource).createTable(true).build();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void savedCredentialsShouldBeLoaded() throws IOException {
+        assertNull(store.load("alice"));
+        store.save(Credential.hotp("alice", KEY, 8, 5));
+        store.save(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_256, 6, TIME_STEP));
+
+        Credential alice = store.load("alice");
+        assertTrue(alice.isHOTP());
+        assertArrayEquals(KEY, alice.getKey());
+        assertEquals(8, alice.getDigits());
+        assertEquals(5, alice.getMovingFactor());
+        Credential bob = store.load("bob");
+        assertTrue(bob.isTOTP());
+        assertEquals(HmacShaAlgorithm.HMAC_SHA_256, bob.getHmacShaAlgorithm());
+        assertEquals(TIME_STEP, bob.getTimeStep());
+
+        // Saving again replaces the credential.
+        store.save(Credential.totp("alice", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP));
+        assertTrue(store.load("alice").isTOTP());
+    }
+
+    @Test
+    public void movingFactorsShouldBeUpdated() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        store.updateMovingFactor("alice", 5);
+        assertEquals(5, store.load("alice").getMovingFactor());
+        assertFalse(store.compareAndSetMovingFactor("alice", 4, 6));
+        assertTrue(store.compareAndSetMovingFactor("alice", 5, 6));
+        assertEquals(6, store.load("alice").getMovingFactor());
+    }
+
+    @Test
+    public void lastUsedStepsShouldBeUpdated() throws IOException {
+        store.save(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP));
+        assertEquals(-1, store.getLastUsedStep("bob"));
+        assertTrue(store.compareAndSetLastUsedStep("bob", -1, 1000));
+        assertFalse(store.compareAndSetLastUsedStep("bob", -1, 1001));
+        assertEquals(1000, store.getLastUsedStep("bob"));
+
+        // Replacing the credential resets its last used step.
+        store.save(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP));
+        assertEquals(-1, store.getLastUsedStep("bob"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateMovingFactorShouldFailForUnknownUsers() throws IOException {
+        store.updateMovingFactor("carol", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compareAndSetMovingFactorShouldFailForTOTPCredentials() throws IOException {
+        store.save(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP));
+        store.compareAndSetMovingFactor("bob", 0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lastUsedStepShouldOnlyBeKeptForTOTPCredentials() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        store.getLastUsedStep("alice");
+    }
+
+    @Test
+    public void batchOperationsShouldSpanSeveralQueries() throws IOException {
+        int count = JdbcCredentialStore.LOAD_BATCH_SIZE * 2 + 3;
+        List<Credential> credentials = new ArrayList<Credential>();
+        List<String> userIds = new ArrayList<String>();
+        Map<String, Long> movingFactors = new HashMap<String, Long>();
+        for (int i = 0; i < count; i++) {
+            credentials.add(Credential.hotp("user" + i, KEY, 6, 0));
+            userIds.add("user" + i);
+            movingFactors.put("user" + i, (long) i);
+        }
+        store.saveAll(credentials);
+        movingFactors.put("nobody", 1L);
+        store.updateMovingFactors(movingFactors);
+
+        userIds.add("nobody");
+        Map<String, Credential> loaded = store.loadAll(userIds);
+        assertEquals(count, loaded.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, loaded.get("user" + i).getMovingFactor());
+        }
+        assertTrue(store.loadAll(Collections.<String> emptyList()).isEmpty());
+    }
+
+    @Test
+    public void saveAllShouldKeepTheLastCredentialOfAUser() throws IOException {
+        store.saveAll(Arrays.asList(Credential.hotp("alice", KEY, 6, 1), Credential.hotp("alice", KEY, 6, 2)));
+        assertEquals(2, store.load("alice").getMovingFactor());
+    }
+
+    @Test
+    public void aFailedBatchShouldBeRolledBack() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        Credential tooLong = Credential.hotp("bob", new byte[256], 6, 0);
+        try {
+            store.saveAll(Arrays.asList(Credential.hotp("alice", KEY, 6, 9), tooLong));
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertEquals(0, store.load("alice").getMovingFactor());
+        assertNull(store.load("bob"));
+    }
+
+    @Test
+    public void aFailedBatchShouldBeRolledBackBeforeItsConnectionIsReturnedToAPool() throws Exception {
+        store.close();
+        final Connection pooled = dataSource.getConnection();
+        try {
+            // Like a pool, hands the same connection out again once "closed", without rolling it back.
+            final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            return method.getName().equals("close") ? null : delegate(pooled, method, args);
+                        }
+                    });
+            DataSource pool = (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            return method.getName().equals("getConnection") ? connection : delegate(dataSource, method, args);
+                        }
+                    });
+            store = JdbcCredentialStoreBuilder.fromDataSource(pool).poolSize(1).build();
+            try {
+                store.saveAll(Arrays.asList(Credential.hotp("alice", KEY, 6, 9), Credential.hotp("bob", new byte[256], 6, 0)));
+                fail("The key of bob is too long");
+            } catch (IOException e) {
+                // Expected.
+            }
+            // Committed on the same connection.
+            store.save(Credential.hotp("carol", KEY, 6, 0));
+            assertNull(store.load("alice"));
+            assertNull(store.load("bob"));
+        } finally {
+            pooled.close();
+        }
+    }
+
+    private static Object delegate(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Test
+    public void connectionsShouldBeReused() throws Exception {
+        store.close();
+        store = JdbcCredentialStoreBuilder.fromDataSource(dataSource).poolSize(2).build();
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        final AtomicInteger failures = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for (int i = 0; i < 50; i++) {
+                            if (store.load("alice") == null) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0, failures.get());
+    }
+
+    @Test
+    public void failedCallsShouldNotStarveWaitingCalls() throws Exception {
+        store.close();
+        store = JdbcCredentialStoreBuilder.fromDataSource(dataSource).poolSize(1).build();
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        for (int i = 0; i < 50; i++) {
+                            try {
+                                // Fails, so its connection is discarded rather than returned.
+                                store.save(Credential.hotp("bob", new byte[256], 6, 0));
+                            } catch (IOException e) {
+                                // Expected.
+                            }
+                            store.load("alice");
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void callsShouldFailOnceClosed() throws IOException {
+        store.close();
+        store.load("alice");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tableNameShouldBeAnIdentifier() {
+        JdbcCredentialStoreBuilder.fromDataSource(dataSource).tableName("otp; DROP TABLE otp");
+    }
+
+    @Test
+    public void servicesSharingTheStoreShouldAcceptAnHOTPValueOnce() throws Exception {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        final String value = HOTP.key(KEY).movingFactor(0).build().value();
+        int nodes = 4;
+        List<ValidationService> services = new ArrayList<ValidationService>();
+        ExecutorService executor = Executors.newFixedThreadPool(nodes);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+            for (int n = 0; n < nodes; n++) {
+                // One service per node, each with its own locks.
+                final ValidationService service = ValidationServiceBuilder.fromStore(store).build();
+                services.add(service);
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException {
+                        return service.validate(null, "alice", value).isValid();
+                    }
+                }));
+            }
+            int accepted = 0;
+            for (Future<Boolean> future : futures) {
+                accepted += future.get(30, TimeUnit.SECONDS) ? 1 : 0;
+            }
+            assertEquals(1, accepted);
+            assertEquals(1, store.load("alice").getMovingFactor());
+        } finally {
+            executor.shutdown();
+            for (ValidationService service : services) {
+                service.close();
+            }
+        }
+    }
+
+}
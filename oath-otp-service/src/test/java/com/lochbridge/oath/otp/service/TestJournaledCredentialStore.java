@@ -0,0 +1,113 @@
+package com.lochbridge.oath.otp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lochbridge.oath.otp.HOTP;
+
+public class TestJournaledCredentialStore {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private CounterJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.getRoot().toPath().resolve("journal");
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+    }
+
+    @Test
+    public void movingFactorsShouldSurviveARestart() throws IOException {
+        InMemoryCredentialStore delegate = new InMemoryCredentialStore().put(Credential.hotp("alice", KEY, 6, 5));
+        ValidationService service = ValidationServiceBuilder.fromStore(JournaledCredentialStore.from(delegate, journal)).build();
+        try {
+            assertTrue(service.validate(null, "alice", HOTP.key(KEY).movingFactor(6).build().value()).isValid());
+        } finally {
+            service.close();
+        }
+        assertEquals(7, delegate.load("alice").getMovingFactor());
+        journal.close();
+
+        // The credentials are reloaded from their original source, with stale moving factors.
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        InMemoryCredentialStore reloaded = new InMemoryCredentialStore().put(Credential.hotp("alice", KEY, 6, 5));
+        CredentialStore store = JournaledCredentialStore.from(reloaded, journal);
+        assertEquals(7, store.load("alice").getMovingFactor());
+    }
+
+    @Test
+    public void recoveryShouldNeverMoveAMovingFactorBackwards() throws IOException {
+        InMemoryCredentialStore delegate = new InMemoryCredentialStore().put(Credential.hotp("alice", KEY, 6, 5));
+        JournaledCredentialStore.from(delegate, journal).updateMovingFactor("alice", 7);
+        journal.close();
+
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        InMemoryCredentialStore reloaded = new InMemoryCredentialStore()
+            .put(Credential.hotp("alice", KEY, 6, 9))
+            .put(Credential.hotp("bob", KEY, 6, 0));
+        JournaledCredentialStore.from(reloaded, journal);
+        assertEquals(9, reloaded.load("alice").getMovingFactor());
+        assertEquals(0, reloaded.load("bob").getMovingFactor());
+    }
+
+    @Test
+    public void reenrolledCredentialsShouldNotBeRaisedToTheJournaledMovingFactor() throws IOException {
+        InMemoryCredentialStore delegate = new InMemoryCredentialStore().put(Credential.hotp("alice", KEY, 6, 5));
+        JournaledCredentialStore store = JournaledCredentialStore.from(delegate, journal);
+        store.updateMovingFactor("alice", 40);
+        // Alice re-enrolls with a new key, and bob is enrolled in bulk.
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        store.saveAll(Arrays.asList(Credential.hotp("bob", KEY, 6, 3)));
+        journal.close();
+
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        InMemoryCredentialStore reloaded = new InMemoryCredentialStore()
+            .put(Credential.hotp("alice", KEY, 6, 0))
+            .put(Credential.hotp("bob", KEY, 6, 3));
+        JournaledCredentialStore.from(reloaded, journal);
+        assertEquals(0, reloaded.load("alice").getMovingFactor());
+        assertEquals(3, reloaded.load("bob").getMovingFactor());
+    }
+
+    @Test
+    public void atomicOperationsShouldBeJournaledAndDelegated() throws IOException {
+        InMemoryCredentialStore delegate = new InMemoryCredentialStore()
+            .put(Credential.hotp("alice", KEY, 6, 5))
+            .put(Credential.hotp("bob", KEY, 6, 0));
+        JournaledCredentialStore store = JournaledCredentialStore.from(delegate, journal);
+        assertTrue(store.compareAndSetMovingFactor("alice", 5, 6));
+        assertFalse(store.compareAndSetMovingFactor("alice", 5, 7));
+        store.updateMovingFactors(Collections.singletonMap("bob", 2L));
+        assertEquals(6, store.loadAll(Arrays.asList("alice", "bob")).get("alice").getMovingFactor());
+        assertEquals(2, delegate.load("bob").getMovingFactor());
+        journal.close();
+
+        journal = CounterJournalBuilder.fromDirectory(directory).build();
+        assertEquals(Long.valueOf(7), journal.getRecoveredMovingFactors().get("alice"));
+        assertEquals(Long.valueOf(2), journal.getRecoveredMovingFactors().get("bob"));
+    }
+
+}
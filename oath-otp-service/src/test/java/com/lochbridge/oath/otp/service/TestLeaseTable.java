@@ -0,0 +1,129 @@
+package com.lochbridge.oath.otp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lochbridge.oath.otp.service.LeaseTable.Lease;
+
+public class TestLeaseTable {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+    private LeaseTable table;
+
+    @Before
+    public void setUp() throws IOException {
+        path = folder.getRoot().toPath().resolve("leases");
+        table = LeaseTable.open(path, 16);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        table.close();
+    }
+
+    @Test
+    public void tryAcquireShouldExcludeOtherNodes() throws IOException {
+        Lease lease = table.tryAcquire(3, 1, 10000);
+        assertNotNull(lease);
+        assertEquals(1, lease.getOwner());
+        assertEquals(1, lease.getToken());
+        assertNull(table.tryAcquire(3, 2, 10000));
+        assertNotNull(table.tryAcquire(4, 2, 10000));
+
+        // Re-acquiring an unexpired lease extends it, with the same token.
+        Lease extended = table.tryAcquire(3, 1, 20000);
+        assertEquals(1, extended.getToken());
+        assertTrue(extended.getExpiry() > lease.getExpiry());
+        assertEquals(extended.getExpiry(), table.getLease(3).getExpiry());
+    }
+
+    @Test
+    public void expiredLeasesShouldChangeHandsWithANewToken() throws Exception {
+        Lease lease = table.tryAcquire(0, 1, 20);
+        Thread.sleep(50);
+        Lease taken = table.tryAcquire(0, 2, 10000);
+        assertNotNull(taken);
+        assertEquals(lease.getToken() + 1, taken.getToken());
+        assertNull(table.renew(lease, 10000));
+        assertFalse(table.release(lease));
+        assertEquals(2, table.getLease(0).getOwner());
+    }
+
+    @Test
+    public void renewShouldExtendALapsedLeaseNobodyTook() throws Exception {
+        Lease lease = table.tryAcquire(0, 1, 20);
+        Thread.sleep(50);
+        Lease renewed = table.renew(lease, 10000);
+        assertNotNull(renewed);
+        assertEquals(lease.getToken(), renewed.getToken());
+        assertNull(table.tryAcquire(0, 2, 10000));
+    }
+
+    @Test
+    public void releaseShouldLetOtherNodesAcquire() throws IOException {
+        Lease lease = table.tryAcquire(0, 1, 10000);
+        assertTrue(table.release(lease));
+        assertEquals(0, table.getLease(0).getOwner());
+        Lease taken = table.tryAcquire(0, 2, 10000);
+        assertEquals(lease.getToken() + 1, taken.getToken());
+    }
+
+    @Test
+    public void leasesShouldSurviveReopening() throws IOException {
+        table.tryAcquire(5, 1, 10000);
+        table.close();
+        table = LeaseTable.open(path, 16);
+        assertEquals(1, table.getLease(5).getOwner());
+        assertNull(table.tryAcquire(5, 2, 10000));
+    }
+
+    @Test(expected = IOException.class)
+    public void openShouldRejectADifferentNumberOfPartitions() throws IOException {
+        LeaseTable.open(path, 32).close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tryAcquireShouldRejectANodeIdOfZero() throws IOException {
+        table.tryAcquire(0, 0, 10000);
+    }
+
+    @Test
+    public void leasesShouldExcludeOtherProcesses() throws Exception {
+        Path shared = folder.getRoot().toPath().resolve("contended");
+        Path counter = folder.getRoot().toPath().resolve("counter");
+        Files.write(counter, "0".getBytes(StandardCharsets.US_ASCII));
+        int processes = 2;
+        int increments = 50;
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> contenders = new ArrayList<Process>();
+        for (int i = 1; i <= processes; i++) {
+            contenders.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), LeaseTableContender.class.getName(),
+                    shared.toString(), counter.toString(), Integer.toString(i), Integer.toString(increments)).inheritIO().start());
+        }
+        for (Process contender : contenders) {
+            assertEquals(0, contender.waitFor());
+        }
+        assertEquals(Integer.toString(processes * increments), new String(Files.readAllBytes(counter), StandardCharsets.US_ASCII));
+    }
+
+}
@@ -0,0 +1,217 @@
+package com.lochbridge.oath.otp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lochbridge.oath.otp.HOTP;
+
+public class TestLeasedCredentialStore {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CountingStore shared;
+    private LeaseTable table;
+
+    @Before
+    public void setUp() throws IOException {
+        shared = new CountingStore();
+        shared.put(Credential.hotp("alice", KEY, 6, 5));
+        table = LeaseTable.open(folder.getRoot().toPath().resolve("leases"), 8);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        table.close();
+    }
+
+    @Test
+    public void movingFactorsShouldBeWrittenBackAsynchronously() throws IOException {
+        LeasedCredentialStore store = newStore(1, TimeUnit.HOURS.toMillis(1));
+        ValidationService service = ValidationServiceBuilder.fromStore(store).build();
+        try {
+            for (int movingFactor = 5; movingFactor < 25; movingFactor++) {
+                String value = HOTP.key(KEY).movingFactor(movingFactor).build().value();
+                assertTrue(service.validate(null, "alice", value).isValid());
+            }
+        } finally {
+            service.close();
+        }
+        assertTrue("updates: " + shared.updates.get(), shared.updates.get() < 20);
+        store.close();
+        assertEquals(25, shared.load("alice").getMovingFactor());
+        assertEquals(0, table.getLease(store.partition("alice")).getOwner());
+    }
+
+    @Test
+    public void otherNodesShouldBeRejectedWhileTheLeaseIsHeld() throws IOException {
+        LeasedCredentialStore first = newStore(1, TimeUnit.HOURS.toMillis(1));
+        LeasedCredentialStore second = newStore(2, TimeUnit.HOURS.toMillis(1));
+        try {
+            first.updateMovingFactor("alice", 6);
+            assertTrue(first.holds(first.partition("alice")));
+            try {
+                second.load("alice");
+                fail("The lease of alice's partition is held by the first node");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("node 1"));
+            }
+            assertFalse(second.holds(second.partition("alice")));
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void idlePartitionsShouldBeHandedOff() throws Exception {
+        LeasedCredentialStore first = newStore(1, 50);
+        LeasedCredentialStore second = newStore(2, TimeUnit.HOURS.toMillis(1));
+        try {
+            first.updateMovingFactor("alice", 9);
+            int partition = first.partition("alice");
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (first.holds(partition) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(first.holds(partition));
+            // The second node takes over, with the moving factor advanced by the first one.
+            assertEquals(9, second.load("alice").getMovingFactor());
+            assertEquals(2, table.getLease(partition).getOwner());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void leasesShouldBeRenewedWhileInUse() throws Exception {
+        LeasedCredentialStore store = LeasedCredentialStoreBuilder.fromStore(shared).leaseTable(table).nodeId(1)
+                .leaseDuration(200, TimeUnit.MILLISECONDS).flushInterval(10, TimeUnit.MILLISECONDS).build();
+        try {
+            long first = 0;
+            for (int i = 0; i < 30; i++) {
+                store.updateMovingFactor("alice", 6 + i);
+                long token = table.getLease(store.partition("alice")).getToken();
+                if (i == 0) {
+                    first = token;
+                }
+                assertEquals(first, token);
+                Thread.sleep(20);
+            }
+        } finally {
+            store.close();
+        }
+        assertEquals(35, shared.load("alice").getMovingFactor());
+    }
+
+    @Test
+    public void aFencedOffNodeShouldFailRatherThanWriteBackWithoutCompareAndSet() throws IOException {
+        LeasedCredentialStore first = LeasedCredentialStoreBuilder.fromStore(shared).leaseTable(table).nodeId(1)
+                .leaseDuration(8, TimeUnit.HOURS).flushInterval(1, TimeUnit.HOURS).build();
+        first.updateMovingFactor("alice", 9);
+        // The first node pauses, and its lease is taken over by another node.
+        int partition = first.partition("alice");
+        table.release(table.getLease(partition));
+        assertEquals(2, table.tryAcquire(partition, 2, TimeUnit.HOURS.toMillis(1)).getOwner());
+        try {
+            first.close();
+            fail("The advanced moving factor of alice could not be written back");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("lapsed"));
+        }
+        assertEquals(5, shared.load("alice").getMovingFactor());
+        assertEquals(2, table.getLease(partition).getOwner());
+    }
+
+    @Test
+    public void advancesShouldBeWrittenBackAfterTheLeaseLapsed() throws Exception {
+        InMemoryCredentialStore store = new InMemoryCredentialStore().put(Credential.hotp("alice", KEY, 6, 5));
+        // Built directly, so that the maintainer never renews the lease: the node pauses past its expiry.
+        LeasedCredentialStore first = new LeasedCredentialStore(store, table, 1, 50, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        first.updateMovingFactor("alice", 9);
+        int partition = first.partition("alice");
+        Thread.sleep(100);
+        // Another node takes the expired lease over, before writing anything back.
+        assertEquals(2, table.tryAcquire(partition, 2, TimeUnit.HOURS.toMillis(1)).getOwner());
+        first.close();
+        // Otherwise, the next owner would load the old moving factor, and the HOTP values used meanwhile would be valid again.
+        assertEquals(9, store.load("alice").getMovingFactor());
+        assertEquals(2, table.getLease(partition).getOwner());
+    }
+
+    @Test
+    public void advancesShouldBeWrittenBackWhenALapsedLeaseIsRenewed() throws Exception {
+        LeasedCredentialStore first = new LeasedCredentialStore(shared, table, 1, 50, TimeUnit.HOURS.toMillis(1), TimeUnit.HOURS.toMillis(1));
+        first.updateMovingFactor("alice", 9);
+        Thread.sleep(100);
+        first.close();
+        assertEquals(9, shared.load("alice").getMovingFactor());
+        assertEquals(0, table.getLease(first.partition("alice")).getOwner());
+    }
+
+    @Test
+    public void writeBacksShouldNeverMoveAMovingFactorBackwards() throws IOException {
+        for (CredentialStore store : new CredentialStore[] { shared, new InMemoryCredentialStore().put(Credential.hotp("alice", KEY, 6, 5)) }) {
+            LeasedCredentialStore first = LeasedCredentialStoreBuilder.fromStore(store).leaseTable(table).nodeId(1)
+                    .leaseDuration(8, TimeUnit.HOURS).flushInterval(1, TimeUnit.HOURS).build();
+            try {
+                first.updateMovingFactor("alice", 9);
+                // Advanced further by a later owner while the first node was paused.
+                store.updateMovingFactor("alice", 20);
+            } finally {
+                first.close();
+            }
+            assertEquals(20, store.load("alice").getMovingFactor());
+            assertEquals(0, first.getWriteBackCount());
+        }
+    }
+
+    private LeasedCredentialStore newStore(long nodeId, long idleTimeout) {
+        return LeasedCredentialStoreBuilder.fromStore(shared).leaseTable(table).nodeId(nodeId)
+                .flushInterval(10, TimeUnit.MILLISECONDS).idleTimeout(idleTimeout, TimeUnit.MILLISECONDS).build();
+    }
+
+    private static final class CountingStore implements CredentialStore {
+
+        private final InMemoryCredentialStore store = new InMemoryCredentialStore();
+        private final AtomicInteger updates = new AtomicInteger();
+
+        void put(Credential credential) {
+            store.put(credential);
+        }
+
+        @Override
+        public Credential load(String userId) {
+            return store.load(userId);
+        }
+
+        @Override
+        public void save(Credential credential) {
+            store.save(credential);
+        }
+
+        @Override
+        public void updateMovingFactor(String userId, long movingFactor) {
+            updates.incrementAndGet();
+            store.updateMovingFactor(userId, movingFactor);
+        }
+
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.lochbridge.oath.otp.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.lochbridge.oath.otp.HOTP;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.TOTP;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.service.ValidationResult.Status;
+
+public class TestValidationService {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final long TIME_STEP = TimeUnit.SECONDS.toMillis(30);
+
+    private InMemoryCredentialStore store;
+    private ValidationService service;
+
+    @Before
+    public void setUp() {
+        store = new InMemoryCredentialStore()
+            .put(Credential.hotp("alice", KEY, 6, 5))
+            .put(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP));
+        service = ValidationServiceBuilder.fromStore(store).build();
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+    }
+
+    @Test
+    public void validateShouldAdvanceTheMovingFactorOfAValidHOTP() throws IOException {
+        String value = HOTP.key(KEY).movingFactor(6).build().value();
+        ValidationResult result = service.validate(null, "alice", value);
+        assertTrue(result.isValid());
+        assertEquals(7, result.getMovingFactor());
+        assertEquals(7, store.load("alice").getMovingFactor());
+
+        // The HOTP value is now spent.
+        result = service.validate(null, "alice", value);
+        assertEquals(Status.INVALID, result.getStatus());
+        assertEquals(7, result.getMovingFactor());
+    }
+
+    @Test
+    public void validateShouldReplayTheOriginalResultForARetriedRequestId() throws IOException {
+        String value = HOTP.key(KEY).movingFactor(5).build().value();
+        assertTrue(service.validate("request-1", "alice", value).isValid());
+        ValidationResult retry = service.validate("request-1", "alice", value);
+        assertTrue(retry.isValid());
+        assertEquals(6, retry.getMovingFactor());
+        assertEquals(6, store.load("alice").getMovingFactor());
+    }
+
+    @Test
+    public void validateShouldSucceedForAValidTOTP() throws IOException {
+        String value = TOTP.key(KEY).timeStep(TIME_STEP).build().value();
+        assertTrue(service.validate(null, "bob", value).isValid());
+        assertFalse(service.validate(null, "bob", "00000000").isValid());
+    }
+
+    @Test
+    public void validateShouldReportTheDriftOfATOTPClient() throws IOException {
+        long now = System.currentTimeMillis();
+        String value = TOTP.key(KEY).timeStep(TIME_STEP).build(now + TIME_STEP).value();
+        ValidationResult result = service.validate(null, "bob", value);
+        assertTrue(result.isValid());
+        if (now / TIME_STEP == System.currentTimeMillis() / TIME_STEP) {
+            assertEquals(1, result.getDrift());
+        }
+    }
+
+    @Test
+    public void validateShouldRejectAReplayedTOTP() throws IOException {
+        long now = System.currentTimeMillis();
+        String value = TOTP.key(KEY).timeStep(TIME_STEP).build(now).value();
+        assertTrue(service.validate(null, "bob", value).isValid());
+        assertEquals(now / TIME_STEP, store.getLastUsedStep("bob"));
+        // Still within the validation window, but its time step is spent.
+        assertEquals(Status.INVALID, service.validate(null, "bob", value).getStatus());
+        String previous = TOTP.key(KEY).timeStep(TIME_STEP).build(now - TIME_STEP).value();
+        assertEquals(Status.INVALID, service.validate(null, "bob", previous).getStatus());
+        // Nor can another service sharing the store accept it.
+        ValidationService other = ValidationServiceBuilder.fromStore(store).build();
+        try {
+            assertEquals(Status.INVALID, other.validate(null, "bob", value).getStatus());
+        } finally {
+            other.close();
+        }
+        assertEquals(now / TIME_STEP, store.getLastUsedStep("bob"));
+    }
+
+    @Test
+    public void validateShouldReplayTheOriginalResultForARetriedTOTPRequestId() throws IOException {
+        String value = TOTP.key(KEY).timeStep(TIME_STEP).build().value();
+        assertTrue(service.validate("request-1", "bob", value).isValid());
+        assertTrue(service.validate("request-1", "bob", value).isValid());
+        assertEquals(Status.INVALID, service.validate("request-2", "bob", value).getStatus());
+    }
+
+    @Test
+    public void validateShouldRejectACredentialOfAnotherType() throws IOException {
+        String value = HOTP.key(KEY).movingFactor(5).build().value();
+        ValidationResult result = service.validate(null, "alice", OTPType.TOTP, value);
+        assertEquals(Status.INVALID, result.getStatus());
+        assertEquals(5, store.load("alice").getMovingFactor());
+        assertTrue(service.validate(null, "alice", OTPType.HOTP, value).isValid());
+    }
+
+    @Test
+    public void validateShouldReportUnknownUsers() throws IOException {
+        assertEquals(Status.UNKNOWN_USER, service.validate(null, "carol", "123456").getStatus());
+    }
+
+    @Test
+    public void submitShouldAcceptExactlyOneOfManyConcurrentCopiesOfAnHOTP() throws InterruptedException, ExecutionException {
+        String value = HOTP.key(KEY).movingFactor(5).build().value();
+        List<ListenableFuture<ValidationResult>> futures = new ArrayList<ListenableFuture<ValidationResult>>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(service.submit(null, "alice", value));
+        }
+        int valid = 0;
+        for (ValidationResult result : Futures.allAsList(futures).get()) {
+            valid += result.isValid() ? 1 : 0;
+        }
+        assertEquals(1, valid);
+        assertEquals(6, store.load("alice").getMovingFactor());
+    }
+
+    @Test
+    public void submitShouldAcceptExactlyOneOfManyConcurrentCopiesOfATOTP() throws InterruptedException, ExecutionException {
+        String value = TOTP.key(KEY).timeStep(TIME_STEP).build().value();
+        List<ListenableFuture<ValidationResult>> futures = new ArrayList<ListenableFuture<ValidationResult>>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(service.submit(null, "bob", value));
+        }
+        int valid = 0;
+        for (ValidationResult result : Futures.allAsList(futures).get()) {
+            valid += result.isValid() ? 1 : 0;
+        }
+        assertEquals(1, valid);
+    }
+
+    @Test
+    public void submitShouldFailWhenTheStoreFails() throws InterruptedException {
+        ValidationService failing = ValidationServiceBuilder.fromStore(new CredentialStore() {
+            @Override
+            public Credential load(String userId) throws IOException {
+                throw new IOException("unavailable");
+            }
+
+            @Override
+            public void save(Credential credential) throws IOException {
+                throw new IOException("unavailable");
+            }
+
+            @Override
+            public void updateMovingFactor(String userId, long movingFactor) throws IOException {
+                throw new IOException("unavailable");
+            }
+        }).build();
+        try {
+            failing.submit(null, "alice", "123456").get();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            return;
+        } finally {
+            failing.close();
+        }
+        assertTrue("Expected an ExecutionException", false);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void fromStoreShouldFailWhenArgumentIsNull() {
+        ValidationServiceBuilder.fromStore(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lockStripesShouldFailWhenArgumentIsLessThanOne() {
+        ValidationServiceBuilder.fromStore(store).lockStripes(0);
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.lochbridge.oath.otp.store;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An array of fixed-size elements mapped from a region of a file. Since a
+ * single {@link MappedByteBuffer} cannot exceed 2 GiB, the region is mapped as
+ * several chunks of {@code elementsPerChunk} elements each; no element straddles
+ * two chunks. All chunks are in little-endian byte order, so that files are
+ * portable across hosts.
+ */
+final class MappedChunks {
+
+    private final MappedByteBuffer[] chunks;
+    private final int elementSize;
+    private final int shift;
+    private final long mask;
+
+    /**
+     * Maps the region of {@code elements} elements of {@code elementSize} bytes
+     * each, starting at {@code position} in the specified file.
+     *
+     * @param channel
+     *            the (read-write) file channel
+     * @param position
+     *            the offset of the region in the file
+     * @param elements
+     *            the number of elements
+     * @param elementSize
+     *            the size (in bytes) of an element
+     * @param elementsPerChunk
+     *            the number of elements per chunk (a power of 2)
+     */
+    MappedChunks(FileChannel channel, long position, long elements, int elementSize, int elementsPerChunk) throws IOException {
+        this.elementSize = elementSize;
+        this.shift = Integer.numberOfTrailingZeros(elementsPerChunk);
+        this.mask = elementsPerChunk - 1;
+        int count = (int) ((elements + elementsPerChunk - 1) >>> shift);
+        this.chunks = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long first = (long) i << shift;
+            long size = Math.min(elementsPerChunk, elements - first) * elementSize;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position + first * elementSize, size);
+            chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * Returns the chunk holding the specified element.
+     */
+    MappedByteBuffer chunk(long element) {
+        return chunks[(int) (element >>> shift)];
+    }
+
+    /**
+     * Returns the offset of the specified element within its chunk.
+     */
+    int offset(long element) {
+        return (int) (element & mask) * elementSize;
+    }
+
+    /**
+     * Flushes the changes made to all chunks to the file.
+     */
+    void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+}
@@ -0,0 +1,661 @@
+package com.lochbridge.oath.otp.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.service.AtomicCredentialStore;
+import com.lochbridge.oath.otp.service.Credential;
+
+/**
+ * An {@link AtomicCredentialStore} keeping fixed-size credential records off-heap, in
+ * a memory-mapped file, so that tens of millions of credentials neither weigh
+ * on the Java heap nor on the garbage collector.
+ * <p>
+ * The file holds a 64-byte header, an open-addressing (linear probing) index
+ * from user ID hashes to record numbers, and the records themselves:
+ * </p>
+ *
+ * <pre>
+ * header:  magic (int32), version (int32), capacity (int64), index slots (int64), size (int64)
+ * index:   one int64 per slot: (user ID hash &lt;&lt; 32) | (record number + 1), or 0 if empty
+ * record:  +0   version (int64, odd while the record is being rewritten)
+ *          +8   user ID length (uint8), +9 user ID (UTF-8, up to {@value #MAX_USER_ID_LENGTH} bytes)
+ *          +104 the credential, as an {@link OTPRecord} ({@value OTPRecord#SIZE} bytes)
+ * </pre>
+ * <p>
+ * All fields are little-endian. Lookups are lock-free: index slots are published
+ * with release semantics once their record is written, and records that may be
+ * rewritten (when a credential is replaced) are guarded by a sequence lock, so
+ * readers retry rather than observe a torn key (and give up with an
+ * {@link IOException} should a record stay odd-versioned or malformed). The moving factor (the counter of
+ * HOTP records), last used time step (the counter of TOTP records) and drift are
+ * updated in place, atomically.
+ * Writers that add or replace credentials are serialized by a lock.
+ * <p>
+ * A record left odd-versioned by a process that died while rewriting it may hold
+ * a mix of two keys: {@link #open(Path)} quarantines such records, whose users
+ * then fail to load until their credentials are saved again.
+ * <p>
+ * Records are never removed, and the capacity is fixed when the file is created.
+ * Changes reach the file when the operating system writes the mapped pages back,
+ * or when {@link #force()} is called.
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * MappedCredentialStore store = MappedCredentialStore.create(Paths.get("credentials.db"), 10000000);
+ * store.save(Credential.totp("alice", key, HmacShaAlgorithm.HMAC_SHA_1, 6, 30000));
+ * ValidationService service = ValidationServiceBuilder.fromStore(store).build();
+ * </pre>
+ */
+public final class MappedCredentialStore implements AtomicCredentialStore, Closeable {
+
+    /** The magic number identifying a credential store file ("OTPS"). */
+    public static final int MAGIC = 0x4F545053;
+
+    /** The file format version. */
+    public static final int VERSION = 2;
+
+    /** The maximum capacity (in records) of a store. */
+    public static final int MAX_CAPACITY = 1 << 30;
+
+    /** The maximum length (in bytes) of an encoded user ID. */
+    public static final int MAX_USER_ID_LENGTH = 95;
+
+    /** The maximum length (in bytes) of a shared secret key. */
+    public static final int MAX_KEY_LENGTH = OTPRecord.MAX_KEY_LENGTH;
+
+    /** The size (in bytes) of a record. */
+    public static final int RECORD_SIZE = 192;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int INDEX_SLOTS_OFFSET = 16;
+    private static final int SIZE_OFFSET = 24;
+
+    private static final int INDEX_ENTRIES_PER_CHUNK = 1 << 27;
+    private static final int RECORDS_PER_CHUNK = 1 << 22;
+
+    private static final int VERSION_FIELD = 0;
+    private static final int USER_ID_LENGTH = 8;
+    private static final int USER_ID = 9;
+    private static final int CREDENTIAL = 104;
+
+    /** The number of times a reader spins on a record being rewritten, before yielding. */
+    private static final int READ_SPINS = 1 << 10;
+
+    /** The number of times a reader retries a record being rewritten, before failing. */
+    private static final int MAX_READ_ATTEMPTS = 1 << 20;
+
+    /** A record descriptor no {@link OTPRecord} is well-formed with. */
+    private static final int QUARANTINED = -1;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final MappedByteBuffer header;
+    private final MappedChunks index;
+    private final MappedChunks records;
+    private final long capacity;
+    private final long indexMask;
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private MappedCredentialStore(FileChannel channel, long capacity, long indexSlots) throws IOException {
+        this.capacity = capacity;
+        this.indexMask = indexSlots - 1;
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        this.index = new MappedChunks(channel, HEADER_SIZE, indexSlots, 8, INDEX_ENTRIES_PER_CHUNK);
+        this.records = new MappedChunks(channel, HEADER_SIZE + indexSlots * 8, capacity, RECORD_SIZE, RECORDS_PER_CHUNK);
+    }
+
+    /**
+     * Creates a new, empty store file at the specified path (which must not exist),
+     * able to hold {@code capacity} credentials. The index has at least twice as many
+     * slots as the capacity, to keep probe sequences short.
+     *
+     * @param path
+     *            the path of the file
+     * @param capacity
+     *            the maximum number of credentials
+     *
+     * @return a new, empty {@link MappedCredentialStore} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code path} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code capacity} is not in [1, {@link #MAX_CAPACITY}].
+     * @throws IOException
+     *             if the file exists, or cannot be created or mapped.
+     */
+    public static MappedCredentialStore create(Path path, int capacity) throws IOException {
+        Preconditions.checkNotNull(path);
+        Preconditions.checkArgument(capacity >= 1 && capacity <= MAX_CAPACITY, "capacity must be in [1, %s]", MAX_CAPACITY);
+        long indexSlots = Long.highestOneBit(capacity * 2L - 1) << 1;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedCredentialStore store = new MappedCredentialStore(channel, capacity, indexSlots);
+            store.header.putInt(4, VERSION);
+            store.header.putLong(CAPACITY_OFFSET, capacity);
+            store.header.putLong(INDEX_SLOTS_OFFSET, indexSlots);
+            LONG.setRelease(store.header, SIZE_OFFSET, 0L);
+            INT.setRelease(store.header, 0, MAGIC);
+            return store;
+        }
+    }
+
+    /**
+     * Opens the existing store file at the specified path, quarantining the
+     * records left half-rewritten by a crash (which reads every record once).
+     *
+     * @param path
+     *            the path of the file
+     *
+     * @return a {@link MappedCredentialStore} instance backed by the file.
+     *
+     * @throws NullPointerException
+     *             if {@code path} is {@code null}.
+     * @throws IOException
+     *             if the file cannot be mapped, or is not a valid store file.
+     */
+    public static MappedCredentialStore open(Path path) throws IOException {
+        Preconditions.checkNotNull(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a credential store file: " + path);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("Not a credential store file: " + path);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported credential store version: " + header.getInt(4));
+            }
+            long capacity = header.getLong(CAPACITY_OFFSET);
+            long indexSlots = header.getLong(INDEX_SLOTS_OFFSET);
+            if (capacity < 1 || capacity > MAX_CAPACITY || Long.bitCount(indexSlots) != 1 || indexSlots < capacity
+                    || channel.size() < HEADER_SIZE + indexSlots * 8 + capacity * RECORD_SIZE) {
+                throw new IOException("Corrupt credential store file: " + path);
+            }
+            MappedCredentialStore store = new MappedCredentialStore(channel, capacity, indexSlots);
+            store.quarantineTornRecords();
+            return store;
+        }
+    }
+
+    /**
+     * Returns the {@link Credential} of the specified user.
+     *
+     * @throws IOException
+     *             if the user's record is quarantined, or malformed.
+     */
+    @Override
+    public Credential load(String userId) throws IOException {
+        long record = find(userId.getBytes(StandardCharsets.UTF_8));
+        if (record < 0) {
+            return null;
+        }
+        MappedByteBuffer chunk = records.chunk(record);
+        int base = records.offset(record);
+        String id = readUserId(chunk, base);
+        OTPRecord credential = new OTPRecord().wrap(chunk, base + CREDENTIAL);
+        for (int attempt = 0;; attempt++) {
+            long version = (long) LONG.getAcquire(chunk, base + VERSION_FIELD);
+            if ((version & 1) == 0 && credential.isWellFormed()) {
+                Credential result;
+                try {
+                    result = credential.toCredential(id);
+                } catch (IllegalStateException e) {
+                    // Torn by a concurrent rewrite.
+                    result = null;
+                }
+                VarHandle.acquireFence();
+                if (result != null && (long) LONG.getOpaque(chunk, base + VERSION_FIELD) == version) {
+                    return result;
+                }
+            }
+            backOff(attempt, userId);
+        }
+    }
+
+    /**
+     * Copies the shared secret key of the specified user into {@code dst}
+     * (starting at index 0), without allocating. Validators may keep one scratch
+     * array per thread, since the JCE only accepts keys as {@code byte[]}s.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param dst
+     *            the array to copy the key into, at least {@link #MAX_KEY_LENGTH} bytes long
+     *
+     * @return the length of the key, or -1 if the store holds no credential for the user.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} or {@code dst} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code dst} is shorter than {@link #MAX_KEY_LENGTH} bytes.
+     * @throws IOException
+     *             if the user's record is quarantined, or malformed.
+     */
+    public int readKey(String userId, byte[] dst) throws IOException {
+        Preconditions.checkArgument(dst.length >= MAX_KEY_LENGTH);
+        long record = find(userId.getBytes(StandardCharsets.UTF_8));
+        if (record < 0) {
+            return -1;
+        }
+        MappedByteBuffer chunk = records.chunk(record);
+        int base = records.offset(record);
+        OTPRecord credential = new OTPRecord().wrap(chunk, base + CREDENTIAL);
+        for (int attempt = 0;; attempt++) {
+            long version = (long) LONG.getAcquire(chunk, base + VERSION_FIELD);
+            if ((version & 1) == 0 && credential.isWellFormed()) {
+                int keyLength;
+                try {
+                    keyLength = credential.readKey(dst);
+                } catch (IllegalStateException e) {
+                    // Torn by a concurrent rewrite.
+                    keyLength = -1;
+                }
+                VarHandle.acquireFence();
+                if (keyLength >= 0 && (long) LONG.getOpaque(chunk, base + VERSION_FIELD) == version) {
+                    return keyLength;
+                }
+            }
+            backOff(attempt, userId);
+        }
+    }
+
+    /**
+     * Adds (or replaces) the specified {@link Credential}. Replacing a credential
+     * resets its drift and last used time step.
+     *
+     * @param credential
+     *            the {@link Credential}
+     *
+     * @throws NullPointerException
+     *             if {@code credential} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the encoded user ID is longer than {@link #MAX_USER_ID_LENGTH} bytes,
+     *             the key is longer than {@link #MAX_KEY_LENGTH} bytes, or the time step is
+     *             greater than {@link OTPRecord#MAX_TIME_STEP}.
+     * @throws IOException
+     *             if the store is full.
+     */
+    @Override
+    public void save(Credential credential) throws IOException {
+        byte[] userId = credential.getUserId().getBytes(StandardCharsets.UTF_8);
+        byte[] key = credential.getKey();
+        Preconditions.checkArgument(userId.length <= MAX_USER_ID_LENGTH, "The user ID must be at most %s bytes long", MAX_USER_ID_LENGTH);
+        Preconditions.checkArgument(key.length <= MAX_KEY_LENGTH, "The key must be at most %s bytes long", MAX_KEY_LENGTH);
+        Preconditions.checkArgument(credential.getTimeStep() <= OTPRecord.MAX_TIME_STEP, "The time step must be at most %s ms",
+                OTPRecord.MAX_TIME_STEP);
+        int hash = hash(userId);
+        writeLock.lock();
+        try {
+            long record = find(userId, hash);
+            if (record >= 0) {
+                MappedByteBuffer chunk = records.chunk(record);
+                int base = records.offset(record);
+                long version = (long) LONG.getOpaque(chunk, base + VERSION_FIELD);
+                LONG.setOpaque(chunk, base + VERSION_FIELD, version + 1);
+                VarHandle.releaseFence();
+                new OTPRecord().wrap(chunk, base + CREDENTIAL).write(credential);
+                LONG.setRelease(chunk, base + VERSION_FIELD, version + 2);
+                return;
+            }
+            record = (long) LONG.getOpaque(header, SIZE_OFFSET);
+            if (record >= capacity) {
+                throw new IOException("The credential store is full (capacity: " + capacity + ")");
+            }
+            MappedByteBuffer chunk = records.chunk(record);
+            int base = records.offset(record);
+            chunk.putLong(base + VERSION_FIELD, 0);
+            chunk.put(base + USER_ID_LENGTH, (byte) userId.length);
+            chunk.put(base + USER_ID, userId);
+            new OTPRecord().wrap(chunk, base + CREDENTIAL).write(credential);
+            long slot = hash & indexMask;
+            while ((long) LONG.getOpaque(index.chunk(slot), index.offset(slot)) != 0) {
+                slot = (slot + 1) & indexMask;
+            }
+            // Publishing the index entry last makes the whole record visible to lock-free readers.
+            LONG.setRelease(index.chunk(slot), index.offset(slot), ((long) hash << 32) | (record + 1));
+            LONG.setRelease(header, SIZE_OFFSET, record + 1);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Stores the new moving factor of the specified user's HOTP credential, in place.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param movingFactor
+     *            the new moving factor
+     *
+     * @throws NullPointerException
+     *             if {@code userId} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the store holds no HOTP credential for the user, or {@code movingFactor} is {@literal <} 0.
+     */
+    @Override
+    public void updateMovingFactor(String userId, long movingFactor) {
+        Preconditions.checkArgument(movingFactor >= 0);
+        require(userId, OTPType.HOTP).setCounter(movingFactor);
+    }
+
+    /**
+     * Atomically sets the moving factor of the specified user's HOTP credential
+     * to {@code update} if it currently equals {@code expect}.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param expect
+     *            the expected moving factor
+     * @param update
+     *            the new moving factor
+     *
+     * @return {@code true} if the moving factor was updated, {@code false} otherwise.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the store holds no HOTP credential for the user.
+     */
+    @Override
+    public boolean compareAndSetMovingFactor(String userId, long expect, long update) {
+        return require(userId, OTPType.HOTP).compareAndSetCounter(expect, update);
+    }
+
+    /**
+     * Returns the last recorded drift (in time steps) of the client of the
+     * specified user's TOTP credential.
+     *
+     * @param userId
+     *            the ID of the user
+     *
+     * @return the last recorded drift (in time steps).
+     *
+     * @throws NullPointerException
+     *             if {@code userId} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the store holds no credential for the user.
+     */
+    public int getDrift(String userId) {
+        return require(userId).getDrift();
+    }
+
+    /**
+     * Records the drift (in time steps) of the client of the specified user's
+     * TOTP credential, in place (see {@link com.lochbridge.oath.otp.TOTPValidationResult#getDrift()}).
+     *
+     * @param userId
+     *            the ID of the user
+     * @param drift
+     *            the drift (in time steps)
+     *
+     * @throws NullPointerException
+     *             if {@code userId} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the store holds no credential for the user.
+     */
+    public void updateDrift(String userId, int drift) {
+        require(userId).setDrift(drift);
+    }
+
+    /**
+     * Returns the last time step a TOTP value of the specified user was accepted
+     * in, or -1 if none.
+     *
+     * @param userId
+     *            the ID of the user
+     *
+     * @return the last used time step, or -1 if none.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the store holds no TOTP credential for the user.
+     */
+    @Override
+    public long getLastUsedStep(String userId) {
+        return require(userId, OTPType.TOTP).getCounter();
+    }
+
+    /**
+     * Atomically sets the last used time step of the specified user's TOTP
+     * credential to {@code step} if it currently equals {@code expect}. Since a
+     * TOTP value should be accepted at most once, validators may call this
+     * method (with the step returned by {@link #getLastUsedStep(String)}) and
+     * reject the value unless it succeeds, and {@code step} is greater.
+     *
+     * @param userId
+     *            the ID of the user
+     * @param expect
+     *            the expected last used time step
+     * @param step
+     *            the new last used time step
+     *
+     * @return {@code true} if the last used time step was updated, {@code false} otherwise.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the store holds no TOTP credential for the user.
+     */
+    @Override
+    public boolean compareAndSetLastUsedStep(String userId, long expect, long step) {
+        return require(userId, OTPType.TOTP).compareAndSetCounter(expect, step);
+    }
+
+    @Override
+    public Map<String, Credential> loadAll(Collection<String> userIds) throws IOException {
+        Map<String, Credential> loaded = new HashMap<String, Credential>();
+        for (String userId : userIds) {
+            Credential credential = load(userId);
+            if (credential != null) {
+                loaded.put(userId, credential);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Adds (or replaces) the specified {@link Credential}s, as if by
+     * {@link #save(Credential)}, taking the writer lock once for the whole batch.
+     *
+     * @param credentials
+     *            the {@link Credential}s
+     *
+     * @throws NullPointerException
+     *             if {@code credentials} is (or contains) {@code null}.
+     * @throws IllegalArgumentException
+     *             if a credential cannot be stored (see {@link #save(Credential)}).
+     * @throws IOException
+     *             if the store is full. The credentials preceding the failing one are stored.
+     */
+    @Override
+    public void saveAll(Collection<Credential> credentials) throws IOException {
+        writeLock.lock();
+        try {
+            for (Credential credential : credentials) {
+                save(credential);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Stores the new moving factors of the specified users' HOTP credentials, in
+     * place. Users the store holds no credential for are ignored.
+     *
+     * @param movingFactors
+     *            a map of user IDs to new moving factors
+     *
+     * @throws NullPointerException
+     *             if {@code movingFactors} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if a user's credential is not HOTP-based, or a moving factor is {@literal <} 0.
+     */
+    @Override
+    public void updateMovingFactors(Map<String, Long> movingFactors) {
+        for (Map.Entry<String, Long> entry : movingFactors.entrySet()) {
+            Preconditions.checkArgument(entry.getValue() >= 0);
+            if (find(entry.getKey().getBytes(StandardCharsets.UTF_8)) >= 0) {
+                updateMovingFactor(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of credentials held by this store.
+     *
+     * @return the number of credentials held by this store.
+     */
+    public long size() {
+        return (long) LONG.getAcquire(header, SIZE_OFFSET);
+    }
+
+    /**
+     * Returns the maximum number of credentials this store can hold.
+     *
+     * @return the maximum number of credentials this store can hold.
+     */
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * Writes all changes back to the file.
+     */
+    public void force() {
+        index.force();
+        records.force();
+        header.force();
+    }
+
+    /**
+     * Writes all changes back to the file. The mapping itself is released when
+     * this store is garbage collected.
+     */
+    @Override
+    public void close() {
+        force();
+    }
+
+    /**
+     * Makes the records left odd-versioned (i.e. half-rewritten) even again, with
+     * a malformed descriptor, so that readers fail on them rather than spin (or
+     * read a mix of two keys). Called before the store is shared.
+     */
+    private void quarantineTornRecords() {
+        long size = (long) LONG.getAcquire(header, SIZE_OFFSET);
+        for (long record = 0; record < Math.min(size, capacity); record++) {
+            MappedByteBuffer chunk = records.chunk(record);
+            int base = records.offset(record);
+            long version = (long) LONG.getOpaque(chunk, base + VERSION_FIELD);
+            if ((version & 1) != 0) {
+                // The descriptor is the first field of an OTPRecord; saving the credential again rewrites it.
+                chunk.putInt(base + CREDENTIAL, QUARANTINED);
+                LONG.setRelease(chunk, base + VERSION_FIELD, version + 1);
+            }
+        }
+    }
+
+    /**
+     * Waits before a reader retries a record being rewritten: spinning at first,
+     * then yielding to the (possibly descheduled) writer.
+     */
+    private static void backOff(int attempt, String userId) throws IOException {
+        if (attempt >= MAX_READ_ATTEMPTS) {
+            throw new IOException("The record of user [" + userId + "] is quarantined, or malformed");
+        }
+        if (attempt < READ_SPINS) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    private OTPRecord require(String userId) {
+        long record = find(userId.getBytes(StandardCharsets.UTF_8));
+        Preconditions.checkArgument(record >= 0, "No credential for user [" + userId + "]");
+        return new OTPRecord().wrap(records.chunk(record), records.offset(record) + CREDENTIAL);
+    }
+
+    private OTPRecord require(String userId, OTPType type) {
+        OTPRecord record = require(userId);
+        Preconditions.checkArgument(record.getType() == type, "No %s credential for user [%s]", type, userId);
+        return record;
+    }
+
+    private long find(byte[] userId) {
+        return find(userId, hash(userId));
+    }
+
+    private long find(byte[] userId, int hash) {
+        long slot = hash & indexMask;
+        while (true) {
+            long entry = (long) LONG.getAcquire(index.chunk(slot), index.offset(slot));
+            if (entry == 0) {
+                return -1;
+            }
+            if ((int) (entry >>> 32) == hash) {
+                long record = (entry & 0xFFFFFFFFL) - 1;
+                if (userIdEquals(records.chunk(record), records.offset(record), userId)) {
+                    return record;
+                }
+            }
+            slot = (slot + 1) & indexMask;
+        }
+    }
+
+    private static boolean userIdEquals(MappedByteBuffer chunk, int base, byte[] userId) {
+        if ((chunk.get(base + USER_ID_LENGTH) & 0xFF) != userId.length) {
+            return false;
+        }
+        for (int i = 0; i < userId.length; i++) {
+            if (chunk.get(base + USER_ID + i) != userId[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readUserId(MappedByteBuffer chunk, int base) {
+        byte[] userId = new byte[chunk.get(base + USER_ID_LENGTH) & 0xFF];
+        chunk.get(base + USER_ID, userId);
+        return new String(userId, StandardCharsets.UTF_8);
+    }
+
+    /** A 32-bit hash of the encoded user ID (murmur3's finalizer applied to a polynomial hash). */
+    private static int hash(byte[] userId) {
+        int h = 1;
+        for (byte b : userId) {
+            h = 31 * h + b;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+}
@@ -0,0 +1,436 @@
+package com.lochbridge.oath.otp.store;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.google.common.base.Preconditions;
+import com.lochbridge.oath.otp.HOTPBuilder;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.Base32;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.service.Credential;
+
+/**
+ * A flyweight over a compact, fixed-size ({@value #SIZE} bytes) binary record of
+ * a user's OTP parameters, in a {@link ByteBuffer}. Where an {@link OTPAuthURI}
+ * (or a {@link Credential}) spreads its parameters over several objects, a
+ * record packs them into a single slot, so that millions of them fit in a
+ * mapped file or a direct buffer:
+ *
+ * <pre>
+ * +0   descriptor (int32): bit 0 type (0: HOTP, 1: TOTP), bits 1-2 algorithm ordinal, bits 3-4 digits - 6,
+ *      bits 5-11 key length, bit 12 whether the Base32 secret of the URI is padded, bits 13-31 zero
+ * +4   drift in time steps (int32)
+ * +8   counter (int64): the moving factor of HOTP records, the last used time step of TOTP records (-1 if none)
+ * +16  time step in milliseconds (int32)
+ * +20  reserved (int32)
+ * +24  key (up to {@value #MAX_KEY_LENGTH} bytes)
+ * </pre>
+ * <p>
+ * All fields are little-endian. The counter and the drift are read and updated
+ * atomically (provided the record is 8-byte aligned in a direct buffer), so they
+ * may change in place while other threads read the record; the other fields
+ * are written once, by {@link #write(Credential)} or {@link #write(OTPAuthURI)}.
+ * <p>
+ * A record converts losslessly to and from an {@link OTPAuthURI}: the label and
+ * issuer are kept alongside the record (e.g. as the user ID), and the remaining
+ * components of the URI string are restored as they were. Note that the URI
+ * format carries neither the algorithm (always {@link HmacShaAlgorithm#HMAC_SHA_1}),
+ * the counter of TOTP keys, nor the time step of HOTP keys.
+ * <p>
+ * A flyweight is not thread-safe, and is meant to be {@link #wrap(ByteBuffer, int) re-pointed}
+ * at one record after another, for example:
+ * </p>
+ *
+ * <pre>
+ * ByteBuffer slots = ByteBuffer.allocateDirect(users * OTPRecord.SIZE);
+ * OTPRecord record = new OTPRecord();
+ * record.wrap(slots, user * OTPRecord.SIZE).write(uri);
+ * ...
+ * OTPAuthURI restored = record.wrap(slots, user * OTPRecord.SIZE).toOTPAuthURI(uri.getLabel(), uri.getIssuer());
+ * </pre>
+ */
+public final class OTPRecord {
+
+    /** The size (in bytes) of a record. */
+    public static final int SIZE = 88;
+
+    /** The maximum length (in bytes) of a shared secret key. */
+    public static final int MAX_KEY_LENGTH = 64;
+
+    /** The maximum time step (in milliseconds). */
+    public static final long MAX_TIME_STEP = Integer.MAX_VALUE;
+
+    private static final int DESCRIPTOR = 0;
+    private static final int DRIFT = 4;
+    private static final int COUNTER = 8;
+    private static final int TIME_STEP = 16;
+    private static final int KEY = 24;
+
+    private static final int TYPE_SHIFT = 0;
+    private static final int ALGORITHM_SHIFT = 1;
+    private static final int DIGITS_SHIFT = 3;
+    private static final int KEY_LENGTH_SHIFT = 5;
+    private static final int PADDED_SHIFT = 12;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final HmacShaAlgorithm[] ALGORITHMS = HmacShaAlgorithm.values();
+
+    private ByteBuffer buffer;
+    private int offset;
+
+    /**
+     * Points this flyweight at the record starting at {@code offset} in the
+     * specified buffer. The buffer's position, limit and byte order are ignored.
+     *
+     * @param buffer
+     *            the buffer holding the record
+     * @param offset
+     *            the (absolute) offset of the record in the buffer
+     *
+     * @return this {@code OTPRecord} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code buffer} is {@code null}.
+     * @throws IndexOutOfBoundsException
+     *             if the record does not fit in the buffer at {@code offset}.
+     */
+    public OTPRecord wrap(ByteBuffer buffer, int offset) {
+        Preconditions.checkPositionIndexes(offset, offset + SIZE, buffer.capacity());
+        this.buffer = buffer;
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Writes the parameters of the specified {@link Credential} to the record. The
+     * drift is reset to 0, and the counter is set to the moving factor of HOTP
+     * credentials, or -1 (no time step used) for TOTP credentials.
+     *
+     * @param credential
+     *            the {@link Credential}
+     *
+     * @return this {@code OTPRecord} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code credential} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the key is longer than {@link #MAX_KEY_LENGTH} bytes, or the time
+     *             step is greater than {@link #MAX_TIME_STEP}.
+     */
+    public OTPRecord write(Credential credential) {
+        long counter = credential.isHOTP() ? credential.getMovingFactor() : -1;
+        write(credential.getType(), credential.getHmacShaAlgorithm(), credential.getDigits(), credential.getTimeStep(), counter,
+                credential.getKey(), false);
+        return this;
+    }
+
+    /**
+     * Writes the parameters of the specified {@link OTPAuthURI} (but its label and
+     * issuer) to the record. The drift is reset to 0, and the counter is set to
+     * the URI's counter for HOTP keys, or -1 (no time step used) for TOTP keys.
+     *
+     * @param uri
+     *            the {@link OTPAuthURI}
+     *
+     * @return this {@code OTPRecord} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code uri} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if the secret is not in canonical (upper case) Base32 form, the decoded key
+     *             is longer than {@link #MAX_KEY_LENGTH} bytes, or the time step is greater
+     *             than {@link #MAX_TIME_STEP}.
+     */
+    public OTPRecord write(OTPAuthURI uri) {
+        String secret = uri.getKey().getKey();
+        byte[] key = uri.getKey().getDecodedKey();
+        boolean padded;
+        if (Base32.encode(key).equals(secret)) {
+            padded = true;
+        } else if (Base32.encode(key, false).equals(secret)) {
+            padded = false;
+        } else {
+            throw new IllegalArgumentException("The secret is not in canonical Base32 form");
+        }
+        OTPType type = uri.getKey().getType();
+        long counter = type == OTPType.HOTP ? uri.getCounter() : -1;
+        write(type, HmacShaAlgorithm.HMAC_SHA_1, uri.getDigits(), uri.getTimeStep() * 1000, counter, key, padded);
+        return this;
+    }
+
+    private void write(OTPType type, HmacShaAlgorithm algorithm, int digits, long timeStep, long counter, byte[] key, boolean padded) {
+        Preconditions.checkArgument(key.length <= MAX_KEY_LENGTH, "The key must be at most %s bytes long", MAX_KEY_LENGTH);
+        Preconditions.checkArgument(timeStep >= 0 && timeStep <= MAX_TIME_STEP, "The time step must be at most %s ms", MAX_TIME_STEP);
+        int descriptor = (type == OTPType.HOTP ? 0 : 1) << TYPE_SHIFT
+                | algorithm.ordinal() << ALGORITHM_SHIFT
+                | (digits - HOTPBuilder.MIN_ALLOWED_DIGITS) << DIGITS_SHIFT
+                | key.length << KEY_LENGTH_SHIFT
+                | (padded ? 1 : 0) << PADDED_SHIFT;
+        INT.set(buffer, offset + DESCRIPTOR, descriptor);
+        INT.setOpaque(buffer, offset + DRIFT, 0);
+        LONG.setOpaque(buffer, offset + COUNTER, counter);
+        INT.set(buffer, offset + TIME_STEP, (int) timeStep);
+        INT.set(buffer, offset + TIME_STEP + 4, 0);
+        buffer.put(offset + KEY, key);
+        // Zero the unused tail of the key field, so that records compare (and compress) well.
+        for (int i = key.length; i < MAX_KEY_LENGTH; i++) {
+            buffer.put(offset + KEY + i, (byte) 0);
+        }
+    }
+
+    /**
+     * Returns whether the record is well-formed, that is whether its descriptor
+     * holds a supported algorithm, number of digits and key length.
+     *
+     * @return {@code true} if the record is well-formed, {@code false} otherwise.
+     */
+    public boolean isWellFormed() {
+        return isWellFormed(descriptor());
+    }
+
+    private static boolean isWellFormed(int descriptor) {
+        return (descriptor >>> ALGORITHM_SHIFT & 0x3) < ALGORITHMS.length
+                && (descriptor >>> DIGITS_SHIFT & 0x3) + HOTPBuilder.MIN_ALLOWED_DIGITS <= HOTPBuilder.MAX_ALLOWED_DIGITS
+                && (descriptor >>> KEY_LENGTH_SHIFT & 0x7F) <= MAX_KEY_LENGTH
+                && descriptor >>> PADDED_SHIFT + 1 == 0;
+    }
+
+    /**
+     * Returns the type of OTP.
+     *
+     * @return the type of OTP.
+     */
+    public OTPType getType() {
+        return type(descriptor());
+    }
+
+    /**
+     * Returns the {@link HmacShaAlgorithm}.
+     *
+     * @return the {@link HmacShaAlgorithm}.
+     *
+     * @throws IllegalStateException
+     *             if the record is not well-formed.
+     */
+    public HmacShaAlgorithm getHmacShaAlgorithm() {
+        return algorithm(checkWellFormed(descriptor()));
+    }
+
+    /**
+     * Returns the number of digits an OTP should contain.
+     *
+     * @return the number of digits an OTP should contain.
+     */
+    public int getDigits() {
+        return digits(descriptor());
+    }
+
+    /**
+     * Returns the time step size in milliseconds.
+     *
+     * @return the time step size in milliseconds.
+     */
+    public long getTimeStep() {
+        return (int) INT.get(buffer, offset + TIME_STEP);
+    }
+
+    /**
+     * Returns the length (in bytes) of the shared secret key.
+     *
+     * @return the length (in bytes) of the shared secret key.
+     */
+    public int getKeyLength() {
+        return keyLength(descriptor());
+    }
+
+    /**
+     * Returns a copy of the shared secret key.
+     *
+     * @return a copy of the shared secret key.
+     *
+     * @throws IllegalStateException
+     *             if the record is not well-formed.
+     */
+    public byte[] getKey() {
+        byte[] key = new byte[keyLength(checkWellFormed(descriptor()))];
+        buffer.get(offset + KEY, key);
+        return key;
+    }
+
+    /**
+     * Copies the shared secret key into {@code dst} (starting at index 0), without
+     * allocating.
+     *
+     * @param dst
+     *            the array to copy the key into, at least {@link #MAX_KEY_LENGTH} bytes long
+     *
+     * @return the length of the key.
+     *
+     * @throws NullPointerException
+     *             if {@code dst} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code dst} is shorter than {@link #MAX_KEY_LENGTH} bytes.
+     * @throws IllegalStateException
+     *             if the record is not well-formed.
+     */
+    public int readKey(byte[] dst) {
+        Preconditions.checkArgument(dst.length >= MAX_KEY_LENGTH);
+        int keyLength = keyLength(checkWellFormed(descriptor()));
+        buffer.get(offset + KEY, dst, 0, keyLength);
+        return keyLength;
+    }
+
+    /**
+     * Returns the counter: the moving factor of an HOTP record, or the last time
+     * step a TOTP value was accepted in (-1 if none) of a TOTP record.
+     *
+     * @return the counter.
+     */
+    public long getCounter() {
+        return (long) LONG.getAcquire(buffer, offset + COUNTER);
+    }
+
+    /**
+     * Sets the counter (see {@link #getCounter()}).
+     *
+     * @param counter
+     *            the new counter
+     */
+    public void setCounter(long counter) {
+        LONG.setRelease(buffer, offset + COUNTER, counter);
+    }
+
+    /**
+     * Atomically sets the counter (see {@link #getCounter()}) to {@code update}
+     * if it currently equals {@code expect}.
+     *
+     * @param expect
+     *            the expected counter
+     * @param update
+     *            the new counter
+     *
+     * @return {@code true} if the counter was updated, {@code false} otherwise.
+     */
+    public boolean compareAndSetCounter(long expect, long update) {
+        return LONG.compareAndSet(buffer, offset + COUNTER, expect, update);
+    }
+
+    /**
+     * Returns the last recorded drift (in time steps) of the client of a TOTP record.
+     *
+     * @return the last recorded drift (in time steps).
+     */
+    public int getDrift() {
+        return (int) INT.getAcquire(buffer, offset + DRIFT);
+    }
+
+    /**
+     * Records the drift (in time steps) of the client of a TOTP record (see
+     * {@link com.lochbridge.oath.otp.TOTPValidationResult#getDrift()}).
+     *
+     * @param drift
+     *            the drift (in time steps)
+     */
+    public void setDrift(int drift) {
+        INT.setRelease(buffer, offset + DRIFT, drift);
+    }
+
+    /**
+     * Returns a new {@link Credential} of the specified user holding the parameters
+     * of the record.
+     *
+     * @param userId
+     *            the ID of the user
+     *
+     * @return a new {@link Credential}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId} is {@code null}.
+     * @throws IllegalStateException
+     *             if the record is not well-formed.
+     */
+    public Credential toCredential(String userId) {
+        Preconditions.checkNotNull(userId);
+        int descriptor = checkWellFormed(descriptor());
+        byte[] key = new byte[keyLength(descriptor)];
+        buffer.get(offset + KEY, key);
+        if (type(descriptor) == OTPType.HOTP) {
+            return Credential.hotp(userId, key, digits(descriptor), Math.max(0, getCounter()));
+        }
+        long timeStep = getTimeStep();
+        Preconditions.checkState(timeStep > 0, "Malformed record: the time step must be > 0");
+        return Credential.totp(userId, key, algorithm(descriptor), digits(descriptor), timeStep);
+    }
+
+    /**
+     * Returns a new {@link OTPAuthURI} with the specified label and issuer, and the
+     * parameters of the record. If the record was written from an {@link OTPAuthURI},
+     * the URI strings of both are equal.
+     *
+     * @param label
+     *            the label (decoded/plain-text)
+     * @param issuer
+     *            the issuer (decoded/plain-text), or {@code null}
+     *
+     * @return a new {@link OTPAuthURI}.
+     *
+     * @throws NullPointerException
+     *             if {@code label} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code label} or {@code issuer} is invalid (see {@link OTPAuthURIBuilder}).
+     * @throws IllegalStateException
+     *             if the record is not well-formed, or its counter (HOTP) or time step (TOTP) is invalid.
+     */
+    public OTPAuthURI toOTPAuthURI(String label, String issuer) {
+        int descriptor = checkWellFormed(descriptor());
+        byte[] key = new byte[keyLength(descriptor)];
+        buffer.get(offset + KEY, key);
+        String secret = (descriptor >>> PADDED_SHIFT & 1) == 1 ? Base32.encode(key) : Base32.encode(key, false);
+        OTPType type = type(descriptor);
+        OTPAuthURIBuilder builder = OTPAuthURIBuilder.fromKey(new OTPKey(secret, type)).label(label).issuer(issuer).digits(digits(descriptor));
+        if (type == OTPType.HOTP) {
+            long counter = getCounter();
+            Preconditions.checkState(counter >= 0, "Malformed record: the counter must be >= 0");
+            builder.counter(counter);
+        } else {
+            long timeStep = getTimeStep();
+            Preconditions.checkState(timeStep > 0, "Malformed record: the time step must be > 0");
+            builder.timeStep(timeStep);
+        }
+        return builder.build();
+    }
+
+    private int descriptor() {
+        return (int) INT.get(buffer, offset + DESCRIPTOR);
+    }
+
+    private static int checkWellFormed(int descriptor) {
+        Preconditions.checkState(isWellFormed(descriptor), "Malformed record descriptor: 0x%s", Integer.toHexString(descriptor));
+        return descriptor;
+    }
+
+    private static OTPType type(int descriptor) {
+        return (descriptor >>> TYPE_SHIFT & 1) == 0 ? OTPType.HOTP : OTPType.TOTP;
+    }
+
+    private static HmacShaAlgorithm algorithm(int descriptor) {
+        return ALGORITHMS[descriptor >>> ALGORITHM_SHIFT & 0x3];
+    }
+
+    private static int digits(int descriptor) {
+        return (descriptor >>> DIGITS_SHIFT & 0x3) + HOTPBuilder.MIN_ALLOWED_DIGITS;
+    }
+
+    private static int keyLength(int descriptor) {
+        return descriptor >>> KEY_LENGTH_SHIFT & 0x7F;
+    }
+
+}
@@ -0,0 +1,11 @@
+package com.lochbridge.oath.otp.store;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith(Suite.class)
+@SuiteClasses({ TestMappedCredentialStore.class, TestOTPRecord.class })
+public class AllUnitTestStoreSuite {
+
+}
@@ -0,0 +1,303 @@
+package com.lochbridge.oath.otp.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lochbridge.oath.otp.HOTP;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.service.Credential;
+import com.lochbridge.oath.otp.service.ValidationService;
+import com.lochbridge.oath.otp.service.ValidationServiceBuilder;
+
+public class TestMappedCredentialStore {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final long TIME_STEP = TimeUnit.SECONDS.toMillis(30);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+    private MappedCredentialStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        path = folder.getRoot().toPath().resolve("credentials.db");
+        store = MappedCredentialStore.create(path, 1000);
+    }
+
+    @Test
+    public void loadShouldReturnTheSavedCredentials() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 8, 42));
+        store.save(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_256, 7, TIME_STEP));
+
+        Credential alice = store.load("alice");
+        assertEquals("alice", alice.getUserId());
+        assertEquals(OTPType.HOTP, alice.getType());
+        assertArrayEquals(KEY, alice.getKey());
+        assertEquals(8, alice.getDigits());
+        assertEquals(42, alice.getMovingFactor());
+
+        Credential bob = store.load("bob");
+        assertEquals(OTPType.TOTP, bob.getType());
+        assertEquals(HmacShaAlgorithm.HMAC_SHA_256, bob.getHmacShaAlgorithm());
+        assertEquals(7, bob.getDigits());
+        assertEquals(TIME_STEP, bob.getTimeStep());
+
+        assertNull(store.load("carol"));
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void saveShouldReplaceAnExistingCredential() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 42));
+        store.updateDrift("alice", 1);
+        byte[] key = "abcdefghijabcdefghijabcdefghij12".getBytes(StandardCharsets.US_ASCII);
+        store.save(Credential.totp("alice", key, HmacShaAlgorithm.HMAC_SHA_512, 6, TIME_STEP));
+        Credential alice = store.load("alice");
+        assertEquals(OTPType.TOTP, alice.getType());
+        assertArrayEquals(key, alice.getKey());
+        assertEquals(0, store.getDrift("alice"));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void storeShouldHoldManyCredentials() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            store.save(Credential.hotp("user" + i, KEY, 6, i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, store.load("user" + i).getMovingFactor());
+        }
+        assertEquals(1000, store.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void saveShouldFailWhenTheStoreIsFull() throws IOException {
+        for (int i = 0; i <= 1000; i++) {
+            store.save(Credential.hotp("user" + i, KEY, 6, i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void saveShouldFailWhenTheKeyIsTooLong() throws IOException {
+        store.save(Credential.hotp("alice", new byte[MappedCredentialStore.MAX_KEY_LENGTH + 1], 6, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void saveShouldFailWhenTheUserIdIsTooLong() throws IOException {
+        char[] userId = new char[MappedCredentialStore.MAX_USER_ID_LENGTH + 1];
+        Arrays.fill(userId, 'a');
+        store.save(Credential.hotp(new String(userId), KEY, 6, 0));
+    }
+
+    @Test
+    public void readKeyShouldCopyTheKeyIntoTheSpecifiedArray() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        byte[] scratch = new byte[MappedCredentialStore.MAX_KEY_LENGTH];
+        assertEquals(KEY.length, store.readKey("alice", scratch));
+        assertArrayEquals(KEY, Arrays.copyOf(scratch, KEY.length));
+        assertEquals(-1, store.readKey("carol", scratch));
+    }
+
+    @Test
+    public void countersShouldBeUpdatedInPlace() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        store.updateMovingFactor("alice", 5);
+        assertEquals(5, store.load("alice").getMovingFactor());
+        assertFalse(store.compareAndSetMovingFactor("alice", 4, 6));
+        assertTrue(store.compareAndSetMovingFactor("alice", 5, 6));
+        assertEquals(6, store.load("alice").getMovingFactor());
+
+        store.save(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP));
+        assertEquals(-1, store.getLastUsedStep("bob"));
+        assertTrue(store.compareAndSetLastUsedStep("bob", -1, 1000));
+        assertFalse(store.compareAndSetLastUsedStep("bob", -1, 1001));
+        assertEquals(1000, store.getLastUsedStep("bob"));
+
+        store.updateDrift("bob", -2);
+        assertEquals(-2, store.getDrift("bob"));
+        assertEquals(6, store.load("alice").getMovingFactor());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void lastUsedStepShouldOnlyBeKeptForTOTPCredentials() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        store.compareAndSetLastUsedStep("alice", 0, 1000);
+    }
+
+    @Test
+    public void batchOperationsShouldApplyToEveryCredential() throws IOException {
+        store.saveAll(Arrays.asList(Credential.hotp("alice", KEY, 6, 0), Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP)));
+        Map<String, Long> movingFactors = new HashMap<String, Long>();
+        movingFactors.put("alice", 4L);
+        movingFactors.put("carol", 1L);
+        store.updateMovingFactors(movingFactors);
+
+        Map<String, Credential> loaded = store.loadAll(Arrays.asList("alice", "bob", "carol"));
+        assertEquals(2, loaded.size());
+        assertEquals(4, loaded.get("alice").getMovingFactor());
+        assertTrue(loaded.get("bob").isTOTP());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateMovingFactorShouldFailForUnknownUsers() {
+        store.updateMovingFactor("carol", 1);
+    }
+
+    @Test
+    public void openShouldRestoreAPreviouslyCreatedStore() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        store.updateMovingFactor("alice", 7);
+        store.close();
+        MappedCredentialStore reopened = MappedCredentialStore.open(path);
+        assertEquals(1, reopened.size());
+        assertEquals(1000, reopened.capacity());
+        assertEquals(7, reopened.load("alice").getMovingFactor());
+    }
+
+    @Test(expected = IOException.class)
+    public void createShouldFailWhenTheFileExists() throws IOException {
+        MappedCredentialStore.create(path, 10);
+    }
+
+    @Test(expected = IOException.class)
+    public void openShouldFailWhenTheFileIsNotAStore() throws IOException {
+        Path other = folder.newFile("other").toPath();
+        Files.write(other, new byte[128]);
+        MappedCredentialStore.open(other);
+    }
+
+    @Test
+    public void readersShouldNeverObserveATornKey() throws Exception {
+        final byte[] first = new byte[32];
+        final byte[] second = new byte[32];
+        Arrays.fill(first, (byte) 1);
+        Arrays.fill(second, (byte) 2);
+        store.save(Credential.hotp("alice", first, 6, 0));
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicInteger torn = new AtomicInteger();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] scratch = new byte[MappedCredentialStore.MAX_KEY_LENGTH];
+                while (!done.get()) {
+                    try {
+                        store.readKey("alice", scratch);
+                    } catch (IOException e) {
+                        torn.incrementAndGet();
+                        return;
+                    }
+                    byte[] key = Arrays.copyOf(scratch, 32);
+                    if (!Arrays.equals(key, first) && !Arrays.equals(key, second)) {
+                        torn.incrementAndGet();
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 20000; i++) {
+            store.save(Credential.hotp("alice", i % 2 == 0 ? second : first, 6, 0));
+        }
+        done.set(true);
+        reader.join();
+        assertEquals(0, torn.get());
+    }
+
+    @Test(timeout = 30000)
+    public void openShouldQuarantineRecordsLeftHalfRewritten() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        store.save(Credential.hotp("bob", KEY, 6, 0));
+        store.close();
+        // As if the process died while rewriting alice's record.
+        long version = readRecordLong(0, 0);
+        writeRecordLong(0, 0, version + 1);
+
+        MappedCredentialStore reopened = MappedCredentialStore.open(path);
+        try {
+            reopened.load("alice");
+            fail("alice's record is quarantined");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("alice"));
+        }
+        try {
+            reopened.readKey("alice", new byte[MappedCredentialStore.MAX_KEY_LENGTH]);
+            fail("alice's record is quarantined");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertEquals(0, readRecordLong(0, 0) & 1);
+        assertEquals(0, reopened.load("bob").getMovingFactor());
+        // Enrolling the user again lifts the quarantine.
+        reopened.save(Credential.hotp("alice", KEY, 6, 3));
+        assertEquals(3, reopened.load("alice").getMovingFactor());
+    }
+
+    @Test(timeout = 30000, expected = IOException.class)
+    public void loadShouldFailOnAMalformedRecord() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        store.force();
+        // An invalid key length (and padding) in the record descriptor.
+        writeRecordLong(0, 104, 0xFFFFFFFFL);
+        store.load("alice");
+    }
+
+    @Test
+    public void validationServiceShouldAdvanceTheMovingFactorInPlace() throws IOException {
+        store.save(Credential.hotp("alice", KEY, 6, 0));
+        try (ValidationService service = ValidationServiceBuilder.fromStore(store).build()) {
+            assertTrue(service.validate(null, "alice", HOTP.key(KEY).movingFactor(0).build().value()).isValid());
+        }
+        assertEquals(1, store.load("alice").getMovingFactor());
+    }
+
+    private long recordPosition(long record, int field) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer indexSlots = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(indexSlots, 16);
+            return 64 + indexSlots.getLong(0) * 8 + record * MappedCredentialStore.RECORD_SIZE + field;
+        }
+    }
+
+    private long readRecordLong(long record, int field) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.read(value, recordPosition(record, field));
+        }
+        return value.getLong(0);
+    }
+
+    private void writeRecordLong(long record, int field, long value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(0, value);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(buffer, recordPosition(record, field));
+        }
+    }
+
+}
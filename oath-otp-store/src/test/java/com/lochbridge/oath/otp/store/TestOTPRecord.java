@@ -0,0 +1,153 @@
+package com.lochbridge.oath.otp.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.service.Credential;
+
+public class TestOTPRecord {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+    private static final long TIME_STEP = TimeUnit.SECONDS.toMillis(30);
+
+    private ByteBuffer slots;
+    private OTPRecord record;
+
+    @Before
+    public void setUp() {
+        slots = ByteBuffer.allocateDirect(4 * OTPRecord.SIZE);
+        record = new OTPRecord();
+    }
+
+    @Test
+    public void recordShouldFitInTheAdvertisedSlot() {
+        assertTrue(OTPRecord.SIZE >= 48 && OTPRecord.SIZE <= 96);
+        assertEquals(0, OTPRecord.SIZE % 8);
+    }
+
+    @Test
+    public void writeShouldPackTheCredentialParameters() {
+        record.wrap(slots, OTPRecord.SIZE).write(Credential.totp("alice", KEY, HmacShaAlgorithm.HMAC_SHA_512, 8, TIME_STEP));
+        assertEquals(OTPType.TOTP, record.getType());
+        assertEquals(HmacShaAlgorithm.HMAC_SHA_512, record.getHmacShaAlgorithm());
+        assertEquals(8, record.getDigits());
+        assertEquals(TIME_STEP, record.getTimeStep());
+        assertEquals(KEY.length, record.getKeyLength());
+        assertArrayEquals(KEY, record.getKey());
+        assertEquals(-1, record.getCounter());
+        assertEquals(0, record.getDrift());
+
+        // The neighbouring slots are left untouched.
+        for (int i = 0; i < OTPRecord.SIZE; i++) {
+            assertEquals(0, slots.get(i));
+            assertEquals(0, slots.get(2 * OTPRecord.SIZE + i));
+        }
+    }
+
+    @Test
+    public void toCredentialShouldRestoreTheCredential() {
+        record.wrap(slots, 0).write(Credential.hotp("alice", KEY, 7, 42));
+        Credential hotp = record.toCredential("alice");
+        assertEquals("alice", hotp.getUserId());
+        assertEquals(OTPType.HOTP, hotp.getType());
+        assertArrayEquals(KEY, hotp.getKey());
+        assertEquals(7, hotp.getDigits());
+        assertEquals(42, hotp.getMovingFactor());
+
+        record.wrap(slots, OTPRecord.SIZE).write(Credential.totp("bob", KEY, HmacShaAlgorithm.HMAC_SHA_256, 6, TIME_STEP));
+        Credential totp = record.toCredential("bob");
+        assertEquals(OTPType.TOTP, totp.getType());
+        assertEquals(HmacShaAlgorithm.HMAC_SHA_256, totp.getHmacShaAlgorithm());
+        assertEquals(6, totp.getDigits());
+        assertEquals(TIME_STEP, totp.getTimeStep());
+    }
+
+    @Test
+    public void toOTPAuthURIShouldRestoreTheURI() {
+        OTPAuthURI totp = OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQGEZDGNBVGY3TQOJQ", OTPType.TOTP))
+                .label("Acme Corporation:Alice Smith").issuer("Acme Corporation").digits(8).timeStep(TimeUnit.SECONDS.toMillis(60)).build();
+        OTPAuthURI hotp = OTPAuthURIBuilder.fromKey(new OTPKey("JBSWY3DPEHPK3PXP", OTPType.HOTP))
+                .label("bob@example.com").digits(6).counter(Long.MAX_VALUE).build();
+        // A 16-byte key, whose Base32 form is padded (or not).
+        OTPAuthURI padded = OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQGEZDGNBVGY======", OTPType.TOTP)).label("carol").build();
+        OTPAuthURI unpadded = OTPAuthURIBuilder.fromKey(new OTPKey("GEZDGNBVGY3TQOJQGEZDGNBVGY", OTPType.TOTP)).label("carol").build();
+
+        OTPAuthURI[] uris = { totp, hotp, padded, unpadded };
+        for (int i = 0; i < uris.length; i++) {
+            record.wrap(slots, i * OTPRecord.SIZE).write(uris[i]);
+        }
+        for (int i = 0; i < uris.length; i++) {
+            OTPAuthURI restored = record.wrap(slots, i * OTPRecord.SIZE).toOTPAuthURI(uris[i].getLabel(), uris[i].getIssuer());
+            assertEquals(uris[i].toUriString(), restored.toUriString());
+            assertEquals(uris[i].getDigits(), restored.getDigits());
+        }
+        assertEquals(Long.MAX_VALUE, record.wrap(slots, OTPRecord.SIZE).getCounter());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writeShouldRejectANonCanonicalSecret() {
+        record.wrap(slots, 0).write(OTPAuthURIBuilder.fromKey(new OTPKey("jbswy3dpehpk3pxp", OTPType.TOTP)).label("alice").build());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writeShouldRejectATooLongKey() {
+        record.wrap(slots, 0).write(Credential.hotp("alice", new byte[OTPRecord.MAX_KEY_LENGTH + 1], 6, 0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void wrapShouldRejectAnOutOfBoundsOffset() {
+        record.wrap(slots, 3 * OTPRecord.SIZE + 1);
+    }
+
+    @Test
+    public void counterAndDriftShouldBeUpdatedInPlace() {
+        record.wrap(slots, 0).write(Credential.hotp("alice", KEY, 6, 5));
+        assertTrue(record.compareAndSetCounter(5, 6));
+        assertFalse(record.compareAndSetCounter(5, 7));
+        record.setDrift(-2);
+        OTPRecord other = new OTPRecord().wrap(slots, 0);
+        assertEquals(6, other.getCounter());
+        assertEquals(-2, other.getDrift());
+        record.setCounter(10);
+        assertEquals(10, other.toCredential("alice").getMovingFactor());
+    }
+
+    @Test
+    public void readKeyShouldCopyTheKey() {
+        record.wrap(slots, 0).write(Credential.hotp("alice", KEY, 6, 0));
+        byte[] dst = new byte[OTPRecord.MAX_KEY_LENGTH];
+        assertEquals(KEY.length, record.readKey(dst));
+        for (int i = 0; i < KEY.length; i++) {
+            assertEquals(KEY[i], dst[i]);
+        }
+    }
+
+    @Test
+    public void isWellFormedShouldDetectCorruptDescriptors() {
+        record.wrap(slots, 0).write(Credential.hotp("alice", KEY, 6, 0));
+        assertTrue(record.isWellFormed());
+        slots.put(0, (byte) 0x06); // Algorithm ordinal 3.
+        assertFalse(record.isWellFormed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void toCredentialShouldRejectAMalformedRecord() {
+        slots.putInt(0, -1);
+        record.wrap(slots, 0).toCredential("alice");
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.lochbridge.oath.otp;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * An {@link HOTPValidator} decorator that collapses duplicate, concurrent
+ * validation requests into a single validation pass.
+ * <p>
+ * Clients (and the load balancers in front of the authentication server) tend
+ * to retry aggressively, so the very same HOTP value for the very same client
+ * is frequently submitted several times within a few milliseconds. Without
+ * coalescing, each copy recomputes the entire look-ahead window, and the
+ * copies race one another when the authentication server persists the new
+ * moving factor. With coalescing, all concurrent requests for the same
+ * {@code (userId, movingFactor, digits, value)} tuple share a single
+ * {@link HOTPValidationResult}.
+ * <p>
+ * Requests may optionally carry a request ID. Results are retained under that
+ * ID for a short time-to-live, so that a retry arriving after the original
+ * request has completed (and after the moving factor has been advanced) is
+ * still answered with the original result, rather than being validated
+ * against the advanced moving factor.
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * CoalescingHOTPValidator validator = CoalescingHOTPValidator.from(HOTPValidator.defaultLookAheadWindow());
+ * HOTPValidationResult result = validator.validate(requestId, userId, key, currentMovingFactor, 6, clientHOTPValue);
+ * if (result.isValid()) {
+ *     updateMovingFactorForClient(userId, result.getNewMovingFactor());
+ * }
+ * </pre>
+ *
+ * @see HOTPValidator
+ */
+public final class CoalescingHOTPValidator {
+
+    /** The default amount of time (in milliseconds) a result is retained under its request ID. */
+    public static final long DEFAULT_IDEMPOTENCY_TTL = TimeUnit.SECONDS.toMillis(30);
+
+    /** The default maximum number of request IDs retained at any given time. */
+    public static final long DEFAULT_MAXIMUM_IDEMPOTENCY_ENTRIES = 100000;
+
+    private final HOTPValidator validator;
+    private final SingleFlight<Request, HOTPValidationResult> singleFlight;
+
+    private CoalescingHOTPValidator(HOTPValidator validator, long idempotencyTtl, TimeUnit unit, long maximumIdempotencyEntries) {
+        Preconditions.checkNotNull(validator);
+        this.validator = validator;
+        this.singleFlight = new SingleFlight<Request, HOTPValidationResult>(idempotencyTtl, unit, maximumIdempotencyEntries);
+    }
+
+    /**
+     * Returns a new {@link CoalescingHOTPValidator} instance delegating to the
+     * specified {@code validator}, and retaining results for
+     * {@link #DEFAULT_IDEMPOTENCY_TTL} milliseconds.
+     *
+     * @param validator
+     *            the {@link HOTPValidator} to delegate to
+     *
+     * @return a new {@link CoalescingHOTPValidator} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code validator} is {@code null}.
+     */
+    public static CoalescingHOTPValidator from(HOTPValidator validator) {
+        return from(validator, DEFAULT_IDEMPOTENCY_TTL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a new {@link CoalescingHOTPValidator} instance delegating to the
+     * specified {@code validator}, and retaining results for the specified
+     * {@code idempotencyTtl}.
+     *
+     * @param validator
+     *            the {@link HOTPValidator} to delegate to
+     * @param idempotencyTtl
+     *            the amount of time a result is retained under its request ID
+     * @param unit
+     *            the unit of {@code idempotencyTtl}
+     *
+     * @return a new {@link CoalescingHOTPValidator} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code validator} or {@code unit} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code idempotencyTtl} is {@literal <} 0.
+     */
+    public static CoalescingHOTPValidator from(HOTPValidator validator, long idempotencyTtl, TimeUnit unit) {
+        return new CoalescingHOTPValidator(validator, idempotencyTtl, unit, DEFAULT_MAXIMUM_IDEMPOTENCY_ENTRIES);
+    }
+
+    /**
+     * Returns an {@link HOTPValidationResult} detailing a successful HOTP
+     * validation or not. Concurrent calls for the same {@code userId},
+     * {@code movingFactor}, {@code digits} and {@code value} share a single
+     * validation pass, and therefore the same result.
+     *
+     * @param requestId
+     *            the (optional) request ID used to answer retries (of the same
+     *            user, digits and value) idempotently, or {@code null}
+     * @param userId
+     *            the ID of the client the shared secret {@code key} belongs to
+     * @param key
+     *            the shared secret key
+     * @param movingFactor
+     *            the current moving factor
+     * @param digits
+     *            the number of digits an HOTP should contain
+     * @param value
+     *            the HOTP value to validate
+     *
+     * @return an {@link HOTPValidationResult} detailing a successful HOTP validation or not.
+     *
+     * @throws NullPointerException
+     *             if {@code userId}, {@code key} or {@code value} is {@code null}.
+     */
+    public HOTPValidationResult validate(String requestId, String userId, final byte[] key, final long movingFactor, final int digits, final String value) {
+        Preconditions.checkNotNull(userId);
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(value);
+        return singleFlight.execute(requestId, Arrays.<Object>asList(userId, digits, value), new Request(userId, movingFactor, digits, value), new Callable<HOTPValidationResult>() {
+            @Override
+            public HOTPValidationResult call() {
+                return validator.validate(key, movingFactor, digits, value);
+            }
+        });
+    }
+
+    /** The identity of an HOTP validation request, as far as coalescing is concerned. */
+    private static final class Request {
+
+        private final String userId;
+        private final long movingFactor;
+        private final int digits;
+        private final String value;
+
+        Request(String userId, long movingFactor, int digits, String value) {
+            this.userId = userId;
+            this.movingFactor = movingFactor;
+            this.digits = digits;
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(userId, movingFactor, digits, value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Request))
+                return false;
+            Request other = (Request) obj;
+            return movingFactor == other.movingFactor && digits == other.digits && userId.equals(other.userId) && value.equals(other.value);
+        }
+
+    }
+
+}
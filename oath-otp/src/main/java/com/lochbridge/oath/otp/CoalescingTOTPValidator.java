@@ -0,0 +1,241 @@
+package com.lochbridge.oath.otp;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * A {@link TOTPValidator} decorator that collapses duplicate, concurrent
+ * validation requests into a single validation pass.
+ * <p>
+ * All concurrent requests for the same client, TOTP value and validation
+ * parameters whose validation times fall within the same time step share a
+ * single validation pass, and therefore the same result. Since the window of
+ * time steps checked by a {@link TOTPValidator} only depends on the time step
+ * the validation time falls in, collapsing such requests does not alter the
+ * outcome of any of them.
+ * <p>
+ * Requests may optionally carry a request ID. Results are retained under that
+ * ID for a short time-to-live, so that retries are answered with the original
+ * result.
+ * <p>
+ * Example:
+ * </p>
+ *
+ * <pre>
+ * CoalescingTOTPValidator validator = CoalescingTOTPValidator.from(TOTPValidator.defaultWindow());
+ * boolean valid = validator.isValid(requestId, userId, key, TimeUnit.SECONDS.toMillis(30), 6, HmacShaAlgorithm.HMAC_SHA_1, clientTOTP);
+ * </pre>
+ *
+ * @see TOTPValidator
+ */
+public final class CoalescingTOTPValidator {
+
+    /** The default amount of time (in milliseconds) a result is retained under its request ID. */
+    public static final long DEFAULT_IDEMPOTENCY_TTL = TimeUnit.SECONDS.toMillis(30);
+
+    /** The default maximum number of request IDs retained at any given time. */
+    public static final long DEFAULT_MAXIMUM_IDEMPOTENCY_ENTRIES = 100000;
+
+    private final TOTPValidator validator;
+    private final SingleFlight<Request, TOTPValidationResult> singleFlight;
+
+    private CoalescingTOTPValidator(TOTPValidator validator, long idempotencyTtl, TimeUnit unit, long maximumIdempotencyEntries) {
+        Preconditions.checkNotNull(validator);
+        this.validator = validator;
+        this.singleFlight = new SingleFlight<Request, TOTPValidationResult>(idempotencyTtl, unit, maximumIdempotencyEntries);
+    }
+
+    /**
+     * Returns a new {@link CoalescingTOTPValidator} instance delegating to the
+     * specified {@code validator}, and retaining results for
+     * {@link #DEFAULT_IDEMPOTENCY_TTL} milliseconds.
+     *
+     * @param validator
+     *            the {@link TOTPValidator} to delegate to
+     *
+     * @return a new {@link CoalescingTOTPValidator} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code validator} is {@code null}.
+     */
+    public static CoalescingTOTPValidator from(TOTPValidator validator) {
+        return from(validator, DEFAULT_IDEMPOTENCY_TTL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a new {@link CoalescingTOTPValidator} instance delegating to the
+     * specified {@code validator}, and retaining results for the specified
+     * {@code idempotencyTtl}.
+     *
+     * @param validator
+     *            the {@link TOTPValidator} to delegate to
+     * @param idempotencyTtl
+     *            the amount of time a result is retained under its request ID
+     * @param unit
+     *            the unit of {@code idempotencyTtl}
+     *
+     * @return a new {@link CoalescingTOTPValidator} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code validator} or {@code unit} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code idempotencyTtl} is {@literal <} 0.
+     */
+    public static CoalescingTOTPValidator from(TOTPValidator validator, long idempotencyTtl, TimeUnit unit) {
+        return new CoalescingTOTPValidator(validator, idempotencyTtl, unit, DEFAULT_MAXIMUM_IDEMPOTENCY_ENTRIES);
+    }
+
+    /**
+     * Returns {@code true} if the specified TOTP {@code value} matches the
+     * value of the TOTP generated at validation, otherwise {@code false}. The
+     * current system time is used as the validation reference time.
+     *
+     * @param requestId
+     *            the (optional) request ID used to answer retries (of the same
+     *            user, digits and value) idempotently, or {@code null}
+     * @param userId
+     *            the ID of the client the shared secret {@code key} belongs to
+     * @param key
+     *            the encoded shared secret key
+     * @param timeStep
+     *            the time step size in milliseconds
+     * @param digits
+     *            the number of digits a TOTP should contain
+     * @param hmacShaAlgorithm
+     *            {@link HmacShaAlgorithm}
+     * @param value
+     *            the TOTP value to validate
+     *
+     * @return {@code true} if the specified TOTP {@code value} is valid, otherwise {@code false}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId}, {@code key}, {@code hmacShaAlgorithm} or {@code value} is {@code null}.
+     */
+    public boolean isValid(String requestId, String userId, byte[] key, long timeStep, int digits, HmacShaAlgorithm hmacShaAlgorithm, String value) {
+        return isValid(requestId, userId, key, timeStep, digits, hmacShaAlgorithm, value, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns {@code true} if the specified TOTP {@code value} matches the
+     * value of the TOTP generated at validation, otherwise {@code false}.
+     *
+     * @param requestId
+     *            the (optional) request ID used to answer retries (of the same
+     *            user, digits and value) idempotently, or {@code null}
+     * @param userId
+     *            the ID of the client the shared secret {@code key} belongs to
+     * @param key
+     *            the encoded shared secret key
+     * @param timeStep
+     *            the time step size in milliseconds
+     * @param digits
+     *            the number of digits a TOTP should contain
+     * @param hmacShaAlgorithm
+     *            {@link HmacShaAlgorithm}
+     * @param value
+     *            the TOTP value to validate
+     * @param validationTime
+     *            the validation reference time in milliseconds
+     *
+     * @return {@code true} if the specified TOTP {@code value} is valid, otherwise {@code false}.
+     *
+     * @throws NullPointerException
+     *             if {@code userId}, {@code key}, {@code hmacShaAlgorithm} or {@code value} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code timeStep} is {@literal <=} 0.
+     */
+    public boolean isValid(String requestId, String userId, byte[] key, long timeStep, int digits, HmacShaAlgorithm hmacShaAlgorithm, String value,
+            long validationTime) {
+        return validate(requestId, userId, key, timeStep, digits, hmacShaAlgorithm, value, validationTime).isValid();
+    }
+
+    /**
+     * Returns a {@link TOTPValidationResult} detailing a successful TOTP
+     * validation or not. Concurrent calls for the same {@code userId},
+     * validation parameters, and {@code value} whose {@code validationTime}s
+     * fall within the same time step share a single validation pass, and
+     * therefore the same result.
+     *
+     * @param requestId
+     *            the (optional) request ID used to answer retries (of the same
+     *            user, digits and value) idempotently, or {@code null}
+     * @param userId
+     *            the ID of the client the shared secret {@code key} belongs to
+     * @param key
+     *            the encoded shared secret key
+     * @param timeStep
+     *            the time step size in milliseconds
+     * @param digits
+     *            the number of digits a TOTP should contain
+     * @param hmacShaAlgorithm
+     *            {@link HmacShaAlgorithm}
+     * @param value
+     *            the TOTP value to validate
+     * @param validationTime
+     *            the validation reference time in milliseconds
+     *
+     * @return a {@link TOTPValidationResult} detailing a successful TOTP validation or not.
+     *
+     * @throws NullPointerException
+     *             if {@code userId}, {@code key}, {@code hmacShaAlgorithm} or {@code value} is {@code null}.
+     * @throws IllegalArgumentException
+     *             if {@code timeStep} is {@literal <=} 0.
+     */
+    public TOTPValidationResult validate(String requestId, String userId, final byte[] key, final long timeStep, final int digits,
+            final HmacShaAlgorithm hmacShaAlgorithm, final String value, final long validationTime) {
+        Preconditions.checkNotNull(userId);
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(hmacShaAlgorithm);
+        Preconditions.checkNotNull(value);
+        Preconditions.checkArgument(timeStep > 0);
+        Request request = new Request(userId, validationTime / timeStep, timeStep, digits, hmacShaAlgorithm, value);
+        return singleFlight.execute(requestId, Arrays.<Object>asList(userId, timeStep, digits, hmacShaAlgorithm, value), request, new Callable<TOTPValidationResult>() {
+            @Override
+            public TOTPValidationResult call() {
+                return validator.validate(key, timeStep, digits, hmacShaAlgorithm, value, validationTime);
+            }
+        });
+    }
+
+    /** The identity of a TOTP validation request, as far as coalescing is concerned. */
+    private static final class Request {
+
+        private final String userId;
+        private final long timeStepIndex;
+        private final long timeStep;
+        private final int digits;
+        private final HmacShaAlgorithm hmacShaAlgorithm;
+        private final String value;
+
+        Request(String userId, long timeStepIndex, long timeStep, int digits, HmacShaAlgorithm hmacShaAlgorithm, String value) {
+            this.userId = userId;
+            this.timeStepIndex = timeStepIndex;
+            this.timeStep = timeStep;
+            this.digits = digits;
+            this.hmacShaAlgorithm = hmacShaAlgorithm;
+            this.value = value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(userId, timeStepIndex, timeStep, digits, hmacShaAlgorithm, value);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Request))
+                return false;
+            Request other = (Request) obj;
+            return timeStepIndex == other.timeStepIndex && timeStep == other.timeStep && digits == other.digits
+                    && hmacShaAlgorithm == other.hmacShaAlgorithm && userId.equals(other.userId) && value.equals(other.value);
+        }
+
+    }
+
+}
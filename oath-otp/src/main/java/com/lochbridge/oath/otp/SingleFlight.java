@@ -0,0 +1,164 @@
+package com.lochbridge.oath.otp;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Collapses concurrent executions of identical computations into a single
+ * execution, and remembers completed results for a short period of time under
+ * a caller supplied request ID.
+ * <p>
+ * The first caller to {@link #execute(String, Object, Object, Callable)} a given
+ * {@code key} runs the computation on its own thread; any caller that arrives
+ * with an equal {@code key} while the computation is still in flight waits
+ * for, and receives, the very same result (or exception). Once a computation
+ * completes, its key is released so that subsequent calls compute afresh.
+ * <p>
+ * If a request ID is supplied, the result is additionally retained in an
+ * idempotency cache for the configured time-to-live, so that retries carrying
+ * the same request ID are answered without recomputation, even if the
+ * original computation has already completed. A retained result is only
+ * replayed to callers supplying the same request ID <em>and</em> an equal
+ * {@code identity} (e.g. the user and the submitted value): request IDs are
+ * chosen by clients, so any other caller reusing the ID is computed afresh,
+ * without replacing the retained result.
+ *
+ * @param <K>
+ *            the type of the in-flight computation keys
+ * @param <V>
+ *            the type of the computed values
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+    private final Cache<String, Completed<V>> completed;
+
+    /**
+     * Creates a new instance of {@code SingleFlight}.
+     *
+     * @param idempotencyTtl
+     *            the amount of time a completed result is retained under its request ID
+     * @param unit
+     *            the unit of {@code idempotencyTtl}
+     * @param maximumIdempotencyEntries
+     *            the maximum number of request IDs retained at any given time
+     *
+     * @throws IllegalArgumentException
+     *             if {@code idempotencyTtl} is {@literal <} 0, or {@code maximumIdempotencyEntries} is {@literal <} 0.
+     * @throws NullPointerException
+     *             if {@code unit} is {@code null}.
+     */
+    SingleFlight(long idempotencyTtl, TimeUnit unit, long maximumIdempotencyEntries) {
+        Preconditions.checkArgument(idempotencyTtl >= 0);
+        Preconditions.checkNotNull(unit);
+        Preconditions.checkArgument(maximumIdempotencyEntries >= 0);
+        this.completed = CacheBuilder.newBuilder()
+                .expireAfterWrite(idempotencyTtl, unit)
+                .maximumSize(maximumIdempotencyEntries)
+                .build();
+    }
+
+    /**
+     * Returns the result of {@code computation}, sharing a single execution
+     * amongst all concurrent callers of an equal {@code key}.
+     *
+     * @param requestId
+     *            the (optional) idempotency key of the request, or {@code null}
+     * @param identity
+     *            what a retry of the request must match to be answered with the
+     *            retained result (ignored without a request ID)
+     * @param key
+     *            the key identifying the computation
+     * @param computation
+     *            the computation to execute if no equivalent computation is in flight
+     *
+     * @return the result of the (possibly shared) computation.
+     *
+     * @throws NullPointerException
+     *             if {@code identity}, {@code key} or {@code computation} is {@code null}.
+     */
+    V execute(String requestId, final Object identity, final K key, final Callable<V> computation) {
+        Preconditions.checkNotNull(identity);
+        Preconditions.checkNotNull(key);
+        Preconditions.checkNotNull(computation);
+        if (requestId == null) {
+            return coalesce(key, computation);
+        }
+        Completed<V> result;
+        try {
+            // The cache itself guarantees that only one loader per request ID runs at a time.
+            result = completed.get(requestId, new Callable<Completed<V>>() {
+                @Override
+                public Completed<V> call() {
+                    return new Completed<V>(identity, coalesce(key, computation));
+                }
+            });
+        } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+            throw propagate(e.getCause());
+        }
+        return result.identity.equals(identity) ? result.value : coalesce(key, computation);
+    }
+
+    /**
+     * Returns the number of computations currently in flight.
+     *
+     * @return the number of computations currently in flight.
+     */
+    int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private V coalesce(K key, Callable<V> computation) {
+        FutureTask<V> task = new FutureTask<V>(computation);
+        FutureTask<V> leader = inFlight.putIfAbsent(key, task);
+        if (leader == null) {
+            leader = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+        try {
+            return Uninterruptibles.getUninterruptibly(leader);
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        }
+    }
+
+    /** A retained result, and the identity of the request that computed it. */
+    private static final class Completed<V> {
+
+        final Object identity;
+        final V value;
+
+        Completed(Object identity, V value) {
+            this.identity = identity;
+            this.value = value;
+        }
+
+    }
+
+    private static RuntimeException propagate(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new UndeclaredThrowableException(cause);
+    }
+
+}
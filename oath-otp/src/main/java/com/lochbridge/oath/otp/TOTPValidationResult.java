@@ -0,0 +1,73 @@
+package com.lochbridge.oath.otp;
+
+/**
+ * An immutable class representing the result of a TOTP authentication pass.
+ */
+public class TOTPValidationResult {
+
+    private static final TOTPValidationResult INVALID = new TOTPValidationResult(false, 0, -1);
+
+    private final boolean valid;
+    private final int drift;
+    private final long timeStepIndex;
+
+    /**
+     * Creates a new instance of {@code TOTPValidationResult}. Note that all 
+     * parameters are assumed to be valid since the {@link TOTPValidator} is 
+     * responsible for validating arguments, and creation of {@link TOTPValidationResult}s.
+     * 
+     * @param valid
+     *            {@code true} if a TOTP authentication pass has succeeded or not {@code false}
+     * @param drift
+     *            the offset (in time steps) of the time step that produced the TOTP value,
+     *            relative to the time step of the validation reference time
+     * @param timeStepIndex
+     *            the index of the time step that produced the TOTP value
+     */
+    TOTPValidationResult(boolean valid, int drift, long timeStepIndex) {
+        this.valid = valid;
+        this.drift = drift;
+        this.timeStepIndex = timeStepIndex;
+    }
+
+    static TOTPValidationResult invalid() {
+        return INVALID;
+    }
+
+    /**
+     * Returns {@code true} if a TOTP authentication pass has succeeded or not {@code false}.
+     * 
+     * @return {@code true} if a TOTP authentication pass has succeeded or not {@code false}.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Returns the offset (in time steps) of the time step that produced the TOTP value,
+     * relative to the time step of the validation reference time: negative if the client's
+     * clock lags behind the validation system's clock, positive if it is ahead, and 0 if
+     * the validation was unsuccessful. Authentication servers may record the drift to 
+     * resynchronize clients, as per
+     * <a href="https://tools.ietf.org/html/rfc6238#section-6">RFC 6238 (section 6)</a>.
+     * 
+     * @return the offset (in time steps) of the time step that produced the TOTP value.
+     */
+    public int getDrift() {
+        return drift;
+    }
+
+    /**
+     * Returns the index of the time step that produced the TOTP value (the
+     * number of time steps since the Unix epoch), or -1 if the validation was
+     * unsuccessful. Authentication servers should record the index of the last
+     * accepted time step, and reject values of that step or earlier ones, as per
+     * <a href="https://tools.ietf.org/html/rfc6238#section-5.2">RFC 6238 (section 5.2)</a>.
+     * 
+     * @return the index of the time step that produced the TOTP value, or -1.
+     */
+    public long getTimeStepIndex() {
+        return timeStepIndex;
+    }
+
+}
@@ -140,17 +140,38 @@ public final class TOTPValidator {
      *         {@code false}.
      */
     public boolean isValid(byte[] key, long timeStep, int digits, HmacShaAlgorithm hmacShaAlgorithm, String value, long validationTime) {
-        boolean result = false;
+        return validate(key, timeStep, digits, hmacShaAlgorithm, value, validationTime).isValid();
+    }
+
+    /**
+     * Returns a {@link TOTPValidationResult} detailing a successful TOTP validation
+     * or not, along with the drift (in time steps) of the client if successful.
+     * 
+     * @param key
+     *            the encoded shared secret key
+     * @param timeStep
+     *            the time step size in milliseconds
+     * @param digits
+     *            the number of digits a TOTP should contain
+     * @param hmacShaAlgorithm
+     *            {@link HmacShaAlgorithm}
+     * @param value
+     *            the TOTP value to validate
+     * @param validationTime
+     *            the validation reference time in milliseconds
+     * 
+     * @return a {@link TOTPValidationResult} detailing a successful TOTP validation or not.
+     */
+    public TOTPValidationResult validate(byte[] key, long timeStep, int digits, HmacShaAlgorithm hmacShaAlgorithm, String value, long validationTime) {
         TOTPBuilder builder = TOTP.key(key).timeStep(timeStep).digits(digits).hmacSha(hmacShaAlgorithm);
         for (int i = -window; i <= window; i++) {
             final long time = validationTime + (i * timeStep);
             final TOTP vtotp = builder.build(time);
             if (vtotp.value().equals(value)) {
-                result = true;
-                break;
+                return new TOTPValidationResult(true, i, time / timeStep);
             }
         }
-        return result;
+        return TOTPValidationResult.invalid();
     }
 
 }
\ No newline at end of file
@@ -6,7 +6,7 @@ import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
 @SuiteClasses({ TestHmacShaAlgorithm.class, TestHOTP.class, TestHOTPBuilder.class, TestTOTP.class, TestTOTPBuilder.class, TestTOTPValidator.class,
-    TestHOTPValidator.class })
+    TestHOTPValidator.class, TestSingleFlight.class, TestCoalescingHOTPValidator.class, TestCoalescingTOTPValidator.class })
 public class AllUnitTestOtpSuite {
 
 }
\ No newline at end of file
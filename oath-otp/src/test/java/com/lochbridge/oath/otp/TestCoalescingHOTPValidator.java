@@ -0,0 +1,63 @@
+package com.lochbridge.oath.otp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.lochbridge.oath.otp.RFC4226TestVectors.TestVector;
+
+public class TestCoalescingHOTPValidator {
+
+    @Test
+    public void validateShouldSucceedUnderRFC4226TestCases() {
+        CoalescingHOTPValidator validator = CoalescingHOTPValidator.from(HOTPValidator.defaultLookAheadWindow());
+        for (TestVector testVector : RFC4226TestVectors.TEST_VECTORS) {
+            HOTPValidationResult result = validator.validate(null, "alice", testVector.getKey(), testVector.getMovingFactor(), testVector.getDigits(),
+                    testVector.getHotp());
+            assertTrue(result.isValid());
+            assertEquals(testVector.getMovingFactor() + 1, result.getNewMovingFactor());
+        }
+    }
+
+    @Test
+    public void validateShouldReplayTheOriginalResultForARetriedRequestId() {
+        CoalescingHOTPValidator validator = CoalescingHOTPValidator.from(HOTPValidator.lookAheadWindow(1), 1, TimeUnit.MINUTES);
+        HOTP source = HOTP.key(RFC4226TestVectors.KEY).movingFactor(5).build();
+        HOTPValidationResult result = validator.validate("request-1", "alice", RFC4226TestVectors.KEY, 5, source.digits(), source.value());
+        assertTrue(result.isValid());
+        assertEquals(6, result.getNewMovingFactor());
+
+        // The retry arrives after the moving factor was advanced, yet is answered with the original result.
+        HOTPValidationResult retry = validator.validate("request-1", "alice", RFC4226TestVectors.KEY, 6, source.digits(), source.value());
+        assertTrue(retry.isValid());
+        assertEquals(6, retry.getNewMovingFactor());
+
+        // Without the request ID, the (now spent) HOTP value is rejected.
+        assertFalse(validator.validate(null, "alice", RFC4226TestVectors.KEY, 6, source.digits(), source.value()).isValid());
+    }
+
+    @Test
+    public void validateShouldNotReplayTheOriginalResultForAnotherCodeOrUser() {
+        CoalescingHOTPValidator validator = CoalescingHOTPValidator.from(HOTPValidator.lookAheadWindow(1), 1, TimeUnit.MINUTES);
+        HOTP source = HOTP.key(RFC4226TestVectors.KEY).movingFactor(5).build();
+        assertTrue(validator.validate("request-1", "alice", RFC4226TestVectors.KEY, 5, source.digits(), source.value()).isValid());
+        String wrong = source.value().equals("000000") ? "111111" : "000000";
+        assertFalse(validator.validate("request-1", "alice", RFC4226TestVectors.KEY, 6, source.digits(), wrong).isValid());
+        assertFalse(validator.validate("request-1", "mallory", "another key".getBytes(), 5, source.digits(), source.value()).isValid());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void fromShouldFailWhenValidatorArgumentIsNull() {
+        CoalescingHOTPValidator.from(null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void validateShouldFailWhenUserIdArgumentIsNull() {
+        CoalescingHOTPValidator.from(HOTPValidator.defaultLookAheadWindow()).validate(null, null, RFC4226TestVectors.KEY, 0, 6, "755224");
+    }
+
+}
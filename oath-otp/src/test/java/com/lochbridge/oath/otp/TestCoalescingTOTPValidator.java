@@ -0,0 +1,53 @@
+package com.lochbridge.oath.otp;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.lochbridge.oath.otp.RFC6238TestVectors.TestVector;
+
+public class TestCoalescingTOTPValidator {
+
+    @Test
+    public void isValidShouldSucceedUnderRFC6238TestCases() {
+        CoalescingTOTPValidator validator = CoalescingTOTPValidator.from(TOTPValidator.window(0));
+        for (TestVector testVector : RFC6238TestVectors.TEST_VECTORS) {
+            assertTrue(validator.isValid(null, "alice", testVector.getKey(), testVector.getTimeStep(), testVector.getDigits(), testVector.getAlgorithm(),
+                    testVector.getTotp(), testVector.getTestTime()));
+        }
+    }
+
+    @Test
+    public void isValidShouldReplayTheOriginalResultForARetriedRequestId() {
+        CoalescingTOTPValidator validator = CoalescingTOTPValidator.from(TOTPValidator.defaultWindow(), 1, TimeUnit.MINUTES);
+        final long time = System.currentTimeMillis();
+        TOTP source = TOTP.key(RFC6238TestVectors.KEY_FOR_HMAC_SHA_1).hmacSha1().build(time);
+        assertTrue(validator.isValid("request-1", "alice", RFC6238TestVectors.KEY_FOR_HMAC_SHA_1, source.timeStep(), source.digits(),
+                source.hmacShaAlgorithm(), source.value(), time));
+        // Even though the retry's validation time is well outside of the window, the original result is replayed.
+        final long delayedTime = time + TimeUnit.HOURS.toMillis(1);
+        assertTrue(validator.isValid("request-1", "alice", RFC6238TestVectors.KEY_FOR_HMAC_SHA_1, source.timeStep(), source.digits(),
+                source.hmacShaAlgorithm(), source.value(), delayedTime));
+        assertFalse(validator.isValid("request-2", "alice", RFC6238TestVectors.KEY_FOR_HMAC_SHA_1, source.timeStep(), source.digits(),
+                source.hmacShaAlgorithm(), source.value(), delayedTime));
+        // Reusing the request ID with a wrong code does not replay the original (valid) result.
+        String wrong = source.value().equals("000000") ? "111111" : "000000";
+        assertFalse(validator.isValid("request-1", "alice", RFC6238TestVectors.KEY_FOR_HMAC_SHA_1, source.timeStep(), source.digits(),
+                source.hmacShaAlgorithm(), wrong, time));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void fromShouldFailWhenValidatorArgumentIsNull() {
+        CoalescingTOTPValidator.from(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void isValidShouldFailWhenTimeStepArgumentIsNotPositive() {
+        CoalescingTOTPValidator.from(TOTPValidator.defaultWindow()).isValid(null, "alice", RFC6238TestVectors.KEY_FOR_HMAC_SHA_1, 0, 6,
+                HmacShaAlgorithm.HMAC_SHA_1, "123456");
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.lochbridge.oath.otp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestSingleFlight {
+
+    private static final int CALLERS = 8;
+
+    @Test
+    public void executeShouldShareASingleComputationAmongstConcurrentCallers() throws Exception {
+        final SingleFlight<String, Object> singleFlight = new SingleFlight<String, Object>(1, TimeUnit.MINUTES, 100);
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Object> computation = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                executions.incrementAndGet();
+                release.await();
+                return new Object();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < CALLERS; i++) {
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return singleFlight.execute(null, "identity", "key", computation);
+                    }
+                }));
+            }
+            // Wait until the leader is running, then give the followers a chance to pile up behind it.
+            while (executions.get() == 0) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(100);
+            release.countDown();
+            Object first = results.get(0).get();
+            for (Future<Object> result : results) {
+                assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, executions.get());
+        assertEquals(0, singleFlight.inFlightCount());
+    }
+
+    @Test
+    public void executeShouldRecomputeOnceTheComputationHasCompleted() {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<String, Integer>(1, TimeUnit.MINUTES, 100);
+        final AtomicInteger executions = new AtomicInteger();
+        Callable<Integer> computation = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return executions.incrementAndGet();
+            }
+        };
+        assertEquals(Integer.valueOf(1), singleFlight.execute(null, "identity", "key", computation));
+        assertEquals(Integer.valueOf(2), singleFlight.execute(null, "identity", "key", computation));
+    }
+
+    @Test
+    public void executeShouldAnswerRepeatedRequestIdsFromTheIdempotencyCache() {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<String, Integer>(1, TimeUnit.MINUTES, 100);
+        final AtomicInteger executions = new AtomicInteger();
+        Callable<Integer> computation = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return executions.incrementAndGet();
+            }
+        };
+        assertEquals(Integer.valueOf(1), singleFlight.execute("request-1", "identity", "key", computation));
+        assertEquals(Integer.valueOf(1), singleFlight.execute("request-1", "identity", "another-key", computation));
+        assertEquals(Integer.valueOf(2), singleFlight.execute("request-2", "identity", "key", computation));
+    }
+
+    @Test
+    public void executeShouldNotReplayRetainedResultsToAnotherIdentity() {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<String, Integer>(1, TimeUnit.MINUTES, 100);
+        final AtomicInteger executions = new AtomicInteger();
+        Callable<Integer> computation = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return executions.incrementAndGet();
+            }
+        };
+        assertEquals(Integer.valueOf(1), singleFlight.execute("request-1", "alice", "key", computation));
+        assertEquals(Integer.valueOf(2), singleFlight.execute("request-1", "mallory", "key", computation));
+        // The original result is still retained for its own identity.
+        assertEquals(Integer.valueOf(1), singleFlight.execute("request-1", "alice", "key", computation));
+    }
+
+    @Test
+    public void executeShouldPropagateRuntimeExceptionsToAllCallers() {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<String, Integer>(1, TimeUnit.MINUTES, 100);
+        Callable<Integer> computation = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                throw new IllegalStateException("boom");
+            }
+        };
+        for (String requestId : new String[] { null, "request-1" }) {
+            try {
+                singleFlight.execute(requestId, "identity", "key", computation);
+            } catch (IllegalStateException e) {
+                assertEquals("boom", e.getMessage());
+                continue;
+            }
+            assertTrue("Expected an IllegalStateException", false);
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void executeShouldFailWhenKeyArgumentIsNull() {
+        new SingleFlight<String, Integer>(1, TimeUnit.MINUTES, 100).execute(null, "identity", null, new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return 0;
+            }
+        });
+    }
+
+}
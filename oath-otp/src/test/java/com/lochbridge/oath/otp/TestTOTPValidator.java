@@ -1,5 +1,6 @@
 package com.lochbridge.oath.otp;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -40,6 +41,25 @@ public class TestTOTPValidator {
                 source.value(), validationTime));
     }
 
+    @Test
+    public void validateShouldReportTheDriftOfTheClient() {
+        final long time = System.currentTimeMillis();
+        TOTP source = TOTP.key(RFC6238TestVectors.KEY_FOR_HMAC_SHA_1).hmacSha1().build(time);
+        for (int drift = -2; drift <= 2; drift++) {
+            final long validationTime = time - (drift * source.timeStep());
+            TOTPValidationResult result = TOTPValidator.window(2).validate(RFC6238TestVectors.KEY_FOR_HMAC_SHA_1, source.timeStep(), source.digits(),
+                    source.hmacShaAlgorithm(), source.value(), validationTime);
+            assertTrue(result.isValid());
+            assertEquals(drift, result.getDrift());
+            assertEquals(time / source.timeStep(), result.getTimeStepIndex());
+        }
+        TOTPValidationResult result = TOTPValidator.window(2).validate(RFC6238TestVectors.KEY_FOR_HMAC_SHA_1, source.timeStep(), source.digits(),
+                source.hmacShaAlgorithm(), source.value(), time + 3 * source.timeStep());
+        assertFalse(result.isValid());
+        assertEquals(0, result.getDrift());
+        assertEquals(-1, result.getTimeStepIndex());
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void windowShouldFailWhenArgumentIsLessThanZero() {
         TOTPValidator.window(-1);
@@ -0,0 +1,22 @@
+package com.lochbridge.oath.server;
+
+/**
+ * Thrown by a {@link JsonHandler} when a request conflicts with the current state
+ * of the server (e.g. enrolling a user who already has a credential); answered
+ * with {@code 409 Conflict}.
+ */
+final class ConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new instance of {@code ConflictException}.
+     *
+     * @param message
+     *            the detail message, sent back to the client
+     */
+    ConflictException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.lochbridge.oath.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Striped;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.TOTPBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKeyGenerator;
+import com.lochbridge.oath.otp.keyprovisioning.OTPKey.OTPType;
+import com.lochbridge.oath.otp.service.Credential;
+import com.lochbridge.oath.otp.service.CredentialStore;
+
+/**
+ * The {@code /enroll} endpoint: generates a new 160-bit shared secret key for a
+ * user (drawn from an {@link OTPKeyGenerator}, so that parallel enrollments do
+ * not contend on a single {@code SecureRandom}), saves the corresponding {@link Credential}, and answers with the
+ * {@link OTPAuthURI} to provision the user's authenticator with.
+ * <p>
+ * Request:
+ * <pre>{"userId": "alice", "type": "totp", "label": "Acme:alice", "issuer": "Acme", "digits": 6, "period": 30, "counter": 0}</pre>
+ * Only {@code userId} and {@code type} ({@code "hotp"} or {@code "totp"}) are
+ * required; the {@code label} defaults to the {@code userId}, {@code period}
+ * (in seconds) only applies to TOTP and {@code counter} only to HOTP. Response:
+ * <pre>{"userId": "alice", "uri": "otpauth://totp/Acme:alice?secret=...&amp;issuer=Acme&amp;digits=6&amp;period=30"}</pre>
+ * Unless re-enrollment is allowed (see {@link OTPServerBuilder#reenrollmentAllowed(boolean)}),
+ * a request for a user who already has a credential is refused with
+ * {@code 409 Conflict}, and the credential is left unchanged. Enrollments of the
+ * same user are serialized within this server (not across servers sharing a
+ * store), so that two concurrent requests cannot both enroll a new user.
+ */
+final class EnrollHandler extends JsonHandler {
+
+    private static final int USER_ID = 0;
+    private static final int TYPE = 1;
+    private static final int LABEL = 2;
+    private static final int ISSUER = 3;
+    private static final int DIGITS = 4;
+    private static final int PERIOD = 5;
+    private static final int COUNTER = 6;
+    private static final byte[][] FIELDS = {
+        "userId".getBytes(StandardCharsets.US_ASCII),
+        "type".getBytes(StandardCharsets.US_ASCII),
+        "label".getBytes(StandardCharsets.US_ASCII),
+        "issuer".getBytes(StandardCharsets.US_ASCII),
+        "digits".getBytes(StandardCharsets.US_ASCII),
+        "period".getBytes(StandardCharsets.US_ASCII),
+        "counter".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    private final CredentialStore store;
+    private final boolean reenrollmentAllowed;
+    private final OTPKeyGenerator keyGenerator = OTPKeyGenerator.newInstance();
+    private final Striped<Lock> locks = Striped.lock(64);
+
+    EnrollHandler(CredentialStore store, boolean reenrollmentAllowed) {
+        this.store = store;
+        this.reenrollmentAllowed = reenrollmentAllowed;
+    }
+
+    @Override
+    void handle(JsonReader request, JsonWriter response) throws IOException {
+        String userId = null;
+        String type = null;
+        String label = null;
+        String issuer = null;
+        long digits = TOTPBuilder.DEFAULT_DIGITS;
+        long period = TimeUnit.MILLISECONDS.toSeconds(TOTPBuilder.DEFAULT_TIME_STEP);
+        long counter = 0;
+        request.beginObject();
+        int field;
+        while ((field = request.nextField(FIELDS)) != JsonReader.END_OF_OBJECT) {
+            switch (field) {
+            case USER_ID:
+                userId = request.readString();
+                break;
+            case TYPE:
+                type = request.readString();
+                break;
+            case LABEL:
+                label = request.readString();
+                break;
+            case ISSUER:
+                issuer = request.readString();
+                break;
+            case DIGITS:
+                digits = request.readLong();
+                break;
+            case PERIOD:
+                period = request.readLong();
+                break;
+            case COUNTER:
+                counter = request.readLong();
+                break;
+            default:
+                request.skipValue();
+            }
+        }
+        request.endDocument();
+        if (userId == null || type == null) {
+            throw new IllegalArgumentException("The 'userId' and 'type' fields are required!");
+        }
+        Preconditions.checkArgument(digits >= TOTPBuilder.MIN_ALLOWED_DIGITS && digits <= TOTPBuilder.MAX_ALLOWED_DIGITS,
+                "The 'digits' field must be in [%s, %s]!", TOTPBuilder.MIN_ALLOWED_DIGITS, TOTPBuilder.MAX_ALLOWED_DIGITS);
+        OTPType otpType = OTPType.from(type.toUpperCase(Locale.US));
+
+        OTPKey otpKey = keyGenerator.generate(otpType, HmacShaAlgorithm.HMAC_SHA_1);
+        byte[] key = otpKey.getDecodedKey();
+        OTPAuthURIBuilder builder = OTPAuthURIBuilder.fromKey(otpKey)
+                .label(label == null ? userId : label)
+                .issuer(issuer)
+                .digits((int) digits);
+        Credential credential;
+        if (otpType == OTPType.HOTP) {
+            builder.counter(counter);
+            credential = Credential.hotp(userId, key, (int) digits, counter);
+        }
+        else {
+            builder.timeStep(TimeUnit.SECONDS.toMillis(period));
+            credential = Credential.totp(userId, key, HmacShaAlgorithm.HMAC_SHA_1, (int) digits, TimeUnit.SECONDS.toMillis(period));
+        }
+        OTPAuthURI uri = builder.build();
+        Lock lock = locks.get(userId);
+        lock.lock();
+        try {
+            if (!reenrollmentAllowed && store.load(userId) != null) {
+                throw new ConflictException("The user is already enrolled!");
+            }
+            store.save(credential);
+        } finally {
+            lock.unlock();
+        }
+        response.beginObject()
+            .field("userId", userId)
+            .field("uri", uri.toUriString())
+            .endObject();
+    }
+
+}
@@ -0,0 +1,105 @@
+package com.lochbridge.oath.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Base class of the {@link OTPServer} endpoints: accepts {@code POST}ed JSON
+ * objects, and answers with JSON objects.
+ * <p>
+ * Request bodies larger than {@link #MAX_BODY_SIZE} bytes are rejected. A
+ * {@link ConflictException} thrown while handling a request is answered with
+ * {@code 409 Conflict}, an {@link IllegalArgumentException} or
+ * {@link IllegalStateException} with {@code 400 Bad Request}, and an
+ * {@link IOException} with {@code 500 Internal Server Error}.
+ */
+abstract class JsonHandler implements HttpHandler {
+
+    /** The maximum accepted size (in bytes) of a request body. */
+    static final int MAX_BODY_SIZE = 4096;
+
+    @Override
+    public final void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                sendError(exchange, HttpURLConnection.HTTP_BAD_METHOD, "Method not allowed");
+                return;
+            }
+            byte[] body = readBody(exchange);
+            if (body == null) {
+                sendError(exchange, HttpURLConnection.HTTP_ENTITY_TOO_LARGE, "Request body too large");
+                return;
+            }
+            JsonWriter response = new JsonWriter();
+            try {
+                handle(new JsonReader(body, 0, body.length), response);
+            } catch (ConflictException e) {
+                sendError(exchange, HttpURLConnection.HTTP_CONFLICT, e.getMessage());
+                return;
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                sendError(exchange, HttpURLConnection.HTTP_BAD_REQUEST, e.getMessage());
+                return;
+            } catch (IOException e) {
+                sendError(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, "Storage failure");
+                return;
+            }
+            send(exchange, HttpURLConnection.HTTP_OK, response);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Handles a request.
+     *
+     * @param request
+     *            a reader over the request body
+     * @param response
+     *            the writer the response object is written to
+     *
+     * @throws IOException
+     *             if the underlying storage fails
+     */
+    abstract void handle(JsonReader request, JsonWriter response) throws IOException;
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        InputStream is = exchange.getRequestBody();
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            long length;
+            try {
+                length = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (length < 0 || length > MAX_BODY_SIZE) {
+                return null;
+            }
+            byte[] body = new byte[(int) length];
+            ByteStreams.readFully(is, body);
+            return body;
+        }
+        byte[] body = ByteStreams.toByteArray(ByteStreams.limit(is, MAX_BODY_SIZE + 1));
+        return body.length > MAX_BODY_SIZE ? null : body;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, new JsonWriter().beginObject().field("error", message).endObject());
+    }
+
+    private static void send(HttpExchange exchange, int status, JsonWriter response) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, response.size());
+        try (OutputStream os = exchange.getResponseBody()) {
+            response.writeTo(os);
+        }
+    }
+
+}
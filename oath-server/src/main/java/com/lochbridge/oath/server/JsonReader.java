@@ -0,0 +1,385 @@
+package com.lochbridge.oath.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal, allocation-light pull parser for the small, flat JSON objects
+ * exchanged with the {@link OTPServer}.
+ * <p>
+ * Field names are matched directly against pre-encoded (ASCII) names, so no
+ * name strings are ever created, and values are only materialized when the
+ * caller asks for them. Values of unknown fields (including nested objects
+ * and arrays) are skipped without being materialized.
+ * <p>
+ * Typical usage:
+ * <pre>
+ * JsonReader reader = new JsonReader(body, 0, body.length);
+ * reader.beginObject();
+ * int field;
+ * while ((field = reader.nextField(NAMES)) != JsonReader.END_OF_OBJECT) {
+ *     switch (field) {
+ *     case 0: userId = reader.readString(); break;
+ *     case 1: digits = reader.readLong(); break;
+ *     default: reader.skipValue();
+ *     }
+ * }
+ * reader.endDocument();
+ * </pre>
+ * <p>
+ * All parsing methods throw an {@link IllegalArgumentException} if the input
+ * is not well-formed.
+ */
+final class JsonReader {
+
+    /** Returned by {@link #nextField(byte[][])} once the end of the object has been reached. */
+    static final int END_OF_OBJECT = -2;
+
+    /** Returned by {@link #nextField(byte[][])} if the field name matches none of the given names. */
+    static final int UNKNOWN_FIELD = -1;
+
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+    private boolean firstField;
+
+    /**
+     * Creates a new instance of {@code JsonReader} over the specified UTF-8
+     * encoded bytes. The bytes are not copied.
+     *
+     * @param buf
+     *            the buffer holding the JSON document
+     * @param offset
+     *            the offset of the JSON document in {@code buf}
+     * @param length
+     *            the length of the JSON document
+     */
+    JsonReader(byte[] buf, int offset, int length) {
+        this.buf = buf;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Consumes the opening brace of the top-level object.
+     */
+    void beginObject() {
+        skipWhitespace();
+        expect('{');
+        firstField = true;
+    }
+
+    /**
+     * Consumes the next field name (and the following colon), and returns the
+     * index of the matching name in {@code names}, {@link #UNKNOWN_FIELD} if
+     * none matches, or {@link #END_OF_OBJECT} if the closing brace was reached.
+     *
+     * @param names
+     *            the ASCII encoded field names of interest
+     *
+     * @return the index of the matching name, {@link #UNKNOWN_FIELD}, or {@link #END_OF_OBJECT}.
+     */
+    int nextField(byte[][] names) {
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return END_OF_OBJECT;
+        }
+        if (!firstField) {
+            expect(',');
+            skipWhitespace();
+        }
+        firstField = false;
+        expect('"');
+        int start = pos;
+        while (peek() != '"') {
+            if (buf[pos] == '\\') {
+                // Escaped names are never expected; decode them the slow way.
+                pos = start - 1;
+                return indexOf(names, readString());
+            }
+            pos++;
+        }
+        int length = pos - start;
+        pos++;
+        skipWhitespace();
+        expect(':');
+        for (int i = 0; i < names.length; i++) {
+            if (regionMatches(names[i], start, length)) {
+                return i;
+            }
+        }
+        return UNKNOWN_FIELD;
+    }
+
+    private int indexOf(byte[][] names, String name) {
+        skipWhitespace();
+        expect(':');
+        for (int i = 0; i < names.length; i++) {
+            if (name.equals(new String(names[i], StandardCharsets.US_ASCII))) {
+                return i;
+            }
+        }
+        return UNKNOWN_FIELD;
+    }
+
+    /**
+     * Reads a string value, or {@code null} if the value is the {@code null} literal.
+     *
+     * @return the string value, or {@code null}.
+     */
+    String readString() {
+        skipWhitespace();
+        if (peek() == 'n') {
+            expectLiteral(NULL);
+            return null;
+        }
+        expect('"');
+        int start = pos;
+        boolean ascii = true;
+        for (;;) {
+            byte b = peek();
+            if (b == '"') {
+                String value = new String(buf, start, pos - start, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+                pos++;
+                return value;
+            }
+            if (b == '\\') {
+                return readEscapedString(start);
+            }
+            if (b >= 0 && b < 0x20) {
+                throw malformed("unescaped control character");
+            }
+            ascii &= b >= 0;
+            pos++;
+        }
+    }
+
+    private String readEscapedString(int start) {
+        // Decode the (unescaped) prefix first, then continue char by char.
+        StringBuilder sb = new StringBuilder(new String(buf, start, pos - start, StandardCharsets.UTF_8));
+        int runStart = pos;
+        for (;;) {
+            byte b = peek();
+            if (b == '"' || b == '\\') {
+                sb.append(new String(buf, runStart, pos - runStart, StandardCharsets.UTF_8));
+                pos++;
+                if (b == '"') {
+                    return sb.toString();
+                }
+                char escaped = (char) peek();
+                pos++;
+                switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append(escaped);
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    sb.append((char) ((hexDigit() << 12) | (hexDigit() << 8) | (hexDigit() << 4) | hexDigit()));
+                    break;
+                default:
+                    throw malformed("invalid escape sequence");
+                }
+                runStart = pos;
+            }
+            else if (b >= 0 && b < 0x20) {
+                throw malformed("unescaped control character");
+            }
+            else {
+                pos++;
+            }
+        }
+    }
+
+    private int hexDigit() {
+        int c = peek();
+        pos++;
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        throw malformed("invalid unicode escape");
+    }
+
+    /**
+     * Reads an integral number value.
+     *
+     * @return the number value.
+     */
+    long readLong() {
+        skipWhitespace();
+        boolean negative = peek() == '-';
+        if (negative) {
+            pos++;
+        }
+        int start = pos;
+        long value = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            int digit = buf[pos] - '0';
+            if (value > (Long.MAX_VALUE - digit) / 10) {
+                throw malformed("number out of range");
+            }
+            value = value * 10 + digit;
+            pos++;
+        }
+        if (pos == start || (pos - start > 1 && buf[start] == '0')) {
+            throw malformed("invalid integral number");
+        }
+        if (pos < end && (buf[pos] == '.' || buf[pos] == 'e' || buf[pos] == 'E')) {
+            throw malformed("integral number expected");
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Skips the next value, whatever its type.
+     */
+    void skipValue() {
+        skipWhitespace();
+        byte b = peek();
+        switch (b) {
+        case '"':
+            skipString();
+            break;
+        case '{':
+        case '[':
+            skipContainer();
+            break;
+        case 't':
+            expectLiteral(TRUE);
+            break;
+        case 'f':
+            expectLiteral(FALSE);
+            break;
+        case 'n':
+            expectLiteral(NULL);
+            break;
+        default:
+            skipNumber();
+        }
+    }
+
+    private void skipString() {
+        expect('"');
+        for (;;) {
+            byte b = peek();
+            pos++;
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                peek();
+                pos++;
+            }
+        }
+    }
+
+    private void skipContainer() {
+        int depth = 0;
+        do {
+            byte b = peek();
+            if (b == '"') {
+                skipString();
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+            }
+            else if (b == '}' || b == ']') {
+                depth--;
+            }
+            pos++;
+        } while (depth > 0);
+    }
+
+    private void skipNumber() {
+        int start = pos;
+        while (pos < end && "+-.0123456789eE".indexOf(buf[pos]) >= 0) {
+            pos++;
+        }
+        if (pos == start) {
+            throw malformed("value expected");
+        }
+    }
+
+    /**
+     * Ensures that nothing but whitespace follows the top-level object.
+     */
+    void endDocument() {
+        skipWhitespace();
+        if (pos != end) {
+            throw malformed("unexpected trailing content");
+        }
+    }
+
+    private boolean regionMatches(byte[] name, int start, int length) {
+        if (name.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name[i] != buf[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expectLiteral(byte[] literal) {
+        for (byte b : literal) {
+            expect(b);
+        }
+    }
+
+    private void expect(int c) {
+        if (peek() != c) {
+            throw malformed("'" + (char) c + "' expected");
+        }
+        pos++;
+    }
+
+    private byte peek() {
+        if (pos >= end) {
+            throw malformed("unexpected end of input");
+        }
+        return buf[pos];
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException malformed(String reason) {
+        return new IllegalArgumentException("Malformed JSON at offset " + pos + ": " + reason);
+    }
+
+}
@@ -0,0 +1,235 @@
+package com.lochbridge.oath.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A minimal, allocation-light writer of the small, flat JSON objects
+ * exchanged with the {@link OTPServer}. Output is UTF-8 encoded straight into
+ * a growable byte buffer, without going through intermediate strings or
+ * {@link java.io.Writer}s.
+ * <p>
+ * Typical usage:
+ * <pre>
+ * JsonWriter writer = new JsonWriter().beginObject().field("status", "VALID").field("movingFactor", 6).endObject();
+ * writer.writeTo(os);
+ * </pre>
+ */
+final class JsonWriter {
+
+    private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+    private byte[] buf;
+    private int count;
+    private boolean firstField;
+
+    /**
+     * Creates a new instance of {@code JsonWriter} with a buffer large enough
+     * for a typical response.
+     */
+    JsonWriter() {
+        this.buf = new byte[256];
+    }
+
+    /**
+     * Writes the opening brace of an object.
+     *
+     * @return this {@code JsonWriter} instance.
+     */
+    JsonWriter beginObject() {
+        write('{');
+        firstField = true;
+        return this;
+    }
+
+    /**
+     * Writes the closing brace of an object.
+     *
+     * @return this {@code JsonWriter} instance.
+     */
+    JsonWriter endObject() {
+        write('}');
+        return this;
+    }
+
+    /**
+     * Writes a string field (a {@code null} value is written as the {@code null} literal).
+     *
+     * @param name
+     *            the field name
+     * @param value
+     *            the field value, or {@code null}
+     *
+     * @return this {@code JsonWriter} instance.
+     */
+    JsonWriter field(String name, String value) {
+        name(name);
+        if (value == null) {
+            writeAscii("null");
+        }
+        else {
+            string(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes an integral number field.
+     *
+     * @param name
+     *            the field name
+     * @param value
+     *            the field value
+     *
+     * @return this {@code JsonWriter} instance.
+     */
+    JsonWriter field(String name, long value) {
+        name(name);
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return this;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        ensureCapacity(digits);
+        for (int i = count + digits - 1; i >= count; i--) {
+            buf[i] = (byte) ('0' + (value % 10));
+            value /= 10;
+        }
+        count += digits;
+        return this;
+    }
+
+    /**
+     * Writes a boolean field.
+     *
+     * @param name
+     *            the field name
+     * @param value
+     *            the field value
+     *
+     * @return this {@code JsonWriter} instance.
+     */
+    JsonWriter field(String name, boolean value) {
+        name(name);
+        writeAscii(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return the number of bytes written so far.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns a copy of the bytes written so far.
+     *
+     * @return a copy of the bytes written so far.
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    /**
+     * Writes the bytes written so far to the specified {@link OutputStream}.
+     *
+     * @param os
+     *            the {@link OutputStream}
+     *
+     * @throws IOException
+     *             if the stream cannot be written
+     */
+    void writeTo(OutputStream os) throws IOException {
+        os.write(buf, 0, count);
+    }
+
+    private void name(String name) {
+        if (!firstField) {
+            write(',');
+        }
+        firstField = false;
+        string(name);
+        write(':');
+    }
+
+    private void string(String s) {
+        int length = s.length();
+        // Worst case: every char expands to a 6 byte escape sequence.
+        ensureCapacity(length * 6 + 2);
+        byte[] b = buf;
+        int n = count;
+        b[n++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    b[n++] = '\\';
+                    b[n++] = (byte) c;
+                }
+                else if (c < 0x20) {
+                    b[n++] = '\\';
+                    b[n++] = 'u';
+                    b[n++] = '0';
+                    b[n++] = '0';
+                    b[n++] = HEX[c >> 4];
+                    b[n++] = HEX[c & 0xf];
+                }
+                else {
+                    b[n++] = (byte) c;
+                }
+            }
+            else if (c < 0x800) {
+                b[n++] = (byte) (0xc0 | (c >> 6));
+                b[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[n++] = (byte) (0xf0 | (cp >> 18));
+                b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                b[n++] = (byte) (0x80 | (cp & 0x3f));
+            }
+            else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate: replace, as the JDK's UTF-8 encoder does.
+                b[n++] = '?';
+            }
+            else {
+                b[n++] = (byte) (0xe0 | (c >> 12));
+                b[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[n++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        b[n++] = '"';
+        count = n;
+    }
+
+    private void writeAscii(String s) {
+        ensureCapacity(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void write(int b) {
+        ensureCapacity(1);
+        buf[count++] = (byte) b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (count + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+        }
+    }
+
+}
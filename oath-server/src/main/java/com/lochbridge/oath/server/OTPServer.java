@@ -0,0 +1,92 @@
+package com.lochbridge.oath.server;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+
+import com.lochbridge.oath.otp.service.CredentialStore;
+import com.lochbridge.oath.otp.service.ValidationService;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An embedded HTTP server, built on the JDK's {@code com.sun.net.httpserver}
+ * package, exposing the following JSON endpoints:
+ * <ul>
+ * <li>{@code POST /validate}: validates a client submitted OTP value (see {@link ValidationService}).</li>
+ * <li>{@code POST /enroll}: generates a shared secret key for a user, and returns the
+ * corresponding {@link com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI}.</li>
+ * </ul>
+ * Request and response bodies are small, flat JSON objects that are parsed and
+ * written by a dedicated, allocation-light codec.
+ * <p>
+ * Instances are created using the {@link OTPServerBuilder}, for example:
+ * <pre>
+ * OTPServer server = OTPServerBuilder.fromStore(store).port(8080).build();
+ * server.start();
+ * ...
+ * server.close();
+ * </pre>
+ */
+public final class OTPServer implements Closeable {
+
+    private final HttpServer httpServer;
+    private final ValidationService service;
+    private final ExecutorService executor;
+    private final int stopDelay;
+
+    /**
+     * Creates a new instance of {@code OTPServer}. Note that all parameters are assumed
+     * to be valid since the {@link OTPServerBuilder} is responsible for validation, and
+     * creation of {@link OTPServer}s.
+     *
+     * @param httpServer
+     *            the (bound) {@link HttpServer}
+     * @param service
+     *            the {@link ValidationService}
+     * @param store
+     *            the {@link CredentialStore} enrolled credentials are saved to
+     * @param reenrollmentAllowed
+     *            whether {@code /enroll} may replace existing credentials
+     * @param executor
+     *            the {@link ExecutorService} handling the requests
+     * @param stopDelay
+     *            the maximum time (in seconds) to wait for in-flight requests when closing
+     */
+    OTPServer(HttpServer httpServer, ValidationService service, CredentialStore store, boolean reenrollmentAllowed, ExecutorService executor, int stopDelay) {
+        this.httpServer = httpServer;
+        this.service = service;
+        this.executor = executor;
+        this.stopDelay = stopDelay;
+        httpServer.createContext("/validate", new ValidateHandler(service));
+        httpServer.createContext("/enroll", new EnrollHandler(store, reenrollmentAllowed));
+        httpServer.setExecutor(executor);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        httpServer.start();
+    }
+
+    /**
+     * Returns the address this server is bound to.
+     *
+     * @return the address this server is bound to.
+     */
+    public InetSocketAddress getAddress() {
+        return httpServer.getAddress();
+    }
+
+    /**
+     * Stops accepting requests, waits (at most the configured stop delay) for
+     * in-flight requests to complete, and releases all resources.
+     */
+    @Override
+    public void close() {
+        httpServer.stop(stopDelay);
+        executor.shutdown();
+        service.close();
+    }
+
+}
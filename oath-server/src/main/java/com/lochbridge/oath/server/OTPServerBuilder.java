@@ -0,0 +1,224 @@
+package com.lochbridge.oath.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lochbridge.oath.otp.service.CredentialStore;
+import com.lochbridge.oath.otp.service.ValidationService;
+import com.lochbridge.oath.otp.service.ValidationServiceBuilder;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A class that creates {@link OTPServer}s.
+ * <p>
+ * Example:
+ * <pre>
+ * OTPServer server = OTPServerBuilder.fromStore(store)
+ *     .address(new InetSocketAddress("localhost", 8080))
+ *     .threads(32)
+ *     .build();
+ * </pre>
+ * <p>
+ * The server binds to the loopback address by default: the {@code /enroll}
+ * endpoint is not authenticated, so it should only be reachable by trusted
+ * clients (e.g. through an authenticating reverse proxy on the same host).
+ * <p>
+ * The JDK's HTTP server writes response headers and bodies separately, and
+ * without {@code TCP_NODELAY}, Nagle's algorithm combined with delayed ACKs
+ * stalls every keep-alive response by tens of milliseconds. Latency-sensitive
+ * deployments should therefore start the JVM with
+ * {@code -Dsun.net.httpserver.nodelay=true} (the property is JVM-wide, and read
+ * once, when the first {@link HttpServer} of the JVM is created).
+ */
+public final class OTPServerBuilder {
+
+    /** The default port. */
+    public static final int DEFAULT_PORT = 8080;
+
+    /** The default number of threads handling requests. */
+    public static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors() * 4;
+
+    /** The default maximum number of queued incoming connections. */
+    public static final int DEFAULT_BACKLOG = 1024;
+
+    private final CredentialStore store;
+    private ValidationService service;
+    private InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+    private int threads = DEFAULT_THREADS;
+    private int backlog = DEFAULT_BACKLOG;
+    private int stopDelay = 1;
+    private boolean reenrollmentAllowed;
+
+    private OTPServerBuilder(CredentialStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Returns a new {@link OTPServerBuilder} instance initialized with the
+     * specified {@link CredentialStore}.
+     *
+     * @param store
+     *            the {@link CredentialStore}
+     *
+     * @return a new {@link OTPServerBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code store} is {@code null}.
+     */
+    public static OTPServerBuilder fromStore(CredentialStore store) {
+        Preconditions.checkNotNull(store);
+        return new OTPServerBuilder(store);
+    }
+
+    /**
+     * Returns this {@code OTPServerBuilder} instance initialized with the
+     * specified {@link ValidationService} (which must be backed by the same
+     * {@link CredentialStore}). By default, a {@link ValidationService} with
+     * default settings is used. The server closes the service when it is closed.
+     *
+     * @param service
+     *            the {@link ValidationService}
+     *
+     * @return this {@code OTPServerBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code service} is {@code null}.
+     */
+    public OTPServerBuilder validationService(ValidationService service) {
+        this.service = Preconditions.checkNotNull(service);
+        return this;
+    }
+
+    /**
+     * Returns this {@code OTPServerBuilder} instance initialized with the
+     * specified port (on the loopback address). The default is {@link #DEFAULT_PORT}.
+     * A port of 0 binds to an ephemeral port. Use {@link #address(InetSocketAddress)}
+     * to bind to another (e.g. the wildcard) address.
+     *
+     * @param port
+     *            the port
+     *
+     * @return this {@code OTPServerBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code port} is not in [0, 65535].
+     */
+    public OTPServerBuilder port(int port) {
+        return address(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Returns this {@code OTPServerBuilder} instance initialized with the
+     * specified address to bind to. The default is the loopback address, on
+     * {@link #DEFAULT_PORT}.
+     *
+     * @param address
+     *            the address
+     *
+     * @return this {@code OTPServerBuilder} instance.
+     *
+     * @throws NullPointerException
+     *             if {@code address} is {@code null}.
+     */
+    public OTPServerBuilder address(InetSocketAddress address) {
+        this.address = Preconditions.checkNotNull(address);
+        return this;
+    }
+
+    /**
+     * Returns this {@code OTPServerBuilder} instance initialized with the
+     * specified number of threads handling requests. The default is
+     * {@link #DEFAULT_THREADS}.
+     *
+     * @param threads
+     *            the number of threads
+     *
+     * @return this {@code OTPServerBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code threads} is {@literal <} 1.
+     */
+    public OTPServerBuilder threads(int threads) {
+        Preconditions.checkArgument(threads >= 1);
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Returns this {@code OTPServerBuilder} instance initialized with the
+     * specified maximum number of queued incoming connections. The default is
+     * {@link #DEFAULT_BACKLOG}.
+     *
+     * @param backlog
+     *            the maximum number of queued incoming connections
+     *
+     * @return this {@code OTPServerBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code backlog} is {@literal <} 1.
+     */
+    public OTPServerBuilder backlog(int backlog) {
+        Preconditions.checkArgument(backlog >= 1);
+        this.backlog = backlog;
+        return this;
+    }
+
+    /**
+     * Returns this {@code OTPServerBuilder} instance initialized with the
+     * specified maximum time (in seconds) to wait for in-flight requests when
+     * the server is closed. The default is 1 second.
+     *
+     * @param stopDelay
+     *            the maximum time (in seconds) to wait for in-flight requests
+     *
+     * @return this {@code OTPServerBuilder} instance.
+     *
+     * @throws IllegalArgumentException
+     *             if {@code stopDelay} is {@literal <} 0.
+     */
+    public OTPServerBuilder stopDelay(int stopDelay) {
+        Preconditions.checkArgument(stopDelay >= 0);
+        this.stopDelay = stopDelay;
+        return this;
+    }
+
+    /**
+     * Returns this {@code OTPServerBuilder} instance initialized with whether
+     * {@code /enroll} may replace the credential of an already enrolled user
+     * (i.e. rotate its key). By default, such requests are refused with
+     * {@code 409 Conflict}, so that an enrollment cannot take over another
+     * user's second factor.
+     *
+     * @param reenrollmentAllowed
+     *            whether existing credentials may be replaced
+     *
+     * @return this {@code OTPServerBuilder} instance.
+     */
+    public OTPServerBuilder reenrollmentAllowed(boolean reenrollmentAllowed) {
+        this.reenrollmentAllowed = reenrollmentAllowed;
+        return this;
+    }
+
+    /**
+     * Creates (and binds) an {@link OTPServer} using this builder's configured
+     * parameters. The server does not accept requests until it is started.
+     *
+     * @return an {@link OTPServer} using this builder's configured parameters.
+     *
+     * @throws IOException
+     *             if the server cannot be bound to the configured address.
+     */
+    public OTPServer build() throws IOException {
+        HttpServer httpServer = HttpServer.create(address, backlog);
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("oath-server-%d").build());
+        ValidationService validationService = service != null ? service : ValidationServiceBuilder.fromStore(store).build();
+        return new OTPServer(httpServer, validationService, store, reenrollmentAllowed, executor, stopDelay);
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.lochbridge.oath.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import com.lochbridge.oath.otp.service.ValidationResult;
+import com.lochbridge.oath.otp.service.ValidationService;
+
+/**
+ * The {@code /validate} endpoint.
+ * <p>
+ * Request: <pre>{"userId": "alice", "code": "123456", "requestId": "..."}</pre>
+ * ({@code requestId} is optional). Response:
+ * <pre>{"status": "VALID", "movingFactor": 6}</pre>
+ * where {@code status} is one of {@code VALID}, {@code INVALID} or {@code UNKNOWN_USER}.
+ */
+final class ValidateHandler extends JsonHandler {
+
+    private static final int USER_ID = 0;
+    private static final int CODE = 1;
+    private static final int REQUEST_ID = 2;
+    private static final byte[][] FIELDS = {
+        "userId".getBytes(StandardCharsets.US_ASCII),
+        "code".getBytes(StandardCharsets.US_ASCII),
+        "requestId".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    private final ValidationService service;
+
+    ValidateHandler(ValidationService service) {
+        this.service = service;
+    }
+
+    @Override
+    void handle(JsonReader request, JsonWriter response) throws IOException {
+        String userId = null;
+        String code = null;
+        String requestId = null;
+        request.beginObject();
+        int field;
+        while ((field = request.nextField(FIELDS)) != JsonReader.END_OF_OBJECT) {
+            switch (field) {
+            case USER_ID:
+                userId = request.readString();
+                break;
+            case CODE:
+                code = request.readString();
+                break;
+            case REQUEST_ID:
+                requestId = request.readString();
+                break;
+            default:
+                request.skipValue();
+            }
+        }
+        request.endDocument();
+        if (userId == null || code == null) {
+            throw new IllegalArgumentException("The 'userId' and 'code' fields are required!");
+        }
+        ValidationResult result = service.validate(requestId, userId, code);
+        response.beginObject()
+            .field("status", result.getStatus().name())
+            .field("movingFactor", result.getMovingFactor())
+            .endObject();
+    }
+
+}
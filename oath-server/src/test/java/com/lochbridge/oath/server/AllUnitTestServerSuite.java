@@ -0,0 +1,11 @@
+package com.lochbridge.oath.server;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith(Suite.class)
+@SuiteClasses({ TestJsonReader.class, TestJsonWriter.class, TestOTPServer.class })
+public class AllUnitTestServerSuite {
+
+}
@@ -0,0 +1,95 @@
+package com.lochbridge.oath.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestJsonReader {
+
+    private static final byte[][] FIELDS = { "name".getBytes(StandardCharsets.US_ASCII), "count".getBytes(StandardCharsets.US_ASCII) };
+
+    private static JsonReader reader(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return new JsonReader(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void nextFieldShouldMatchKnownFieldsAndSkipUnknownOnes() {
+        JsonReader reader = reader(" { \"name\" : \"alice\", \"other\": {\"a\": [1, \"}\", null]}, \"count\": 42, \"flag\": true } ");
+        reader.beginObject();
+        assertEquals(0, reader.nextField(FIELDS));
+        assertEquals("alice", reader.readString());
+        assertEquals(JsonReader.UNKNOWN_FIELD, reader.nextField(FIELDS));
+        reader.skipValue();
+        assertEquals(1, reader.nextField(FIELDS));
+        assertEquals(42, reader.readLong());
+        assertEquals(JsonReader.UNKNOWN_FIELD, reader.nextField(FIELDS));
+        reader.skipValue();
+        assertEquals(JsonReader.END_OF_OBJECT, reader.nextField(FIELDS));
+        reader.endDocument();
+    }
+
+    @Test
+    public void readStringShouldDecodeEscapesAndUTF8() {
+        JsonReader reader = reader("{\"n\\u0061me\": \"Caf\u00e9 \\\"\\u00e9\\\" \\\\ \\/ \\n\", \"count\": null}");
+        reader.beginObject();
+        assertEquals(0, reader.nextField(FIELDS));
+        assertEquals("Caf\u00e9 \"\u00e9\" \\ / \n", reader.readString());
+        assertEquals(1, reader.nextField(FIELDS));
+        assertNull(reader.readString());
+        assertEquals(JsonReader.END_OF_OBJECT, reader.nextField(FIELDS));
+    }
+
+    @Test
+    public void readLongShouldSupportNegativeNumbers() {
+        JsonReader reader = reader("{\"count\": -9223372036854775807}");
+        reader.beginObject();
+        assertEquals(1, reader.nextField(FIELDS));
+        assertEquals(-Long.MAX_VALUE, reader.readLong());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readLongShouldFailOnFractions() {
+        JsonReader reader = reader("{\"count\": 1.5}");
+        reader.beginObject();
+        reader.nextField(FIELDS);
+        reader.readLong();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readLongShouldFailOnOverflow() {
+        JsonReader reader = reader("{\"count\": 9223372036854775808}");
+        reader.beginObject();
+        reader.nextField(FIELDS);
+        reader.readLong();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nextFieldShouldFailOnTrailingComma() {
+        JsonReader reader = reader("{\"count\": 1,}");
+        reader.beginObject();
+        reader.nextField(FIELDS);
+        reader.readLong();
+        reader.nextField(FIELDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readStringShouldFailOnTruncatedInput() {
+        JsonReader reader = reader("{\"name\": \"ali");
+        reader.beginObject();
+        reader.nextField(FIELDS);
+        reader.readString();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void endDocumentShouldFailOnTrailingContent() {
+        JsonReader reader = reader("{} {}");
+        reader.beginObject();
+        reader.nextField(FIELDS);
+        reader.endDocument();
+    }
+
+}
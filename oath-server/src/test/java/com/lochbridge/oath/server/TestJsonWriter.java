@@ -0,0 +1,59 @@
+package com.lochbridge.oath.server;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestJsonWriter {
+
+    private static String toString(JsonWriter writer) {
+        return new String(writer.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void fieldsShouldBeWrittenInOrder() {
+        JsonWriter writer = new JsonWriter().beginObject().field("a", "b").field("n", 0).field("m", -1234567890123L).field("t", true)
+                .field("z", (String) null).endObject();
+        assertEquals("{\"a\":\"b\",\"n\":0,\"m\":-1234567890123,\"t\":true,\"z\":null}", toString(writer));
+    }
+
+    @Test
+    public void stringsShouldBeEscapedAndUTF8Encoded() {
+        JsonWriter writer = new JsonWriter().beginObject().field("s", "\"\\\n\u0001 Caf\u00e9 \u20ac \ud83d\ude00").endObject();
+        assertEquals("{\"s\":\"\\\"\\\\\\u000a\\u0001 Caf\u00e9 \u20ac \ud83d\ude00\"}", toString(writer));
+    }
+
+    @Test
+    public void extremeNumbersShouldBeWritten() {
+        JsonWriter writer = new JsonWriter().beginObject().field("min", Long.MIN_VALUE).field("max", Long.MAX_VALUE).endObject();
+        assertEquals("{\"min\":" + Long.MIN_VALUE + ",\"max\":" + Long.MAX_VALUE + "}", toString(writer));
+    }
+
+    @Test
+    public void bufferShouldGrowForLargeValues() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("0123456789");
+        }
+        JsonWriter writer = new JsonWriter().beginObject().field("s", sb.toString()).endObject();
+        assertEquals("{\"s\":\"" + sb + "\"}", toString(writer));
+    }
+
+    @Test
+    public void writtenObjectsShouldBeReadable() {
+        JsonWriter writer = new JsonWriter().beginObject().field("name", "\u00e9\"\t").field("count", 7).endObject();
+        byte[] bytes = writer.toByteArray();
+        JsonReader reader = new JsonReader(bytes, 0, bytes.length);
+        byte[][] fields = { "name".getBytes(StandardCharsets.US_ASCII), "count".getBytes(StandardCharsets.US_ASCII) };
+        reader.beginObject();
+        assertEquals(0, reader.nextField(fields));
+        assertEquals("\u00e9\"\t", reader.readString());
+        assertEquals(1, reader.nextField(fields));
+        assertEquals(7, reader.readLong());
+        assertEquals(JsonReader.END_OF_OBJECT, reader.nextField(fields));
+        reader.endDocument();
+    }
+
+}
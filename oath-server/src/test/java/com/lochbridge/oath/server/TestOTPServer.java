@@ -0,0 +1,173 @@
+package com.lochbridge.oath.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.lochbridge.oath.otp.HOTP;
+import com.lochbridge.oath.otp.TOTP;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURI;
+import com.lochbridge.oath.otp.keyprovisioning.OTPAuthURIBuilder;
+import com.lochbridge.oath.otp.service.Credential;
+import com.lochbridge.oath.otp.service.InMemoryCredentialStore;
+
+public class TestOTPServer {
+
+    private static final byte[] KEY = "12345678901234567890".getBytes(StandardCharsets.US_ASCII);
+
+    private InMemoryCredentialStore store;
+    private OTPServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        store = new InMemoryCredentialStore().put(Credential.hotp("alice", KEY, 6, 0));
+        server = OTPServerBuilder.fromStore(store).address(new InetSocketAddress("127.0.0.1", 0)).threads(4).stopDelay(0).build();
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static final class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private Response request(String method, String path, String body) throws IOException {
+        URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        try (InputStream is = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return new Response(status, new String(ByteStreams.toByteArray(is), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void validateShouldAcceptAValidHOTPOnce() throws IOException {
+        String code = HOTP.key(KEY).movingFactor(0).build().value();
+        Response response = request("POST", "/validate", "{\"userId\":\"alice\",\"code\":\"" + code + "\"}");
+        assertEquals(200, response.status);
+        assertEquals("{\"status\":\"VALID\",\"movingFactor\":1}", response.body);
+        response = request("POST", "/validate", "{\"userId\":\"alice\",\"code\":\"" + code + "\"}");
+        assertEquals("{\"status\":\"INVALID\",\"movingFactor\":1}", response.body);
+    }
+
+    @Test
+    public void validateShouldNotReplayAValidResultToAnotherCodeWithTheSameRequestId() throws IOException {
+        store.put(Credential.hotp("mallory", "another shared secret".getBytes(StandardCharsets.US_ASCII), 6, 0));
+        String code = HOTP.key(KEY).movingFactor(0).build().value();
+        Response response = request("POST", "/validate", "{\"requestId\":\"r1\",\"userId\":\"alice\",\"code\":\"" + code + "\"}");
+        assertEquals("{\"status\":\"VALID\",\"movingFactor\":1}", response.body);
+        // A retry of the very same request is answered with the original result.
+        response = request("POST", "/validate", "{\"requestId\":\"r1\",\"userId\":\"alice\",\"code\":\"" + code + "\"}");
+        assertEquals("{\"status\":\"VALID\",\"movingFactor\":1}", response.body);
+        String wrong = code.equals("000000") ? "111111" : "000000";
+        response = request("POST", "/validate", "{\"requestId\":\"r1\",\"userId\":\"alice\",\"code\":\"" + wrong + "\"}");
+        assertEquals("{\"status\":\"INVALID\",\"movingFactor\":1}", response.body);
+        response = request("POST", "/validate", "{\"requestId\":\"r1\",\"userId\":\"mallory\",\"code\":\"" + code + "\"}");
+        assertEquals("{\"status\":\"INVALID\",\"movingFactor\":0}", response.body);
+    }
+
+    @Test
+    public void validateShouldReportUnknownUsers() throws IOException {
+        Response response = request("POST", "/validate", "{\"userId\":\"carol\",\"code\":\"123456\"}");
+        assertEquals(200, response.status);
+        assertEquals("{\"status\":\"UNKNOWN_USER\",\"movingFactor\":0}", response.body);
+    }
+
+    @Test
+    public void validateShouldRejectMalformedRequests() throws IOException {
+        assertEquals(400, request("POST", "/validate", "{\"userId\":\"alice\"").status);
+        assertEquals(400, request("POST", "/validate", "{\"userId\":\"alice\"}").status);
+        assertEquals(405, request("GET", "/validate", null).status);
+        StringBuilder large = new StringBuilder("{\"userId\":\"");
+        for (int i = 0; i < JsonHandler.MAX_BODY_SIZE; i++) {
+            large.append('a');
+        }
+        assertEquals(413, request("POST", "/validate", large.append("\"}").toString()).status);
+    }
+
+    @Test
+    public void enrollShouldSaveACredentialMatchingTheReturnedURI() throws IOException {
+        Response response = request("POST", "/enroll", "{\"userId\":\"bob\",\"type\":\"totp\",\"label\":\"Acme:Bob\",\"issuer\":\"Acme\",\"digits\":8}");
+        assertEquals(200, response.status);
+        String prefix = "{\"userId\":\"bob\",\"uri\":\"";
+        assertTrue(response.body.startsWith(prefix));
+        OTPAuthURI uri = OTPAuthURIBuilder.fromUriString(response.body.substring(prefix.length(), response.body.length() - 2)).build();
+        assertEquals("Acme:Bob", uri.getLabel());
+        assertEquals(8, uri.getDigits());
+        assertEquals(30, uri.getTimeStep());
+
+        byte[] key = BaseEncoding.base32().decode(uri.getKey().getKey());
+        String code = TOTP.key(key).digits(8).build().value();
+        response = request("POST", "/validate", "{\"userId\":\"bob\",\"code\":\"" + code + "\"}");
+        assertEquals("{\"status\":\"VALID\",\"movingFactor\":0}", response.body);
+    }
+
+    @Test
+    public void enrollShouldRejectInvalidParameters() throws IOException {
+        assertEquals(400, request("POST", "/enroll", "{\"userId\":\"bob\",\"type\":\"xotp\"}").status);
+        assertEquals(400, request("POST", "/enroll", "{\"userId\":\"bob\",\"type\":\"hotp\",\"digits\":5}").status);
+        assertEquals(400, request("POST", "/enroll", "{\"userId\":\"bob\",\"type\":\"totp\",\"label\":\"Acme:Bob\",\"issuer\":\"Other\"}").status);
+        // 2^32 + 6 digits must not be truncated to 6.
+        assertEquals(400, request("POST", "/enroll", "{\"userId\":\"bob\",\"type\":\"totp\",\"digits\":4294967302}").status);
+        assertNull(store.load("bob"));
+    }
+
+    @Test
+    public void enrollShouldRefuseToReplaceAnExistingCredential() throws IOException {
+        Response response = request("POST", "/enroll", "{\"userId\":\"alice\",\"type\":\"hotp\"}");
+        assertEquals(409, response.status);
+        assertEquals(0, store.load("alice").getMovingFactor());
+        assertArrayEquals(KEY, store.load("alice").getKey());
+    }
+
+    @Test
+    public void enrollShouldReplaceAnExistingCredentialWhenAllowed() throws IOException {
+        try (OTPServer other = OTPServerBuilder.fromStore(store).port(0).reenrollmentAllowed(true).stopDelay(0).build()) {
+            other.start();
+            assertTrue(other.getAddress().getAddress().isLoopbackAddress());
+            URL url = new URL("http", "127.0.0.1", other.getAddress().getPort(), "/enroll");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write("{\"userId\":\"alice\",\"type\":\"hotp\"}".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals(200, connection.getResponseCode());
+            assertFalse(Arrays.equals(KEY, store.load("alice").getKey()));
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.lochbridge.oath.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.io.ByteStreams;
+import com.lochbridge.oath.otp.HmacShaAlgorithm;
+import com.lochbridge.oath.otp.TOTP;
+import com.lochbridge.oath.otp.service.Credential;
+import com.lochbridge.oath.otp.service.InMemoryCredentialStore;
+
+/**
+ * A local load test of the {@code /validate} endpoint: starts an {@link OTPServer}
+ * backed by an in-memory store of TOTP users, hammers it with keep-alive client
+ * connections for a fixed duration, and prints the throughput and latency
+ * percentiles.
+ * <p>
+ * Usage (from the {@code oath-server} directory, after {@code mvn test-compile}):
+ * <pre>
+ * mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.lochbridge.oath.server.ValidationLoadGenerator -Dexec.args="[clients] [seconds]"
+ * </pre>
+ * The generator owns its JVM, so it enables {@code TCP_NODELAY} on the server's
+ * connections (see {@link OTPServerBuilder}).
+ */
+public final class ValidationLoadGenerator {
+
+    private static final int USERS = 10000;
+    private static final long TIME_STEP = TimeUnit.SECONDS.toMillis(30);
+
+    private ValidationLoadGenerator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        final long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        InMemoryCredentialStore store = new InMemoryCredentialStore();
+        final String[] codes = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            byte[] key = ("12345678901234567890" + i).getBytes(StandardCharsets.US_ASCII);
+            store.put(Credential.totp("user" + i, key, HmacShaAlgorithm.HMAC_SHA_1, 6, TIME_STEP));
+            codes[i] = TOTP.key(key).timeStep(TIME_STEP).build().value();
+        }
+        try (final OTPServer server = OTPServerBuilder.fromStore(store).address(new InetSocketAddress("127.0.0.1", 0)).build()) {
+            server.start();
+            final URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), "/validate");
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+            final AtomicLong requests = new AtomicLong();
+            final long[][] latencies = new long[clients][];
+            final CountDownLatch done = new CountDownLatch(clients);
+            for (int c = 0; c < clients; c++) {
+                final int client = c;
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        long[] samples = new long[1 << 20];
+                        int n = 0;
+                        try {
+                            for (int i = client; System.nanoTime() < deadline; i = (i + clients) % USERS) {
+                                byte[] body = ("{\"userId\":\"user" + i + "\",\"code\":\"" + codes[i] + "\"}").getBytes(StandardCharsets.UTF_8);
+                                long start = System.nanoTime();
+                                post(url, body);
+                                if (n < samples.length) {
+                                    samples[n++] = System.nanoTime() - start;
+                                }
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        } finally {
+                            latencies[client] = Arrays.copyOf(samples, n);
+                            requests.addAndGet(n);
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            done.await();
+            long[] all = new long[(int) requests.get()];
+            int offset = 0;
+            for (long[] samples : latencies) {
+                System.arraycopy(samples, 0, all, offset, samples.length);
+                offset += samples.length;
+            }
+            Arrays.sort(all);
+            System.out.printf("clients=%d duration=%ds requests=%d throughput=%.0f req/s p50=%.3fms p99=%.3fms%n", clients, seconds, all.length,
+                    all.length / (double) seconds, all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6);
+        }
+    }
+
+    private static void post(URL url, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+        }
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("Unexpected response code " + connection.getResponseCode());
+        }
+        try (InputStream is = connection.getInputStream()) {
+            ByteStreams.toByteArray(is);
+        }
+    }
+
+}